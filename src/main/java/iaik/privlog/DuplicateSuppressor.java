@@ -0,0 +1,298 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.Duration;
+
+/**
+ * Collapses repeated privacy aware events within a time window into the first
+ * event plus a summary stating how often it has been repeated. Events are
+ * fingerprinted by their format string, level, logger, throwable and parameter
+ * values. For parameters with a deterministic sanitizer (see
+ * {@link iaik.privlog.sanitizers.ParamSanitizerBase#isDeterministic()}) the
+ * sanitized value is used, otherwise the raw parameter as rendered by
+ * {@link ParameterRenderer} (i.e., arrays by their elements). Hence, the
+ * fingerprint never requires to, e.g., encrypt a parameter and repeated events
+ * are discarded before they are sanitized at all.
+ * <p>
+ * Only a 64 bit hash of the values is kept, in a bounded, direct mapped table
+ * which is updated lock-free. Colliding fingerprints evict each other, which
+ * ends the window of the evicted one. Like the summaries of expired windows
+ * the summary of an evicted fingerprint is emitted by the next event passing
+ * the suppressor.
+ */
+public class DuplicateSuppressor extends ContextAwareBase implements LifeCycle {
+
+	public static final String SUMMARY_FORMAT = "Last message repeated {} times: [{}]";
+	public static final long DEFAULT_WINDOW = 10;
+	public static final int DEFAULT_TABLE_SIZE = 1024;
+
+	protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	protected static final long FNV_PRIME = 0x100000001b3L;
+
+	protected static final AtomicLongFieldUpdater<DuplicateSuppressor> NEXT_SWEEP = AtomicLongFieldUpdater
+	    .newUpdater(DuplicateSuppressor.class, "nextSweep");
+
+	protected static final class Entry {
+		static final AtomicLongFieldUpdater<Entry> REPEATS = AtomicLongFieldUpdater.newUpdater(Entry.class, "repeats");
+
+		final long fingerprint;
+		final String format;
+		final Level level;
+		final Logger logger;
+		final ParamSanitizerFactories sanitizers;
+		final long windowEnd;
+
+		/**
+		 * The number of suppressed repetitions, or <code>-1</code> once the
+		 * entry has been removed from the table.
+		 */
+		volatile long repeats;
+
+		Entry(long fingerprint,
+		      String format,
+		      Level level,
+		      Logger logger,
+		      ParamSanitizerFactories sanitizers,
+		      long windowEnd)
+		{
+			this.fingerprint = fingerprint;
+			this.format = format;
+			this.level = level;
+			this.logger = logger;
+			this.sanitizers = sanitizers;
+			this.windowEnd = windowEnd;
+		}
+
+		boolean matches(long fingerprint, String format, Level level, Logger logger) {
+			return this.fingerprint == fingerprint && this.level == level && this.logger == logger
+			    && (this.format == format || this.format.equals(format));
+		}
+
+		/**
+		 * @return <code>false</code> if the entry has been removed in the
+		 *         meantime.
+		 */
+		boolean repeat() {
+			for (;;) {
+				long current = repeats;
+				if (current < 0) {
+					return false;
+				}
+				if (REPEATS.compareAndSet(this, current, current + 1)) {
+					return true;
+				}
+			}
+		}
+	}
+
+	protected Duration window = Duration.buildBySeconds(DEFAULT_WINDOW);
+	protected int tableSize = DEFAULT_TABLE_SIZE;
+
+	protected AtomicReferenceArray<Entry> table;
+	protected long windowNanos;
+	protected volatile long nextSweep;
+	protected boolean started;
+
+	public Duration getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window
+	 *        The time span, starting at the first occurrence of an event, in
+	 *        which its repetitions are suppressed.
+	 */
+	public void setWindow(Duration window) {
+		this.window = window;
+	}
+
+	public int getTableSize() {
+		return tableSize;
+	}
+
+	/**
+	 * @param tableSize
+	 *        The maximum number of fingerprints kept at once, rounded up to a
+	 *        power of two.
+	 */
+	public void setTableSize(int tableSize) {
+		this.tableSize = tableSize;
+	}
+
+	/**
+	 * Checks whether the given event repeats an event seen within the window.
+	 * Summaries of ended windows are added to <code>summaries</code>, they
+	 * should be appended before the given event.
+	 *
+	 * @param logger
+	 *        The logger of the event.
+	 * @param format
+	 *        The original format string of the event, i.e., including the tag
+	 *        names.
+	 * @param event
+	 *        The event to check.
+	 * @param summaries
+	 *        Receives the summaries of ended windows with repetitions.
+	 * @return <code>true</code> if the event has to be discarded.
+	 */
+	public boolean isRepeated(Logger logger,
+	                          String format,
+	                          PrivacyAwareLoggingEvent event,
+	                          Collection<ILoggingEvent> summaries)
+	{
+		long now = System.nanoTime();
+		if (now - nextSweep >= 0) {
+			sweep(now, summaries);
+		}
+
+		Level level = event.getLevel();
+		long fingerprint = fingerprint(format, level, logger, event);
+		int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & (table.length() - 1);
+		for (;;) {
+			Entry entry = table.get(slot);
+			if (entry != null && now - entry.windowEnd < 0 && entry.matches(fingerprint, format, level, logger)) {
+				if (entry.repeat()) {
+					return true;
+				}
+				continue;
+			}
+
+			Entry newEntry = new Entry(fingerprint, format, level, logger, event.getSanitizers(), now + windowNanos);
+			if (table.compareAndSet(slot, entry, newEntry)) {
+				if (entry != null) {
+					close(entry, summaries);
+				}
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Removes all fingerprints, e.g., before the appender is stopped.
+	 *
+	 * @param summaries
+	 *        Receives the summaries of the windows with repetitions.
+	 */
+	public void drain(Collection<ILoggingEvent> summaries) {
+		if (table == null) {
+			return;
+		}
+		for (int i = 0; i < table.length(); ++i) {
+			Entry entry = table.getAndSet(i, null);
+			if (entry != null) {
+				close(entry, summaries);
+			}
+		}
+	}
+
+	/**
+	 * Removes the fingerprints whose window has ended.
+	 */
+	protected void sweep(long now, Collection<ILoggingEvent> summaries) {
+		long due = nextSweep;
+		if (now - due < 0 || !NEXT_SWEEP.compareAndSet(this, due, now + windowNanos)) {
+			return;
+		}
+
+		for (int i = 0; i < table.length(); ++i) {
+			Entry entry = table.get(i);
+			if (entry != null && now - entry.windowEnd >= 0 && table.compareAndSet(i, entry, null)) {
+				close(entry, summaries);
+			}
+		}
+	}
+
+	protected void close(Entry entry, Collection<ILoggingEvent> summaries) {
+		long repeats = Entry.REPEATS.getAndSet(entry, -1);
+		if (repeats > 0) {
+			summaries.add(PrivacyAwareLoggingEvent.build(entry.sanitizers, PrivacyAwareAppender.FQCN, entry.logger,
+			    entry.level, SUMMARY_FORMAT, null, new Object[] { repeats, entry.format }));
+		}
+	}
+
+	protected static long fingerprint(String format, Level level, Logger logger, PrivacyAwareLoggingEvent event) {
+		long h = hash(FNV_OFFSET, format);
+		h = (h ^ level.levelInt) * FNV_PRIME;
+		h = hash(h, logger.getName());
+		IThrowableProxy throwable = event.getThrowableProxy();
+		if (throwable != null) {
+			h = hash(h, throwable.getClassName());
+			h = hash(h, throwable.getMessage());
+		}
+		for (int i = 0; i < event.parameters.size(); ++i) {
+			ParameterRenderer.Buffer fingerprint = event.parameters.renderFingerprint(i);
+			try {
+				h = hash(h, fingerprint.getText());
+			} finally {
+				fingerprint.release();
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * FNV-1a over the characters of the given string, terminated by a
+	 * separator to distinguish, e.g., <code>("ab", "c")</code> from
+	 * <code>("a", "bc")</code>.
+	 */
+	protected static long hash(long h, CharSequence value) {
+		if (value != null) {
+			for (int i = 0; i < value.length(); ++i) {
+				h = (h ^ value.charAt(i)) * FNV_PRIME;
+			}
+		}
+		return (h ^ 0xffff) * FNV_PRIME;
+	}
+
+	@Override
+	public void start() {
+		if (window == null || window.getMilliseconds() <= 0) {
+			addError("The window of the " + getClass().getName() + " has to be positive");
+			return;
+		}
+		if (tableSize < 1) {
+			addError("The table size of the " + getClass().getName() + " has to be positive");
+			return;
+		}
+
+		table = new AtomicReferenceArray<Entry>(Integer.highestOneBit(Math.max(1, 2 * tableSize - 1)));
+		windowNanos = TimeUnit.MILLISECONDS.toNanos(window.getMilliseconds());
+		nextSweep = System.nanoTime() + windowNanos;
+		started = true;
+	}
+
+	@Override
+	public void stop() {
+		started = false;
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.io.IOException;
+
+/**
+ * May be implemented by objects passed as log parameters to render themselves
+ * without creating an intermediate String (see {@link ParameterRenderer}).
+ * The appended characters have to be the same as the ones returned by
+ * {@link Object#toString()}, which is still used by code unaware of this
+ * interface.
+ */
+public interface IRenderable {
+
+	/**
+	 * Appends the string representation of this object to <code>out</code>.
+	 */
+	void renderTo(Appendable out)
+	    throws IOException;
+
+}
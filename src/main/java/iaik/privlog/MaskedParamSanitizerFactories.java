@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import iaik.privlog.sanitizers.IParamSanitizerFactory;
+
+/**
+ * A read-only view of sanitizer factories that replaces each configured
+ * factory by the same masking factory (see {@link RateLimiter}). Tags without
+ * a configured factory remain unconfigured.
+ */
+final class MaskedParamSanitizerFactories extends ParamSanitizerFactories {
+
+	final ParamSanitizerFactories delegate;
+	final IParamSanitizerFactory mask;
+
+	MaskedParamSanitizerFactories(ParamSanitizerFactories delegate, IParamSanitizerFactory mask) {
+		this.delegate = delegate;
+		this.mask = mask;
+	}
+
+	@Override
+	public IParamSanitizerFactory get(Object key) {
+		return delegate.get(key) != null ? mask : null;
+	}
+
+	@Override
+	public IParamSanitizerFactory get(int tagId) {
+		return delegate.get(tagId) != null ? mask : null;
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	@Override
+	public IParamSanitizerFactory put(String tagName, IParamSanitizerFactory factory) {
+		throw new UnsupportedOperationException("Masked sanitizer factories are read-only");
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends IParamSanitizerFactory> factories) {
+		throw new UnsupportedOperationException("Masked sanitizer factories are read-only");
+	}
+
+	@Override
+	public IParamSanitizerFactory remove(Object key) {
+		throw new UnsupportedOperationException("Masked sanitizer factories are read-only");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("Masked sanitizer factories are read-only");
+	}
+
+	@Override
+	public Set<Map.Entry<String, IParamSanitizerFactory>> entrySet() {
+		return new AbstractSet<Map.Entry<String, IParamSanitizerFactory>>() {
+			@Override
+			public Iterator<Map.Entry<String, IParamSanitizerFactory>> iterator() {
+				final Iterator<Map.Entry<String, IParamSanitizerFactory>> entries = delegate.entrySet().iterator();
+				return new Iterator<Map.Entry<String, IParamSanitizerFactory>>() {
+
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public Map.Entry<String, IParamSanitizerFactory> next() {
+						return new SimpleImmutableEntry<String, IParamSanitizerFactory>(entries.next().getKey(), mask);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException("Masked sanitizer factories are read-only");
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return delegate.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * A message pattern (with <code>{}</code> place holders) split into literal
+ * segments and slots, such that it can be rendered repeatedly without scanning
+ * the pattern again. The rendering produces exactly the same result as
+ * {@link MessageFormatter#arrayFormat(String, Object[])}, including the
+ * handling of escaped place holders (<code>\{}</code> and <code>\\{}</code>)
+ * and of surplus or missing arguments.
+ */
+public final class MessageSegments {
+
+	private static final String DELIM = "{}";
+
+	private final String pattern;
+
+	/**
+	 * The literal preceding each slot (with escapes resolved).
+	 */
+	private final String[] literals;
+
+	/**
+	 * The position in the pattern following each slot.
+	 */
+	private final int[] rawEnds;
+
+	/**
+	 * The remainder after the last slot, with escapes resolved. It is used if
+	 * there are more arguments than slots, otherwise {@link MessageFormatter}
+	 * copies the remainder as it is.
+	 */
+	private final String tail;
+
+	private MessageSegments(String pattern, String[] literals, int[] rawEnds, String tail) {
+		this.pattern = pattern;
+		this.literals = literals;
+		this.rawEnds = rawEnds;
+		this.tail = tail;
+	}
+
+	/**
+	 * Splits the given pattern the same way as
+	 * {@link MessageFormatter#arrayFormat(String, Object[])} does while
+	 * formatting.
+	 */
+	public static MessageSegments parse(String pattern) {
+		List<String> literals = new ArrayList<String>();
+		List<Integer> rawEnds = new ArrayList<Integer>();
+		StringBuilder literal = new StringBuilder();
+
+		int i = 0;
+		int j;
+		while ((j = pattern.indexOf(DELIM, i)) >= 0) {
+			if (j > 0 && pattern.charAt(j - 1) == '\\') {
+				if (j < 2 || pattern.charAt(j - 2) != '\\') {
+					// Escaped delimiter, i.e., not a slot
+					literal.append(pattern, i, j - 1).append('{');
+					i = j + 1;
+					continue;
+				}
+				// The escape character is itself escaped
+				literal.append(pattern, i, j - 1);
+			} else {
+				literal.append(pattern, i, j);
+			}
+			i = j + 2;
+			literals.add(literal.toString());
+			rawEnds.add(i);
+			literal.setLength(0);
+		}
+		literal.append(pattern, i, pattern.length());
+
+		int[] ends = new int[rawEnds.size()];
+		for (int k = 0; k < ends.length; ++k) {
+			ends[k] = rawEnds.get(k);
+		}
+		return new MessageSegments(pattern, literals.toArray(new String[literals.size()]), ends, literal.toString());
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	public int getSlotCount() {
+		return literals.length;
+	}
+
+	/**
+	 * @return The literal preceding the given slot.
+	 */
+	public String getLiteral(int slot) {
+		return literals[slot];
+	}
+
+	/**
+	 * @param argCount
+	 *        The number of arguments.
+	 * @return The remainder of the message following the last filled slot.
+	 */
+	public String getTail(int argCount) {
+		if (argCount > literals.length) {
+			return tail;
+		}
+		return argCount == 0 ? pattern : pattern.substring(rawEnds[argCount - 1]);
+	}
+
+	/**
+	 * Like {@link MessageFormatter#arrayFormat(String, Object[])}.
+	 */
+	public String format(Object[] args) {
+		if (args == null || args.length == 0) {
+			return pattern;
+		}
+		StringBuilder sb = new StringBuilder(pattern.length() + 16 * args.length);
+		format(args, sb);
+		return sb.toString();
+	}
+
+	public void format(Object[] args, StringBuilder out) {
+		int argCount = args == null ? 0 : args.length;
+		int filled = Math.min(argCount, literals.length);
+		for (int i = 0; i < filled; ++i) {
+			out.append(literals[i]);
+			appendArgument(args[i], out);
+		}
+		out.append(getTail(argCount));
+	}
+
+	/**
+	 * Renders the pattern with two sets of arguments in a single pass.
+	 *
+	 * @param args1
+	 *        The arguments for the first output.
+	 * @param args2
+	 *        The arguments for the second output, of the same length as
+	 *        <code>args1</code>.
+	 */
+	public void format(Object[] args1, Object[] args2, StringBuilder out1, StringBuilder out2) {
+		int argCount = args1 == null ? 0 : args1.length;
+		int filled = Math.min(argCount, literals.length);
+		for (int i = 0; i < filled; ++i) {
+			out1.append(literals[i]);
+			out2.append(literals[i]);
+			appendArgument(args1[i], out1);
+			appendArgument(args2[i], out2);
+		}
+		String remainder = getTail(argCount);
+		out1.append(remainder);
+		out2.append(remainder);
+	}
+
+	/**
+	 * Appends the given argument like {@link MessageFormatter} does.
+	 */
+	public static void appendArgument(Object arg, StringBuilder out) {
+		ParameterRenderer.render(arg, out);
+	}
+
+	/**
+	 * @return The string representation of the given argument as used by
+	 *         {@link MessageFormatter}.
+	 */
+	public static String toString(Object arg) {
+		return ParameterRenderer.toString(arg);
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled form of a format string: the positions of all (possibly
+ * escaped) place holders and the interned ids of their tags. Templates are
+ * immutable and kept in a bounded, direct mapped cache, so that a format
+ * string is usually parsed only once.
+ */
+public final class MessageTemplate {
+
+	protected static final Pattern TAG_PATTERN = Pattern.compile("(\\\\*)\\{([^{}]*)\\}");
+
+	/**
+	 * Number of cache slots, must be a power of two.
+	 */
+	static final int CACHE_SIZE = 1024;
+
+	private static final AtomicReferenceArray<MessageTemplate> cache = new AtomicReferenceArray<MessageTemplate>(
+	    CACHE_SIZE);
+
+	/**
+	 * @return The compiled template of the given format, taken from the cache
+	 *         if possible.
+	 */
+	public static MessageTemplate compile(String format) {
+		int h = format.hashCode();
+		int slot = (h ^ (h >>> 16)) & (CACHE_SIZE - 1);
+
+		MessageTemplate template = cache.get(slot);
+		if (template != null && (template.format == format || template.format.equals(format))) {
+			return template;
+		}
+
+		template = new MessageTemplate(format);
+		cache.set(slot, template);
+		return template;
+	}
+
+	/**
+	 * @return <code>true</code> if the given format contains at least one
+	 *         (possibly escaped) tag, i.e., a place holder other than
+	 *         <code>{}</code>. Unlike {@link #compile(String)} this neither
+	 *         allocates nor populates the cache if the format has not been
+	 *         compiled before, so it is safe for dynamically built formats.
+	 */
+	public static boolean containsTags(String format) {
+		int h = format.hashCode();
+		MessageTemplate template = cache.get((h ^ (h >>> 16)) & (CACHE_SIZE - 1));
+		if (template != null && (template.format == format || template.format.equals(format))) {
+			return template.hasTags;
+		}
+
+		int open = -1;
+		for (int i = 0; i < format.length(); ++i) {
+			char c = format.charAt(i);
+			if (c == '{') {
+				open = i;
+			} else if (c == '}') {
+				if (open >= 0 && i > open + 1) {
+					return true;
+				}
+				open = -1;
+			}
+		}
+		return false;
+	}
+
+	static final class FormatCache {
+		final int processed;
+		final String format;
+		final MessageSegments segments;
+
+		FormatCache(int processed, String format) {
+			this.processed = processed;
+			this.format = format;
+			this.segments = MessageSegments.parse(format);
+		}
+	}
+
+	final String format;
+	final int size;
+	final int[] numBackslash;
+	final String[] tagNames;
+	final int[] tagIds;
+	final int[] starts;
+	final int[] ends;
+	final boolean hasTags;
+
+	/**
+	 * The rewritten format of the last event for which all tags were resolved.
+	 */
+	volatile FormatCache resolvedFormat;
+
+	private MessageTemplate(String format) {
+		this.format = format;
+
+		List<int[]> positions = new ArrayList<int[]>();
+		List<String> names = new ArrayList<String>();
+		Matcher matcher = TAG_PATTERN.matcher(format);
+		while (matcher.find()) {
+			int backslashes = matcher.group(1).length();
+			positions.add(new int[] { backslashes, matcher.start(2) - 1 - (backslashes / 2), matcher.end(2) + 1 });
+			names.add(matcher.group(2));
+		}
+
+		size = positions.size();
+		numBackslash = new int[size];
+		tagNames = new String[size];
+		tagIds = new int[size];
+		starts = new int[size];
+		ends = new int[size];
+		boolean tags = false;
+		for (int i = 0; i < size; ++i) {
+			int[] position = positions.get(i);
+			numBackslash[i] = position[0];
+			starts[i] = position[1];
+			ends[i] = position[2];
+			tagNames[i] = names.get(i);
+			tagIds[i] = tagNames[i].length() == 0 ? TagIds.NONE : resolve(tagNames[i]);
+			tags |= tagIds[i] != TagIds.NONE;
+		}
+		hasTags = tags;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return <code>true</code> if there is at least one (possibly escaped)
+	 *         place holder with a tag name.
+	 */
+	public boolean hasTags() {
+		return hasTags;
+	}
+
+	/**
+	 * @return The number of place holders, including escaped ones.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEscaped(int index) {
+		return numBackslash[index] % 2 != 0;
+	}
+
+	public int getNumBackslash(int index) {
+		return numBackslash[index];
+	}
+
+	public String getTagName(int index) {
+		return tagNames[index];
+	}
+
+	/**
+	 * @return The tag id of the given place holder, {@link TagIds#NONE} for
+	 *         <code>{}</code> or {@link TagIds#UNRESOLVED} if no sanitizer
+	 *         factory has been configured for the tag yet.
+	 */
+	public int getTagId(int index) {
+		int tagId = tagIds[index];
+		if (tagId == TagIds.UNRESOLVED) {
+			tagId = resolve(tagNames[index]);
+			if (tagId != TagIds.UNRESOLVED) {
+				// Ids never change, a racing write stores the same value
+				tagIds[index] = tagId;
+			}
+		}
+		return tagId;
+	}
+
+	private static int resolve(String tagName) {
+		int tagId = TagIds.lookup(tagName);
+		return tagId == TagIds.NONE ? TagIds.UNRESOLVED : tagId;
+	}
+
+	/**
+	 * @return The start of the place holder, i.e., the position of the opening
+	 *         brace less half of the preceding backslashes.
+	 */
+	public int getStart(int index) {
+		return starts[index];
+	}
+
+	/**
+	 * @return The position after the closing brace.
+	 */
+	public int getEnd(int index) {
+		return ends[index];
+	}
+
+	FormatCache getResolvedFormat(int processed) {
+		FormatCache fc = resolvedFormat;
+		return fc != null && fc.processed == processed ? fc : null;
+	}
+
+	FormatCache setResolvedFormat(int processed, String newFormat) {
+		FormatCache fc = new FormatCache(processed, newFormat);
+		resolvedFormat = fc;
+		return fc;
+	}
+}
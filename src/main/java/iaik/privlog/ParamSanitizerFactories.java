@@ -15,12 +15,248 @@
  */
 package iaik.privlog;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import iaik.privlog.sanitizers.IParamSanitizerFactory;
 
-public class ParamSanitizerFactories extends HashMap<String, IParamSanitizerFactory> {
+/**
+ * Maps tag names to their parameter sanitizer factories.
+ * <p>
+ * The map is copy-on-write: every modification builds a new, immutable
+ * snapshot which is published atomically. Logging threads therefore never
+ * block on {@link #get(Object)}, which costs a single volatile read plus a
+ * probe of a small open addressing table, while factories can be added,
+ * replaced or removed at runtime (see {@link SanitizerRegistry}). Iterators
+ * operate on the snapshot taken at their creation.
+ * <p>
+ * Tag names are interned (see {@link TagIds}) when a factory is put, so that
+ * {@link #get(int)} is a plain array index.
+ */
+public class ParamSanitizerFactories extends AbstractMap<String, IParamSanitizerFactory> {
+
+	protected static final Snapshot EMPTY = new Snapshot(new String[0], new IParamSanitizerFactory[0]);
+
+	protected volatile Snapshot snapshot = EMPTY;
+
+	public ParamSanitizerFactories() {
+	}
+
+	public ParamSanitizerFactories(Map<String, ? extends IParamSanitizerFactory> factories) {
+		putAll(factories);
+	}
+
+	/**
+	 * An immutable table of tag names and factories. The keys are stored at
+	 * the slot given by their hash code (linear probing on collisions) in a
+	 * table of at most 50% load. Additionally, the values are indexed by their
+	 * tag id.
+	 */
+	protected static final class Snapshot {
+		final String[] keys;
+		final IParamSanitizerFactory[] values;
+		final String[] table;
+		final IParamSanitizerFactory[] tableValues;
+		final IParamSanitizerFactory[] byId;
+		final int mask;
+
+		Snapshot(String[] keys, IParamSanitizerFactory[] values) {
+			this.keys = keys;
+			this.values = values;
+
+			int capacity = Integer.highestOneBit(Math.max(keys.length, 1)) << 2;
+			mask = capacity - 1;
+			table = new String[capacity];
+			tableValues = new IParamSanitizerFactory[capacity];
+			int[] ids = new int[keys.length];
+			int maxId = -1;
+			for (int i = 0; i < keys.length; ++i) {
+				ids[i] = TagIds.intern(keys[i]);
+				maxId = Math.max(maxId, ids[i]);
+
+				int slot = hash(keys[i]) & mask;
+				while (table[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = keys[i];
+				tableValues[slot] = values[i];
+			}
+			byId = new IParamSanitizerFactory[maxId + 1];
+			for (int i = 0; i < keys.length; ++i) {
+				byId[ids[i]] = values[i];
+			}
+		}
+
+		static int hash(String key) {
+			int h = key.hashCode();
+			return h ^ (h >>> 16);
+		}
+
+		int indexOf(Object key) {
+			for (int i = 0; i < keys.length; ++i) {
+				if (keys[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		IParamSanitizerFactory get(String key) {
+			int slot = hash(key) & mask;
+			String k;
+			while ((k = table[slot]) != null) {
+				if (k == key || k.equals(key)) {
+					return tableValues[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public IParamSanitizerFactory get(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		return snapshot.get((String) key);
+	}
+
+	/**
+	 * @param tagId
+	 *        The interned tag name (see {@link TagIds}).
+	 * @return The factory configured for the tag or <code>null</code>.
+	 */
+	public IParamSanitizerFactory get(int tagId) {
+		IParamSanitizerFactory[] byId = snapshot.byId;
+		return tagId >= 0 && tagId < byId.length ? byId[tagId] : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return snapshot.keys.length;
+	}
+
+	@Override
+	public synchronized IParamSanitizerFactory put(String tagName, IParamSanitizerFactory factory) {
+		if (tagName == null || factory == null) {
+			throw new NullPointerException("Tag name and sanitizer factory must not be null");
+		}
+
+		Snapshot current = snapshot;
+		int index = current.indexOf(tagName);
+		String[] keys;
+		IParamSanitizerFactory[] values;
+		if (index < 0) {
+			int size = current.keys.length;
+			keys = new String[size + 1];
+			values = new IParamSanitizerFactory[size + 1];
+			System.arraycopy(current.keys, 0, keys, 0, size);
+			System.arraycopy(current.values, 0, values, 0, size);
+			keys[size] = tagName;
+			values[size] = factory;
+		} else {
+			keys = current.keys;
+			values = current.values.clone();
+			values[index] = factory;
+		}
+		snapshot = new Snapshot(keys, values);
+
+		return index < 0 ? null : current.values[index];
+	}
+
+	@Override
+	public synchronized void putAll(Map<? extends String, ? extends IParamSanitizerFactory> factories) {
+		ParamSanitizerFactories copy = new ParamSanitizerFactories();
+		copy.snapshot = snapshot;
+		for (Map.Entry<? extends String, ? extends IParamSanitizerFactory> entry : factories.entrySet()) {
+			copy.put(entry.getKey(), entry.getValue());
+		}
+		snapshot = copy.snapshot;
+	}
+
+	/**
+	 * Replaces the factory of an already known tag.
+	 *
+	 * @return The previous factory or <code>null</code> if the tag is unknown
+	 *         (in this case nothing is changed).
+	 */
+	public synchronized IParamSanitizerFactory replace(String tagName, IParamSanitizerFactory factory) {
+		return containsKey(tagName) ? put(tagName, factory) : null;
+	}
+
+	@Override
+	public synchronized IParamSanitizerFactory remove(Object key) {
+		Snapshot current = snapshot;
+		int index = current.indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+
+		int size = current.keys.length;
+		String[] keys = new String[size - 1];
+		IParamSanitizerFactory[] values = new IParamSanitizerFactory[size - 1];
+		System.arraycopy(current.keys, 0, keys, 0, index);
+		System.arraycopy(current.values, 0, values, 0, index);
+		System.arraycopy(current.keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(current.values, index + 1, values, index, size - index - 1);
+		snapshot = new Snapshot(keys, values);
+
+		return current.values[index];
+	}
+
+	@Override
+	public synchronized void clear() {
+		snapshot = EMPTY;
+	}
+
+	@Override
+	public Set<Map.Entry<String, IParamSanitizerFactory>> entrySet() {
+		return new AbstractSet<Map.Entry<String, IParamSanitizerFactory>>() {
+			@Override
+			public Iterator<Map.Entry<String, IParamSanitizerFactory>> iterator() {
+				final Snapshot s = snapshot;
+				return new Iterator<Map.Entry<String, IParamSanitizerFactory>>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < s.keys.length;
+					}
+
+					@Override
+					public Map.Entry<String, IParamSanitizerFactory> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						int i = next++;
+						return new SimpleImmutableEntry<String, IParamSanitizerFactory>(s.keys[i], s.values[i]);
+					}
+
+					@Override
+					public void remove() {
+						if (next == 0) {
+							throw new IllegalStateException();
+						}
+						ParamSanitizerFactories.this.remove(s.keys[next - 1]);
+					}
+				};
+			}
 
-	private static final long serialVersionUID = -6989594257153585679L;
+			@Override
+			public int size() {
+				return ParamSanitizerFactories.this.size();
+			}
+		};
+	}
 
 }
@@ -15,36 +15,273 @@
  */
 package iaik.privlog;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 
+import iaik.privlog.PrivacyAwareLoggingEvent.NonCriticalTag;
+import iaik.privlog.concurrent.VirtualThreads;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
 import iaik.privlog.sanitizers.IParamSanitizer;
+import iaik.privlog.sanitizers.ParamSanitizerBase;
 
-class ParamSanitizerList extends ArrayList<IParamSanitizer> {
-	private static final long serialVersionUID = 3995018917636444246L;
+/**
+ * The parameters of a privacy aware event, backed by plain arrays. Non
+ * critical parameters (i.e., <code>{}</code>) are stored as raw values and only
+ * materialized into {@link NonCriticalTag}s if accessed via {@link #get(int)}.
+ * <p>
+ * A list obtained by {@link #acquire()} is confined to the current thread and
+ * reused for the next event after {@link #release()}. Events referencing such
+ * a list must not escape the logging call unless
+ * {@link #detach()} is called first (which
+ * {@link PrivacyAwareLoggingEvent#prepareForDeferredProcessing()} does).
+ * Virtual threads, which are usually not reused, always get a new list.
+ */
+class ParamSanitizerList extends AbstractList<IParamSanitizer> {
+
+	private static final int DEFAULT_CAPACITY = 4;
+
+	private static final ThreadLocal<ParamSanitizerList> reusable = new ThreadLocal<ParamSanitizerList>();
+
+	private IParamSanitizer[] sanitizers;
+	private Object[] values;
+	private int[] positions;
+	private int size;
+
+	private final boolean pooled;
+	private boolean inUse;
+
+	private Object[] criticalValues;
+	private Object[] sanitizedValues;
+	private String loggerName;
+
+	ParamSanitizerList() {
+		this(DEFAULT_CAPACITY, false);
+	}
+
+	private ParamSanitizerList(int capacity, boolean pooled) {
+		this.pooled = pooled;
+		sanitizers = new IParamSanitizer[capacity];
+		values = new Object[capacity];
+		positions = new int[3 * capacity];
+	}
+
+	/**
+	 * @return The reusable list of the current thread, or a new list if the
+	 *         former is in use (e.g., when logging while logging) or if the
+	 *         current thread is virtual.
+	 */
+	static ParamSanitizerList acquire() {
+		if (VirtualThreads.isCurrentThreadVirtual()) {
+			return new ParamSanitizerList();
+		}
+
+		ParamSanitizerList list = reusable.get();
+		if (list == null) {
+			list = new ParamSanitizerList(DEFAULT_CAPACITY, true);
+			reusable.set(list);
+		}
+		if (list.inUse) {
+			return new ParamSanitizerList();
+		}
+
+		list.inUse = true;
+		return list;
+	}
+
+	/**
+	 * Makes a list obtained by {@link #acquire()} available for the next event.
+	 */
+	void release() {
+		if (pooled) {
+			clear();
+			inUse = false;
+		}
+	}
 
-	private String[] criticalValues;
-	private String[] sanitizedValues;
+	boolean isPooled() {
+		return pooled;
+	}
+
+	/**
+	 * @return A list owned by the caller with the same content, i.e., this
+	 *         instance if it is not pooled.
+	 */
+	ParamSanitizerList detach() {
+		if (!pooled) {
+			return this;
+		}
+
+		ParamSanitizerList copy = new ParamSanitizerList(Math.max(size, 1), false);
+		System.arraycopy(sanitizers, 0, copy.sanitizers, 0, size);
+		System.arraycopy(values, 0, copy.values, 0, size);
+		System.arraycopy(positions, 0, copy.positions, 0, 3 * size);
+		copy.size = size;
+		copy.criticalValues = criticalValues;
+		copy.sanitizedValues = sanitizedValues;
+		copy.loggerName = loggerName;
+		return copy;
+	}
+
+	void setLoggerName(String loggerName) {
+		this.loggerName = loggerName;
+	}
+
+	private void ensureCapacity() {
+		if (size == sanitizers.length) {
+			int capacity = sanitizers.length * 2;
+			sanitizers = Arrays.copyOf(sanitizers, capacity);
+			values = Arrays.copyOf(values, capacity);
+			positions = Arrays.copyOf(positions, 3 * capacity);
+		}
+	}
+
+	@Override
+	public boolean add(IParamSanitizer sanitizer) {
+		ensureCapacity();
+		sanitizers[size] = sanitizer;
+		values[size] = null;
+		++size;
+		++modCount;
+		return true;
+	}
+
+	/**
+	 * Adds a non critical parameter without creating a sanitizer for it.
+	 */
+	void addNonCritical(Object parameter, int start, int startOriginal, int endOriginal) {
+		ensureCapacity();
+		sanitizers[size] = null;
+		values[size] = parameter;
+		positions[3 * size] = start;
+		positions[3 * size + 1] = startOriginal;
+		positions[3 * size + 2] = endOriginal;
+		++size;
+		++modCount;
+	}
+
+	@Override
+	public IParamSanitizer get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+
+		IParamSanitizer sanitizer = sanitizers[index];
+		if (sanitizer == null) {
+			sanitizer = new NonCriticalTag(values[index], positions[3 * index], positions[3 * index + 1],
+			    positions[3 * index + 2]);
+			sanitizers[index] = sanitizer;
+		}
+		return sanitizer;
+	}
+
+	/**
+	 * Like <code>get(index).getStart()</code> but without materializing the
+	 * sanitizer of a non critical parameter.
+	 */
+	int getStart(int index) {
+		IParamSanitizer sanitizer = sanitizers[index];
+		return sanitizer != null ? sanitizer.getStart() : positions[3 * index];
+	}
+
+	/**
+	 * @return The tag name of the parameter, or <code>null</code> for non
+	 *         critical parameters.
+	 */
+	String getTagName(int index) {
+		IParamSanitizer sanitizer = sanitizers[index];
+		return sanitizer instanceof ParamSanitizerBase ? ((ParamSanitizerBase) sanitizer).getTagName() : null;
+	}
+
+	/**
+	 * @return The value identifying the parameter for duplicate detection, i.e.,
+	 *         the sanitized value if the sanitizer is deterministic, otherwise
+	 *         the rendered raw parameter (which avoids, e.g., encrypting the
+	 *         parameter). The buffer has to be released by the caller.
+	 */
+	ParameterRenderer.Buffer renderFingerprint(int index) {
+		IParamSanitizer sanitizer = sanitizers[index];
+		if (sanitizer == null) {
+			return ParameterRenderer.render(values[index]);
+		} else if (sanitizer instanceof ParamSanitizerBase) {
+			ParamSanitizerBase base = (ParamSanitizerBase) sanitizer;
+			return base.isDeterministic() ? ParameterRenderer.wrap(base.getSanitized())
+			    : ParameterRenderer.render(base.getParameter());
+		}
+		return ParameterRenderer.wrap(sanitizer.getSanitized());
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(sanitizers, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+		++modCount;
+		criticalValues = null;
+		sanitizedValues = null;
+		loggerName = null;
+	}
+
+	/**
+	 * @return <code>true</code> if no parameter is changed by its sanitizer.
+	 */
+	boolean isCriticalAndSanitizedEqual() {
+		for (int i = 0; i < size; ++i) {
+			if (sanitizers[i] != null && !sanitizers[i].isCriticalAndSanitizedEqual()) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-	String[] getCritical() {
+	/**
+	 * @return The critical values as arguments for
+	 *         {@link org.slf4j.helpers.MessageFormatter}. Non critical
+	 *         parameters are returned as they are.
+	 */
+	Object[] getCritical() {
 		if (criticalValues == null) {
-			ArrayList<String> values = new ArrayList<String>(size());
-			for (IParamSanitizer sanitizer : this) {
-				values.add(sanitizer.getCritical());
+			Object[] result = new Object[size];
+			for (int i = 0; i < size; ++i) {
+				result[i] = sanitizers[i] != null ? sanitizers[i].getCritical() : values[i];
 			}
 
-			criticalValues = values.toArray(new String[size()]);
+			criticalValues = result;
 		}
 		return criticalValues;
 	}
 
-	String[] getSanitized() {
+	/**
+	 * @return The sanitized values as arguments for
+	 *         {@link org.slf4j.helpers.MessageFormatter}. Non critical
+	 *         parameters are returned as they are.
+	 */
+	Object[] getSanitized() {
 		if (sanitizedValues == null) {
-			ArrayList<String> values = new ArrayList<String>(size());
-			for (IParamSanitizer sanitizer : this) {
-				values.add(sanitizer.getSanitized());
+			Object[] result = new Object[size];
+			IMetricsCollector metrics = Metrics.getCollector();
+			for (int i = 0; i < size; ++i) {
+				IParamSanitizer sanitizer = sanitizers[i];
+				if (sanitizer == null) {
+					result[i] = values[i];
+				} else if (metrics != null && sanitizer instanceof ParamSanitizerBase) {
+					long start = System.nanoTime();
+					result[i] = sanitizer.getSanitized();
+					String tagName = ((ParamSanitizerBase) sanitizer).getTagName();
+					if (tagName != null) {
+						metrics.recordSanitize(tagName, loggerName, System.nanoTime() - start);
+					}
+				} else {
+					result[i] = sanitizer.getSanitized();
+				}
 			}
 
-			sanitizedValues = values.toArray(new String[size()]);
+			sanitizedValues = result;
 		}
 		return sanitizedValues;
 	}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+
+import org.slf4j.helpers.MessageFormatter;
+
+import iaik.privlog.concurrent.InstancePool;
+
+/**
+ * Renders log parameters exactly like {@link MessageFormatter} does for a
+ * <code>{}</code> place holder, but directly into a {@link StringBuilder}:
+ * character sequences, boxed primitives and arrays are appended without an
+ * intermediate String, and {@link IRenderable}s render themselves.
+ * <p>
+ * Sanitizers which hash or encrypt a parameter render it into a reusable
+ * {@link Buffer} (see {@link #render(Object)}) and consume the characters
+ * from there.
+ */
+public final class ParameterRenderer {
+
+	/**
+	 * Buffers which have grown larger are not kept for reuse.
+	 */
+	public static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int BYTES_CHUNK_SIZE = 1024;
+	private static final String DELIM = "{}";
+	private static final String SEPARATOR = ", ";
+
+	private static final InstancePool<Buffer> BUFFERS = new InstancePool<Buffer>() {
+
+		@Override
+		protected Buffer create() {
+			return new Buffer(true);
+		}
+	};
+
+	/**
+	 * The characters of a rendered parameter and a chunk buffer for encoding
+	 * them. Every buffer obtained from {@link ParameterRenderer#render(Object)}
+	 * or {@link ParameterRenderer#wrap(CharSequence)} has to be handed back by
+	 * {@link #release()}.
+	 */
+	public static final class Buffer {
+		private final boolean pooled;
+		private final ByteBuffer bytes = ByteBuffer.allocate(BYTES_CHUNK_SIZE);
+		private StringBuilder chars = new StringBuilder(INITIAL_CAPACITY);
+		private CharsetEncoder encoder;
+		private CharSequence text;
+		private boolean inUse;
+
+		Buffer(boolean pooled) {
+			this.pooled = pooled;
+		}
+
+		/**
+		 * @return The rendered characters, only valid until {@link #release()}.
+		 */
+		public CharSequence getText() {
+			return text;
+		}
+
+		public int length() {
+			return text.length();
+		}
+
+		/**
+		 * Passes the encoded characters to the digest, like
+		 * <code>digest.update(getText().toString().getBytes(charset))</code>.
+		 */
+		public void update(MessageDigest digest, Charset charset) {
+			encode(charset, digest);
+		}
+
+		/**
+		 * Passes the encoded characters to the MAC, like
+		 * <code>mac.update(getText().toString().getBytes(charset))</code>.
+		 */
+		public void update(Mac mac, Charset charset) {
+			encode(charset, mac);
+		}
+
+		/**
+		 * @return The encoded characters, like
+		 *         <code>getText().toString().getBytes(charset)</code>.
+		 */
+		public byte[] getBytes(Charset charset) {
+			if (text instanceof String) {
+				return ((String) text).getBytes(charset);
+			}
+			try {
+				ByteBuffer encoded = encoder(charset).reset().encode(CharBuffer.wrap(text));
+				return Arrays.copyOf(encoded.array(), encoded.limit());
+			} catch (CharacterCodingException cause) {
+				// Cannot happen, malformed input is replaced
+				throw new IllegalStateException(cause);
+			}
+		}
+
+		public void release() {
+			if (!inUse) {
+				return;
+			}
+			text = null;
+			inUse = false;
+			if (pooled) {
+				if (chars.capacity() > MAX_RETAINED_CAPACITY) {
+					chars = new StringBuilder(INITIAL_CAPACITY);
+				} else {
+					chars.setLength(0);
+				}
+				BUFFERS.release(this);
+			}
+		}
+
+		private CharsetEncoder encoder(Charset charset) {
+			if (encoder == null || !encoder.charset().equals(charset)) {
+				encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+			}
+			return encoder;
+		}
+
+		private void encode(Charset charset, Object sink) {
+			CharsetEncoder enc = encoder(charset).reset();
+			CharBuffer in = CharBuffer.wrap(text);
+			CoderResult result;
+			do {
+				result = enc.encode(in, bytes, true);
+				drain(sink);
+			} while (result.isOverflow());
+			do {
+				result = enc.flush(bytes);
+				drain(sink);
+			} while (result.isOverflow());
+		}
+
+		private void drain(Object sink) {
+			bytes.flip();
+			if (sink instanceof MessageDigest) {
+				((MessageDigest) sink).update(bytes);
+			} else {
+				((Mac) sink).update(bytes);
+			}
+			bytes.clear();
+		}
+	}
+
+	private ParameterRenderer() {
+	}
+
+	/**
+	 * @return A buffer holding the rendered parameter. Strings are wrapped as
+	 *         they are.
+	 */
+	public static Buffer render(Object arg) {
+		if (arg instanceof String) {
+			return wrap((String) arg);
+		}
+		Buffer buffer = acquire();
+		render(arg, buffer.chars);
+		buffer.text = buffer.chars;
+		return buffer;
+	}
+
+	/**
+	 * @return A buffer for encoding the given characters, which are not copied.
+	 */
+	public static Buffer wrap(CharSequence text) {
+		Buffer buffer = acquire();
+		buffer.text = text;
+		return buffer;
+	}
+
+	private static Buffer acquire() {
+		Buffer buffer = BUFFERS.acquire();
+		if (buffer.inUse) {
+			// Rendering a parameter logs or renders another one
+			buffer = new Buffer(false);
+		}
+		buffer.inUse = true;
+		return buffer;
+	}
+
+	/**
+	 * @return The string representation of the given argument as used by
+	 *         {@link MessageFormatter}. Strings are returned as they are.
+	 */
+	public static String toString(Object arg) {
+		if (arg instanceof String) {
+			return (String) arg;
+		} else if (arg == null) {
+			return "null";
+		} else if (!(arg instanceof IRenderable) && !arg.getClass().isArray()) {
+			try {
+				return arg.toString();
+			} catch (Throwable t) {
+				// Let the formatter report the failure
+				return MessageFormatter.format(DELIM, arg).getMessage();
+			}
+		}
+
+		Buffer buffer = render(arg);
+		try {
+			return buffer.chars.toString();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	/**
+	 * Appends the given argument like {@link MessageFormatter} does.
+	 */
+	public static void render(Object arg, StringBuilder out) {
+		if (arg instanceof String) {
+			out.append((String) arg);
+		} else if (arg == null) {
+			out.append("null");
+		} else if (arg instanceof CharSequence) {
+			out.append((CharSequence) arg);
+		} else if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+			out.append(((Number) arg).longValue());
+		} else if (arg instanceof Boolean) {
+			out.append(((Boolean) arg).booleanValue());
+		} else if (arg instanceof Character) {
+			out.append(((Character) arg).charValue());
+		} else if (arg instanceof Double) {
+			out.append(((Double) arg).doubleValue());
+		} else if (arg instanceof Float) {
+			out.append(((Float) arg).floatValue());
+		} else if (arg instanceof IRenderable) {
+			int mark = out.length();
+			try {
+				((IRenderable) arg).renderTo(out);
+			} catch (Exception cause) {
+				out.setLength(mark);
+				appendToString(arg, out);
+			}
+		} else if (arg.getClass().isArray()) {
+			appendArray(arg, out, null);
+		} else {
+			appendToString(arg, out);
+		}
+	}
+
+	private static void appendToString(Object arg, StringBuilder out) {
+		String value;
+		try {
+			value = arg.toString();
+		} catch (Throwable t) {
+			// Let the formatter report the failure
+			value = MessageFormatter.format(DELIM, arg).getMessage();
+		}
+		out.append(value);
+	}
+
+	private static void appendElement(Object element, StringBuilder out, Map<Object[], Object> seen) {
+		if (element != null && element.getClass().isArray()) {
+			appendArray(element, out, seen);
+		} else {
+			render(element, out);
+		}
+	}
+
+	private static void appendArray(Object array, StringBuilder out, Map<Object[], Object> seen) {
+		out.append('[');
+		if (array instanceof Object[]) {
+			Object[] a = (Object[]) array;
+			if (seen == null) {
+				seen = new IdentityHashMap<Object[], Object>();
+			}
+			if (seen.containsKey(a)) {
+				out.append("...");
+			} else {
+				seen.put(a, null);
+				for (int i = 0; i < a.length; ++i) {
+					if (i > 0) {
+						out.append(SEPARATOR);
+					}
+					appendElement(a[i], out, seen);
+				}
+				seen.remove(a);
+			}
+		} else if (array instanceof int[]) {
+			int[] a = (int[]) array;
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) {
+					out.append(SEPARATOR);
+				}
+				out.append(a[i]);
+			}
+		} else if (array instanceof long[]) {
+			long[] a = (long[]) array;
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) {
+					out.append(SEPARATOR);
+				}
+				out.append(a[i]);
+			}
+		} else if (array instanceof byte[]) {
+			byte[] a = (byte[]) array;
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) {
+					out.append(SEPARATOR);
+				}
+				out.append(a[i]);
+			}
+		} else if (array instanceof short[]) {
+			short[] a = (short[]) array;
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) {
+					out.append(SEPARATOR);
+				}
+				out.append(a[i]);
+			}
+		} else if (array instanceof char[]) {
+			char[] a = (char[]) array;
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) {
+					out.append(SEPARATOR);
+				}
+				out.append(a[i]);
+			}
+		} else if (array instanceof boolean[]) {
+			boolean[] a = (boolean[]) array;
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) {
+					out.append(SEPARATOR);
+				}
+				out.append(a[i]);
+			}
+		} else if (array instanceof float[]) {
+			float[] a = (float[]) array;
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) {
+					out.append(SEPARATOR);
+				}
+				out.append(a[i]);
+			}
+		} else if (array instanceof double[]) {
+			double[] a = (double[]) array;
+			for (int i = 0; i < a.length; ++i) {
+				if (i > 0) {
+					out.append(SEPARATOR);
+				}
+				out.append(a[i]);
+			}
+		}
+		out.append(']');
+	}
+}
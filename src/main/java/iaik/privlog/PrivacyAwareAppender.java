@@ -15,22 +15,25 @@
  */
 package iaik.privlog;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.classic.spi.LoggingEvent;
 import ch.qos.logback.classic.spi.ThrowableProxy;
 import ch.qos.logback.core.Appender;
-import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.joran.spi.DefaultClass;
 import ch.qos.logback.core.spi.AppenderAttachable;
 import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import ch.qos.logback.core.util.OptionHelper;
 import iaik.privlog.sanitizers.IParamSanitizerFactory;
 
-public class PrivacyAwareAppender extends AppenderBase<ILoggingEvent>
-    implements AppenderAttachable<ILoggingEvent>, IParamSanitizerFactoriesAware
+public class PrivacyAwareAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+    implements AppenderAttachable<ILoggingEvent>, IParamSanitizerFactoriesAware, ISanitizerProfileAware
 {
 	/**
 	 * The fully qualified name of this class. Used in gathering caller
@@ -38,15 +41,67 @@ public class PrivacyAwareAppender extends AppenderBase<ILoggingEvent>
 	 */
 	public static final String FQCN = PrivacyAwareAppender.class.getName();
 
-	private AppenderAttachableImpl<ILoggingEvent> aai;
+	/**
+	 * Created on demand by {@link #addAppender(Appender)}. Events are appended
+	 * without holding a lock, i.e., concurrently by all logging threads.
+	 */
+	private volatile AppenderAttachableImpl<ILoggingEvent> aai;
 
 	protected ParamSanitizerFactories sanitizers;
+	protected String registryName;
+	protected SanitizerRegistry registry;
+	protected final SanitizerProfiles profiles = new SanitizerProfiles();
+	protected DuplicateSuppressor duplicateSuppressor;
+	protected PrivacyAwareLoggingEvent.RenderBoth renderBoth;
 
 	@Override
 	public void setSanitizerFactories(ParamSanitizerFactories sanitizers) {
 		this.sanitizers = sanitizers;
 	}
 
+	@Override
+	public void addSanitizerProfile(SanitizerProfile profile) {
+		profiles.add(profile);
+	}
+
+	public SanitizerProfiles getSanitizerProfiles() {
+		return profiles;
+	}
+
+	/**
+	 * @param registryName
+	 *        If set, the sanitizer factories of this appender are exposed via JMX
+	 *        under this name (see {@link SanitizerRegistry}).
+	 */
+	public void setRegistryName(String registryName) {
+		this.registryName = registryName;
+	}
+
+	public String getRegistryName() {
+		return registryName;
+	}
+
+	/**
+	 * @return The registry allowing to change the sanitizer factories at
+	 *         runtime, available after {@link #start()}.
+	 */
+	public SanitizerRegistry getSanitizerRegistry() {
+		return registry;
+	}
+
+	public DuplicateSuppressor getDuplicateSuppressor() {
+		return duplicateSuppressor;
+	}
+
+	/**
+	 * @param duplicateSuppressor
+	 *        Collapses repeated events into a single event plus a summary.
+	 */
+	@DefaultClass(DuplicateSuppressor.class)
+	public void setDuplicateSuppressor(DuplicateSuppressor duplicateSuppressor) {
+		this.duplicateSuppressor = duplicateSuppressor;
+	}
+
 	@Override
 	public void addSanitizerFactory(String tagName, IParamSanitizerFactory sanitizerFactory) {
 		if (sanitizers == null) {
@@ -65,14 +120,37 @@ public class PrivacyAwareAppender extends AppenderBase<ILoggingEvent>
 
 		Logger logger = ((LoggerContext) getContext()).getLogger(eventObject.getLoggerName());
 
-		LoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, FQCN, logger, eventObject.getLevel(),
-		    eventObject.getMessage(), null, eventObject.getArgumentArray());
+		ParamSanitizerFactories eventSanitizers = profiles.resolve(eventObject.getMarker(), logger);
+		Object[] params = eventObject.getArgumentArray();
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(eventSanitizers, FQCN, logger,
+		    eventObject.getLevel(), eventObject.getMessage(), null, params, params == null ? 0 : params.length,
+		    new ParamSanitizerList(), isRenderBoth());
 		event.setMarker(eventObject.getMarker());
 		event.setThrowableProxy((ThrowableProxy) eventObject.getThrowableProxy());
 
+		if (duplicateSuppressor != null && duplicateSuppressor.isStarted()) {
+			List<ILoggingEvent> summaries = new ArrayList<ILoggingEvent>(0);
+			boolean repeated = duplicateSuppressor.isRepeated(logger, eventObject.getMessage(), event, summaries);
+			appendSummaries(summaries);
+			if (repeated) {
+				return;
+			}
+		}
+
 		appendLoopOnAppenders(event);
 	}
 
+	protected boolean isRenderBoth() {
+		PrivacyAwareLoggingEvent.RenderBoth flag = renderBoth;
+		return flag != null && flag.isEnabled();
+	}
+
+	protected void appendSummaries(List<ILoggingEvent> summaries) {
+		for (ILoggingEvent summary : summaries) {
+			appendLoopOnAppenders(summary);
+		}
+	}
+
 	@Override
 	public void start() {
 		if (this.sanitizers == null) {
@@ -80,9 +158,41 @@ public class PrivacyAwareAppender extends AppenderBase<ILoggingEvent>
 			this.sanitizers = new ParamSanitizerFactories();
 		}
 
+		if (duplicateSuppressor != null && !duplicateSuppressor.isStarted()) {
+			if (duplicateSuppressor.getContext() == null) {
+				duplicateSuppressor.setContext(getContext());
+			}
+			duplicateSuppressor.start();
+		}
+
+		if (getContext() != null) {
+			renderBoth = PrivacyAwareLoggingEvent.RenderBoth.get(getContext());
+		}
+
+		profiles.setDefaults(sanitizers);
+		registry = new SanitizerRegistry(getContext(), sanitizers);
+		if (!OptionHelper.isEmpty(registryName)) {
+			registry.register(registryName);
+		}
+
 		super.start();
 	}
 
+	@Override
+	public void stop() {
+		if (registry != null) {
+			registry.unregister();
+		}
+		if (duplicateSuppressor != null && duplicateSuppressor.isStarted()) {
+			List<ILoggingEvent> summaries = new ArrayList<ILoggingEvent>();
+			duplicateSuppressor.drain(summaries);
+			appendSummaries(summaries);
+			duplicateSuppressor.stop();
+		}
+
+		super.stop();
+	}
+
 	/**
 	 * Remove all previously added appenders from this logger instance.
 	 * <p/>
@@ -17,28 +17,82 @@ package iaik.privlog;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.slf4j.helpers.MessageFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Context;
+import ch.qos.logback.core.ContextBase;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
 import iaik.privlog.sanitizers.IParamSanitizer;
 import iaik.privlog.sanitizers.IParamSanitizerFactory;
+import iaik.privlog.sanitizers.ITagIdAwareParamSanitizerFactory;
 import iaik.privlog.sanitizers.IdentitySanitizerFactory.IdentitySanitizer;
 
 public class PrivacyAwareLoggingEvent extends LoggingEvent {
 
+	/**
+	 * The key of the {@link RenderBoth} flag in the logger context.
+	 */
+	public static final String RENDER_BOTH_KEY = "iaik.privlog.RENDER_BOTH";
+
+	/**
+	 * Enables rendering both the sanitized and the fully disclosed message at
+	 * once while a {@link iaik.privlog.layouts.FullyDisclosedMessageConverter}
+	 * of the context is started. The flag is shared via the context under
+	 * {@link #RENDER_BOTH_KEY}, so the components building events can resolve
+	 * it once when they are started, regardless of the order in which they
+	 * and the converters are started.
+	 */
+	public static final class RenderBoth {
+		private final AtomicInteger converters = new AtomicInteger();
+
+		/**
+		 * @return The flag of the given context, which is created if required.
+		 */
+		public static RenderBoth get(Context context) {
+			synchronized (context.getConfigurationLock()) {
+				Object flag = context.getObject(RENDER_BOTH_KEY);
+				if (!(flag instanceof RenderBoth)) {
+					flag = new RenderBoth();
+					context.putObject(RENDER_BOTH_KEY, flag);
+				}
+				return (RenderBoth) flag;
+			}
+		}
+
+		public boolean isEnabled() {
+			return converters.get() > 0;
+		}
+
+		public void enable() {
+			converters.incrementAndGet();
+		}
+
+		/**
+		 * Disables the flag again and removes it from the given context once
+		 * no converter requires it any longer.
+		 */
+		public void disable(Context context) {
+			if (converters.decrementAndGet() > 0 || !(context instanceof ContextBase)) {
+				return;
+			}
+			synchronized (context.getConfigurationLock()) {
+				if (context.getObject(RENDER_BOTH_KEY) == this && !isEnabled()) {
+					((ContextBase) context).removeObject(RENDER_BOTH_KEY);
+				}
+			}
+		}
+	}
+
 	public static class NonCriticalTag extends IdentitySanitizer {
 		protected NonCriticalTag(Object parameter, int start, int startOriginal, int endOriginal) {
 			super(null, parameter, start, startOriginal, endOriginal);
 		}
 	}
 
-	protected static final Matcher TAG_MATCHER = Pattern.compile("(\\\\*)\\{([^{}]*)\\}").matcher("");
-
 	public static PrivacyAwareLoggingEvent build(ParamSanitizerFactories sanitizers,
 	                                             String fqcn,
 	                                             Logger logger,
@@ -47,63 +101,155 @@ public class PrivacyAwareLoggingEvent extends LoggingEvent {
 	                                             Throwable throwable,
 	                                             Object[] params)
 	{
-		ParamSanitizerList parameters = new ParamSanitizerList();
-		StringBuilder newFormat = new StringBuilder();
-
-		synchronized (TAG_MATCHER) {
-			TAG_MATCHER.reset(format);
-
-			int curParam = 0;
-			int curPos = 0;
-			int lengthPrevTags = 0;
-
-			while (params != null && curParam < params.length && TAG_MATCHER.find()) {
-				int numBackslash = TAG_MATCHER.group(1).length();
-				String tagName = TAG_MATCHER.group(2);
-				int start = TAG_MATCHER.start(2) - 1 - (numBackslash / 2);
-				int end = TAG_MATCHER.end(2) + 1;
-
-				if (numBackslash % 2 == 0) {
-					// No backslash or an even number of backslashes
-					Object param = params[curParam++];
-					IParamSanitizer sanitizer = null;
-					if (tagName.length() == 0) {
-						sanitizer = new NonCriticalTag(param, start - lengthPrevTags, start, end - 1);
+		return build(sanitizers, fqcn, logger, level, format, throwable, params, params == null ? 0 : params.length);
+	}
+
+	/**
+	 * Like {@link #build(ParamSanitizerFactories, String, Logger, Level, String, Throwable, Object[])}
+	 * but only the first <code>paramCount</code> parameters are used, e.g., to
+	 * skip a trailing throwable without copying the array.
+	 */
+	public static PrivacyAwareLoggingEvent build(ParamSanitizerFactories sanitizers,
+	                                             String fqcn,
+	                                             Logger logger,
+	                                             Level level,
+	                                             String format,
+	                                             Throwable throwable,
+	                                             Object[] params,
+	                                             int paramCount)
+	{
+		Object renderBoth = logger.getLoggerContext().getObject(RENDER_BOTH_KEY);
+		return build(sanitizers, fqcn, logger, level, format, throwable, params, paramCount, new ParamSanitizerList(),
+		    renderBoth instanceof RenderBoth && ((RenderBoth) renderBoth).isEnabled());
+	}
+
+	static PrivacyAwareLoggingEvent build(ParamSanitizerFactories sanitizers,
+	                                      String fqcn,
+	                                      Logger logger,
+	                                      Level level,
+	                                      String format,
+	                                      Throwable throwable,
+	                                      Object[] params,
+	                                      int paramCount,
+	                                      ParamSanitizerList parameters,
+	                                      boolean renderBoth)
+	{
+		IMetricsCollector metrics = Metrics.getCollector();
+		long startBuild = metrics != null ? System.nanoTime() : 0;
+
+		MessageTemplate template = MessageTemplate.compile(format);
+		boolean[] skipped = null;
+
+		int processed = 0;
+		int curParam = 0;
+		int lengthPrevTags = 0;
+		for (; processed < template.size() && curParam < paramCount; ++processed) {
+			int start = template.getStart(processed);
+			int end = template.getEnd(processed);
+
+			if (!template.isEscaped(processed)) {
+				// No backslash or an even number of backslashes
+				Object param = params[curParam++];
+				int tagId = template.getTagId(processed);
+				if (tagId == TagIds.NONE) {
+					parameters.addNonCritical(param, start - lengthPrevTags, start, end - 1);
+				} else {
+					IParamSanitizer sanitizer;
+					IParamSanitizerFactory sanitizerFactory = sanitizers.get(tagId);
+					if (sanitizerFactory == null) {
+						//Tagged as critical but no sanitizer configured
+						// For the sake of privacy by default continue to next element
+						if (skipped == null) {
+							skipped = new boolean[template.size()];
+						}
+						skipped[processed] = true;
+						continue;
 					} else {
-						IParamSanitizerFactory sanitizerFactory = sanitizers.get(tagName);
-						if (sanitizerFactory == null) {
-							//Tagged as critical but no sanitizer configured
-							// For the sake of privacy by default continue to next element
-							continue;
+						long startCreate = metrics != null ? System.nanoTime() : 0;
+						if (sanitizerFactory instanceof ITagIdAwareParamSanitizerFactory) {
+							sanitizer = ((ITagIdAwareParamSanitizerFactory) sanitizerFactory).create(tagId, param,
+							    start - lengthPrevTags, start, end - 1);
 						} else {
-							sanitizer = sanitizerFactory.create(tagName, param, start - lengthPrevTags, start, end - 1);
+							sanitizer = sanitizerFactory.create(template.getTagName(processed), param, start - lengthPrevTags,
+							    start, end - 1);
+						}
+						if (metrics != null) {
+							metrics.recordCreate(template.getTagName(processed), logger.getName(),
+							    System.nanoTime() - startCreate);
 						}
 					}
-
 					parameters.add(sanitizer);
-					int s = start;
-					if (numBackslash > 0) {
-						s = start + numBackslash - numBackslash / 2;
-					}
-					newFormat.append(format.substring(curPos, s)).append("{}");
-				} else {
-					if (tagName.length() > 0) { // We have to handle these ourself
-						newFormat.append(format.substring(curPos, start - 1)).append("{").append(tagName).append("}");
-					} else {
-						newFormat.append(format.substring(curPos, end));
-					}
 				}
-				curPos = end;
-				lengthPrevTags += tagName.length();
 			}
+			lengthPrevTags += template.getTagName(processed).length();
+		}
 
-			newFormat.append(format.substring(curPos));
+		String newFormat;
+		MessageSegments segments = null;
+		MessageTemplate.FormatCache resolved = skipped == null ? template.getResolvedFormat(paramCount) : null;
+		if (resolved != null) {
+			newFormat = resolved.format;
+			segments = resolved.segments;
+		} else {
+			newFormat = rewriteFormat(template, processed, skipped);
+			if (skipped == null) {
+				segments = template.setResolvedFormat(paramCount, newFormat).segments;
+			}
+		}
+
+		PrivacyAwareLoggingEvent event = new PrivacyAwareLoggingEvent(fqcn, logger, level, newFormat, throwable,
+		    parameters, sanitizers);
+		event.segments = segments;
+		event.renderBoth = renderBoth;
+		if (metrics != null) {
+			parameters.setLoggerName(logger.getName());
+			metrics.recordBuild(logger.getName(), System.nanoTime() - startBuild);
 		}
-		return new PrivacyAwareLoggingEvent(fqcn, logger, level, newFormat.toString(), throwable, parameters, sanitizers);
+		return event;
 	}
 
-	protected final ParamSanitizerList parameters;
+	/**
+	 * Replaces the first <code>processed</code> place holders of the template
+	 * by <code>{}</code>, except for the skipped ones (i.e., tags without a
+	 * configured sanitizer), and unescapes escaped tags.
+	 */
+	protected static String rewriteFormat(MessageTemplate template, int processed, boolean[] skipped) {
+		String format = template.getFormat();
+		StringBuilder newFormat = new StringBuilder(format.length());
+		int curPos = 0;
+		for (int i = 0; i < processed; ++i) {
+			if (skipped != null && skipped[i]) {
+				continue;
+			}
+
+			int numBackslash = template.getNumBackslash(i);
+			String tagName = template.getTagName(i);
+			int start = template.getStart(i);
+			int end = template.getEnd(i);
+			if (numBackslash % 2 == 0) {
+				int s = start;
+				if (numBackslash > 0) {
+					s = start + numBackslash - numBackslash / 2;
+				}
+				newFormat.append(format, curPos, s).append("{}");
+			} else {
+				if (tagName.length() > 0) { // We have to handle these ourself
+					newFormat.append(format, curPos, start - 1).append("{").append(tagName).append("}");
+				} else {
+					newFormat.append(format, curPos, end);
+				}
+			}
+			curPos = end;
+		}
+
+		newFormat.append(format, curPos, format.length());
+		return newFormat.toString();
+	}
+
+	protected ParamSanitizerList parameters;
 	protected final ParamSanitizerFactories sanitizers;
+	protected transient MessageSegments segments;
+	protected transient boolean renderBoth;
 	protected transient String formattedSanitizedMessage;
 	protected transient String formattedCriticalMessage;
 
@@ -123,11 +269,10 @@ public class PrivacyAwareLoggingEvent extends LoggingEvent {
 	@Override
 	public String getFormattedMessage() {
 		if (formattedSanitizedMessage == null) {
-			Object[] argumentArray = parameters.getSanitized();
-			if (argumentArray != null) {
-				formattedSanitizedMessage = MessageFormatter.arrayFormat(getMessage(), argumentArray).getMessage();
+			if (renderBoth) {
+				renderMessages();
 			} else {
-				formattedSanitizedMessage = getMessage();
+				formattedSanitizedMessage = getSegments().format(parameters.getSanitized());
 			}
 		}
 
@@ -136,21 +281,122 @@ public class PrivacyAwareLoggingEvent extends LoggingEvent {
 
 	public String getFullyDisclosedFormattedMessage() {
 		if (formattedCriticalMessage == null) {
-			Object[] argumentArray = parameters.getCritical();
-			if (argumentArray != null) {
-				formattedCriticalMessage = MessageFormatter.arrayFormat(getMessage(), argumentArray).getMessage();
+			if (renderBoth) {
+				renderMessages();
 			} else {
-				formattedCriticalMessage = getMessage();
+				formattedCriticalMessage = getSegments().format(parameters.getCritical());
 			}
 		}
 
 		return formattedCriticalMessage;
 	}
 
+	/**
+	 * Renders the sanitized and the fully disclosed message in a single pass.
+	 * If none of the parameters is changed by its sanitizer both messages are
+	 * the same instance.
+	 */
+	protected void renderMessages() {
+		MessageSegments messageSegments = getSegments();
+		Object[] sanitizedArgs = parameters.getSanitized();
+		if (parameters.isCriticalAndSanitizedEqual()) {
+			formattedSanitizedMessage = messageSegments.format(sanitizedArgs);
+			formattedCriticalMessage = formattedSanitizedMessage;
+		} else {
+			int capacity = getMessage().length() + 16 * sanitizedArgs.length;
+			StringBuilder sanitizedMessage = new StringBuilder(capacity);
+			StringBuilder criticalMessage = new StringBuilder(capacity);
+			messageSegments.format(sanitizedArgs, parameters.getCritical(), sanitizedMessage, criticalMessage);
+			formattedSanitizedMessage = sanitizedMessage.toString();
+			formattedCriticalMessage = criticalMessage.toString();
+		}
+	}
+
+	/**
+	 * @return The sanitized message if it has already been rendered, otherwise
+	 *         <code>null</code>.
+	 */
+	public String getRenderedMessage() {
+		return formattedSanitizedMessage;
+	}
+
+	/**
+	 * @return The fully disclosed message if it has already been rendered,
+	 *         otherwise <code>null</code>.
+	 */
+	public String getRenderedFullyDisclosedMessage() {
+		return formattedCriticalMessage;
+	}
+
+	/**
+	 * @return <code>true</code> if both messages are rendered at once (see
+	 *         {@link RenderBoth}).
+	 */
+	public boolean isRenderBoth() {
+		return renderBoth;
+	}
+
+	/**
+	 * @return The segmented message template (see {@link #getMessage()}).
+	 */
+	public MessageSegments getSegments() {
+		if (segments == null) {
+			segments = MessageSegments.parse(getMessage());
+		}
+		return segments;
+	}
+
+	/**
+	 * Copies the parameter state if it is owned by the logging thread (see
+	 * {@link ParamSanitizerList#acquire()}), as the event is going to be
+	 * processed asynchronously.
+	 */
+	@Override
+	public void prepareForDeferredProcessing() {
+		parameters = parameters.detach();
+		super.prepareForDeferredProcessing();
+	}
+
 	public Collection<IParamSanitizer> getParameters() {
 		return Collections.unmodifiableCollection(parameters);
 	}
 
+	public int getParameterCount() {
+		return parameters.size();
+	}
+
+	/**
+	 * @return The sanitized value of the given parameter as it is used for
+	 *         {@link #getFormattedMessage()}, i.e., the raw value of a non
+	 *         critical parameter.
+	 */
+	public Object getSanitizedArgument(int index) {
+		return parameters.getSanitized()[index];
+	}
+
+	/**
+	 * @return The critical value of the given parameter as it is used for
+	 *         {@link #getFullyDisclosedFormattedMessage()}.
+	 */
+	public Object getCriticalArgument(int index) {
+		return parameters.getCritical()[index];
+	}
+
+	/**
+	 * @see IParamSanitizer#getStart()
+	 */
+	public int getParameterStart(int index) {
+		return parameters.getStart(index);
+	}
+
+	/**
+	 * @return The tag name of the given parameter, or <code>null</code> if it
+	 *         is not tagged.
+	 */
+	public String getParameterTagName(int index) {
+		return parameters.getTagName(index);
+	}
+
 	public ParamSanitizerFactories getSanitizers() {
 		return sanitizers;
 	}
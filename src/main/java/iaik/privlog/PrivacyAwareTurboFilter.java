@@ -23,14 +23,33 @@ import ch.qos.logback.classic.spi.EventArgUtil;
 import ch.qos.logback.classic.spi.LoggingEvent;
 import ch.qos.logback.classic.spi.TurboFilterList;
 import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.joran.spi.DefaultClass;
 import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.core.util.OptionHelper;
+import iaik.privlog.metrics.FormatProfiler;
 import iaik.privlog.sanitizers.IParamSanitizerFactory;
 
-public class PrivacyAwareTurboFilter extends TurboFilter implements IParamSanitizerFactoriesAware {
+public class PrivacyAwareTurboFilter extends TurboFilter
+    implements IParamSanitizerFactoriesAware, ISanitizerProfileAware
+{
 	private static final String FQCN = PrivacyAwareTurboFilter.class.getName();
 
+	/**
+	 * Key of the sanitizer factories in the context's object map. Encoders use
+	 * them to sanitize events which bypassed this filter.
+	 */
+	public static final String SANITIZER_FACTORIES_KEY = "iaik.privlog.SANITIZER_FACTORIES";
+
 	private final TurboFilterList turboFilterList = new TurboFilterList();
 	protected ParamSanitizerFactories sanitizers;
+	protected String registryName;
+	protected SanitizerRegistry registry;
+	protected final SanitizerProfiles profiles = new SanitizerProfiles();
+	protected boolean bypassUntaggedFormats = true;
+	protected boolean reuseEventState = false;
+	protected RateLimiter rateLimiter;
+	protected FormatProfiler profiler;
+	protected PrivacyAwareLoggingEvent.RenderBoth renderBoth;
 
 	public PrivacyAwareTurboFilter() {
 	}
@@ -54,6 +73,95 @@ public class PrivacyAwareTurboFilter extends TurboFilter implements IParamSaniti
 		this.sanitizers = sanitizers;
 	}
 
+	@Override
+	public void addSanitizerProfile(SanitizerProfile profile) {
+		profiles.add(profile);
+	}
+
+	public SanitizerProfiles getSanitizerProfiles() {
+		return profiles;
+	}
+
+	/**
+	 * @param registryName
+	 *        If set, the sanitizer factories of this filter are exposed via JMX
+	 *        under this name (see {@link SanitizerRegistry}).
+	 */
+	public void setRegistryName(String registryName) {
+		this.registryName = registryName;
+	}
+
+	public String getRegistryName() {
+		return registryName;
+	}
+
+	/**
+	 * @return The registry allowing to change the sanitizer factories at
+	 *         runtime, available after {@link #start()}.
+	 */
+	public SanitizerRegistry getSanitizerRegistry() {
+		return registry;
+	}
+
+	public boolean isBypassUntaggedFormats() {
+		return bypassUntaggedFormats;
+	}
+
+	/**
+	 * @param bypassUntaggedFormats
+	 *        If <code>true</code> (the default), log statements whose format
+	 *        does not contain any tag are left to logback's regular processing
+	 *        instead of building a privacy aware event for them.
+	 */
+	public void setBypassUntaggedFormats(boolean bypassUntaggedFormats) {
+		this.bypassUntaggedFormats = bypassUntaggedFormats;
+	}
+
+	public boolean isReuseEventState() {
+		return reuseEventState;
+	}
+
+	/**
+	 * @param reuseEventState
+	 *        If <code>true</code>, the parameter state of the events is kept in
+	 *        a structure owned by the logging thread and reused for the next
+	 *        event. Only enable this if all appenders either process events
+	 *        synchronously or call
+	 *        {@link ch.qos.logback.classic.spi.ILoggingEvent#prepareForDeferredProcessing()}
+	 *        before retaining them (as the <code>AsyncAppender</code> does).
+	 */
+	public void setReuseEventState(boolean reuseEventState) {
+		this.reuseEventState = reuseEventState;
+	}
+
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @param rateLimiter
+	 *        Limits the rate of events per format string before their
+	 *        parameters are sanitized.
+	 */
+	@DefaultClass(RateLimiter.class)
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	public FormatProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * @param profiler
+	 *        Measures a sample of the events and reports the most expensive
+	 *        format strings.
+	 */
+	@DefaultClass(FormatProfiler.class)
+	public void setProfiler(FormatProfiler profiler) {
+		this.profiler = profiler;
+	}
+
 	public TurboFilterList getTurboFilterList() {
 		return turboFilterList;
 	}
@@ -105,6 +213,11 @@ public class PrivacyAwareTurboFilter extends TurboFilter implements IParamSaniti
 
 		final FilterReply decision = getTurboFilterChainDecision(marker, logger, level, format, argArray, throwable);
 
+		if (bypassUntaggedFormats && !MessageTemplate.containsTags(format)) {
+			// Nothing to sanitize, let logback handle the statement natively
+			return decision;
+		}
+
 		if (decision == FilterReply.NEUTRAL) {
 			if (logger.getEffectiveLevel().levelInt > level.levelInt) {
 				return FilterReply.DENY;
@@ -113,24 +226,71 @@ public class PrivacyAwareTurboFilter extends TurboFilter implements IParamSaniti
 			return FilterReply.DENY;
 		}
 
+		ParamSanitizerFactories eventSanitizers = profiles.resolve(marker, logger);
+		if (rateLimiter != null && rateLimiter.isStarted()) {
+			RateLimiter.Action limited = rateLimiter.acquire(format, level, logger);
+			if (limited == RateLimiter.Action.DROP) {
+				return FilterReply.DENY;
+			} else if (limited == RateLimiter.Action.MASK) {
+				eventSanitizers = rateLimiter.mask(eventSanitizers);
+			}
+		}
+
 		Throwable t = throwable;
-		Object[] params = argArray;
+		int paramCount = argArray == null ? 0 : argArray.length;
 		if (throwable == null) {
-			t = EventArgUtil.extractThrowable(params);
+			t = EventArgUtil.extractThrowable(argArray);
 			if (EventArgUtil.successfulExtraction(t)) {
-				params = EventArgUtil.trimmedCopy(argArray);
+				--paramCount; // Ignore the trailing throwable instead of copying the array
 			}
 		}
 
 		//Call appenders with sanitized data
-		LoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, FQCN, logger, level, format, t, params);
-		event.setMarker(marker);
-		logger.callAppenders(event);
+		ParamSanitizerList parameters = reuseEventState ? ParamSanitizerList.acquire() : new ParamSanitizerList();
+		try {
+			if (profiler != null && profiler.isStarted() && profiler.shouldSample()) {
+				buildAndProfile(marker, logger, level, format, t, argArray, paramCount, eventSanitizers, parameters);
+			} else {
+				LoggingEvent event = PrivacyAwareLoggingEvent.build(eventSanitizers, FQCN, logger, level, format, t,
+				    argArray, paramCount, parameters, isRenderBoth());
+				event.setMarker(marker);
+				logger.callAppenders(event);
+			}
+		} finally {
+			parameters.release();
+		}
 
 		// Do not further process the original log entry
 		return FilterReply.DENY;
 	}
 
+	/**
+	 * Like the regular processing in {@link #decide}, but the message is
+	 * rendered before calling the appenders so that the sanitization cost can
+	 * be told apart from the encoding cost.
+	 */
+	protected void buildAndProfile(Marker marker,
+	                               Logger logger,
+	                               Level level,
+	                               String format,
+	                               Throwable t,
+	                               Object[] argArray,
+	                               int paramCount,
+	                               ParamSanitizerFactories eventSanitizers,
+	                               ParamSanitizerList parameters)
+	{
+		long start = System.nanoTime();
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(eventSanitizers, FQCN, logger, level, format, t,
+		    argArray, paramCount, parameters, isRenderBoth());
+		event.setMarker(marker);
+		long built = System.nanoTime();
+		event.getFormattedMessage();
+		long sanitized = System.nanoTime();
+		logger.callAppenders(event);
+		long appended = System.nanoTime();
+		profiler.record(format, built - start, sanitized - built, appended - sanitized);
+	}
+
 	@Override
 	public void start() {
 		if (this.sanitizers == null) {
@@ -138,7 +298,52 @@ public class PrivacyAwareTurboFilter extends TurboFilter implements IParamSaniti
 			this.sanitizers = new ParamSanitizerFactories();
 		}
 
+		if (bypassUntaggedFormats && getContext() != null) {
+			getContext().putObject(SANITIZER_FACTORIES_KEY, sanitizers);
+		}
+
+		if (rateLimiter != null && !rateLimiter.isStarted()) {
+			if (rateLimiter.getContext() == null) {
+				rateLimiter.setContext(getContext());
+			}
+			rateLimiter.start();
+		}
+
+		if (profiler != null && !profiler.isStarted()) {
+			if (profiler.getContext() == null) {
+				profiler.setContext(getContext());
+			}
+			profiler.start();
+		}
+
+		if (getContext() != null) {
+			renderBoth = PrivacyAwareLoggingEvent.RenderBoth.get(getContext());
+		}
+
+		profiles.setDefaults(sanitizers);
+		registry = new SanitizerRegistry(getContext(), sanitizers);
+		if (!OptionHelper.isEmpty(registryName)) {
+			registry.register(registryName);
+		}
+
 		super.start();
 	}
 
+	protected boolean isRenderBoth() {
+		PrivacyAwareLoggingEvent.RenderBoth flag = renderBoth;
+		return flag != null && flag.isEnabled();
+	}
+
+	@Override
+	public void stop() {
+		if (registry != null) {
+			registry.unregister();
+		}
+		if (profiler != null) {
+			profiler.stop();
+		}
+
+		super.stop();
+	}
+
 }
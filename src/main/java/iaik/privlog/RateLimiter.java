@@ -0,0 +1,412 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.Duration;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * Limits the rate of privacy aware events per format string (and optionally
+ * per level and logger) before any sanitizer is created. Each key has a token
+ * bucket allowing {@link #setRate(double) rate} events per second with bursts
+ * of up to {@link #setBurst(int) burst} events. Events exceeding the rate are
+ * handled according to the configured {@link Action}.
+ * <p>
+ * The buckets are kept in a bounded, {@value #WAYS}-way set associative cache
+ * and are updated lock-free, so that a few hot keys sharing a set do not evict
+ * each other. If all ways of a set are in use, the least recently active bucket
+ * is evicted (preferring buckets without suppressed events), which resets the
+ * bucket of the evicted key. The number of suppressed events is logged
+ * periodically by the logger {@value #SUMMARY_LOGGER}, including those of
+ * evicted buckets.
+ */
+public class RateLimiter extends ContextAwareBase implements LifeCycle {
+
+	/**
+	 * How events exceeding the rate are handled.
+	 */
+	public enum Action {
+		/**
+		 * The events are discarded.
+		 */
+		DROP,
+
+		/**
+		 * Every {@link RateLimiter#setSampleEvery(int) sampleEvery}th event is
+		 * logged, the others are discarded.
+		 */
+		SAMPLE,
+
+		/**
+		 * The events are logged, but all tagged parameters are masked instead
+		 * of being sanitized by the configured factories.
+		 */
+		MASK
+	}
+
+	public static final String SUMMARY_LOGGER = "iaik.privlog.RateLimiter";
+	public static final double DEFAULT_RATE = 100;
+	public static final int DEFAULT_SAMPLE_EVERY = 100;
+	public static final long DEFAULT_SUMMARY_INTERVAL = 60;
+
+	/**
+	 * Number of cache slots, must be a power of two.
+	 */
+	static final int CACHE_SIZE = 1024;
+
+	/**
+	 * Number of slots per set, must be a power of two.
+	 */
+	static final int WAYS = 4;
+
+	protected static final AtomicLongFieldUpdater<RateLimiter> NEXT_SUMMARY = AtomicLongFieldUpdater.newUpdater(
+	    RateLimiter.class, "nextSummary");
+	protected static final AtomicLongFieldUpdater<RateLimiter> EVICTED_SUPPRESSED = AtomicLongFieldUpdater
+	    .newUpdater(RateLimiter.class, "evictedSuppressed");
+
+	protected static final class Bucket {
+		static final AtomicLongFieldUpdater<Bucket> TAT = AtomicLongFieldUpdater.newUpdater(Bucket.class, "tat");
+		static final AtomicLongFieldUpdater<Bucket> SUPPRESSED = AtomicLongFieldUpdater.newUpdater(Bucket.class,
+		    "suppressed");
+		static final AtomicLongFieldUpdater<Bucket> EXCEEDED = AtomicLongFieldUpdater.newUpdater(Bucket.class,
+		    "exceeded");
+
+		final String format;
+		final Level level;
+		final Logger logger;
+
+		/**
+		 * The theoretical arrival time of the next event, i.e., the bucket is
+		 * full if it is not after now.
+		 */
+		volatile long tat = Long.MIN_VALUE;
+
+		/**
+		 * The number of events dropped or masked since the last summary.
+		 */
+		volatile long suppressed;
+
+		/**
+		 * The number of events exceeding the rate, used for sampling.
+		 */
+		volatile long exceeded;
+
+		Bucket(String format, Level level, Logger logger) {
+			this.format = format;
+			this.level = level;
+			this.logger = logger;
+		}
+
+		boolean matches(String format, Level level, Logger logger) {
+			return this.level == level && this.logger == logger && (this.format == format || this.format.equals(format));
+		}
+
+		boolean tryAcquire(long now, long intervalNanos, long burstNanos) {
+			for (;;) {
+				long current = tat;
+				long next = Math.max(current, now) + intervalNanos;
+				if (next - now > burstNanos) {
+					return false;
+				}
+				if (TAT.compareAndSet(this, current, next)) {
+					return true;
+				}
+			}
+		}
+	}
+
+	protected double rate = DEFAULT_RATE;
+	protected int burst;
+	protected Action action = Action.DROP;
+	protected int sampleEvery = DEFAULT_SAMPLE_EVERY;
+	protected boolean keyByLevel;
+	protected boolean keyByLogger;
+	protected Duration summaryInterval = Duration.buildBySeconds(DEFAULT_SUMMARY_INTERVAL);
+	protected String mask = BlindingSanitizerFactory.BLINDING_MASK;
+
+	protected final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<Bucket>(CACHE_SIZE);
+	protected long intervalNanos;
+	protected long burstNanos;
+	protected long summaryIntervalNanos;
+	protected volatile long nextSummary;
+	protected volatile long evictedSuppressed;
+	protected BlindingSanitizerFactory maskFactory;
+	protected volatile MaskedParamSanitizerFactories lastMasked;
+	protected boolean started;
+
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * @param rate
+	 *        The number of events per second and key.
+	 */
+	public void setRate(double rate) {
+		this.rate = rate;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @param burst
+	 *        The number of events per key that may be logged at once, defaults
+	 *        to the rate.
+	 */
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	public Action getAction() {
+		return action;
+	}
+
+	public void setAction(Action action) {
+		this.action = action;
+	}
+
+	public int getSampleEvery() {
+		return sampleEvery;
+	}
+
+	public void setSampleEvery(int sampleEvery) {
+		this.sampleEvery = sampleEvery;
+	}
+
+	public boolean isKeyByLevel() {
+		return keyByLevel;
+	}
+
+	public void setKeyByLevel(boolean keyByLevel) {
+		this.keyByLevel = keyByLevel;
+	}
+
+	public boolean isKeyByLogger() {
+		return keyByLogger;
+	}
+
+	public void setKeyByLogger(boolean keyByLogger) {
+		this.keyByLogger = keyByLogger;
+	}
+
+	public Duration getSummaryInterval() {
+		return summaryInterval;
+	}
+
+	public void setSummaryInterval(Duration summaryInterval) {
+		this.summaryInterval = summaryInterval;
+	}
+
+	public String getMask() {
+		return mask;
+	}
+
+	/**
+	 * @param mask
+	 *        The replacement of tagged parameters for the {@link Action#MASK}
+	 *        action.
+	 */
+	public void setMask(String mask) {
+		this.mask = mask;
+	}
+
+	/**
+	 * Takes a token from the bucket of the given key.
+	 *
+	 * @return <code>null</code> if the event may be processed as usual,
+	 *         {@link Action#DROP} if it has to be discarded or
+	 *         {@link Action#MASK} if its tagged parameters have to be masked.
+	 */
+	public Action acquire(String format, Level level, Logger logger) {
+		long now = System.nanoTime();
+		if (now - nextSummary >= 0) {
+			summarize(now);
+		}
+
+		Bucket bucket = bucket(format, keyByLevel ? level : null, keyByLogger ? logger : null);
+		if (bucket.tryAcquire(now, intervalNanos, burstNanos)) {
+			return null;
+		}
+
+		if (action == Action.SAMPLE && Bucket.EXCEEDED.incrementAndGet(bucket) % sampleEvery == 0) {
+			return null;
+		}
+		Bucket.SUPPRESSED.incrementAndGet(bucket);
+		return action == Action.MASK ? Action.MASK : Action.DROP;
+	}
+
+	/**
+	 * @return A view of the given factories which masks all tagged parameters.
+	 */
+	public ParamSanitizerFactories mask(ParamSanitizerFactories sanitizers) {
+		MaskedParamSanitizerFactories masked = lastMasked;
+		if (masked == null || masked.delegate != sanitizers) {
+			masked = new MaskedParamSanitizerFactories(sanitizers, maskFactory);
+			lastMasked = masked;
+		}
+		return masked;
+	}
+
+	/**
+	 * @return The first slot of the set of the given key.
+	 */
+	static int set(String format, Level level, Logger logger) {
+		int h = format.hashCode();
+		if (level != null) {
+			h = 31 * h + level.levelInt;
+		}
+		if (logger != null) {
+			h = 31 * h + logger.hashCode();
+		}
+		return (h ^ (h >>> 16)) & (CACHE_SIZE - WAYS);
+	}
+
+	protected Bucket bucket(String format, Level level, Logger logger) {
+		int set = set(format, level, logger);
+		for (int way = 0; way < WAYS; ++way) {
+			Bucket bucket = buckets.get(set + way);
+			if (bucket != null && bucket.matches(format, level, logger)) {
+				return bucket;
+			}
+		}
+
+		int victim = set;
+		Bucket evicted = buckets.get(victim);
+		for (int way = 0; way < WAYS && evicted != null; ++way) {
+			Bucket bucket = buckets.get(set + way);
+			if (bucket == null || isBetterVictim(bucket, evicted)) {
+				victim = set + way;
+				evicted = bucket;
+			}
+		}
+
+		Bucket newBucket = new Bucket(format, level, logger);
+		if (buckets.compareAndSet(victim, evicted, newBucket)) {
+			if (evicted != null) {
+				long suppressed = Bucket.SUPPRESSED.getAndSet(evicted, 0);
+				if (suppressed > 0) {
+					EVICTED_SUPPRESSED.addAndGet(this, suppressed);
+				}
+			}
+			return newBucket;
+		}
+		Bucket bucket = buckets.get(victim);
+		return bucket != null && bucket.matches(format, level, logger) ? bucket : newBucket;
+	}
+
+	/**
+	 * @return <code>true</code> if the given bucket should rather be evicted
+	 *         than the current victim, i.e., it has no suppressed events while
+	 *         the victim has or it has been less recently active.
+	 */
+	protected static boolean isBetterVictim(Bucket bucket, Bucket victim) {
+		boolean idle = bucket.suppressed == 0;
+		if (idle != (victim.suppressed == 0)) {
+			return idle;
+		}
+		return bucket.tat < victim.tat;
+	}
+
+	/**
+	 * Logs the number of suppressed events per key since the last summary.
+	 */
+	protected void summarize(long now) {
+		long due = nextSummary;
+		if (now - due < 0 || !NEXT_SUMMARY.compareAndSet(this, due, now + summaryIntervalNanos)) {
+			return;
+		}
+
+		Logger summaryLogger = ((LoggerContext) getContext()).getLogger(SUMMARY_LOGGER);
+		for (int i = 0; i < buckets.length(); ++i) {
+			Bucket bucket = buckets.get(i);
+			if (bucket == null || bucket.suppressed == 0) {
+				continue;
+			}
+			long suppressed = Bucket.SUPPRESSED.getAndSet(bucket, 0);
+			if (suppressed > 0) {
+				summaryLogger.warn("Rate limit exceeded, {} events {} for format [{}]{}", new Object[] { suppressed,
+				    action == Action.MASK ? "masked" : "dropped", bucket.format, describe(bucket) });
+			}
+		}
+
+		long evicted = EVICTED_SUPPRESSED.getAndSet(this, 0);
+		if (evicted > 0) {
+			summaryLogger.warn("Rate limit exceeded, {} events {} for evicted formats", evicted,
+			    action == Action.MASK ? "masked" : "dropped");
+		}
+	}
+
+	protected static String describe(Bucket bucket) {
+		StringBuilder sb = new StringBuilder();
+		if (bucket.level != null) {
+			sb.append(" at level ").append(bucket.level);
+		}
+		if (bucket.logger != null) {
+			sb.append(" of logger ").append(bucket.logger.getName());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void start() {
+		if (rate <= 0) {
+			addError("The rate of the " + getClass().getName() + " has to be positive");
+			return;
+		}
+		if (sampleEvery < 1) {
+			addError("The sampleEvery option of the " + getClass().getName() + " has to be positive");
+			return;
+		}
+
+		intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+		burstNanos = intervalNanos * Math.max(1, burst > 0 ? burst : (long) Math.ceil(rate));
+		summaryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(summaryInterval.getMilliseconds());
+		nextSummary = System.nanoTime() + summaryIntervalNanos;
+
+		maskFactory = new BlindingSanitizerFactory();
+		maskFactory.setContext(getContext());
+		maskFactory.setBlindingMask(mask);
+		maskFactory.setMaskCritical(true);
+		lastMasked = null;
+
+		for (int i = 0; i < buckets.length(); ++i) {
+			buckets.set(i, null);
+		}
+		evictedSuppressed = 0;
+		started = true;
+	}
+
+	@Override
+	public void stop() {
+		started = false;
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+}
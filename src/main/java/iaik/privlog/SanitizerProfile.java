@@ -0,0 +1,153 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.OptionHelper;
+import iaik.privlog.sanitizers.IParamSanitizerFactory;
+
+/**
+ * A named set of sanitizer factories which is used instead of the default
+ * factories of a {@link PrivacyAwareTurboFilter} or
+ * {@link PrivacyAwareAppender} for events carrying one of the profile's
+ * markers or stemming from a logger below one of the profile's logger
+ * prefixes.
+ */
+public class SanitizerProfile extends ContextAwareBase implements IParamSanitizerFactoriesAware, LifeCycle {
+
+	protected String name;
+	protected final List<String> markers = new ArrayList<String>();
+	protected final List<String> loggerPrefixes = new ArrayList<String>();
+	protected ParamSanitizerFactories sanitizers;
+	protected boolean started;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param marker
+	 *        The name of a marker selecting this profile. Events whose marker
+	 *        contains (or references) a marker of this name are sanitized
+	 *        according to this profile.
+	 */
+	public void addMarker(String marker) {
+		markers.add(marker);
+	}
+
+	public List<String> getMarkers() {
+		return markers;
+	}
+
+	/**
+	 * @param loggerPrefix
+	 *        The name of a logger selecting this profile for itself and all of
+	 *        its descendants.
+	 */
+	public void addLoggerPrefix(String loggerPrefix) {
+		loggerPrefixes.add(loggerPrefix);
+	}
+
+	public List<String> getLoggerPrefixes() {
+		return loggerPrefixes;
+	}
+
+	@Override
+	public void setSanitizerFactories(ParamSanitizerFactories sanitizers) {
+		this.sanitizers = sanitizers;
+	}
+
+	@Override
+	public void addSanitizerFactory(String tagName, IParamSanitizerFactory sanitizerFactory) {
+		if (sanitizers == null) {
+			sanitizers = new ParamSanitizerFactories();
+		}
+		sanitizers.put(tagName, sanitizerFactory);
+	}
+
+	public ParamSanitizerFactories getSanitizerFactories() {
+		return sanitizers;
+	}
+
+	/**
+	 * @return <code>true</code> if the given marker contains one of the
+	 *         profile's markers.
+	 */
+	public boolean matchesMarker(Marker marker) {
+		if (marker == null) {
+			return false;
+		}
+		for (String m : markers) {
+			if (marker.contains(m)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if the logger is one of the profile's logger
+	 *         prefixes or a descendant thereof.
+	 */
+	public boolean matchesLogger(String loggerName) {
+		for (String prefix : loggerPrefixes) {
+			if (loggerName.startsWith(prefix)
+			    && (loggerName.length() == prefix.length() || loggerName.charAt(prefix.length()) == '.')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void start() {
+		if (OptionHelper.isEmpty(name)) {
+			addError("A sanitizer profile requires a name.");
+			throw new RuntimeException("A sanitizer profile requires a name.");
+		}
+
+		if (markers.isEmpty() && loggerPrefixes.isEmpty()) {
+			addWarn("The sanitizer profile [" + name + "] has neither markers nor logger prefixes and is never selected.");
+		}
+
+		if (sanitizers == null) {
+			addWarn("The sanitizer profile [" + name + "] has no parameter sanitizers.");
+			sanitizers = new ParamSanitizerFactories();
+		}
+
+		started = true;
+	}
+
+	@Override
+	public void stop() {
+		started = false;
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Selects the sanitizer factories for an event among a set of
+ * {@link SanitizerProfile}s. Marker based profiles take precedence over logger
+ * prefix based ones; within each kind the first matching profile (in the
+ * order they have been added) wins. If no profile matches, the default
+ * factories are used.
+ * <p>
+ * The resolution is cached per logger and marker. As markers may be created
+ * dynamically, the number of cached markers per logger is bounded.
+ */
+public class SanitizerProfiles {
+
+	/**
+	 * Maximum number of markers cached per logger.
+	 */
+	protected static final int MAX_CACHED_MARKERS = 64;
+
+	protected static final class LoggerEntry {
+		final ParamSanitizerFactories withoutMarker;
+		final ConcurrentMap<Marker, ParamSanitizerFactories> byMarker = new ConcurrentHashMap<Marker, ParamSanitizerFactories>();
+
+		LoggerEntry(ParamSanitizerFactories withoutMarker) {
+			this.withoutMarker = withoutMarker;
+		}
+	}
+
+	protected final CopyOnWriteArrayList<SanitizerProfile> profiles = new CopyOnWriteArrayList<SanitizerProfile>();
+	protected final ConcurrentMap<Logger, LoggerEntry> cache = new ConcurrentHashMap<Logger, LoggerEntry>();
+	protected volatile ParamSanitizerFactories defaults;
+
+	public void add(SanitizerProfile profile) {
+		profiles.add(profile);
+		cache.clear();
+	}
+
+	public boolean remove(SanitizerProfile profile) {
+		boolean removed = profiles.remove(profile);
+		cache.clear();
+		return removed;
+	}
+
+	public SanitizerProfile get(String name) {
+		for (SanitizerProfile profile : profiles) {
+			if (profile.getName().equals(name)) {
+				return profile;
+			}
+		}
+		return null;
+	}
+
+	public boolean isEmpty() {
+		return profiles.isEmpty();
+	}
+
+	public void setDefaults(ParamSanitizerFactories defaults) {
+		this.defaults = defaults;
+		cache.clear();
+	}
+
+	/**
+	 * @return The sanitizer factories to be used for an event of the given
+	 *         logger and marker.
+	 */
+	public ParamSanitizerFactories resolve(Marker marker, Logger logger) {
+		if (profiles.isEmpty()) {
+			return defaults;
+		}
+
+		LoggerEntry entry = cache.get(logger);
+		if (entry == null) {
+			entry = new LoggerEntry(select(null, logger.getName()));
+			LoggerEntry prev = cache.putIfAbsent(logger, entry);
+			if (prev != null) {
+				entry = prev;
+			}
+		}
+
+		if (marker == null) {
+			return entry.withoutMarker;
+		}
+
+		ParamSanitizerFactories sanitizers = entry.byMarker.get(marker);
+		if (sanitizers == null) {
+			sanitizers = select(marker, logger.getName());
+			if (entry.byMarker.size() < MAX_CACHED_MARKERS) {
+				entry.byMarker.put(marker, sanitizers);
+			}
+		}
+		return sanitizers;
+	}
+
+	protected ParamSanitizerFactories select(Marker marker, String loggerName) {
+		if (marker != null) {
+			for (SanitizerProfile profile : profiles) {
+				if (profile.matchesMarker(marker)) {
+					return profile.getSanitizerFactories();
+				}
+			}
+		}
+		for (SanitizerProfile profile : profiles) {
+			if (profile.matchesLogger(loggerName)) {
+				return profile.getSanitizerFactories();
+			}
+		}
+		return defaults;
+	}
+}
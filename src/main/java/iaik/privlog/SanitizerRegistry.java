@@ -0,0 +1,262 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import ch.qos.logback.core.Context;
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.OptionHelper;
+import iaik.privlog.concurrent.StartupExecutor;
+import iaik.privlog.sanitizers.IParamSanitizerFactory;
+
+/**
+ * Allows to add, replace and remove the sanitizer factories of a running
+ * {@link PrivacyAwareTurboFilter} or {@link PrivacyAwareAppender} without
+ * pausing logging or reloading the configuration. New factories are set up
+ * like the {@link iaik.privlog.joran.action.ParamSanitizerFactoryAction} does,
+ * i.e., the context is set and they are started. The factories started by the
+ * registry are stopped together with the context, unless they are replaced or
+ * removed before: a replaced factory is no longer referenced by the registry
+ * and is stopped {@link #setStopDelay(Duration) stopDelay} after the new one
+ * has been published, so that events still being rendered by its sanitizers
+ * can complete. Factories started by someone else (e.g., the configuration)
+ * are left to their owner.
+ * <p>
+ * The registry is exposed via JMX as
+ * <code>iaik.privlog:type=SanitizerRegistry,name=&lt;registryName&gt;</code>
+ * if the owning component is configured with a <code>registryName</code>.
+ */
+public class SanitizerRegistry extends ContextAwareBase implements SanitizerRegistryMBean {
+
+	public static final String OBJECT_NAME_PREFIX = "iaik.privlog:type=SanitizerRegistry,name=";
+	public static final long DEFAULT_STOP_DELAY = 10;
+
+	protected final ParamSanitizerFactories sanitizers;
+	protected ObjectName objectName;
+	protected Duration stopDelay = Duration.buildBySeconds(DEFAULT_STOP_DELAY);
+
+	/**
+	 * The factories started by this registry, stopped by
+	 * {@link #ownedLifeCycle} when the context is stopped. The context only
+	 * holds on to this component, which it cannot unregister, rather than to
+	 * the factories themselves.
+	 */
+	protected final Map<LifeCycle, Boolean> owned = new IdentityHashMap<LifeCycle, Boolean>();
+	protected final LifeCycle ownedLifeCycle = new LifeCycle() {
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public void stop() {
+			List<LifeCycle> components;
+			synchronized (owned) {
+				components = new ArrayList<LifeCycle>(owned.keySet());
+				owned.clear();
+				registered = false;
+			}
+			for (LifeCycle component : components) {
+				component.stop();
+			}
+		}
+
+		@Override
+		public boolean isStarted() {
+			synchronized (owned) {
+				return !owned.isEmpty();
+			}
+		}
+	};
+	protected boolean registered;
+
+	public SanitizerRegistry(Context context, ParamSanitizerFactories sanitizers) {
+		setContext(context);
+		this.sanitizers = sanitizers;
+	}
+
+	public ParamSanitizerFactories getSanitizerFactories() {
+		return sanitizers;
+	}
+
+	public Duration getStopDelay() {
+		return stopDelay;
+	}
+
+	/**
+	 * @param stopDelay
+	 *        The time a replaced or removed factory started by this registry
+	 *        is kept running for sanitizers created before.
+	 */
+	public void setStopDelay(Duration stopDelay) {
+		this.stopDelay = stopDelay;
+	}
+
+	@Override
+	public String[] getTagNames() {
+		String[] tagNames = sanitizers.keySet().toArray(new String[0]);
+		Arrays.sort(tagNames);
+		return tagNames;
+	}
+
+	@Override
+	public String getFactoryClassName(String tagName) {
+		IParamSanitizerFactory factory = sanitizers.get(tagName);
+		return factory == null ? null : factory.getClass().getName();
+	}
+
+	@Override
+	public void setFactory(String tagName, String className) {
+		IParamSanitizerFactory factory;
+		try {
+			factory = (IParamSanitizerFactory) OptionHelper.instantiateByClassName(className,
+			    IParamSanitizerFactory.class, getContext());
+		} catch (Exception cause) {
+			addError("Could not create a parameter sanitizer of type [" + className + "].", cause);
+			throw new IllegalArgumentException("Could not create a parameter sanitizer of type [" + className + "].",
+			    cause);
+		}
+
+		putFactory(tagName, factory);
+	}
+
+	/**
+	 * Starts the given factory (if not yet started) and publishes it for the
+	 * given tag name.
+	 *
+	 * @return The replaced factory or <code>null</code>.
+	 */
+	public IParamSanitizerFactory putFactory(String tagName, IParamSanitizerFactory factory) {
+		if (OptionHelper.isEmpty(tagName)) {
+			addError("Missing tag name for parameter sanitizer.");
+			throw new IllegalArgumentException("Missing tag name for parameter sanitizer.");
+		}
+
+		if (factory instanceof ContextAware && ((ContextAware) factory).getContext() == null) {
+			((ContextAware) factory).setContext(getContext());
+		}
+		if (factory instanceof LifeCycle && !((LifeCycle) factory).isStarted()) {
+			LifeCycle component = (LifeCycle) factory;
+			component.start();
+			own(component);
+		}
+
+		IParamSanitizerFactory previous = sanitizers.put(tagName, factory);
+		addInfo("Registered parameter sanitizer [" + factory.getClass().getName() + "] for tag name {" + tagName + "}");
+		stop(previous);
+
+		return previous;
+	}
+
+	@Override
+	public boolean removeFactory(String tagName) {
+		IParamSanitizerFactory previous = sanitizers.remove(tagName);
+		if (previous == null) {
+			return false;
+		}
+
+		addInfo("Removed parameter sanitizer for tag name {" + tagName + "}");
+		stop(previous);
+		return true;
+	}
+
+	/**
+	 * Stops the given factory after the {@link #setStopDelay(Duration)
+	 * stopDelay} if it has been started by this registry and is no longer
+	 * published.
+	 */
+	protected void stop(IParamSanitizerFactory factory) {
+		if (!(factory instanceof LifeCycle) || sanitizers.containsValue(factory)) {
+			return;
+		}
+		synchronized (owned) {
+			if (owned.remove(factory) == null) {
+				return;
+			}
+		}
+
+		final LifeCycle component = (LifeCycle) factory;
+		StartupExecutor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				component.stop();
+			}
+		}, stopDelay.getMilliseconds(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Keeps the given component to be stopped together with the context.
+	 */
+	protected void own(LifeCycle component) {
+		boolean register;
+		synchronized (owned) {
+			owned.put(component, Boolean.TRUE);
+			register = !registered && getContext() != null;
+			registered |= register;
+		}
+		if (register) {
+			getContext().register(ownedLifeCycle);
+		}
+	}
+
+	/**
+	 * Registers this registry with the platform MBean server.
+	 */
+	public void register(String name) {
+		try {
+			ObjectName on = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(on)) {
+				addWarn("Replacing already registered MBean [" + on + "]");
+				server.unregisterMBean(on);
+			}
+			server.registerMBean(this, on);
+			objectName = on;
+		} catch (Exception cause) {
+			addError("Failed to register sanitizer registry [" + name + "] with the MBean server", cause);
+		}
+	}
+
+	public void unregister() {
+		if (objectName == null) {
+			return;
+		}
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (Exception cause) {
+			addError("Failed to unregister MBean [" + objectName + "]", cause);
+		}
+		objectName = null;
+	}
+}
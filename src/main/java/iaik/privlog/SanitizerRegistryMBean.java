@@ -0,0 +1,47 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+/**
+ * JMX view of a {@link SanitizerRegistry}.
+ */
+public interface SanitizerRegistryMBean {
+
+	/**
+	 * @return The currently registered tag names.
+	 */
+	String[] getTagNames();
+
+	/**
+	 * @return The class name of the factory registered for the given tag or
+	 *         <code>null</code> if the tag is unknown.
+	 */
+	String getFactoryClassName(String tagName);
+
+	/**
+	 * Instantiates, starts and registers a factory of the given class for the
+	 * given tag. A previously registered factory is replaced and stopped.
+	 */
+	void setFactory(String tagName, String className);
+
+	/**
+	 * Removes and stops the factory registered for the given tag.
+	 *
+	 * @return <code>true</code> if there was such a factory.
+	 */
+	boolean removeFactory(String tagName);
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns tag names into dense integer ids. Ids are assigned once, when a
+ * sanitizer factory is configured for a tag, and are never reused. Hence,
+ * resolving a tag on the logging hot path is an array index instead of a map
+ * lookup. Message templates only {@link #lookup(String) look up} their tags,
+ * such that arbitrary brace content in dynamically built formats does not
+ * grow the table.
+ */
+public final class TagIds {
+
+	/**
+	 * The id of untagged (non critical) place holders.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * The id of tags which have not been interned (yet), i.e., no sanitizer
+	 * factory is configured for them.
+	 */
+	public static final int UNRESOLVED = -2;
+
+	private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] names = new String[0];
+
+	private TagIds() {
+	}
+
+	/**
+	 * @return The id of the given tag name, a new one if the tag is seen for
+	 *         the first time.
+	 */
+	public static int intern(String tagName) {
+		if (tagName == null) {
+			return NONE;
+		}
+
+		Integer id = ids.get(tagName);
+		if (id != null) {
+			return id;
+		}
+
+		synchronized (TagIds.class) {
+			id = ids.get(tagName);
+			if (id == null) {
+				String[] n = Arrays.copyOf(names, names.length + 1);
+				id = names.length;
+				n[id] = tagName;
+				names = n;
+				ids.put(tagName, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * @return The id of the given tag name or {@link #NONE} if the tag has not
+	 *         been interned yet.
+	 */
+	public static int lookup(String tagName) {
+		Integer id = tagName == null ? null : ids.get(tagName);
+		return id == null ? NONE : id;
+	}
+
+	/**
+	 * @return The tag name of the given id or <code>null</code> for
+	 *         {@link #NONE}.
+	 */
+	public static String name(int tagId) {
+		return tagId < 0 ? null : names[tagId];
+	}
+
+	/**
+	 * @return The number of ids assigned so far.
+	 */
+	public static int size() {
+		return names.length;
+	}
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.appenders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.recovery.ResilientFileOutputStream;
+import ch.qos.logback.core.spi.DeferredProcessingAware;
+import ch.qos.logback.core.status.ErrorStatus;
+import ch.qos.logback.core.util.Duration;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
+
+/**
+ * A {@link FileAppender} that makes the written events durable in group
+ * commits. Events are written to the file buffer as usual, while a committer
+ * thread flushes the buffer and forces it to the storage device (see
+ * {@link FileChannel#force(boolean)}) once per batch. A batch is committed as
+ * soon as
+ * <ul>
+ * <li>it contains {@link #setMaxBatchSize(int) maxBatchSize} events,</li>
+ * <li>its oldest event has been written {@link #setMaxBatchDelay(Duration)
+ * maxBatchDelay} ago, or</li>
+ * <li>a logging thread waits for its commit (see
+ * {@link #setWaitForCommit(boolean)}). Events written during a running commit
+ * are collected in the next batch.</li>
+ * </ul>
+ * This allows to, e.g., keep the chain of a
+ * {@link iaik.privlog.layouts.DigestConverter} intact on disk without syncing
+ * each line. As the buffer is flushed by the committer, the
+ * <code>immediateFlush</code> option of the encoder should be disabled.
+ * <p>
+ * If a commit fails, the appender stops accepting events (like a
+ * {@link FileAppender} on an IO failure) and threads waiting for the commit
+ * report the failure instead of returning as if their events were durable.
+ * <p>
+ * The commit latency and the batch size are recorded via {@link Metrics}.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class GroupCommitFileAppender<E> extends FileAppender<E> {
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+	public static final long DEFAULT_MAX_BATCH_DELAY = 10;
+
+	protected int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	protected Duration maxBatchDelay = Duration.buildByMilliseconds(DEFAULT_MAX_BATCH_DELAY);
+	protected boolean waitForCommit;
+
+	protected final Condition batchPending = lock.newCondition();
+	protected final Condition batchCommitted = lock.newCondition();
+	protected Thread committer;
+
+	// The following fields are guarded by the lock
+	protected long written;
+	protected long flushed;
+	protected long committed;
+	protected long oldestPendingNanos;
+	protected int waiting;
+	protected boolean stopping;
+	protected boolean closed;
+	protected boolean failed;
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @param maxBatchSize
+	 *        The number of written events that triggers a commit.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public Duration getMaxBatchDelay() {
+		return maxBatchDelay;
+	}
+
+	/**
+	 * @param maxBatchDelay
+	 *        The maximum time an event is kept uncommitted.
+	 */
+	public void setMaxBatchDelay(Duration maxBatchDelay) {
+		this.maxBatchDelay = maxBatchDelay;
+	}
+
+	public boolean isWaitForCommit() {
+		return waitForCommit;
+	}
+
+	/**
+	 * @param waitForCommit
+	 *        If <code>true</code>, the logging thread blocks until its event is
+	 *        committed.
+	 */
+	public void setWaitForCommit(boolean waitForCommit) {
+		this.waitForCommit = waitForCommit;
+	}
+
+	@Override
+	protected void subAppend(E event) {
+		if (!isStarted()) {
+			return;
+		}
+
+		try {
+			if (event instanceof DeferredProcessingAware) {
+				((DeferredProcessingAware) event).prepareForDeferredProcessing();
+			}
+
+			lock.lock();
+			try {
+				if (failed) {
+					return;
+				}
+				writeOut(event);
+				if (written == flushed) {
+					oldestPendingNanos = System.nanoTime();
+				}
+				long sequence = ++written;
+				if (waitForCommit) {
+					awaitCommit(sequence);
+				} else if (sequence - flushed == 1 || sequence - flushed >= maxBatchSize) {
+					batchPending.signal();
+				}
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException ioe) {
+			this.started = false;
+			addStatus(new ErrorStatus("IO failure in appender", this, ioe));
+		}
+	}
+
+	/**
+	 * Waits until the given event is committed. The caller must hold the lock.
+	 * Interrupts do not end the wait, but the interrupt status of the thread is
+	 * preserved.
+	 *
+	 * @throws IOException
+	 *         if the batch of the event could not be committed.
+	 */
+	protected void awaitCommit(long sequence)
+	    throws IOException
+	{
+		++waiting;
+		batchPending.signal();
+		try {
+			while (committed < sequence && !closed && !failed) {
+				// An interrupt must not be mistaken for a commit: keep waiting, the
+				// interrupt status is still set on return
+				batchCommitted.awaitUninterruptibly();
+			}
+		} finally {
+			--waiting;
+		}
+		if (committed < sequence && failed) {
+			throw new IOException("Failed to commit file [" + fileName + "]");
+		}
+	}
+
+	/**
+	 * Waits until a batch is due. The caller must hold the lock.
+	 *
+	 * @return <code>false</code> if the appender is stopping, i.e., the pending
+	 *         events have to be committed a last time.
+	 */
+	protected boolean awaitBatch() {
+		long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelay.getMilliseconds());
+		try {
+			while (!stopping) {
+				long pending = written - flushed;
+				if (pending == 0) {
+					batchPending.await();
+				} else if (pending >= maxBatchSize || waiting > 0) {
+					return true;
+				} else {
+					long remaining = oldestPendingNanos + maxDelayNanos - System.nanoTime();
+					if (remaining <= 0) {
+						return true;
+					}
+					batchPending.awaitNanos(remaining);
+				}
+			}
+		} catch (InterruptedException e) {
+			stopping = true;
+		}
+		return false;
+	}
+
+	protected void commit() {
+		boolean running = true;
+		while (running) {
+			long batchStart;
+			long batchEnd;
+			long oldest;
+			FileChannel channel;
+
+			lock.lock();
+			try {
+				running = awaitBatch();
+				if (written == flushed) {
+					continue;
+				}
+				batchStart = flushed;
+				batchEnd = written;
+				oldest = oldestPendingNanos;
+				try {
+					channel = flush();
+				} catch (IOException cause) {
+					addError("Failed to flush file [" + fileName + "]", cause);
+					fail();
+					return;
+				}
+				flushed = batchEnd;
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				force(channel);
+			} catch (IOException cause) {
+				addError("Failed to commit file [" + fileName + "]", cause);
+				lock.lock();
+				try {
+					fail();
+				} finally {
+					lock.unlock();
+				}
+				return;
+			}
+
+			IMetricsCollector metrics = Metrics.getCollector();
+			if (metrics != null) {
+				metrics.recordCommit(getName(), (int) (batchEnd - batchStart), System.nanoTime() - oldest);
+			}
+
+			lock.lock();
+			try {
+				committed = batchEnd;
+				batchCommitted.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting events after a failed commit and releases the waiting
+	 * threads without advancing the committed events. The caller must hold the
+	 * lock.
+	 */
+	protected void fail() {
+		failed = true;
+		started = false;
+		batchCommitted.signalAll();
+	}
+
+	/**
+	 * Flushes the buffered output. The caller must hold the lock.
+	 *
+	 * @return The channel of the log file or <code>null</code> if it is not
+	 *         available.
+	 */
+	protected FileChannel flush()
+	    throws IOException
+	{
+		OutputStream os = getOutputStream();
+		os.flush();
+		return os instanceof ResilientFileOutputStream ? ((ResilientFileOutputStream) os).getChannel() : null;
+	}
+
+	protected void force(FileChannel channel)
+	    throws IOException
+	{
+		if (channel != null) {
+			channel.force(false);
+		}
+	}
+
+	@Override
+	public void start() {
+		if (maxBatchSize < 1) {
+			addError("The maxBatchSize of appender [" + name + "] has to be positive");
+			return;
+		}
+
+		super.start();
+		if (!isStarted()) {
+			return;
+		}
+
+		lock.lock();
+		try {
+			written = flushed = committed = 0;
+			stopping = false;
+			closed = false;
+			failed = false;
+		} finally {
+			lock.unlock();
+		}
+
+		committer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				commit();
+			}
+		}, "GroupCommitFileAppender-" + name);
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	@Override
+	public void stop() {
+		if (committer != null) {
+			lock.lock();
+			try {
+				stopping = true;
+				batchPending.signal();
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				committer.join();
+			} catch (InterruptedException e) {
+				committer.interrupt();
+				Thread.currentThread().interrupt();
+			}
+			committer = null;
+
+			lock.lock();
+			try {
+				closed = true;
+				batchCommitted.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		super.stop();
+	}
+
+}
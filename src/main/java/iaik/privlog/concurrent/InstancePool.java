@@ -0,0 +1,99 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache of instances which are expensive to create and not thread safe,
+ * e.g., {@link javax.crypto.Mac}s or encoding buffers. Platform threads use a
+ * thread local instance, virtual threads (see {@link VirtualThreads}) borrow
+ * one from a shared, lock-free queue of at most {@link #getMaxIdle()} idle
+ * instances. Either way, no lock is held while the instance is in use.
+ * <p>
+ * Every instance obtained by {@link #acquire()} has to be handed back by
+ * {@link #release(Object)}, e.g.:
+ *
+ * <pre>
+ * Mac mac = macs.acquire();
+ * try {
+ * 	return mac.doFinal(value);
+ * } finally {
+ * 	macs.release(mac);
+ * }
+ * </pre>
+ *
+ * @param <T>
+ *        The type of the pooled instances.
+ */
+public abstract class InstancePool<T> {
+
+	public static final int DEFAULT_MAX_IDLE = 4 * Runtime.getRuntime().availableProcessors();
+
+	protected final ThreadLocal<T> local = new ThreadLocal<T>() {
+
+		@Override
+		protected T initialValue() {
+			return create();
+		}
+	};
+	protected final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<T>();
+	protected final AtomicInteger idleCount = new AtomicInteger();
+	protected final int maxIdle;
+
+	protected InstancePool() {
+		this(DEFAULT_MAX_IDLE);
+	}
+
+	protected InstancePool(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return A new instance, must not return <code>null</code>.
+	 */
+	protected abstract T create();
+
+	public T acquire() {
+		if (!VirtualThreads.isCurrentThreadVirtual()) {
+			return local.get();
+		}
+
+		T instance = idle.poll();
+		if (instance == null) {
+			return create();
+		}
+		idleCount.decrementAndGet();
+		return instance;
+	}
+
+	public void release(T instance) {
+		if (!VirtualThreads.isCurrentThreadVirtual()) {
+			return;
+		}
+
+		if (idleCount.incrementAndGet() <= maxIdle) {
+			idle.offer(instance);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared executor running the expensive start steps of components (e.g.,
+ * key generation or cipher initialization) concurrently, and off the thread
+ * parsing the logging configuration, and delayed steps like stopping a
+ * replaced component once it is no longer in use. The daemon threads are
+ * created on demand and terminate once they have been idle for
+ * {@value #KEEP_ALIVE_SECONDS} seconds, i.e., the executor does not hold on to
+ * any threads after the startup.
+ */
+public final class StartupExecutor {
+
+	public static final int KEEP_ALIVE_SECONDS = 10;
+
+	private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+	private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+	private StartupExecutor() {
+	}
+
+	private static ThreadFactory createThreadFactory(final String prefix) {
+		return new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static ThreadPoolExecutor createExecutor() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+		    new LinkedBlockingQueue<Runnable>(), createThreadFactory("privlog-startup-"));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static ScheduledThreadPoolExecutor createScheduler() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+		    createThreadFactory("privlog-scheduler-"));
+		scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+		scheduler.allowCoreThreadTimeOut(true);
+		return scheduler;
+	}
+
+	public static <T> Future<T> submit(Callable<T> task) {
+		return EXECUTOR.submit(task);
+	}
+
+	public static Future<?> submit(Runnable task) {
+		return EXECUTOR.submit(task);
+	}
+
+	/**
+	 * Runs the given task once after the given delay.
+	 */
+	public static Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return SCHEDULER.schedule(task, delay, unit);
+	}
+}
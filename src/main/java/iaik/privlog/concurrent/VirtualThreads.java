@@ -0,0 +1,69 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.concurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Detects virtual threads (Java 21 and later) at runtime. On older runtimes
+ * all threads are platform threads.
+ * <p>
+ * Code running on virtual threads must neither block while holding a monitor
+ * (which pins the carrier thread) nor rely on thread local caches (virtual
+ * threads are usually created per task, hence the cached instances are hardly
+ * ever reused). The logging path therefore uses {@link java.util.concurrent}
+ * locks instead of <code>synchronized</code> and {@link InstancePool}s instead
+ * of {@link ThreadLocal}s.
+ */
+public final class VirtualThreads {
+
+	private static final MethodHandle IS_VIRTUAL = lookupIsVirtual();
+
+	private VirtualThreads() {
+	}
+
+	private static MethodHandle lookupIsVirtual() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the runtime supports virtual threads.
+	 */
+	public static boolean isSupported() {
+		return IS_VIRTUAL != null;
+	}
+
+	public static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(thread);
+		} catch (Throwable cause) {
+			return false;
+		}
+	}
+
+	public static boolean isCurrentThreadVirtual() {
+		return IS_VIRTUAL != null && isVirtual(Thread.currentThread());
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.dictionary;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Constants of the binary template dictionary log format. A log file starts
+ * with {@link #MAGIC} and {@link #VERSION}, followed by records, each
+ * starting with a record type byte:
+ * <dl>
+ * <dt>{@link #TEMPLATE}, {@link #LOGGER}, {@link #THREAD}</dt>
+ * <dd>Adds an entry to the respective dictionary: the id (varint) and the
+ * string (see below). Entries are written right before the first event
+ * referring to them.</dd>
+ * <dt>{@link #EVENT}</dt>
+ * <dd>The template id (varint), the timestamp as zig-zag encoded difference
+ * to the previous event (varlong), the level code ({@link #levelCode(Level)},
+ * or'ed with {@link #THROWABLE_FLAG} if a stack trace follows the arguments),
+ * the logger id (varint), the thread id (varint), the number of arguments
+ * (varint), the arguments (strings) and the optional stack trace
+ * (string).</dd>
+ * <dt>{@link #RESET}</dt>
+ * <dd>Clears all dictionaries.</dd>
+ * <dt>{@link #MAGIC} and {@link #VERSION}</dt>
+ * <dd>A repeated header, written whenever an encoder is initialized on a file
+ * that is appended to (e.g., after a restart), which also clears all
+ * dictionaries.</dd>
+ * </dl>
+ * Varints are unsigned LEB128 numbers, strings are UTF-8 encoded and prefixed
+ * by their length in bytes (varint). The template of an event is the message
+ * with <code>{}</code> place holders as returned by
+ * {@link ch.qos.logback.classic.spi.ILoggingEvent#getMessage()}, for privacy
+ * aware events the arguments are the sanitized values.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public final class TemplateDictionaryFormat {
+
+	public static final byte[] MAGIC = { 'P', 'L', 'T', 'D' };
+	public static final int VERSION = 1;
+
+	public static final int TEMPLATE = 1;
+	public static final int LOGGER = 2;
+	public static final int THREAD = 3;
+	public static final int EVENT = 4;
+	public static final int RESET = 5;
+
+	public static final int THROWABLE_FLAG = 0x80;
+
+	private TemplateDictionaryFormat() {
+	}
+
+	/**
+	 * @return <code>0</code> for {@link Level#TRACE} up to <code>4</code> for
+	 *         {@link Level#ERROR}.
+	 */
+	public static int levelCode(Level level) {
+		return level.levelInt / Level.DEBUG_INT;
+	}
+
+	public static Level level(int levelCode) {
+		return levelCode == 0 ? Level.TRACE : Level.toLevel(levelCode * Level.DEBUG_INT);
+	}
+
+	public static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	public static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
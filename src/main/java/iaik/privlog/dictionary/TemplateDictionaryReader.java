@@ -0,0 +1,296 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.dictionary;
+
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.EVENT;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.LOGGER;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.MAGIC;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.RESET;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.TEMPLATE;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.THREAD;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.THROWABLE_FLAG;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Layout;
+import iaik.privlog.encoders.TemplateDictionaryEncoder;
+
+/**
+ * Reads log files written by the {@link TemplateDictionaryEncoder} and
+ * reconstructs the logging events, e.g., to expand them to text lines.
+ * <p>
+ * Usage: <code>TemplateDictionaryReader &lt;log file&gt; [pattern]</code>
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class TemplateDictionaryReader implements Closeable {
+
+	public static final String DEFAULT_PATTERN = "%d{ISO8601} %-5level [%thread] %logger - %msg%n";
+
+	/**
+	 * A reconstructed event. As the throwable itself is not available, its
+	 * stack trace is provided as text.
+	 */
+	public static class DictionaryLoggingEvent extends LoggingEvent {
+		protected String stackTrace;
+
+		/**
+		 * @return The stack trace of the logged throwable or <code>null</code>.
+		 */
+		public String getStackTrace() {
+			return stackTrace;
+		}
+	}
+
+	protected final InputStream in;
+	protected final List<String> templates = new ArrayList<String>();
+	protected final List<String> loggers = new ArrayList<String>();
+	protected final List<String> threads = new ArrayList<String>();
+	protected long lastTimestamp;
+	protected byte[] scratch = new byte[256];
+
+	public TemplateDictionaryReader(InputStream in)
+	    throws IOException
+	{
+		this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+
+		byte[] header = new byte[MAGIC.length + 1];
+		readFully(header, header.length);
+		checkHeader(header);
+	}
+
+	protected void checkHeader(byte[] header)
+	    throws IOException
+	{
+		if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) {
+			throw new IOException("Not a template dictionary log file");
+		}
+		if (header[MAGIC.length] != VERSION) {
+			throw new IOException("Unsupported template dictionary version " + header[MAGIC.length]);
+		}
+	}
+
+	protected void reset() {
+		templates.clear();
+		loggers.clear();
+		threads.clear();
+		lastTimestamp = 0;
+	}
+
+	/**
+	 * @return The next event or <code>null</code> at the end of the file.
+	 * @throws IOException
+	 */
+	public DictionaryLoggingEvent read()
+	    throws IOException
+	{
+		int recordType;
+		while ((recordType = in.read()) >= 0) {
+			switch (recordType) {
+				case TEMPLATE:
+					define(templates);
+					break;
+				case LOGGER:
+					define(loggers);
+					break;
+				case THREAD:
+					define(threads);
+					break;
+				case RESET:
+					reset();
+					break;
+				case EVENT:
+					return readEvent();
+				default:
+					if (recordType != (MAGIC[0] & 0xff)) {
+						throw new IOException("Unknown record type " + recordType);
+					}
+					// The header of an appended run, e.g., after a restart
+					byte[] header = new byte[MAGIC.length + 1];
+					header[0] = MAGIC[0];
+					readFully(header, 1, MAGIC.length);
+					checkHeader(header);
+					reset();
+			}
+		}
+		return null;
+	}
+
+	protected DictionaryLoggingEvent readEvent()
+	    throws IOException
+	{
+		DictionaryLoggingEvent event = new DictionaryLoggingEvent();
+		event.setMessage(get(templates, readVarInt()));
+		lastTimestamp += TemplateDictionaryFormat.unZigZag(readVarLong());
+		event.setTimeStamp(lastTimestamp);
+		int level = readByte();
+		event.setLevel(TemplateDictionaryFormat.level(level & ~THROWABLE_FLAG));
+		event.setLoggerName(get(loggers, readVarInt()));
+		event.setThreadName(get(threads, readVarInt()));
+
+		Object[] args = new Object[readVarInt()];
+		for (int i = 0; i < args.length; ++i) {
+			args[i] = readString();
+		}
+		event.setArgumentArray(args);
+
+		if ((level & THROWABLE_FLAG) != 0) {
+			event.stackTrace = readString();
+		}
+		return event;
+	}
+
+	protected void define(List<String> dictionary)
+	    throws IOException
+	{
+		int id = readVarInt();
+		if (id != dictionary.size()) {
+			throw new IOException("Unexpected dictionary id " + id + ", expected " + dictionary.size());
+		}
+		dictionary.add(readString());
+	}
+
+	protected static String get(List<String> dictionary, int id)
+	    throws IOException
+	{
+		if (id >= dictionary.size()) {
+			throw new IOException("Undefined dictionary id " + id);
+		}
+		return dictionary.get(id);
+	}
+
+	protected int readByte()
+	    throws IOException
+	{
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	protected long readVarLong()
+	    throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	protected int readVarInt()
+	    throws IOException
+	{
+		long value = readVarLong();
+		if (value > Integer.MAX_VALUE) {
+			throw new IOException("Malformed varint");
+		}
+		return (int) value;
+	}
+
+	protected String readString()
+	    throws IOException
+	{
+		int length = readVarInt();
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		readFully(scratch, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	protected void readFully(byte[] b, int length)
+	    throws IOException
+	{
+		readFully(b, 0, length);
+	}
+
+	protected void readFully(byte[] b, int offset, int length)
+	    throws IOException
+	{
+		int read = 0;
+		while (read < length) {
+			int n = in.read(b, offset + read, length - read);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			read += n;
+		}
+	}
+
+	/**
+	 * Expands all remaining events with the given layout.
+	 */
+	public void expand(Layout<? super LoggingEvent> layout, PrintStream out)
+	    throws IOException
+	{
+		DictionaryLoggingEvent event;
+		while ((event = read()) != null) {
+			out.print(layout.doLayout(event));
+			if (event.getStackTrace() != null) {
+				out.print(event.getStackTrace());
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	    throws IOException
+	{
+		in.close();
+	}
+
+	public static void main(String[] args)
+	    throws IOException
+	{
+		if (args.length < 1) {
+			System.err.println("Usage: " + TemplateDictionaryReader.class.getName() + " <log file> [pattern]");
+			System.exit(1);
+		}
+
+		LoggerContext lc = new LoggerContext();
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(lc);
+		layout.setPattern(args.length > 1 ? args[1] : DEFAULT_PATTERN);
+		layout.start();
+
+		TemplateDictionaryReader reader = new TemplateDictionaryReader(new FileInputStream(args[0]));
+		try {
+			reader.expand(layout, System.out);
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -25,6 +25,10 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
@@ -45,9 +49,16 @@ import ch.qos.logback.core.pattern.LiteralConverter;
 import ch.qos.logback.core.pattern.parser.Node;
 import ch.qos.logback.core.pattern.parser.Parser;
 import ch.qos.logback.core.spi.ScanException;
+import iaik.privlog.ParamSanitizerFactories;
 import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.PrivacyAwareTurboFilter;
+import iaik.privlog.TagIds;
+import iaik.privlog.concurrent.StartupExecutor;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
 import iaik.privlog.sanitizers.IParamSanitizer;
 import iaik.privlog.sanitizers.IParamSanitizerFactory;
+import iaik.privlog.sanitizers.ITagIdAwareParamSanitizerFactory;
 import iaik.utils.KeyAndCertificate;
 import iaik.x509.X509Certificate;
 import tug.iaik.blanksig.keys.PP;
@@ -73,7 +84,15 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 	 */
 	static final int DEFAULT_NUM_INVOCATIONS = 15;
 
-	protected Object lock = new Object();
+	/**
+	 * Guards the current template. The signature of a completed template is
+	 * issued after releasing the lock.
+	 */
+	protected final ReentrantLock lock = new ReentrantLock();
+	/**
+	 * Guards the marshaller, which is not thread safe.
+	 */
+	protected final ReentrantLock marshallerLock = new ReentrantLock();
 	protected Thread shutdownHook;
 
 	protected Template template;
@@ -87,9 +106,16 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 	protected X509Certificate originatorCertificate;
 	protected PrivateKey originatorSigningKey;
 	protected Marshaller marshaller;
+	protected Future<Void> initialization;
 
 	protected String pattern = DEFAULT_CONVERSION_PATTERN;
 	protected Converter<ILoggingEvent> head;
+	/**
+	 * The tag ids of the converters' names (see
+	 * {@link #computeConverterName(Converter)}), in the order of the converter
+	 * chain.
+	 */
+	protected int[] converterTagIds;
 
 	@Override
 	public void doEncode(ILoggingEvent evnt)
@@ -100,12 +126,31 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 			return;
 		}
 
-		PrivacyAwareLoggingEvent event = (PrivacyAwareLoggingEvent) evnt;
-		synchronized (lock) {
+		IMetricsCollector metrics = Metrics.getCollector();
+		if (metrics == null) {
+			encode(evnt);
+		} else {
+			long start = System.nanoTime();
+			encode(evnt);
+			metrics.recordEncode(getClass().getSimpleName(), System.nanoTime() - start);
+		}
+	}
+
+	protected void encode(ILoggingEvent evnt) {
+		PrivacyAwareLoggingEvent event = evnt instanceof PrivacyAwareLoggingEvent ? (PrivacyAwareLoggingEvent) evnt : null;
+		ParamSanitizerFactories sanitizers = event != null ? event.getSanitizers()
+		    : (ParamSanitizerFactories) getContext().getObject(PrivacyAwareTurboFilter.SANITIZER_FACTORIES_KEY);
+		Template completed = null;
+		lock.lock();
+		try {
 			Converter<ILoggingEvent> c = head;
+			int converterIndex = 0;
 			StringBuilder fixedPart = new StringBuilder();
 			while (c != null) {
-				if (c instanceof MessageConverter) {
+				if (c instanceof MessageConverter && event == null) {
+					// An untagged message which bypassed the privacy aware turbo filter
+					fixedPart.append(evnt.getFormattedMessage());
+				} else if (c instanceof MessageConverter) {
 					Collection<IParamSanitizer> params = event.getParameters();
 					String mt = event.getMessage();
 					int curPos = 0;
@@ -130,15 +175,17 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 						fixedPart.append(mt.substring(curPos, mt.length()));
 					}
 				} else {
-					String txt = c.convert(event);
+					String txt = c.convert(evnt);
 					if (txt.length() > 0) {
 						if (c instanceof LiteralConverter) {
 							fixedPart.append(txt);
 						} else {
-							String name = computeConverterName(c);
-							IParamSanitizerFactory sanFact = event.getSanitizers().get(name);
+							int tagId = converterTagIds[converterIndex];
+							IParamSanitizerFactory sanFact = sanitizers != null ? sanitizers.get(tagId) : null;
 							if (sanFact != null) {
-								IParamSanitizer param = sanFact.create(name, txt, -1, -1, -1);
+								IParamSanitizer param = sanFact instanceof ITagIdAwareParamSanitizerFactory
+								    ? ((ITagIdAwareParamSanitizerFactory) sanFact).create(tagId, txt, -1, -1, -1)
+								    : sanFact.create(TagIds.name(tagId), txt, -1, -1, -1);
 								if (param.isCriticalAndSanitizedEqual()) {
 									fixedPart.append(param.getCritical());
 								} else {
@@ -162,6 +209,7 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 				}
 
 				c = c.getNext();
+				++converterIndex;
 			}
 			if (fixedPart.length() > 0) { // Still something left
 				template.addT(Arrays.asList(new MessageEntry(fixedPart.toString(), 0, EType.fix)));
@@ -172,13 +220,16 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 			}
 
 			if (++currentInvocations >= numInvocations) {
-				try { // Issue signature
-					issueSignature();
-				} finally {
-					template = new Template("Logging Template " + (templateId++));
-					currentInvocations = 0;
-				}
+				completed = template;
+				template = new Template("Logging Template " + (templateId++));
+				currentInvocations = 0;
 			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (completed != null) {
+			issueSignature(completed);
 		}
 	}
 
@@ -209,13 +260,20 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 	    throws IOException
 	{
 		try {
-			if (currentInvocations > 0) {
-				try { // Issue signature
-					issueSignature();
-				} finally {
+			Template completed = null;
+			lock.lock();
+			try {
+				if (currentInvocations > 0) {
+					completed = template;
 					template = new Template("Logging Template " + (templateId++));
 					currentInvocations = 0;
 				}
+			} finally {
+				lock.unlock();
+			}
+
+			if (completed != null) {
+				issueSignature(completed);
 			}
 		} finally {
 			if (shutdownHook != null) {
@@ -245,8 +303,9 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 		}
 	}
 
-	protected void issueSignature() {
+	protected void issueSignature(Template template) {
 		try {
+			awaitSigning();
 			String signingAlg = systemParameters.getParameter(SystemParameters.ORIG_SIGNATURE_ID);
 			Signature sig = Signature.getInstance(ProxyTypeObjectID.BDSSTemplateSignature);
 
@@ -266,7 +325,12 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 			template.setSignature(s);
 
 			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			marshaller.marshal(template, bos);
+			marshallerLock.lock();
+			try {
+				marshaller.marshal(template, bos);
+			} finally {
+				marshallerLock.unlock();
+			}
 
 			outputStream.write(bos.toByteArray());
 			outputStream.write(System.lineSeparator().getBytes());
@@ -309,20 +373,16 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 			return;
 		}
 
-		try {
-			publicParameters = PP.decodeX509(publicParametersCertificate.getPublicKey().getEncoded());
-		} catch (Exception cause) {
-			addError("BdssMessageProcessor: The public parameters cannot be decoded from the provided certificate");
-			return;
-		}
+		initialization = StartupExecutor.submit(new Callable<Void>() {
 
-		try {
-			marshaller = JAXBContext.newInstance(Template.class).createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
-		} catch (Exception cause) {
-			addError("BdssMessageProcessor: The JAXB marshaller could not be instantiated");
-			return;
-		}
+			@Override
+			public Void call()
+			    throws Exception
+			{
+				initializeSigning();
+				return null;
+			}
+		});
 
 		try {
 			Parser<ILoggingEvent> p = new Parser<>(pattern);
@@ -330,6 +390,16 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 			Node t = p.parse();
 			this.head = p.compile(t, getEffectiveConverterMap());
 			ConverterUtil.startConverters(this.head);
+
+			int numConverters = 0;
+			for (Converter<ILoggingEvent> c = head; c != null; c = c.getNext()) {
+				++numConverters;
+			}
+			converterTagIds = new int[numConverters];
+			int i = 0;
+			for (Converter<ILoggingEvent> c = head; c != null; c = c.getNext()) {
+				converterTagIds[i++] = TagIds.intern(computeConverterName(c));
+			}
 		} catch (ScanException ex) {
 			addError("Incorrect pattern found", ex);
 			return;
@@ -340,6 +410,41 @@ public class BdssTemplateEncoder extends EncoderBase<ILoggingEvent> {
 		started = true;
 	}
 
+	/**
+	 * Decodes the public parameters and creates the JAXB marshaller. Both are
+	 * only needed to issue a template signature, hence, they are initialized
+	 * in the background (see {@link StartupExecutor}) and awaited by
+	 * {@link #issueSignature(Template)}.
+	 */
+	protected void initializeSigning()
+	    throws Exception
+	{
+		try {
+			publicParameters = PP.decodeX509(publicParametersCertificate.getPublicKey().getEncoded());
+		} catch (Exception cause) {
+			addError("BdssMessageProcessor: The public parameters cannot be decoded from the provided certificate");
+			throw cause;
+		}
+
+		try {
+			marshaller = JAXBContext.newInstance(Template.class).createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+		} catch (Exception cause) {
+			addError("BdssMessageProcessor: The JAXB marshaller could not be instantiated");
+			throw cause;
+		}
+	}
+
+	protected void awaitSigning()
+	    throws Exception
+	{
+		try {
+			initialization.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("BdssMessageProcessor: The template signing could not be initialized", e.getCause());
+		}
+	}
+
 	protected Map<String, String> getDefaultConverterMap() {
 		return PatternLayout.defaultConverterMap;
 	}
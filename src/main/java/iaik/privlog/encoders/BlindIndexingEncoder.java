@@ -0,0 +1,212 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.encoders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.index.BlindIndexWriter;
+import iaik.privlog.sanitizers.IBlindIndexed;
+import iaik.privlog.sanitizers.IParamSanitizer;
+
+/**
+ * Wraps an encoder and records the blind indexes of all parameters of an event
+ * together with the offset of the corresponding line in a sidecar index file.
+ * The sidecar file defaults to the log file name with the suffix
+ * {@link #DEFAULT_INDEX_SUFFIX}.
+ * <p>
+ * When the appender re-initializes the encoder with a new, empty log file
+ * (i.e., after a roll over) the index of the previous segment is renamed along
+ * with the log: the archived log file is looked up by its file identity in the
+ * directory of the log file and the index is moved to the archive's name plus
+ * {@link #DEFAULT_INDEX_SUFFIX}. If the archive cannot be found (e.g., it was
+ * compressed or moved to another directory) the index is kept under the log
+ * file name with the time of the roll over inserted before the suffix.
+ */
+public class BlindIndexingEncoder extends WrappingEncoderBase<ILoggingEvent> {
+
+	public static final String DEFAULT_INDEX_SUFFIX = ".bidx";
+
+	protected String file;
+	protected String indexFile;
+	protected int queueSize = BlindIndexWriter.DEFAULT_QUEUE_SIZE;
+	protected int batchSize = BlindIndexWriter.DEFAULT_BATCH_SIZE;
+
+	protected CountingOutputStream countingOutputStream;
+	protected long initialOffset;
+	protected BlindIndexWriter indexWriter;
+	protected Object segmentKey;
+
+	@Override
+	public void doEncode(ILoggingEvent event)
+	    throws IOException
+	{
+		long offset = initialOffset + countingOutputStream.getByteCount();
+		super.doEncode(event);
+
+		if (event instanceof PrivacyAwareLoggingEvent) {
+			for (IParamSanitizer param : ((PrivacyAwareLoggingEvent) event).getParameters()) {
+				if (param instanceof IBlindIndexed) {
+					byte[] blindIndex = ((IBlindIndexed) param).getBlindIndex();
+					if (blindIndex != null) {
+						indexWriter.add(blindIndex, offset);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void init(OutputStream os)
+	    throws IOException
+	{
+		if (file == null) {
+			addError("BlindIndexingEncoder cannot be initialized w/o the log file name");
+			throw new IOException("BlindIndexingEncoder cannot be initialized w/o the log file name");
+		}
+
+		File logFile = new File(file);
+		initialOffset = logFile.exists() ? logFile.length() : 0;
+		String indexFileName = indexFile != null ? indexFile : file + DEFAULT_INDEX_SUFFIX;
+
+		if (indexWriter != null) {
+			indexWriter.stop();
+			Object currentKey = getFileKey(logFile);
+			if (initialOffset == 0 || currentKey == null || !currentKey.equals(segmentKey)) {
+				archiveIndex(logFile, new File(indexFileName));
+			}
+		}
+		segmentKey = getFileKey(logFile);
+
+		indexWriter = new BlindIndexWriter();
+		indexWriter.setContext(getContext());
+		indexWriter.setFile(indexFileName);
+		indexWriter.setAppend(initialOffset > 0);
+		indexWriter.setQueueSize(queueSize);
+		indexWriter.setBatchSize(batchSize);
+		indexWriter.start();
+
+		countingOutputStream = new CountingOutputStream(os);
+		super.init(countingOutputStream);
+	}
+
+	/**
+	 * Moves the index of the previous log segment next to the archived log
+	 * file, so that the index of the new segment does not overwrite it.
+	 */
+	protected void archiveIndex(File logFile, File currentIndex) {
+		if (!currentIndex.exists()) {
+			return;
+		}
+
+		File archive = findArchive(logFile);
+		File archivedIndex;
+		if (archive != null) {
+			archivedIndex = new File(archive.getPath() + DEFAULT_INDEX_SUFFIX);
+		} else {
+			String name = currentIndex.getPath();
+			if (name.endsWith(DEFAULT_INDEX_SUFFIX)) {
+				name = name.substring(0, name.length() - DEFAULT_INDEX_SUFFIX.length());
+			}
+			archivedIndex = new File(name + "." + System.currentTimeMillis() + DEFAULT_INDEX_SUFFIX);
+			addWarn("Archived log segment of [" + file + "] not found, keeping its index as [" + archivedIndex + "]");
+		}
+
+		if (!currentIndex.renameTo(archivedIndex)) {
+			addError("Failed to rename blind index [" + currentIndex + "] to [" + archivedIndex + "]");
+		}
+	}
+
+	/**
+	 * @return the file in the directory of the log file that has the identity
+	 *         of the previous log segment, or {@code null} if there is none
+	 */
+	protected File findArchive(File logFile) {
+		if (segmentKey == null) {
+			return null;
+		}
+
+		File[] candidates = logFile.getAbsoluteFile().getParentFile().listFiles();
+		if (candidates == null) {
+			return null;
+		}
+
+		for (File candidate : candidates) {
+			if (!candidate.getName().equals(logFile.getName()) && segmentKey.equals(getFileKey(candidate))) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	protected static Object getFileKey(File file) {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		} catch (IOException | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void close()
+	    throws IOException
+	{
+		try {
+			super.close();
+		} finally {
+			if (indexWriter != null) {
+				indexWriter.stop();
+			}
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		if (indexWriter != null) {
+			indexWriter.stop();
+		}
+	}
+
+	/**
+	 * @param file
+	 *        The name of the log file written by the appender using this
+	 *        encoder.
+	 */
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public void setIndexFile(String indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+}
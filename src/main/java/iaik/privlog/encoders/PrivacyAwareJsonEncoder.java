@@ -0,0 +1,222 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.encoders;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.encoder.EncoderBase;
+import iaik.privlog.MessageSegments;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.concurrent.InstancePool;
+import iaik.privlog.layouts.MessageWriter;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
+import iaik.privlog.sanitizers.IParamSanitizer;
+
+/**
+ * Writes each event as a single line JSON object, e.g.:
+ *
+ * <pre>
+ * {"timestamp":1461234567890,"level":"INFO","logger":"a.b.C","thread":"main",
+ *  "template":"Login of {} from {}","message":"Login of 5f4d... from 10.0.0.1",
+ *  "params":[{"tag":"blind","sanitized":"5f4d...","start":9},{"sanitized":"10.0.0.1","start":17}]}
+ * </pre>
+ *
+ * The <code>template</code> is the message template with all tags removed, the
+ * <code>start</code> of a parameter refers to this template (see
+ * {@link IParamSanitizer#getStart()}). Untagged parameters have no
+ * <code>tag</code>. Events not created by the privacy aware components (e.g.,
+ * messages without any tag) have an empty <code>params</code> array.
+ * <p>
+ * The fields are encoded straight into a reused byte buffer which is written
+ * to the output stream in a single call. The message of privacy aware events
+ * is escaped segment by segment (see {@link MessageWriter}) without creating
+ * the message String. No lock is held while encoding or writing (the buffers
+ * are taken from an {@link InstancePool}), the appender is responsible to
+ * serialize the writes.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class PrivacyAwareJsonEncoder extends EncoderBase<ILoggingEvent> {
+
+	/**
+	 * Size of the direct-mapped cache of encoded strings (power of two).
+	 */
+	protected static final int CACHE_SIZE = 256;
+
+	/**
+	 * Longer strings are not cached.
+	 */
+	protected static final int MAX_CACHED_LENGTH = 512;
+
+	/**
+	 * A string and its encoding, published at once to the cache.
+	 */
+	protected static final class CachedString {
+		final String string;
+		final byte[] bytes;
+
+		CachedString(String string, byte[] bytes) {
+			this.string = string;
+			this.bytes = bytes;
+		}
+	}
+
+	protected final InstancePool<Utf8Buffer> buffers = new InstancePool<Utf8Buffer>() {
+
+		@Override
+		protected Utf8Buffer create() {
+			return new Utf8Buffer();
+		}
+	};
+	protected final CachedString[] cache = new CachedString[CACHE_SIZE];
+	protected boolean immediateFlush = true;
+
+	public boolean isImmediateFlush() {
+		return immediateFlush;
+	}
+
+	public void setImmediateFlush(boolean immediateFlush) {
+		this.immediateFlush = immediateFlush;
+	}
+
+	@Override
+	public void doEncode(ILoggingEvent event)
+	    throws IOException
+	{
+		IMetricsCollector metrics = Metrics.getCollector();
+		long start = metrics != null ? System.nanoTime() : 0;
+
+		Utf8Buffer buffer = buffers.acquire();
+		try {
+			buffer.reset();
+			encode(event, buffer);
+			buffer.writeTo(outputStream);
+		} finally {
+			buffers.release(buffer);
+		}
+		if (immediateFlush) {
+			outputStream.flush();
+		}
+
+		if (metrics != null) {
+			metrics.recordEncode(getClass().getSimpleName(), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Appends the JSON representation of the given event, terminated by a line
+	 * break, to the buffer.
+	 */
+	protected void encode(ILoggingEvent event, Utf8Buffer out) {
+		out.appendAscii("{\"timestamp\":").append(event.getTimeStamp());
+		out.appendAscii(",\"level\":\"").appendAscii(event.getLevel().levelStr);
+		out.appendAscii("\",\"logger\":");
+		appendCachedJsonString(event.getLoggerName(), out);
+		out.appendAscii(",\"thread\":");
+		appendCachedJsonString(event.getThreadName(), out);
+		out.appendAscii(",\"template\":");
+		appendCachedJsonString(event.getMessage(), out);
+		out.appendAscii(",\"message\":");
+		if (event instanceof PrivacyAwareLoggingEvent) {
+			PrivacyAwareLoggingEvent privacyAwareEvent = (PrivacyAwareLoggingEvent) event;
+			out.appendByte('"');
+			MessageWriter.writeJsonEscaped(privacyAwareEvent, false, out);
+			out.appendAscii("\",\"params\":[");
+			encodeParameters(privacyAwareEvent, out);
+		} else {
+			out.appendJsonString(event.getFormattedMessage());
+			out.appendAscii(",\"params\":[");
+		}
+		out.appendByte(']');
+
+		IThrowableProxy throwable = event.getThrowableProxy();
+		if (throwable != null) {
+			out.appendAscii(",\"exception\":").appendJsonString(ThrowableProxyUtil.asString(throwable));
+		}
+		out.appendAscii("}\n");
+	}
+
+	/**
+	 * Appends the given string as quoted JSON string. Logger names, thread names
+	 * and templates are usually the very same instances for many events,
+	 * therefore, their encoding is cached (by identity).
+	 */
+	protected void appendCachedJsonString(String s, Utf8Buffer out) {
+		if (s == null || s.length() > MAX_CACHED_LENGTH) {
+			out.appendJsonString(s);
+			return;
+		}
+
+		int index = s.hashCode() & (CACHE_SIZE - 1);
+		CachedString cached = cache[index];
+		if (cached != null && cached.string == s) {
+			out.append(cached.bytes);
+		} else {
+			int start = out.size();
+			out.appendJsonString(s);
+			cache[index] = new CachedString(s, Arrays.copyOfRange(out.array(), start, out.size()));
+		}
+	}
+
+	protected void encodeParameters(PrivacyAwareLoggingEvent event, Utf8Buffer out) {
+		for (int i = 0; i < event.getParameterCount(); ++i) {
+			if (i > 0) {
+				out.appendByte(',');
+			}
+
+			out.appendByte('{');
+			String tagName = event.getParameterTagName(i);
+			if (tagName != null) {
+				out.appendAscii("\"tag\":").appendJsonString(tagName).appendByte(',');
+			}
+			out.appendAscii("\"sanitized\":");
+			appendArgument(event.getSanitizedArgument(i), out);
+			out.appendAscii(",\"start\":").append(event.getParameterStart(i));
+			out.appendByte('}');
+		}
+	}
+
+	/**
+	 * Appends the given argument as JSON string, rendered the same way as in
+	 * the formatted message.
+	 */
+	protected void appendArgument(Object argument, Utf8Buffer out) {
+		if (argument instanceof String) {
+			out.appendJsonString((String) argument);
+		} else if (argument instanceof Integer || argument instanceof Long || argument instanceof Short
+		    || argument instanceof Byte)
+		{
+			out.appendByte('"').append(((Number) argument).longValue()).appendByte('"');
+		} else {
+			out.appendJsonString(MessageSegments.toString(argument));
+		}
+	}
+
+	@Override
+	public void close()
+	    throws IOException
+	{
+		if (outputStream != null) {
+			outputStream.flush();
+		}
+	}
+
+}
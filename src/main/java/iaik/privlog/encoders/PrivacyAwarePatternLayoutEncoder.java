@@ -15,14 +15,55 @@
  */
 package iaik.privlog.encoders;
 
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import iaik.privlog.concurrent.InstancePool;
 import iaik.privlog.layouts.PrivacyAwarePatternLayout;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
  */
 public class PrivacyAwarePatternLayoutEncoder extends PatternLayoutEncoder {
 
+	/**
+	 * The buffers used to encode a single event.
+	 */
+	protected static final class EncodingBuffers {
+		final Utf8Buffer buffer = new Utf8Buffer();
+		final StringBuilder scratch = new StringBuilder(256);
+	}
+
+	protected final InstancePool<EncodingBuffers> buffers = new InstancePool<EncodingBuffers>() {
+
+		@Override
+		protected EncodingBuffers create() {
+			return new EncodingBuffers();
+		}
+	};
+	protected boolean directEncoding = true;
+	protected boolean direct;
+
+	public boolean isDirectEncoding() {
+		return directEncoding;
+	}
+
+	/**
+	 * @param directEncoding
+	 *        If <code>true</code> (the default) and the charset is UTF-8 the
+	 *        layout writes straight into a reused byte buffer which is handed to
+	 *        the output stream in one write, instead of creating the message and
+	 *        line Strings and their byte representation.
+	 */
+	public void setDirectEncoding(boolean directEncoding) {
+		this.directEncoding = directEncoding;
+	}
+
 	@Override
 	public void start() {
 		PrivacyAwarePatternLayout patternLayout = new PrivacyAwarePatternLayout();
@@ -31,7 +72,45 @@ public class PrivacyAwarePatternLayoutEncoder extends PatternLayoutEncoder {
 		patternLayout.setOutputPatternAsHeader(outputPatternAsHeader);
 		patternLayout.start();
 		this.layout = patternLayout;
+		Charset charset = getCharset() != null ? getCharset() : Charset.defaultCharset();
+		this.direct = directEncoding && StandardCharsets.UTF_8.equals(charset);
 		this.started = true; // The equivalent of super.super.start();
 	}
 
+	@Override
+	public void stop() {
+		super.stop();
+		if (layout != null) {
+			layout.stop();
+		}
+	}
+
+	@Override
+	public void doEncode(ILoggingEvent event)
+	    throws IOException
+	{
+		IMetricsCollector metrics = Metrics.getCollector();
+		long start = metrics != null ? System.nanoTime() : 0;
+
+		if (direct) {
+			EncodingBuffers encoding = buffers.acquire();
+			try {
+				encoding.buffer.reset();
+				((PrivacyAwarePatternLayout) layout).doLayout(event, encoding.buffer, encoding.scratch);
+				encoding.buffer.writeTo(outputStream);
+			} finally {
+				buffers.release(encoding);
+			}
+			if (isImmediateFlush()) {
+				outputStream.flush();
+			}
+		} else {
+			super.doEncode(event);
+		}
+
+		if (metrics != null) {
+			metrics.recordEncode(getClass().getSimpleName(), System.nanoTime() - start);
+		}
+	}
+
 }
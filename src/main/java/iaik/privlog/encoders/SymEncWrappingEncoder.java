@@ -19,16 +19,17 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherOutputStream;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
 
 import org.apache.commons.codec.binary.Base64;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import iaik.privlog.sanitizers.NonceGenerator;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
@@ -49,6 +50,12 @@ public class SymEncWrappingEncoder extends WrappingEncoderBase<ILoggingEvent> {
 	protected SecretKey secretKey;
 	protected byte[] iv;
 	protected SecureRandom random;
+	/**
+	 * Issues the IVs for the secret key, i.e., re-initializing the encoder
+	 * (e.g., on a rollover) never reuses an IV for the same key.
+	 */
+	protected NonceGenerator nonces;
+	protected long nonceLimit = NonceGenerator.DEFAULT_LIMIT;
 	protected int blockSize;
 	protected boolean updateIV;
 	protected Cipher cipher;
@@ -82,6 +89,15 @@ public class SymEncWrappingEncoder extends WrappingEncoderBase<ILoggingEvent> {
 		this.random = random;
 	}
 
+	/**
+	 * @param nonceLimit
+	 *        The number of initializations per secret key. Afterwards, a new
+	 *        key is generated.
+	 */
+	public void setNonceLimit(long nonceLimit) {
+		this.nonceLimit = nonceLimit;
+	}
+
 	@Override
 	public void init(OutputStream os)
 	    throws IOException
@@ -94,6 +110,16 @@ public class SymEncWrappingEncoder extends WrappingEncoderBase<ILoggingEvent> {
 			if (random == null) {
 				random = new SecureRandom();
 			}
+			if (nonces != null && nonces.isExhausted()) {
+				addInfo("The IVs of the secret key are exhausted, generating a new key");
+				secretKey = null;
+				iv = null;
+				nonces = null;
+			}
+			if (nonces == null) {
+				nonces = iv != null ? new NonceGenerator(iv, nonceLimit)
+				    : new NonceGenerator(random, DEFAULT_IV_SIZE, nonceLimit);
+			}
 			if (secretKey == null) {
 				String keyAlg = symmetricAlgorithm.split("/")[0];
 				KeyGenerator generator = KeyGenerator.getInstance(keyAlg);
@@ -101,10 +127,9 @@ public class SymEncWrappingEncoder extends WrappingEncoderBase<ILoggingEvent> {
 				secretKey = generator.generateKey();
 				keyInfo.append(PREFIX_SECRET_KEY).append(base64.encodeToString(secretKey.getEncoded())).append("\n");
 			}
-			if (iv == null) {
-				iv = new byte[DEFAULT_IV_SIZE];
-				random.nextBytes(iv);
-				keyInfo.append(PREFIX_INIT_VECTOR).append(base64.encodeToString(iv)).append("\n");
+			byte[] nonce = nonces.nextNonce();
+			if (!Arrays.equals(nonce, iv)) {
+				keyInfo.append(PREFIX_INIT_VECTOR).append(base64.encodeToString(nonce)).append("\n");
 			}
 			if (keyInfo.length() > 0) {
 				// Output key info
@@ -121,7 +146,7 @@ public class SymEncWrappingEncoder extends WrappingEncoderBase<ILoggingEvent> {
 				os.write(new byte[DEFAULT_MAC_BUFFER_SIZE]);
 				os.flush();
 			}
-			cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv), random);
+			cipher.init(Cipher.ENCRYPT_MODE, secretKey, NonceGenerator.createParameterSpec(symmetricAlgorithm, nonce));
 			cipherOutputStream = new CipherOutputStream(os, cipher);
 			super.init(cipherOutputStream);
 		} catch (Exception cause) {
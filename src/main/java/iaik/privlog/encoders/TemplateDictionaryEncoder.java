@@ -0,0 +1,216 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.encoders;
+
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.EVENT;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.LOGGER;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.MAGIC;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.RESET;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.TEMPLATE;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.THREAD;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.THROWABLE_FLAG;
+import static iaik.privlog.dictionary.TemplateDictionaryFormat.VERSION;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.encoder.EncoderBase;
+import iaik.privlog.MessageSegments;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.dictionary.TemplateDictionaryFormat;
+import iaik.privlog.dictionary.TemplateDictionaryReader;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
+
+/**
+ * Writes events in the binary {@link TemplateDictionaryFormat}, i.e., each
+ * distinct message template, logger name and thread name is written once and
+ * events refer to them by id. Per event only the ids, the timestamp, the level
+ * and the (sanitized) arguments are written. Use the
+ * {@link TemplateDictionaryReader} to expand the log to text.
+ * <p>
+ * The dictionaries are reset whenever a new output stream is initialized
+ * (e.g., after a rollover or, if the appender appends to an existing file,
+ * after a restart, which repeats the header within the file) and if one of them exceeds
+ * {@link #setMaxDictionarySize(int) maxDictionarySize} entries.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class TemplateDictionaryEncoder extends EncoderBase<ILoggingEvent> {
+
+	public static final int DEFAULT_MAX_DICTIONARY_SIZE = 65536;
+
+	/**
+	 * Guards the dictionaries, the buffer and the writes, as the definition of
+	 * an entry has to be written before the events referring to it. A
+	 * {@link ReentrantLock} does not pin virtual threads blocked on the output
+	 * stream.
+	 */
+	protected final ReentrantLock lock = new ReentrantLock();
+	protected final Utf8Buffer buffer = new Utf8Buffer();
+	protected final Map<String, Integer> templates = new HashMap<String, Integer>();
+	protected final Map<String, Integer> loggers = new HashMap<String, Integer>();
+	protected final Map<String, Integer> threads = new HashMap<String, Integer>();
+	protected long lastTimestamp;
+	protected int maxDictionarySize = DEFAULT_MAX_DICTIONARY_SIZE;
+	protected boolean immediateFlush = true;
+
+	public int getMaxDictionarySize() {
+		return maxDictionarySize;
+	}
+
+	public void setMaxDictionarySize(int maxDictionarySize) {
+		this.maxDictionarySize = maxDictionarySize;
+	}
+
+	public boolean isImmediateFlush() {
+		return immediateFlush;
+	}
+
+	public void setImmediateFlush(boolean immediateFlush) {
+		this.immediateFlush = immediateFlush;
+	}
+
+	@Override
+	public void init(OutputStream os)
+	    throws IOException
+	{
+		super.init(os);
+		lock.lock();
+		try {
+			clearDictionaries();
+			buffer.reset();
+			buffer.append(MAGIC).appendByte(VERSION);
+			buffer.writeTo(os);
+		} finally {
+			lock.unlock();
+		}
+		os.flush();
+	}
+
+	@Override
+	public void doEncode(ILoggingEvent event)
+	    throws IOException
+	{
+		IMetricsCollector metrics = Metrics.getCollector();
+		long start = metrics != null ? System.nanoTime() : 0;
+
+		lock.lock();
+		try {
+			buffer.reset();
+			encode(event, buffer);
+			buffer.writeTo(outputStream);
+		} finally {
+			lock.unlock();
+		}
+		if (immediateFlush) {
+			outputStream.flush();
+		}
+
+		if (metrics != null) {
+			metrics.recordEncode(getClass().getSimpleName(), System.nanoTime() - start);
+		}
+	}
+
+	protected void encode(ILoggingEvent event, Utf8Buffer out) {
+		if (templates.size() >= maxDictionarySize || loggers.size() >= maxDictionarySize
+		    || threads.size() >= maxDictionarySize)
+		{
+			clearDictionaries();
+			out.appendByte(RESET);
+		}
+
+		int templateId = lookup(templates, TEMPLATE, event.getMessage(), out);
+		int loggerId = lookup(loggers, LOGGER, event.getLoggerName(), out);
+		int threadId = lookup(threads, THREAD, event.getThreadName(), out);
+
+		IThrowableProxy throwable = event.getThrowableProxy();
+		int levelCode = TemplateDictionaryFormat.levelCode(event.getLevel());
+
+		out.appendByte(EVENT);
+		out.appendVarInt(templateId);
+		out.appendVarLong(TemplateDictionaryFormat.zigZag(event.getTimeStamp() - lastTimestamp));
+		lastTimestamp = event.getTimeStamp();
+		out.appendByte(throwable != null ? levelCode | THROWABLE_FLAG : levelCode);
+		out.appendVarInt(loggerId);
+		out.appendVarInt(threadId);
+
+		if (event instanceof PrivacyAwareLoggingEvent) {
+			PrivacyAwareLoggingEvent paEvent = (PrivacyAwareLoggingEvent) event;
+			int argCount = paEvent.getParameterCount();
+			out.appendVarInt(argCount);
+			for (int i = 0; i < argCount; ++i) {
+				appendArgument(paEvent.getSanitizedArgument(i), out);
+			}
+		} else {
+			Object[] args = event.getArgumentArray();
+			int argCount = args != null ? args.length : 0;
+			out.appendVarInt(argCount);
+			for (int i = 0; i < argCount; ++i) {
+				appendArgument(args[i], out);
+			}
+		}
+
+		if (throwable != null) {
+			out.appendLengthPrefixed(ThrowableProxyUtil.asString(throwable));
+		}
+	}
+
+	protected void appendArgument(Object arg, Utf8Buffer out) {
+		String value = MessageSegments.toString(arg);
+		out.appendLengthPrefixed(value != null ? value : "null");
+	}
+
+	/**
+	 * @return The id of the given value, a new entry is written to the buffer
+	 *         if required.
+	 */
+	protected int lookup(Map<String, Integer> dictionary, int recordType, String value, Utf8Buffer out) {
+		if (value == null) {
+			value = "";
+		}
+		Integer id = dictionary.get(value);
+		if (id == null) {
+			id = dictionary.size();
+			dictionary.put(value, id);
+			out.appendByte(recordType).appendVarInt(id).appendLengthPrefixed(value);
+		}
+		return id;
+	}
+
+	protected void clearDictionaries() {
+		templates.clear();
+		loggers.clear();
+		threads.clear();
+		lastTimestamp = 0;
+	}
+
+	@Override
+	public void close()
+	    throws IOException
+	{
+		if (outputStream != null) {
+			outputStream.flush();
+		}
+	}
+
+}
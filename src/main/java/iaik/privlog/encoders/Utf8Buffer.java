@@ -0,0 +1,437 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.encoders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer which encodes characters as UTF-8 directly into its
+ * backing array. The buffer is meant to be reused, i.e., {@link #reset()}
+ * keeps the allocated capacity.
+ */
+public class Utf8Buffer {
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes();
+
+	private static final int CHUNK = 1024;
+
+	/**
+	 * Shorter strings are encoded by hand, as the setup of the
+	 * {@link CharsetEncoder} does not pay off.
+	 */
+	private static final int MIN_ENCODER_LENGTH = 32;
+
+	protected byte[] buf;
+	protected int count;
+	private char[] chars = new char[64];
+	private CharsetEncoder encoder;
+	private CharBuffer charBuffer;
+	private ByteBuffer byteBuffer;
+
+	public Utf8Buffer() {
+		this(1024);
+	}
+
+	public Utf8Buffer(int initialCapacity) {
+		buf = new byte[initialCapacity];
+	}
+
+	protected void ensureCapacity(int additional) {
+		int required = count + additional;
+		if (required > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length << 1, required));
+		}
+	}
+
+	public Utf8Buffer appendByte(int b) {
+		ensureCapacity(1);
+		buf[count++] = (byte) b;
+		return this;
+	}
+
+	public Utf8Buffer append(byte[] bytes) {
+		return append(bytes, 0, bytes.length);
+	}
+
+	public Utf8Buffer append(byte[] bytes, int off, int len) {
+		ensureCapacity(len);
+		System.arraycopy(bytes, off, buf, count, len);
+		count += len;
+		return this;
+	}
+
+	/**
+	 * Appends the given characters encoded as UTF-8. Unpaired surrogates are
+	 * replaced by <code>'?'</code>.
+	 */
+	public Utf8Buffer append(CharSequence s) {
+		return append(s, 0, s.length());
+	}
+
+	public Utf8Buffer append(CharSequence s, int start, int end) {
+		encode(s, start, end, false);
+		return this;
+	}
+
+	/**
+	 * Like {@link #append(CharSequence)} but short ASCII strings are copied
+	 * directly, which is the common case for literals and sanitized values.
+	 */
+	public Utf8Buffer append(String s) {
+		int len = s.length();
+		if (len < MIN_ENCODER_LENGTH) {
+			ensureCapacity(len);
+			byte[] b = buf;
+			int pos = count;
+			int i = 0;
+			for (; i < len; ++i) {
+				char ch = s.charAt(i);
+				if (ch >= 0x80) {
+					break;
+				}
+				b[pos + i] = (byte) ch;
+			}
+			count = pos + i;
+			if (i == len) {
+				return this;
+			}
+			return append(s, i, len);
+		}
+		encode(s, 0, len, false);
+		return this;
+	}
+
+	/**
+	 * Appends the given characters as content of a JSON string, i.e., without
+	 * the surrounding quotes.
+	 */
+	public Utf8Buffer appendJsonEscaped(CharSequence s) {
+		encode(s, 0, s.length(), true);
+		return this;
+	}
+
+	protected char[] chars(CharSequence s, int start, int end) {
+		int len = end - start;
+		if (chars.length < len) {
+			chars = new char[Math.max(chars.length << 1, len)];
+		}
+		if (s instanceof String) {
+			((String) s).getChars(start, end, chars, 0);
+		} else if (s instanceof StringBuilder) {
+			((StringBuilder) s).getChars(start, end, chars, 0);
+		} else {
+			for (int i = 0; i < len; ++i) {
+				chars[i] = s.charAt(start + i);
+			}
+		}
+		return chars;
+	}
+
+	/**
+	 * Encodes the characters chunk-wise via a scratch array, as the loop over a
+	 * local array is considerably faster than calling {@link CharSequence#charAt(int)}
+	 * per character.
+	 */
+	protected void encode(CharSequence s, int start, int end, boolean escape) {
+		while (start < end) {
+			int chunkEnd = Math.min(end, start + CHUNK);
+			if (chunkEnd < end && Character.isHighSurrogate(s.charAt(chunkEnd - 1))) {
+				--chunkEnd; // Keep surrogate pairs within a chunk
+			}
+			encode(chars(s, start, chunkEnd), chunkEnd - start, escape);
+			start = chunkEnd;
+		}
+	}
+
+	protected void encode(char[] c, int len, boolean escape) {
+		if (!escape && len >= MIN_ENCODER_LENGTH) {
+			encodeWithCharsetEncoder(len);
+			return;
+		}
+
+		// Worst case: 6 bytes per escaped control character
+		ensureCapacity(escape ? 6 * len : 3 * len);
+		byte[] b = buf;
+		int pos = count;
+
+		// Fast path for the common case of printable ASCII characters
+		int i = 0;
+		for (; i < len; ++i) {
+			char ch = c[i];
+			if (ch >= 0x80 || (escape && (ch < 0x20 || ch == '"' || ch == '\\'))) {
+				break;
+			}
+			b[pos + i] = (byte) ch;
+		}
+		pos += i;
+
+		for (; i < len; ++i) {
+			char ch = c[i];
+			if (ch < 0x80) {
+				if (!escape || (ch >= 0x20 && ch != '"' && ch != '\\')) {
+					b[pos++] = (byte) ch;
+				} else {
+					pos = escape(ch, b, pos);
+				}
+			} else if (ch < 0x800) {
+				b[pos++] = (byte) (0xc0 | (ch >> 6));
+				b[pos++] = (byte) (0x80 | (ch & 0x3f));
+			} else if (Character.isSurrogate(ch)) {
+				if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(c[i + 1])) {
+					int cp = Character.toCodePoint(ch, c[++i]);
+					b[pos++] = (byte) (0xf0 | (cp >> 18));
+					b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+					b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+					b[pos++] = (byte) (0x80 | (cp & 0x3f));
+				} else {
+					b[pos++] = '?';
+				}
+			} else {
+				b[pos++] = (byte) (0xe0 | (ch >> 12));
+				b[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+				b[pos++] = (byte) (0x80 | (ch & 0x3f));
+			}
+		}
+		count = pos;
+	}
+
+	/**
+	 * Encodes the first <code>len</code> characters of the scratch array using
+	 * a reused {@link CharsetEncoder}, which is backed by intrinsics for
+	 * array-backed buffers.
+	 */
+	private void encodeWithCharsetEncoder(int len) {
+		ensureCapacity(3 * len);
+		if (encoder == null) {
+			encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+			    .onUnmappableCharacter(CodingErrorAction.REPLACE).replaceWith(new byte[] { '?' });
+		}
+		if (charBuffer == null || charBuffer.array() != chars) {
+			charBuffer = CharBuffer.wrap(chars);
+		}
+		if (byteBuffer == null || byteBuffer.array() != buf) {
+			byteBuffer = ByteBuffer.wrap(buf);
+		}
+
+		charBuffer.clear();
+		charBuffer.limit(len);
+		byteBuffer.clear();
+		byteBuffer.position(count);
+		encoder.reset();
+		encoder.encode(charBuffer, byteBuffer, true);
+		encoder.flush(byteBuffer);
+		count = byteBuffer.position();
+	}
+
+	private static int escape(char c, byte[] b, int pos) {
+		b[pos++] = '\\';
+		switch (c) {
+			case '"':
+			case '\\':
+				b[pos++] = (byte) c;
+				break;
+			case '\n':
+				b[pos++] = 'n';
+				break;
+			case '\r':
+				b[pos++] = 'r';
+				break;
+			case '\t':
+				b[pos++] = 't';
+				break;
+			case '\b':
+				b[pos++] = 'b';
+				break;
+			case '\f':
+				b[pos++] = 'f';
+				break;
+			default:
+				b[pos++] = 'u';
+				b[pos++] = '0';
+				b[pos++] = '0';
+				b[pos++] = HEX[c >> 4];
+				b[pos++] = HEX[c & 0xf];
+		}
+		return pos;
+	}
+
+	/**
+	 * Appends the given string as quoted JSON string or <code>null</code>.
+	 */
+	public Utf8Buffer appendJsonString(CharSequence s) {
+		if (s == null) {
+			return appendAscii("null");
+		}
+		appendByte('"');
+		appendJsonEscaped(s);
+		return appendByte('"');
+	}
+
+	/**
+	 * Appends the given string, which must only contain ASCII characters.
+	 */
+	public Utf8Buffer appendAscii(String s) {
+		int len = s.length();
+		ensureCapacity(len);
+		byte[] b = buf;
+		int pos = count;
+		for (int i = 0; i < len; ++i) {
+			b[pos++] = (byte) s.charAt(i);
+		}
+		count = pos;
+		return this;
+	}
+
+	public Utf8Buffer append(long value) {
+		if (value == Long.MIN_VALUE) {
+			return append(LONG_MIN);
+		}
+
+		ensureCapacity(20);
+		if (value < 0) {
+			buf[count++] = '-';
+			value = -value;
+		}
+
+		if (value <= Integer.MAX_VALUE) {
+			appendDigits((int) value, digits((int) value));
+		} else {
+			// Split to use int instead of (way more expensive) long divisions
+			long high = value / 1000000000;
+			if (high <= Integer.MAX_VALUE) {
+				appendDigits((int) high, digits((int) high));
+			} else {
+				long highest = high / 1000000000;
+				appendDigits((int) highest, digits((int) highest));
+				appendDigits((int) (high - highest * 1000000000), 9);
+			}
+			appendDigits((int) (value - high * 1000000000), 9);
+		}
+		return this;
+	}
+
+	private static int digits(int value) {
+		int digits = 1;
+		for (int limit = 10; digits < 10 && value >= limit; limit *= 10) {
+			++digits;
+		}
+		return digits;
+	}
+
+	/**
+	 * Appends the given non negative value with exactly <code>digits</code>
+	 * digits, i.e., zero padded.
+	 */
+	private void appendDigits(int value, int digits) {
+		for (int i = count + digits - 1; i >= count; --i) {
+			buf[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		count += digits;
+	}
+
+	/**
+	 * Appends the given value as unsigned LEB128 variable length integer.
+	 */
+	public Utf8Buffer appendVarLong(long value) {
+		ensureCapacity(10);
+		byte[] b = buf;
+		int pos = count;
+		while ((value & ~0x7fL) != 0) {
+			b[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		b[pos++] = (byte) value;
+		count = pos;
+		return this;
+	}
+
+	public Utf8Buffer appendVarInt(int value) {
+		return appendVarLong(value & 0xffffffffL);
+	}
+
+	/**
+	 * @return The number of bytes of the given value encoded by
+	 *         {@link #appendVarLong(long)}.
+	 */
+	public static int varLongSize(long value) {
+		int size = 1;
+		while ((value & ~0x7fL) != 0) {
+			value >>>= 7;
+			++size;
+		}
+		return size;
+	}
+
+	/**
+	 * Appends the UTF-8 encoded string preceded by its length in bytes (see
+	 * {@link #appendVarInt(int)}).
+	 */
+	public Utf8Buffer appendLengthPrefixed(String s) {
+		int start = count;
+		appendByte(0); // Length placeholder, sufficient for short strings
+		append(s);
+		int length = count - start - 1;
+		int prefixSize = varLongSize(length);
+		if (prefixSize > 1) {
+			ensureCapacity(prefixSize - 1);
+			System.arraycopy(buf, start + 1, buf, start + prefixSize, length);
+			count += prefixSize - 1;
+		}
+
+		int pos = start;
+		long value = length;
+		while ((value & ~0x7fL) != 0) {
+			buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos] = (byte) value;
+		return this;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return The backing array, valid up to {@link #size()}.
+	 */
+	public byte[] array() {
+		return buf;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, count);
+	}
+
+	public void writeTo(OutputStream os)
+	    throws IOException
+	{
+		os.write(buf, 0, count);
+	}
+
+	public void reset() {
+		count = 0;
+	}
+}
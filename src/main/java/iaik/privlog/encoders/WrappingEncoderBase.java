@@ -21,6 +21,8 @@ import java.io.OutputStream;
 import ch.qos.logback.core.Context;
 import ch.qos.logback.core.encoder.Encoder;
 import ch.qos.logback.core.status.Status;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
@@ -38,7 +40,14 @@ public abstract class WrappingEncoderBase<U> implements Encoder<U> {
 	public void doEncode(U event)
 	    throws IOException
 	{
-		baseEncoder.doEncode(event);
+		IMetricsCollector metrics = Metrics.getCollector();
+		if (metrics == null) {
+			baseEncoder.doEncode(event);
+		} else {
+			long start = System.nanoTime();
+			baseEncoder.doEncode(event);
+			metrics.recordEncode(getClass().getSimpleName(), System.nanoTime() - start);
+		}
 	}
 
 	@Override
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.index;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import iaik.privlog.concurrent.InstancePool;
+
+/**
+ * Computes keyed blind indexes, i.e., truncated HMACs of parameter values
+ * under a key that is independent of the encryption keys. Equal values result
+ * in equal blind indexes, which allows to search encrypted log entries without
+ * decrypting them.
+ */
+public class BlindIndex extends ContextAwareBase implements LifeCycle {
+
+	public static final String DEFAULT_ALGORITHM = "HmacSHA256";
+	public static final int DEFAULT_LENGTH = 8;
+
+	protected static final Charset UTF8 = Charset.forName("utf-8");
+
+	protected String algorithm = DEFAULT_ALGORITHM;
+	protected int length = DEFAULT_LENGTH;
+	protected SecretKey secretKey;
+	protected InstancePool<Mac> macs;
+	protected boolean started;
+
+	/**
+	 * @param value
+	 *        The plain text value to be indexed.
+	 * @return The truncated HMAC of the given value.
+	 */
+	public byte[] compute(String value) {
+		byte[] full;
+		Mac mac = macs.acquire();
+		try {
+			full = mac.doFinal(value.getBytes(UTF8));
+		} finally {
+			macs.release(mac);
+		}
+		return full.length > length ? Arrays.copyOf(full, length) : full;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public void setAlgorithm(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public void setLength(int length) {
+		if (length <= 0 || length > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("The blind index length must be between 1 and " + Byte.MAX_VALUE);
+		}
+		this.length = length;
+	}
+
+	public void setSecretKey(SecretKey secretKey) {
+		this.secretKey = secretKey;
+	}
+
+	/**
+	 * @param key
+	 *        The Base64 encoded HMAC key.
+	 */
+	public void setKey(String key) {
+		this.secretKey = new SecretKeySpec(Base64.decodeBase64(key), algorithm);
+	}
+
+	@Override
+	public void start() {
+		if (secretKey == null) {
+			addError("BlindIndex cannot be started w/o a key");
+			throw new RuntimeException("BlindIndex cannot be started w/o a key");
+		}
+		try {
+			Mac.getInstance(algorithm).init(secretKey);
+		} catch (Exception cause) {
+			addError("Failed to initialize the MAC with algorithm '" + algorithm + "' for " + getClass(), cause);
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(
+			    "Failed to initialize the MAC with algorithm '" + algorithm + "' for " + getClass(), cause);
+		}
+
+		macs = new InstancePool<Mac>() {
+
+			@Override
+			protected Mac create() {
+				try {
+					Mac mac = Mac.getInstance(algorithm);
+					mac.init(secretKey);
+					return mac;
+				} catch (Exception cause) {
+					throw new RuntimeException("Failed to initialize the MAC with algorithm '" + algorithm + "'", cause);
+				}
+			}
+		};
+		started = true;
+	}
+
+	@Override
+	public void stop() {
+		started = false;
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.index;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import ch.qos.logback.core.util.CloseUtil;
+import iaik.privlog.encoders.BlindIndexingEncoder;
+
+/**
+ * Searches log files written with a {@link BlindIndexingEncoder} for lines
+ * containing a given (encrypted) value without decrypting the log file.
+ * <p>
+ * Usage:
+ * <code>BlindIndexSearch &lt;base64 key&gt; &lt;log file&gt; &lt;search term&gt; [index file]</code>
+ */
+public class BlindIndexSearch {
+
+	protected final BlindIndex blindIndex;
+
+	public BlindIndexSearch(BlindIndex blindIndex) {
+		this.blindIndex = blindIndex;
+	}
+
+	/**
+	 * @param indexFile
+	 *        The sidecar index file.
+	 * @param term
+	 *        The search term.
+	 * @return The sorted offsets of all lines containing the search term.
+	 * @throws IOException
+	 */
+	public SortedSet<Long> findOffsets(File indexFile, String term)
+	    throws IOException
+	{
+		byte[] needle = blindIndex.compute(term);
+		SortedSet<Long> offsets = new TreeSet<Long>();
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			byte[] magic = new byte[BlindIndexWriter.MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, BlindIndexWriter.MAGIC)) {
+				throw new IOException("[" + indexFile + "] is not a blind index file");
+			}
+
+			byte[] value = new byte[Byte.MAX_VALUE];
+			while (true) {
+				int length;
+				try {
+					length = in.readUnsignedByte();
+				} catch (EOFException e) {
+					break;
+				}
+				in.readFully(value, 0, length);
+				long offset = in.readLong();
+				if (length == needle.length && equals(needle, value)) {
+					offsets.add(offset);
+				}
+			}
+		} finally {
+			CloseUtil.closeQuietly(in);
+		}
+		return offsets;
+	}
+
+	/**
+	 * @param logFile
+	 *        The log file.
+	 * @param indexFile
+	 *        The sidecar index file of the log file.
+	 * @param term
+	 *        The search term.
+	 * @return All lines of the log file containing the search term.
+	 * @throws IOException
+	 */
+	public List<String> findLines(File logFile, File indexFile, String term)
+	    throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		RandomAccessFile raf = new RandomAccessFile(logFile, "r");
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			for (long offset : findOffsets(indexFile, term)) {
+				if (offset >= raf.length()) {
+					continue;
+				}
+				raf.seek(offset);
+				line.reset();
+				int read;
+				boolean eol = false;
+				while (!eol && (read = raf.read(buf)) > 0) {
+					int end = 0;
+					while (end < read && buf[end] != '\n') {
+						++end;
+					}
+					eol = end < read;
+					line.write(buf, 0, end);
+				}
+				lines.add(line.toString("utf-8").replaceFirst("\r$", ""));
+			}
+		} finally {
+			CloseUtil.closeQuietly(raf);
+		}
+		return lines;
+	}
+
+	protected static boolean equals(byte[] needle, byte[] value) {
+		for (int i = 0; i < needle.length; ++i) {
+			if (needle[i] != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static void main(String[] args)
+	    throws IOException
+	{
+		if (args.length < 3) {
+			System.err.println("Usage: " + BlindIndexSearch.class.getName()
+			    + " <base64 key> <log file> <search term> [index file]");
+			System.exit(1);
+		}
+
+		BlindIndex blindIndex = new BlindIndex();
+		blindIndex.setKey(args[0]);
+		blindIndex.start();
+
+		File logFile = new File(args[1]);
+		File indexFile = new File(args.length > 3 ? args[3] : args[1] + BlindIndexingEncoder.DEFAULT_INDEX_SUFFIX);
+		for (String line : new BlindIndexSearch(blindIndex).findLines(logFile, indexFile, args[2])) {
+			System.out.println(line);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.CloseUtil;
+
+/**
+ * Writes blind index entries to a sidecar index file. Entries are queued by the
+ * logging threads and written in batches by a background worker thread. The
+ * logging threads never wait for the worker: if the queue is full, the entry is
+ * dropped and counted (see {@link #getDroppedCount()}). The first drop and the
+ * total on {@link #stop()} are reported as status messages.
+ * <p>
+ * The index file consists of the {@link #MAGIC} bytes followed by records of
+ * the form <code>[length:1][blind index:length][line offset:8]</code>.
+ */
+public class BlindIndexWriter extends ContextAwareBase implements LifeCycle {
+
+	public static final byte[] MAGIC = { 'P', 'L', 'B', 'I', 1 };
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	protected static class Entry {
+		final byte[] blindIndex;
+		final long offset;
+
+		Entry(byte[] blindIndex, long offset) {
+			this.blindIndex = blindIndex;
+			this.offset = offset;
+		}
+	}
+
+	protected static final Entry STOP = new Entry(null, -1);
+
+	protected String file;
+	protected boolean append = true;
+	protected int queueSize = DEFAULT_QUEUE_SIZE;
+	protected int batchSize = DEFAULT_BATCH_SIZE;
+
+	protected BlockingQueue<Entry> queue;
+	protected DataOutputStream out;
+	protected Thread worker;
+	protected volatile boolean started;
+	protected final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Queues a blind index entry. This method never blocks, the entry is
+	 * dropped if the queue is full.
+	 *
+	 * @param blindIndex
+	 *        The blind index value.
+	 * @param offset
+	 *        The offset of the corresponding line in the log file.
+	 */
+	public void add(byte[] blindIndex, long offset) {
+		if (!started) {
+			return;
+		}
+		if (queue.offer(new Entry(blindIndex, offset)) || !started) {
+			return;
+		}
+		if (dropped.getAndIncrement() == 0) {
+			addWarn("Blind index queue of [" + file + "] is full, dropping entries");
+		}
+	}
+
+	/**
+	 * @return the number of entries dropped since the last start because the
+	 *         queue was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	protected void work() {
+		List<Entry> batch = new ArrayList<Entry>(batchSize);
+		boolean running = true;
+		while (running) {
+			try {
+				batch.add(queue.take());
+				queue.drainTo(batch, batchSize - 1);
+			} catch (InterruptedException e) {
+				queue.drainTo(batch);
+				running = false;
+			}
+
+			try {
+				for (Entry entry : batch) {
+					if (entry == STOP) {
+						running = false;
+						continue;
+					}
+					out.writeByte(entry.blindIndex.length);
+					out.write(entry.blindIndex);
+					out.writeLong(entry.offset);
+				}
+				out.flush();
+			} catch (IOException cause) {
+				addError("Failed to write blind index file [" + file + "]", cause);
+			}
+			batch.clear();
+		}
+	}
+
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public void setAppend(boolean append) {
+		this.append = append;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void start() {
+		if (file == null) {
+			addError("BlindIndexWriter cannot be started w/o an index file");
+			return;
+		}
+
+		try {
+			File indexFile = new File(file);
+			boolean writeHeader = !append || indexFile.length() == 0;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, append)));
+			if (writeHeader) {
+				out.write(MAGIC);
+				out.flush();
+			}
+		} catch (IOException cause) {
+			addError("Failed to open blind index file [" + file + "]", cause);
+			CloseUtil.closeQuietly(out);
+			return;
+		}
+
+		queue = new ArrayBlockingQueue<Entry>(queueSize);
+		worker = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				work();
+			}
+		}, "BlindIndexWriter-" + file);
+		worker.setDaemon(true);
+		dropped.set(0);
+		started = true;
+		worker.start();
+	}
+
+	@Override
+	public void stop() {
+		if (!started) {
+			return;
+		}
+		started = false;
+
+		try {
+			queue.put(STOP);
+			worker.join();
+		} catch (InterruptedException e) {
+			worker.interrupt();
+			Thread.currentThread().interrupt();
+		} finally {
+			CloseUtil.closeQuietly(out);
+		}
+
+		long count = dropped.get();
+		if (count > 0) {
+			addWarn("Dropped " + count + " entries of blind index file [" + file + "], the index is incomplete");
+		}
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.joran;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import ch.qos.logback.core.Context;
+import ch.qos.logback.core.util.CloseUtil;
+
+/**
+ * Caches the certificates parsed while configuring a logger context. Files are
+ * re-read only if their modification time or length changed, and equal
+ * encodings (e.g., the same certificate referenced by several elements, once
+ * as file and once inline) are parsed only once. Hence, all components
+ * configured with the same certificate share one instance, including the
+ * public key decoded along with it.
+ * <p>
+ * The cache of a context survives its reset, i.e., it is reused when the
+ * configuration is reloaded (e.g., by <code>scan="true"</code>).
+ */
+public class CertificateCache {
+
+	private static final Map<Context, CertificateCache> CACHES = new WeakHashMap<Context, CertificateCache>();
+
+	protected static class FileEntry {
+		protected final long lastModified;
+		protected final long length;
+		protected final X509Certificate certificate;
+
+		protected FileEntry(long lastModified, long length, X509Certificate certificate) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.certificate = certificate;
+		}
+	}
+
+	protected final ConcurrentMap<String, FileEntry> files = new ConcurrentHashMap<String, FileEntry>();
+	protected final ConcurrentMap<String, X509Certificate> encodings = new ConcurrentHashMap<String, X509Certificate>();
+	protected final AtomicLong parsed = new AtomicLong();
+
+	/**
+	 * @return The certificate cache of the given context.
+	 */
+	public static CertificateCache get(Context context) {
+		synchronized (CACHES) {
+			CertificateCache cache = CACHES.get(context);
+			if (cache == null) {
+				cache = new CertificateCache();
+				CACHES.put(context, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * @param file
+	 *        A PEM or DER encoded certificate file.
+	 * @return The parsed certificate.
+	 * @throws java.io.FileNotFoundException
+	 *         If the file cannot be read.
+	 */
+	public X509Certificate getCertificate(File file)
+	    throws IOException, CertificateException
+	{
+		String path = file.getAbsoluteFile().getPath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		FileEntry entry = files.get(path);
+		if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+			return entry.certificate;
+		}
+
+		X509Certificate certificate = getCertificate(readFully(file));
+		files.put(path, new FileEntry(lastModified, length, certificate));
+		return certificate;
+	}
+
+	/**
+	 * @param encoded
+	 *        A PEM or DER encoded certificate.
+	 * @return The parsed certificate.
+	 */
+	public X509Certificate getCertificate(byte[] encoded)
+	    throws CertificateException
+	{
+		String hash = DigestUtils.sha256Hex(encoded);
+		X509Certificate certificate = encodings.get(hash);
+		if (certificate == null) {
+			CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+			certificate = (X509Certificate) certFactory.generateCertificate(new ByteArrayInputStream(encoded));
+			parsed.incrementAndGet();
+			X509Certificate prev = encodings.putIfAbsent(hash, certificate);
+			if (prev != null) {
+				certificate = prev;
+			}
+		}
+		return certificate;
+	}
+
+	/**
+	 * @return The number of certificates parsed so far.
+	 */
+	public long getParsedCount() {
+		return parsed.get();
+	}
+
+	public void clear() {
+		files.clear();
+		encodings.clear();
+	}
+
+	protected static byte[] readFully(File file)
+	    throws IOException
+	{
+		InputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.max(file.length(), 0));
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = is.read(buffer)) >= 0) {
+				bos.write(buffer, 0, read);
+			}
+			return bos.toByteArray();
+		} finally {
+			CloseUtil.closeQuietly(is);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.joran;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.core.spi.LifeCycle;
+
+/**
+ * Keeps the expensive components of a logger context (e.g., parameter
+ * sanitizer factories generating keys) running across configuration reloads.
+ * <p>
+ * Components are registered along with their slot (e.g., appender and tag
+ * name) and the fingerprint of their configuration (see
+ * {@link ConfigurationFingerprint}). Resetting the context (which is the first
+ * step of a reload) retires all of them, but does not stop them. While the new
+ * configuration is interpreted, a component whose configuration is unchanged
+ * is reused by {@link #reuse(String, String)} instead of starting a new
+ * instance. A component replaced by a changed configuration is stopped as soon
+ * as its replacement is registered. Components removed from the configuration
+ * are stopped once the configuration completes (see
+ * {@link iaik.privlog.joran.action.ReloadCompletedAction}), or at the latest on
+ * the next reset. Stopping the context stops all components.
+ */
+public class ComponentRegistry implements LoggerContextListener {
+
+	private static final Map<LoggerContext, ComponentRegistry> REGISTRIES =
+	    new WeakHashMap<LoggerContext, ComponentRegistry>();
+
+	protected static class Entry {
+		protected final String slot;
+		protected final String fingerprint;
+		protected final LifeCycle component;
+		protected boolean retired;
+
+		protected Entry(String slot, String fingerprint, LifeCycle component) {
+			this.slot = slot;
+			this.fingerprint = fingerprint;
+			this.component = component;
+		}
+	}
+
+	protected final List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * @return The component registry of the given context.
+	 */
+	public static ComponentRegistry get(LoggerContext context) {
+		synchronized (REGISTRIES) {
+			ComponentRegistry registry = REGISTRIES.get(context);
+			if (registry == null) {
+				registry = new ComponentRegistry();
+				context.addListener(registry);
+				REGISTRIES.put(context, registry);
+			}
+			return registry;
+		}
+	}
+
+	/**
+	 * @param slot
+	 *        Identifies the component within the configuration.
+	 * @param fingerprint
+	 *        The fingerprint of the configuration of the component.
+	 * @return A retired component with the same slot and configuration, or
+	 *         <code>null</code> if there is none.
+	 */
+	public synchronized LifeCycle reuse(String slot, String fingerprint) {
+		for (Entry entry : entries) {
+			if (entry.retired && entry.slot.equals(slot) && entry.fingerprint.equals(fingerprint)
+			    && entry.component.isStarted()) {
+				entry.retired = false;
+				return entry.component;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Registers a started component, which is stopped if it is not reused
+	 * after the next reset. Retired components of the same slot are stopped.
+	 */
+	public synchronized void register(String slot, String fingerprint, LifeCycle component) {
+		for (Iterator<Entry> iter = entries.iterator(); iter.hasNext();) {
+			Entry entry = iter.next();
+			if (entry.retired && entry.slot.equals(slot)) {
+				iter.remove();
+				entry.component.stop();
+			}
+		}
+		entries.add(new Entry(slot, fingerprint, component));
+	}
+
+	/**
+	 * Stops the retired components, i.e., the ones not reused by the current
+	 * configuration.
+	 */
+	public synchronized void stopRetired() {
+		for (Iterator<Entry> iter = entries.iterator(); iter.hasNext();) {
+			Entry entry = iter.next();
+			if (entry.retired) {
+				iter.remove();
+				entry.component.stop();
+			}
+		}
+	}
+
+	/**
+	 * @return The registered components.
+	 */
+	public synchronized List<LifeCycle> getComponents() {
+		List<LifeCycle> components = new ArrayList<LifeCycle>(entries.size());
+		for (Entry entry : entries) {
+			components.add(entry.component);
+		}
+		return components;
+	}
+
+	@Override
+	public boolean isResetResistant() {
+		return true;
+	}
+
+	@Override
+	public void onStart(LoggerContext context) {
+	}
+
+	@Override
+	public synchronized void onReset(LoggerContext context) {
+		stopRetired();
+		for (Entry entry : entries) {
+			entry.retired = true;
+		}
+	}
+
+	@Override
+	public synchronized void onStop(LoggerContext context) {
+		for (Entry entry : entries) {
+			entry.component.stop();
+		}
+		entries.clear();
+	}
+
+	@Override
+	public void onLevelChange(Logger logger, Level level) {
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.joran;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.xml.sax.Attributes;
+
+import ch.qos.logback.core.joran.action.Action;
+import ch.qos.logback.core.joran.event.BodyEvent;
+import ch.qos.logback.core.joran.event.EndEvent;
+import ch.qos.logback.core.joran.event.InPlayListener;
+import ch.qos.logback.core.joran.event.SaxEvent;
+import ch.qos.logback.core.joran.event.StartEvent;
+import ch.qos.logback.core.joran.spi.InterpretationContext;
+
+/**
+ * Records the configuration of an element, including all nested elements,
+ * while it is interpreted (see
+ * {@link InterpretationContext#addInPlayListener(InPlayListener)}). Values are
+ * recorded after variable substitution. For <code>file</code> attributes
+ * (e.g., of <code>&lt;x509Certificate&gt;</code>) the modification time and
+ * length of the file are recorded as well, i.e., replacing a referenced
+ * certificate changes the fingerprint.
+ */
+public class ConfigurationFingerprint implements InPlayListener {
+
+	protected final InterpretationContext ic;
+	protected final StringBuilder configuration = new StringBuilder();
+
+	/**
+	 * @param ic
+	 *        The interpretation context used for variable substitution.
+	 * @param owner
+	 *        Identifies the object the element is configured for, e.g., the
+	 *        name of the appender.
+	 */
+	public ConfigurationFingerprint(InterpretationContext ic, String owner) {
+		this.ic = ic;
+		configuration.append(owner).append('\n');
+	}
+
+	@Override
+	public void inPlay(SaxEvent event) {
+		if (event instanceof StartEvent) {
+			configuration.append('<').append(event.getQName());
+			Attributes attributes = ((StartEvent) event).getAttributes();
+			Map<String, String> sorted = new TreeMap<String, String>();
+			for (int i = 0; i < attributes.getLength(); ++i) {
+				sorted.put(attributes.getQName(i), ic.subst(attributes.getValue(i)));
+			}
+			for (Map.Entry<String, String> attribute : sorted.entrySet()) {
+				configuration.append(' ').append(attribute.getKey()).append("=\"").append(attribute.getValue()).append('"');
+				if (Action.FILE_ATTRIBUTE.equals(attribute.getKey()) && attribute.getValue() != null) {
+					File file = new File(attribute.getValue());
+					configuration.append('@').append(file.lastModified()).append(':').append(file.length());
+				}
+			}
+			configuration.append('>');
+		} else if (event instanceof BodyEvent) {
+			configuration.append(ic.subst(((BodyEvent) event).getText().trim()));
+		} else if (event instanceof EndEvent) {
+			configuration.append("</").append(event.getQName()).append('>');
+		}
+	}
+
+	/**
+	 * @return The SHA-256 hash of the recorded configuration.
+	 */
+	public String getFingerprint() {
+		return DigestUtils.sha256Hex(configuration.toString());
+	}
+}
@@ -20,6 +20,8 @@ import ch.qos.logback.core.joran.action.AppenderRefAction;
 import ch.qos.logback.core.joran.spi.ElementSelector;
 import ch.qos.logback.core.joran.spi.RuleStore;
 import iaik.privlog.joran.action.ParamSanitizerFactoryAction;
+import iaik.privlog.joran.action.ReloadCompletedAction;
+import iaik.privlog.joran.action.SanitizerProfileAction;
 import iaik.privlog.joran.action.X509CertificateAction;
 
 public class PrivacyAwareJoranConfigurator extends JoranConfigurator {
@@ -31,9 +33,12 @@ public class PrivacyAwareJoranConfigurator extends JoranConfigurator {
 		super.addInstanceRules(rs);
 
 		rs.addRule(new ElementSelector("*/paramSanitizer"), new ParamSanitizerFactoryAction());
+		rs.addRule(new ElementSelector("*/sanitizerProfile"), new SanitizerProfileAction());
 		rs.addRule(new ElementSelector("*/appender/appender-ref"), new AppenderRefAction());
 
 		rs.addRule(new ElementSelector("*/x509Certificate"), new X509CertificateAction());
+
+		rs.addRule(new ElementSelector("configuration"), new ReloadCompletedAction());
 	}
 
 }
@@ -17,6 +17,8 @@ package iaik.privlog.joran.action;
 
 import org.xml.sax.Attributes;
 
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.joran.action.Action;
 import ch.qos.logback.core.joran.spi.ActionException;
 import ch.qos.logback.core.joran.spi.InterpretationContext;
@@ -24,20 +26,34 @@ import ch.qos.logback.core.spi.ContextAware;
 import ch.qos.logback.core.spi.LifeCycle;
 import ch.qos.logback.core.util.OptionHelper;
 import iaik.privlog.IParamSanitizerFactoriesAware;
+import iaik.privlog.SanitizerProfile;
+import iaik.privlog.joran.ComponentRegistry;
+import iaik.privlog.joran.ConfigurationFingerprint;
+import iaik.privlog.sanitizers.DeferredStartSanitizerFactory;
 import iaik.privlog.sanitizers.IParamSanitizerFactory;
 
 public class ParamSanitizerFactoryAction extends Action {
 
 	public static final String TAG_NAME_ATTRIBUTE = "tagName";
+	/**
+	 * If set to <code>true</code> the parameter sanitizer is started in the
+	 * background (see {@link DeferredStartSanitizerFactory}).
+	 */
+	public static final String START_ASYNC_ATTRIBUTE = "startAsync";
 
 	private boolean inError = false;
 	private IParamSanitizerFactory sanitizerFactory;
 	private String tagName;
+	private boolean startAsync;
+	private ConfigurationFingerprint fingerprint;
+	private String slot;
 
 	@Override
 	public void begin(InterpretationContext ic, String localName, Attributes attributes)
 	    throws ActionException
 	{
+		inError = false;
+		fingerprint = null;
 		Object o = ic.peekObject();
 		if (!(o instanceof IParamSanitizerFactoriesAware)) {
 			addError("Parameter sanitizers work only for classes implementing IParamSanitizerFactoriesAware.");
@@ -51,6 +67,7 @@ public class ParamSanitizerFactoryAction extends Action {
 			inError = true;
 			return;
 		}
+		startAsync = OptionHelper.toBoolean(ic.subst(attributes.getValue(START_ASYNC_ATTRIBUTE)), false);
 		String className = attributes.getValue(CLASS_ATTRIBUTE);
 		if (OptionHelper.isEmpty(className)) {
 			addError("Missing class name for parameter sanitizer. Near [" + localName + "] line " + getLineNumber(ic));
@@ -65,6 +82,12 @@ public class ParamSanitizerFactoryAction extends Action {
 			    IParamSanitizerFactory.class, context);
 
 			ic.pushObject(sanitizerFactory);
+
+			if (context instanceof LoggerContext) {
+				slot = describeOwner(ic) + "/" + tagName;
+				fingerprint = new ConfigurationFingerprint(ic, slot);
+				ic.addInPlayListener(fingerprint);
+			}
 		} catch (Exception oops) {
 			inError = true;
 			addError("Could not create an parameter sanitizer of type [" + className + "].", oops);
@@ -81,6 +104,12 @@ public class ParamSanitizerFactoryAction extends Action {
 			return;
 		}
 
+		ComponentRegistry registry = null;
+		if (fingerprint != null) {
+			ic.removeInPlayListener(fingerprint);
+			registry = ComponentRegistry.get((LoggerContext) context);
+		}
+
 		Object o = ic.peekObject();
 
 		if (o != sanitizerFactory) {
@@ -90,15 +119,29 @@ public class ParamSanitizerFactoryAction extends Action {
 			ic.popObject();
 
 			try {
-				if (sanitizerFactory instanceof ContextAware) {
-					addInfo("Setting context for parameter sanitizer [" + tagName + "]");
-					((ContextAware) sanitizerFactory).setContext(context);
-				}
-				if (sanitizerFactory instanceof LifeCycle) {
-					addInfo("Starting parameter sanitizer [" + tagName + "]");
-					LifeCycle component = (LifeCycle) sanitizerFactory;
-					component.start();
-					context.register(component);
+				LifeCycle running = registry != null ? registry.reuse(slot, fingerprint.getFingerprint()) : null;
+				if (running != null) {
+					// The configuration is unchanged since the last reload
+					addInfo("Reusing running parameter sanitizer [" + tagName + "]");
+					sanitizerFactory = (IParamSanitizerFactory) running;
+				} else {
+					if (sanitizerFactory instanceof ContextAware) {
+						addInfo("Setting context for parameter sanitizer [" + tagName + "]");
+						((ContextAware) sanitizerFactory).setContext(context);
+					}
+					if (startAsync && sanitizerFactory instanceof LifeCycle) {
+						addInfo("Starting parameter sanitizer [" + tagName + "] in the background");
+						DeferredStartSanitizerFactory deferred = new DeferredStartSanitizerFactory(sanitizerFactory);
+						deferred.setContext(context);
+						deferred.start();
+						register(registry, deferred);
+						sanitizerFactory = deferred;
+					} else if (sanitizerFactory instanceof LifeCycle) {
+						addInfo("Starting parameter sanitizer [" + tagName + "]");
+						LifeCycle component = (LifeCycle) sanitizerFactory;
+						component.start();
+						register(registry, component);
+					}
 				}
 			} catch (Exception cause) {
 				addError("Failed to start parameter sanitizer [" + tagName + "]", cause);
@@ -118,4 +161,36 @@ public class ParamSanitizerFactoryAction extends Action {
 
 	}
 
+	/**
+	 * Registers a started component to be stopped along with the context. For
+	 * logger contexts the component is kept running across configuration
+	 * reloads as long as its configuration is unchanged (see
+	 * {@link ComponentRegistry}).
+	 */
+	protected void register(ComponentRegistry registry, LifeCycle component) {
+		if (registry != null) {
+			registry.register(slot, fingerprint.getFingerprint(), component);
+		} else {
+			context.register(component);
+		}
+	}
+
+	/**
+	 * @return The names of the appenders and sanitizer profiles the parameter
+	 *         sanitizer is nested in.
+	 */
+	protected String describeOwner(InterpretationContext ic) {
+		StringBuilder owner = new StringBuilder();
+		for (Object o : ic.getObjectStack()) {
+			if (o instanceof Appender) {
+				owner.append("/appender:").append(((Appender<?>) o).getName());
+			} else if (o instanceof SanitizerProfile) {
+				owner.append("/profile:").append(((SanitizerProfile) o).getName());
+			} else if (o instanceof IParamSanitizerFactoriesAware) {
+				owner.append('/').append(o.getClass().getName());
+			}
+		}
+		return owner.toString();
+	}
+
 }
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.joran.action;
+
+import org.xml.sax.Attributes;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.joran.action.Action;
+import ch.qos.logback.core.joran.spi.InterpretationContext;
+import iaik.privlog.joran.ComponentRegistry;
+
+/**
+ * Bound to the <code>configuration</code> element, stops the components not
+ * reused by the completed configuration (see {@link ComponentRegistry}).
+ */
+public class ReloadCompletedAction extends Action {
+
+	@Override
+	public void begin(InterpretationContext ic, String name, Attributes attributes) {
+	}
+
+	@Override
+	public void end(InterpretationContext ic, String name) {
+		if (context instanceof LoggerContext) {
+			ComponentRegistry.get((LoggerContext) context).stopRetired();
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.joran.action;
+
+import org.xml.sax.Attributes;
+
+import ch.qos.logback.core.joran.action.Action;
+import ch.qos.logback.core.joran.spi.ActionException;
+import ch.qos.logback.core.joran.spi.InterpretationContext;
+import ch.qos.logback.core.util.OptionHelper;
+import iaik.privlog.ISanitizerProfileAware;
+import iaik.privlog.SanitizerProfile;
+
+/**
+ * Creates a {@link SanitizerProfile}, e.g.:
+ *
+ * <pre>
+ * &lt;sanitizerProfile name="audit"&gt;
+ *   &lt;marker&gt;AUDIT&lt;/marker&gt;
+ *   &lt;loggerPrefix&gt;com.example.audit&lt;/loggerPrefix&gt;
+ *   &lt;paramSanitizer tagName="user" class="..." /&gt;
+ * &lt;/sanitizerProfile&gt;
+ * </pre>
+ */
+public class SanitizerProfileAction extends Action {
+
+	private boolean inError = false;
+	private SanitizerProfile profile;
+
+	@Override
+	public void begin(InterpretationContext ic, String localName, Attributes attributes)
+	    throws ActionException
+	{
+		inError = false;
+		Object o = ic.peekObject();
+		if (!(o instanceof ISanitizerProfileAware)) {
+			addError("Sanitizer profiles work only for classes implementing ISanitizerProfileAware.");
+			throw new ActionException(
+			    new RuntimeException("Sanitizer profiles work only for classes implementing ISanitizerProfileAware."));
+		}
+
+		String name = ic.subst(attributes.getValue(NAME_ATTRIBUTE));
+		if (OptionHelper.isEmpty(name)) {
+			addError("Missing name for sanitizer profile. Near [" + localName + "] line " + getLineNumber(ic));
+			inError = true;
+			return;
+		}
+
+		String className = attributes.getValue(CLASS_ATTRIBUTE);
+		if (OptionHelper.isEmpty(className)) {
+			className = SanitizerProfile.class.getName();
+		}
+
+		try {
+			addInfo("About to instantiate sanitizer profile of type [" + className + "] named [" + name + "]");
+
+			profile = (SanitizerProfile) OptionHelper.instantiateByClassName(className, SanitizerProfile.class, context);
+			profile.setContext(context);
+			profile.setName(name);
+
+			ic.pushObject(profile);
+		} catch (Exception oops) {
+			inError = true;
+			addError("Could not create a sanitizer profile of type [" + className + "].", oops);
+			throw new ActionException(oops);
+		}
+	}
+
+	@Override
+	public void end(InterpretationContext ic, String name)
+	    throws ActionException
+	{
+		if (inError) {
+			return;
+		}
+
+		Object o = ic.peekObject();
+		if (o != profile) {
+			addWarn("The object at the of the stack is not the sanitizer profile named [" + profile.getName()
+			    + "] pushed earlier.");
+			return;
+		}
+
+		ic.popObject();
+		try {
+			addInfo("Starting sanitizer profile [" + profile.getName() + "]");
+			profile.start();
+		} catch (Exception cause) {
+			addError("Failed to start sanitizer profile [" + profile.getName() + "]", cause);
+			throw new ActionException(cause);
+		}
+
+		((ISanitizerProfileAware) ic.peekObject()).addSanitizerProfile(profile);
+	}
+
+}
@@ -15,13 +15,9 @@
  */
 package iaik.privlog.joran.action;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 
 import org.apache.commons.codec.binary.Base64;
@@ -31,8 +27,8 @@ import ch.qos.logback.core.joran.action.Action;
 import ch.qos.logback.core.joran.spi.ActionException;
 import ch.qos.logback.core.joran.spi.InterpretationContext;
 import ch.qos.logback.core.joran.util.PropertySetter;
-import ch.qos.logback.core.util.CloseUtil;
 import ch.qos.logback.core.util.OptionHelper;
+import iaik.privlog.joran.CertificateCache;
 
 public class X509CertificateAction extends Action {
 
@@ -46,6 +42,8 @@ public class X509CertificateAction extends Action {
 	public void begin(InterpretationContext ic, String localName, Attributes attributes)
 	    throws ActionException
 	{
+		inError = false;
+		x509Certificate = null;
 		targetProperty = ic.subst(attributes.getValue(NAME_ATTRIBUTE));
 		if (OptionHelper.isEmpty(targetProperty)) {
 			addError("Missing name for target parameter. Near [" + localName + "] line " + getLineNumber(ic));
@@ -57,12 +55,9 @@ public class X509CertificateAction extends Action {
 		if (!OptionHelper.isEmpty(certFilename)) {
 			File certFile = new File(certFilename);
 
-			BufferedInputStream bis = null;
 			try {
-				bis = new BufferedInputStream(new FileInputStream(certFile));
-				CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-				x509Certificate = (X509Certificate) certFactory.generateCertificate(bis);
-			} catch (FileNotFoundException e) {
+				x509Certificate = CertificateCache.get(context).getCertificate(certFile);
+			} catch (IOException e) {
 				addError("Cannot read certificate file [" + certFile.getAbsolutePath() + " ]. Near [" + localName + "] line "
 				    + getLineNumber(ic));
 				inError = true;
@@ -71,8 +66,6 @@ public class X509CertificateAction extends Action {
 				    + ". Near [" + localName + "] line " + getLineNumber(ic));
 				inError = true;
 				throw new ActionException(cause);
-			} finally {
-				CloseUtil.closeQuietly(bis);
 			}
 		}
 
@@ -90,17 +83,12 @@ public class X509CertificateAction extends Action {
 		    .replaceAll("(-+BEGIN CERTIFICATE-+\r?\n?|-+END CERTIFICATE-+)", "");
 
 		Base64 base64 = new Base64();
-		BufferedInputStream bis = null;
 		try {
-			bis = new BufferedInputStream(new ByteArrayInputStream(base64.decode(mod)));
-			CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-			x509Certificate = (X509Certificate) certFactory.generateCertificate(bis);
+			x509Certificate = CertificateCache.get(context).getCertificate(base64.decode(mod));
 		} catch (Exception cause) {
 			addError("Cannot read certificate data. Cause: " + cause.getMessage() + ". Near line " + getLineNumber(ic));
 			inError = true;
 			throw new ActionException(cause);
-		} finally {
-			CloseUtil.closeQuietly(bis);
 		}
 
 	}
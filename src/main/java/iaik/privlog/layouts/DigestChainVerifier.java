@@ -0,0 +1,730 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.layouts;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.core.util.CloseUtil;
+
+/**
+ * Verifies the hash chain written by the {@link DigestConverter}. As every
+ * entry contains the chain head, i.e., the digest the next entry is chained
+ * to, the log files are split into segments which are verified concurrently.
+ * Uncompressed files are memory mapped, gzipped (rolled over) files are
+ * verified sequentially. The chain is followed across the given files in the
+ * given order.
+ * <p>
+ * The options of the converter are given as comma separated list (see
+ * {@link #setOptions(String)}). The verifier expects the log files to be
+ * encoded in the charset of the converter and the digested text to start at
+ * the beginning of an entry. Any other text preceding it (e.g., a timestamp)
+ * has to be matched by the <code>skip</code> option, a regular expression
+ * that is applied to the ISO-8859-1 decoded entry.
+ * <p>
+ * Usage:
+ * <code>DigestChainVerifier &lt;options&gt; &lt;log file&gt; [log file...]</code>
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class DigestChainVerifier {
+
+	public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+	public static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+	protected static final byte[] HEADER_PREFIX = PatternLayout.HEADER_PREFIX.getBytes(Charset.forName("ISO-8859-1"));
+	protected static final int GZIP_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The outcome of a verification, i.e., the number of verified entries and
+	 * the first broken link, if any.
+	 */
+	public static class Result {
+		protected long entries;
+		protected String file;
+		protected long line;
+		protected long offset;
+		protected String reason;
+
+		public boolean isValid() {
+			return reason == null;
+		}
+
+		public long getEntries() {
+			return entries;
+		}
+
+		/**
+		 * @return The file containing the first broken link or <code>null</code>.
+		 */
+		public String getFile() {
+			return file;
+		}
+
+		/**
+		 * @return The (1-based) number of the first line of the broken entry.
+		 */
+		public long getLine() {
+			return line;
+		}
+
+		/**
+		 * @return The offset of the broken entry in the (uncompressed) file.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+
+		@Override
+		public String toString() {
+			if (isValid()) {
+				return "Verified " + entries + " entries";
+			}
+			return "Broken link in [" + file + "] at line " + line + " (offset " + offset + "): " + reason;
+		}
+	}
+
+	/**
+	 * A view on a region of a byte buffer, decoding the bytes as ISO-8859-1
+	 * for the skip pattern.
+	 */
+	protected static class ByteSequence implements CharSequence {
+		protected ByteBuffer buffer;
+		protected int offset;
+		protected int length;
+
+		protected ByteSequence set(ByteBuffer buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (buffer.get(offset + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new ByteSequence().set(buffer, offset + start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(length);
+			for (int i = 0; i < length; ++i) {
+				sb.append(charAt(i));
+			}
+			return sb.toString();
+		}
+	}
+
+	protected String algorithm = "SHA1";
+	protected boolean base64 = false;
+	protected boolean chained = true;
+	protected Charset charset = Charset.forName("utf-8");
+	protected String prefix = " [digest:";
+	protected String suffix = "]";
+	protected Pattern skip;
+	protected int threads = Runtime.getRuntime().availableProcessors();
+	protected long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+	/**
+	 * @param options
+	 *        The options of the {@link DigestConverter}, e.g.,
+	 *        <code>algorithm=sha512,base64=true</code>, optionally extended by
+	 *        the <code>skip</code> pattern.
+	 */
+	public void setOptions(String options) {
+		for (String option : options.split(",")) {
+			String[] keyVal = option.split("=", 2);
+			if (keyVal.length != 2) {
+				continue;
+			}
+
+			switch (keyVal[0].trim()) {
+			case "algorithm":
+				algorithm = keyVal[1];
+				break;
+
+			case "base64":
+				base64 = Boolean.valueOf(keyVal[1]);
+				break;
+
+			case "chained":
+				chained = Boolean.valueOf(keyVal[1]);
+				break;
+
+			case "charset":
+				charset = Charset.forName(keyVal[1]);
+				break;
+
+			case "prefix":
+				prefix = keyVal[1];
+				break;
+
+			case "suffix":
+				suffix = keyVal[1];
+				break;
+
+			case "skip":
+				skip = Pattern.compile(keyVal[1]);
+				break;
+			}
+		}
+	}
+
+	public void setAlgorithm(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public void setBase64(boolean base64) {
+		this.base64 = base64;
+	}
+
+	public void setChained(boolean chained) {
+		this.chained = chained;
+	}
+
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	public void setPrefix(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public void setSuffix(String suffix) {
+		this.suffix = suffix;
+	}
+
+	/**
+	 * @param skip
+	 *        A regular expression matching the text preceding the digested text
+	 *        of an entry, or <code>null</code>.
+	 */
+	public void setSkip(String skip) {
+		this.skip = skip == null ? null : Pattern.compile(skip);
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @param segmentSize
+	 *        The number of bytes verified as a unit, at most
+	 *        {@link #MAX_SEGMENT_SIZE}.
+	 */
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = Math.max(1, Math.min(segmentSize, MAX_SEGMENT_SIZE));
+	}
+
+	/**
+	 * Verifies the given log files as one continuous chain.
+	 */
+	public Result verify(File... files)
+	    throws IOException
+	{
+		try {
+			MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException cause) {
+			throw new IOException("Message digest algorithm [" + algorithm + "] not found.", cause);
+		}
+
+		List<Segment> segments = new ArrayList<Segment>();
+		for (File file : files) {
+			if (file.getName().endsWith(".gz")) {
+				segments.add(new Segment(file, 0, Long.MAX_VALUE));
+			} else {
+				long length = file.length();
+				long start = 0;
+				do {
+					segments.add(new Segment(file, start, Math.min(length, start + segmentSize)));
+					start += segmentSize;
+				} while (start < length);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, segments.size())));
+		try {
+			List<Future<Segment>> futures = executor.invokeAll(segments);
+			for (Future<Segment> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Verification interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Verification failed", cause);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return combine(segments);
+	}
+
+	/**
+	 * Checks the links between the segments and reports the first failure.
+	 */
+	protected Result combine(List<Segment> segments)
+	    throws IOException
+	{
+		Result result = new Result();
+		MessageDigest digest = newDigest();
+		byte[] prevHash = digest.digest();
+		File file = null;
+		long linesBefore = 0;
+
+		for (Segment segment : segments) {
+			if (segment.file != file) {
+				file = segment.file;
+				linesBefore = 0;
+			}
+
+			if (segment.firstInput != null) {
+				if (chained) {
+					digest.update(prevHash);
+				}
+				if (!Arrays.equals(digest.digest(segment.firstInput), segment.firstHash)) {
+					fail(result, 0, segment, linesBefore + segment.firstLine, segment.firstOffset,
+					    brokenLinkReason(segment.firstHash));
+					return result;
+				}
+			}
+
+			if (segment.reason != null) {
+				fail(result, segment.failureEntry, segment, linesBefore + segment.failureLine, segment.failureOffset,
+				    segment.reason);
+				return result;
+			}
+
+			result.entries += segment.entries;
+			linesBefore += segment.lines;
+			if (segment.lastHash != null) {
+				prevHash = segment.lastHash;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param verified
+	 *        The number of entries of the segment verified before the failure.
+	 * @param line
+	 *        The (0-based) line of the broken entry in its file.
+	 */
+	protected void fail(Result result, long verified, Segment segment, long line, long offset, String reason) {
+		result.entries += verified;
+		result.file = segment.file.getPath();
+		result.line = line + 1;
+		result.offset = offset;
+		result.reason = reason;
+	}
+
+	protected String brokenLinkReason(byte[] expected) {
+		return expected == null ? "Malformed digest" : "Digest mismatch";
+	}
+
+	protected MessageDigest newDigest()
+	    throws IOException
+	{
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException cause) {
+			throw new IOException("Message digest algorithm [" + algorithm + "] not found.", cause);
+		}
+	}
+
+	/**
+	 * A part of a log file verified by a single thread. The first entry of a
+	 * segment is verified by {@link DigestChainVerifier#combine(List)} as it is
+	 * chained to the last entry of the previous segment.
+	 * <p>
+	 * A segment of an uncompressed file starts right after the first entry
+	 * ending in a line that starts at or after its nominal start and it ends
+	 * with the first such entry of the next segment.
+	 */
+	protected class Segment implements Callable<Segment> {
+		protected final File file;
+		protected final long start;
+		protected final long end;
+
+		protected final byte[] prefixBytes = prefix.getBytes(charset);
+		protected final byte[] suffixBytes = suffix.getBytes(charset);
+		protected final ByteSequence sequence = new ByteSequence();
+		protected final Matcher skipMatcher = skip != null ? skip.matcher("") : null;
+		protected MessageDigest digest;
+
+		// Results
+		protected long entries;
+		protected long lines;
+		protected byte[] firstInput;
+		protected byte[] firstHash;
+		protected long firstLine;
+		protected long firstOffset;
+		protected byte[] lastHash;
+		protected String reason;
+		protected long failureEntry;
+		protected long failureLine;
+		protected long failureOffset;
+
+		// Parser state
+		protected boolean done;
+		protected int hashStart;
+		protected int hashEnd;
+
+		protected Segment(File file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Segment call()
+		    throws IOException
+		{
+			digest = newDigest();
+			if (end == Long.MAX_VALUE) {
+				verifyStream();
+			} else {
+				verifyMapped();
+			}
+			return this;
+		}
+
+		protected void verifyMapped()
+		    throws IOException
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				long length = channel.size();
+				// Include the preceding byte to detect a line starting at the
+				// nominal start
+				long base = start > 0 ? start - 1 : 0;
+				int mapped = (int) Math.min(length - base, Integer.MAX_VALUE);
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, mapped);
+				boolean eof = base + mapped == length;
+
+				int pos = 0;
+				if (start > 0) {
+					pos = skipToBoundary(buffer, base, mapped);
+					if (pos < 0) {
+						// The previous segment covers the remaining entries
+						return;
+					}
+				}
+
+				int rest = process(buffer, base, pos, mapped, eof);
+				if (!done && rest < mapped && reason == null) {
+					failure(eof ? "Entry without digest" : "Entry exceeds the maximum segment size", lines, base + rest);
+				}
+			} finally {
+				CloseUtil.closeQuietly(raf);
+			}
+		}
+
+		protected void verifyStream()
+		    throws IOException
+		{
+			InputStream in = new GZIPInputStream(new FileInputStream(file), GZIP_BUFFER_SIZE);
+			try {
+				byte[] chunk = new byte[GZIP_BUFFER_SIZE];
+				ByteBuffer buffer = ByteBuffer.wrap(chunk);
+				long base = 0;
+				int limit = 0;
+				int read;
+				while ((read = in.read(chunk, limit, chunk.length - limit)) >= 0) {
+					limit += read;
+					if (limit < chunk.length) {
+						continue;
+					}
+
+					int rest = process(buffer, base, 0, limit, false);
+					if (rest == 0) {
+						// The current entry does not fit into the buffer
+						chunk = Arrays.copyOf(chunk, chunk.length * 2);
+						buffer = ByteBuffer.wrap(chunk);
+					} else {
+						System.arraycopy(chunk, rest, chunk, 0, limit - rest);
+						base += rest;
+						limit -= rest;
+					}
+				}
+
+				int rest = process(buffer, base, 0, limit, true);
+				if (rest < limit && reason == null) {
+					failure("Entry without digest", lines, base + rest);
+				}
+			} finally {
+				CloseUtil.closeQuietly(in);
+			}
+		}
+
+		/**
+		 * @return The index following the first entry ending in a line which
+		 *         starts in this segment, or -1 if there is none.
+		 */
+		protected int skipToBoundary(ByteBuffer buffer, long base, int limit) {
+			int lineStart = indexOf(buffer, '\n', 0, limit);
+			if (lineStart < 0) {
+				return -1;
+			}
+			++lineStart;
+			while (lineStart < limit && base + lineStart < end) {
+				int lineEnd = indexOf(buffer, '\n', lineStart, limit);
+				int next = lineEnd < 0 ? limit : lineEnd + 1;
+				if (lineEnd < 0) {
+					lineEnd = limit;
+				}
+				if (findMarker(buffer, lineStart, lineEnd) >= 0) {
+					return next;
+				}
+				lineStart = next;
+			}
+			return -1;
+		}
+
+		/**
+		 * Verifies the complete entries in the given region.
+		 *
+		 * @param base
+		 *        The file offset of the buffer.
+		 * @return The index of the first byte not processed, i.e., the start of
+		 *         an incomplete entry.
+		 */
+		protected int process(ByteBuffer buffer, long base, int pos, int limit, boolean eof) {
+			int entryStart = pos;
+			int lineStart = pos;
+			long entryLines = 0;
+			while (lineStart < limit && !done) {
+				int lineEnd = indexOf(buffer, '\n', lineStart, limit);
+				int next = lineEnd + 1;
+				if (lineEnd < 0) {
+					if (!eof) {
+						break;
+					}
+					lineEnd = limit;
+					next = limit;
+				}
+
+				if (entryLines == 0 && startsWith(buffer, lineStart, lineEnd, HEADER_PREFIX)) {
+					++lines;
+					entryStart = next;
+				} else {
+					++entryLines;
+					int marker = findMarker(buffer, lineStart, lineEnd);
+					if (marker >= 0) {
+						entry(buffer, entryStart, marker, base + entryStart);
+						lines += entryLines;
+						entryLines = 0;
+						entryStart = next;
+						done = base + lineStart >= end;
+					}
+				}
+				lineStart = next;
+			}
+			return entryStart;
+		}
+
+		protected void entry(ByteBuffer buffer, int entryStart, int entryEnd, long offset) {
+			int inputStart = entryStart;
+			if (skipMatcher != null) {
+				skipMatcher.reset(sequence.set(buffer, entryStart, entryEnd - entryStart));
+				if (skipMatcher.lookingAt()) {
+					inputStart += skipMatcher.end();
+				}
+			}
+			byte[] hash = decodeHash(buffer, hashStart, hashEnd);
+
+			if (entries == 0) {
+				firstInput = new byte[entryEnd - inputStart];
+				for (int i = 0; i < firstInput.length; ++i) {
+					firstInput[i] = buffer.get(inputStart + i);
+				}
+				firstHash = hash;
+				firstLine = lines;
+				firstOffset = offset;
+			} else if (reason == null) {
+				if (hash == null || (chained && lastHash == null)) {
+					failure(brokenLinkReason(null), lines, offset);
+				} else {
+					if (chained) {
+						digest.update(lastHash);
+					}
+					ByteBuffer input = buffer.duplicate();
+					input.limit(entryEnd).position(inputStart);
+					digest.update(input);
+					if (!Arrays.equals(digest.digest(), hash)) {
+						failure(brokenLinkReason(hash), lines, offset);
+					}
+				}
+			}
+
+			// Continue with the logged digest to report a single broken link
+			// precisely
+			lastHash = hash;
+			++entries;
+		}
+
+		protected void failure(String failureReason, long line, long offset) {
+			reason = failureReason;
+			failureEntry = entries;
+			failureLine = line;
+			failureOffset = offset;
+		}
+
+		/**
+		 * @return The index of the digest prefix in the given line, or -1 if
+		 *         the line does not contain a digest. The hash is located at
+		 *         [{@link #hashStart}, {@link #hashEnd}).
+		 */
+		protected int findMarker(ByteBuffer buffer, int lineStart, int lineEnd) {
+			for (int p = lineEnd - prefixBytes.length - suffixBytes.length; p >= lineStart; --p) {
+				if (!regionMatches(buffer, p, prefixBytes)) {
+					continue;
+				}
+				int h = p + prefixBytes.length;
+				while (h < lineEnd && isHashChar(buffer.get(h))) {
+					++h;
+				}
+				if (h > p + prefixBytes.length && h + suffixBytes.length <= lineEnd && regionMatches(buffer, h,
+				    suffixBytes))
+				{
+					hashStart = p + prefixBytes.length;
+					hashEnd = h;
+					return p;
+				}
+			}
+			return -1;
+		}
+
+		protected boolean isHashChar(byte b) {
+			if ((b >= '0' && b <= '9') || (b >= 'a' && b <= 'z')) {
+				return true;
+			}
+			return base64 && ((b >= 'A' && b <= 'Z') || b == '+' || b == '/' || b == '=');
+		}
+
+		/**
+		 * @return The decoded hash or <code>null</code> if it is malformed.
+		 */
+		protected byte[] decodeHash(ByteBuffer buffer, int from, int to) {
+			byte[] encoded = new byte[to - from];
+			for (int i = 0; i < encoded.length; ++i) {
+				encoded[i] = buffer.get(from + i);
+			}
+			if (base64) {
+				return Base64.decodeBase64(encoded);
+			}
+			if (encoded.length % 2 != 0) {
+				return null;
+			}
+			byte[] hash = new byte[encoded.length / 2];
+			for (int i = 0; i < hash.length; ++i) {
+				int hi = Character.digit(encoded[2 * i], 16);
+				int lo = Character.digit(encoded[2 * i + 1], 16);
+				if (hi < 0 || lo < 0) {
+					return null;
+				}
+				hash[i] = (byte) (hi << 4 | lo);
+			}
+			return hash;
+		}
+	}
+
+	protected static int indexOf(ByteBuffer buffer, char c, int from, int to) {
+		for (int i = from; i < to; ++i) {
+			if (buffer.get(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	protected static boolean regionMatches(ByteBuffer buffer, int offset, byte[] bytes) {
+		for (int i = 0; i < bytes.length; ++i) {
+			if (buffer.get(offset + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected static boolean startsWith(ByteBuffer buffer, int from, int to, byte[] bytes) {
+		return to - from >= bytes.length && regionMatches(buffer, from, bytes);
+	}
+
+	public static void main(String[] args)
+	    throws IOException
+	{
+		if (args.length < 2) {
+			System.err.println("Usage: " + DigestChainVerifier.class.getName()
+			    + " <options, e.g., algorithm=sha512,base64=true,skip=\\\\S+\\\\s+> <log file> [log file...]");
+			System.exit(1);
+		}
+
+		DigestChainVerifier verifier = new DigestChainVerifier();
+		verifier.setOptions(args[0]);
+		File[] files = new File[args.length - 1];
+		for (int i = 1; i < args.length; ++i) {
+			files[i - 1] = new File(args[i]);
+		}
+
+		Result result = verifier.verify(files);
+		System.out.println(result);
+		if (!result.isValid()) {
+			System.exit(2);
+		}
+	}
+}
@@ -21,6 +21,7 @@ import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,6 +32,8 @@ import org.apache.commons.io.input.ReversedLinesFileReader;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.pattern.CompositeConverter;
 import ch.qos.logback.core.util.CloseUtil;
+import iaik.privlog.metrics.IMetricsCollector;
+import iaik.privlog.metrics.Metrics;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
@@ -47,28 +50,42 @@ public class DigestConverter extends CompositeConverter<ILoggingEvent> {
 	protected String prefix = " [digest:";
 	protected String suffix = "]";
 
+	/**
+	 * Guards the digest and the chain.
+	 */
+	protected final ReentrantLock lock = new ReentrantLock();
 	protected MessageDigest digest;
 	protected byte[] prevHash;
 
 	protected String createDigest(String in) {
-		synchronized (digest) {
+		byte[] hash;
+		lock.lock();
+		try {
 			if (chained) {
 				digest.update(prevHash);
 			}
-			prevHash = digest.digest(in.getBytes(charset));
-			String prevHashString = base64 ? Base64.encodeBase64String(prevHash) : Hex.encodeHexString(prevHash);
-			return prevHashString;
+			hash = digest.digest(in.getBytes(charset));
+			prevHash = hash;
+		} finally {
+			lock.unlock();
 		}
+		return base64 ? Base64.encodeBase64String(hash) : Hex.encodeHexString(hash);
 	}
 
 	@Override
 	protected String transform(ILoggingEvent event, String in) {
+		IMetricsCollector metrics = Metrics.getCollector();
+		long start = metrics != null ? System.nanoTime() : 0;
+
 		StringBuilder buf = new StringBuilder(in);
 
 		buf.append(prefix);
 		buf.append(started ? createDigest(in) : NOT_STARTED_MESSAGE);
 		buf.append(suffix);
 
+		if (metrics != null) {
+			metrics.recordDigest(System.nanoTime() - start);
+		}
 		return buf.toString();
 	}
 
@@ -123,9 +140,7 @@ public class DigestConverter extends CompositeConverter<ILoggingEvent> {
 		try {
 			digest = MessageDigest.getInstance(algorithm);
 			if (prevHash == null) {
-				synchronized (digest) {
-					prevHash = digest.digest();
-				}
+				prevHash = digest.digest();
 			}
 		} catch (NoSuchAlgorithmException cause) {
 			addError("Message digest algorithm [" + algorithm + "] not found.", cause);
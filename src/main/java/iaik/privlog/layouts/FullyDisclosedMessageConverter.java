@@ -15,17 +15,63 @@
  */
 package iaik.privlog.layouts;
 
+import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.pattern.DynamicConverter;
 import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.encoders.Utf8Buffer;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
  */
-public class FullyDisclosedMessageConverter extends DynamicConverter<PrivacyAwareLoggingEvent> {
+public class FullyDisclosedMessageConverter extends DynamicConverter<ILoggingEvent>
+    implements IUtf8BufferWriter<ILoggingEvent>
+{
+
+	protected PrivacyAwareLoggingEvent.RenderBoth renderBoth;
+
+	/**
+	 * Enables rendering both messages at once, as it is likely that the
+	 * sanitized message is required, too.
+	 */
+	@Override
+	public void start() {
+		if (getContext() != null && renderBoth == null) {
+			renderBoth = PrivacyAwareLoggingEvent.RenderBoth.get(getContext());
+			renderBoth.enable();
+		}
+		super.start();
+	}
 
 	@Override
-	public String convert(PrivacyAwareLoggingEvent event) {
-		return event.getFullyDisclosedFormattedMessage();
+	public void stop() {
+		if (renderBoth != null) {
+			renderBoth.disable(getContext());
+			renderBoth = null;
+		}
+		super.stop();
+	}
+
+	@Override
+	public String convert(ILoggingEvent event) {
+		if (event instanceof PrivacyAwareLoggingEvent) {
+			return ((PrivacyAwareLoggingEvent) event).getFullyDisclosedFormattedMessage();
+		}
+		// Untagged messages are not sanitized at all
+		return event.getFormattedMessage();
+	}
+
+	@Override
+	public boolean write(Utf8Buffer out, ILoggingEvent event) {
+		if (getFormattingInfo() != null) {
+			return false;
+		}
+
+		if (event instanceof PrivacyAwareLoggingEvent) {
+			MessageWriter.write((PrivacyAwareLoggingEvent) event, true, out);
+		} else {
+			out.append(event.getFormattedMessage());
+		}
+		return true;
 	}
 
 }
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.layouts;
+
+import ch.qos.logback.core.pattern.Converter;
+import iaik.privlog.encoders.Utf8Buffer;
+
+/**
+ * Implemented by {@link Converter}s which are able to write their output
+ * straight into the encoder's buffer (see
+ * {@link PrivacyAwarePatternLayout#doLayout(ch.qos.logback.classic.spi.ILoggingEvent, Utf8Buffer, StringBuilder)}).
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public interface IUtf8BufferWriter<E> {
+
+	/**
+	 * @param out
+	 *        The buffer to write to.
+	 * @param event
+	 *        The event to convert.
+	 * @return <code>false</code> if nothing has been written and the converter
+	 *         has to be used the usual way, e.g., because it applies padding.
+	 */
+	boolean write(Utf8Buffer out, E event);
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.layouts;
+
+import iaik.privlog.MessageSegments;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.encoders.Utf8Buffer;
+
+/**
+ * Renders the messages of privacy aware events straight into a
+ * {@link Utf8Buffer}, i.e., the literal segments of the template and the
+ * (sanitized or critical) arguments without creating the message String.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public final class MessageWriter {
+
+	private MessageWriter() {
+	}
+
+	/**
+	 * Appends the (sanitized or fully disclosed) message of the given event.
+	 */
+	public static void write(PrivacyAwareLoggingEvent event, boolean fullyDisclosed, Utf8Buffer out) {
+		write(event, fullyDisclosed, false, out);
+	}
+
+	/**
+	 * Like {@link #write(PrivacyAwareLoggingEvent, boolean, Utf8Buffer)} but
+	 * escapes the message as content of a JSON string, i.e., without the
+	 * surrounding quotes.
+	 */
+	public static void writeJsonEscaped(PrivacyAwareLoggingEvent event, boolean fullyDisclosed, Utf8Buffer out) {
+		write(event, fullyDisclosed, true, out);
+	}
+
+	private static void write(PrivacyAwareLoggingEvent event, boolean fullyDisclosed, boolean json, Utf8Buffer out) {
+		String rendered = fullyDisclosed ? event.getRenderedFullyDisclosedMessage() : event.getRenderedMessage();
+		if (rendered == null && event.isRenderBoth()) {
+			// Both messages are needed anyway, therefore, render them in one pass
+			rendered = fullyDisclosed ? event.getFullyDisclosedFormattedMessage() : event.getFormattedMessage();
+		}
+		if (rendered != null) {
+			append(rendered, json, out);
+			return;
+		}
+
+		MessageSegments segments = event.getSegments();
+		int argCount = event.getParameterCount();
+		int filled = Math.min(argCount, segments.getSlotCount());
+		for (int i = 0; i < filled; ++i) {
+			append(segments.getLiteral(i), json, out);
+			Object arg = fullyDisclosed ? event.getCriticalArgument(i) : event.getSanitizedArgument(i);
+			if (arg instanceof Integer || arg instanceof Long) {
+				out.append(((Number) arg).longValue());
+			} else {
+				String value = MessageSegments.toString(arg);
+				append(value != null ? value : "null", json, out);
+			}
+		}
+		append(segments.getTail(argCount), json, out);
+	}
+
+	private static void append(String s, boolean json, Utf8Buffer out) {
+		if (json) {
+			out.appendJsonEscaped(s);
+		} else {
+			out.append(s);
+		}
+	}
+}
@@ -15,10 +15,17 @@
  */
 package iaik.privlog.layouts;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.pattern.Converter;
+import ch.qos.logback.core.pattern.PostCompileProcessor;
+import ch.qos.logback.core.spi.LifeCycle;
+import iaik.privlog.encoders.Utf8Buffer;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
@@ -33,13 +40,119 @@ public class PrivacyAwarePatternLayout extends PatternLayout {
 		defaultConverterMap.put("digest", DigestConverter.class.getName());
 		defaultConverterMap.put("hash", DigestConverter.class.getName());
 
+		defaultConverterMap.put("m", SanitizedMessageConverter.class.getName());
+		defaultConverterMap.put("msg", SanitizedMessageConverter.class.getName());
+		defaultConverterMap.put("message", SanitizedMessageConverter.class.getName());
+
 		defaultConverterMap.put("cMsg", FullyDisclosedMessageConverter.class.getName());
 		defaultConverterMap.put("critMessage", FullyDisclosedMessageConverter.class.getName());
 	}
 
+	/**
+	 * The compiled converter chain, captured during {@link #start()}, and, at
+	 * the same index, the converter as
+	 * {@link IUtf8BufferWriter} or <code>null</code>. Resolving the writers once
+	 * avoids type checks against the interface per converter and event.
+	 */
+	protected Converter<ILoggingEvent>[] converters;
+	protected IUtf8BufferWriter<ILoggingEvent>[] writers;
+
 	@Override
 	public Map<String, String> getDefaultConverterMap() {
 		return defaultConverterMap;
 	}
 
+	@Override
+	public void start() {
+		final PostCompileProcessor<ILoggingEvent> processor = postCompileProcessor;
+		postCompileProcessor = new PostCompileProcessor<ILoggingEvent>() {
+			@Override
+			public void process(Converter<ILoggingEvent> head) {
+				if (processor != null) {
+					processor.process(head);
+				}
+				setConverters(head);
+			}
+		};
+		try {
+			super.start();
+		} finally {
+			postCompileProcessor = processor;
+		}
+	}
+
+	protected void setConverters(Converter<ILoggingEvent> head) {
+		List<Converter<ILoggingEvent>> chain = new ArrayList<Converter<ILoggingEvent>>();
+		for (Converter<ILoggingEvent> c = head; c != null; c = c.getNext()) {
+			chain.add(c);
+		}
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		Converter<ILoggingEvent>[] all = chain.toArray(new Converter[chain.size()]);
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		IUtf8BufferWriter<ILoggingEvent>[] direct = new IUtf8BufferWriter[all.length];
+		for (int i = 0; i < all.length; ++i) {
+			if (all[i] instanceof IUtf8BufferWriter) {
+				@SuppressWarnings("unchecked")
+				IUtf8BufferWriter<ILoggingEvent> writer = (IUtf8BufferWriter<ILoggingEvent>) all[i];
+				direct[i] = writer;
+			}
+		}
+		converters = all;
+		writers = direct;
+	}
+
+	/**
+	 * Also stops the converters, which the pattern layout does not.
+	 */
+	@Override
+	public void stop() {
+		Converter<ILoggingEvent>[] chain = converters;
+		if (chain != null) {
+			for (Converter<ILoggingEvent> converter : chain) {
+				if (converter instanceof LifeCycle) {
+					((LifeCycle) converter).stop();
+				}
+			}
+		}
+		super.stop();
+	}
+
+	/**
+	 * Like {@link #doLayout(ILoggingEvent)} but writes the output straight into
+	 * the given buffer. Converters implementing {@link IUtf8BufferWriter} write
+	 * into the buffer directly, the output of all others is collected in
+	 * <code>scratch</code> and appended as a whole.
+	 *
+	 * @param event
+	 *        The event to layout.
+	 * @param out
+	 *        The buffer to write to.
+	 * @param scratch
+	 *        Used for the converters writing to a {@link StringBuilder}.
+	 */
+	public void doLayout(ILoggingEvent event, Utf8Buffer out, StringBuilder scratch) {
+		if (!isStarted()) {
+			return;
+		}
+
+		Converter<ILoggingEvent>[] chain = converters;
+		IUtf8BufferWriter<ILoggingEvent>[] direct = writers;
+		scratch.setLength(0);
+		for (int i = 0; i < chain.length; ++i) {
+			if (direct[i] != null) {
+				if (scratch.length() > 0) {
+					out.append(scratch);
+					scratch.setLength(0);
+				}
+				if (direct[i].write(out, event)) {
+					continue;
+				}
+			}
+			chain[i].write(scratch, event);
+		}
+		if (scratch.length() > 0) {
+			out.append(scratch);
+		}
+	}
+
 }
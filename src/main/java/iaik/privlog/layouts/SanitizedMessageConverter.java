@@ -0,0 +1,45 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.layouts;
+
+import ch.qos.logback.classic.pattern.MessageConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.encoders.Utf8Buffer;
+
+/**
+ * A {@link MessageConverter} which renders the sanitized message of privacy
+ * aware events straight into the encoder's buffer.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class SanitizedMessageConverter extends MessageConverter implements IUtf8BufferWriter<ILoggingEvent> {
+
+	@Override
+	public boolean write(Utf8Buffer out, ILoggingEvent event) {
+		if (getFormattingInfo() != null) {
+			return false;
+		}
+
+		if (event instanceof PrivacyAwareLoggingEvent) {
+			MessageWriter.write((PrivacyAwareLoggingEvent) event, false, out);
+		} else {
+			out.append(event.getFormattedMessage());
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,447 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.OptionHelper;
+
+/**
+ * Attributes the cost of privacy aware events to their format string and call
+ * site. Only one in {@link #setSampleEvery(int) sampleEvery} events is
+ * measured (see {@link #shouldSample()}), so the overhead for the remaining
+ * events is a single random number. For a sampled event the time spent
+ * building it, sanitizing and rendering its message and passing it to the
+ * appenders (i.e., encoding and writing it) is recorded.
+ * <p>
+ * The statements are kept in a bounded heavy hitters sketch (Space-Saving,
+ * weighted by the sampled time) of {@link #setCapacity(int) capacity}
+ * entries: if a new statement does not fit, it replaces the cheapest entry and
+ * inherits its cost as error bound. Thus the most expensive statements are
+ * reported reliably while rare ones may be mixed up. The top
+ * {@link #setTopN(int) topN} statements are logged periodically by the logger
+ * {@value #REPORT_LOGGER} if a {@link #setReportInterval(Duration)
+ * reportInterval} is set, and are available via JMX under
+ * {@value #OBJECT_NAME_PREFIX}<code>&lt;name&gt;</code> if a
+ * {@link #setName(String) name} is set.
+ */
+public class FormatProfiler extends ContextAwareBase implements LifeCycle, FormatProfilerMBean {
+
+	public static final String REPORT_LOGGER = "iaik.privlog.FormatProfiler";
+	public static final String OBJECT_NAME_PREFIX = "iaik.privlog:type=FormatProfiler,name=";
+	public static final int DEFAULT_SAMPLE_EVERY = 100;
+	public static final int DEFAULT_CAPACITY = 64;
+	public static final int DEFAULT_TOP_N = 10;
+
+	protected static final String LOGGER_CLASS = Logger.class.getName();
+
+	protected static final AtomicLongFieldUpdater<FormatProfiler> NEXT_REPORT = AtomicLongFieldUpdater.newUpdater(
+	    FormatProfiler.class, "nextReport");
+
+	/**
+	 * The sampled cost of a log statement.
+	 */
+	public static final class Entry {
+		final String format;
+		final String callSite;
+		long samples;
+		long buildNanos;
+		long sanitizeNanos;
+		long appendNanos;
+
+		/**
+		 * The cost of the evicted entry this one has inherited, i.e., the
+		 * maximum overestimation of {@link #getTotalNanos()}.
+		 */
+		long errorNanos;
+
+		Entry(String format, String callSite) {
+			this.format = format;
+			this.callSite = callSite;
+		}
+
+		Entry(Entry other) {
+			this(other.format, other.callSite);
+			samples = other.samples;
+			buildNanos = other.buildNanos;
+			sanitizeNanos = other.sanitizeNanos;
+			appendNanos = other.appendNanos;
+			errorNanos = other.errorNanos;
+		}
+
+		public String getFormat() {
+			return format;
+		}
+
+		/**
+		 * @return The first frame calling the logger, e.g.,
+		 *         <code>com.example.Foo.bar(Foo.java:42)</code>, or
+		 *         <code>null</code> if it could not be determined.
+		 */
+		public String getCallSite() {
+			return callSite;
+		}
+
+		public long getSamples() {
+			return samples;
+		}
+
+		public long getBuildNanos() {
+			return buildNanos;
+		}
+
+		public long getSanitizeNanos() {
+			return sanitizeNanos;
+		}
+
+		public long getAppendNanos() {
+			return appendNanos;
+		}
+
+		public long getErrorNanos() {
+			return errorNanos;
+		}
+
+		public long getTotalNanos() {
+			return errorNanos + buildNanos + sanitizeNanos + appendNanos;
+		}
+	}
+
+	protected static final Comparator<Entry> BY_TOTAL = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			long t1 = e1.getTotalNanos();
+			long t2 = e2.getTotalNanos();
+			return t1 < t2 ? 1 : t1 > t2 ? -1 : 0;
+		}
+	};
+
+	protected int sampleEvery = DEFAULT_SAMPLE_EVERY;
+	protected int capacity = DEFAULT_CAPACITY;
+	protected int topN = DEFAULT_TOP_N;
+	protected Duration reportInterval;
+	protected String name;
+
+	protected final ReentrantLock lock = new ReentrantLock();
+	protected final Map<String, Entry> entries = new HashMap<String, Entry>();
+	protected long sampled;
+
+	protected long reportIntervalNanos;
+	protected volatile long nextReport;
+	protected ObjectName objectName;
+	protected volatile boolean started;
+
+	@Override
+	public int getSampleEvery() {
+		return sampleEvery;
+	}
+
+	/**
+	 * @param sampleEvery
+	 *        On average one in <code>sampleEvery</code> events is measured.
+	 */
+	@Override
+	public void setSampleEvery(int sampleEvery) {
+		this.sampleEvery = sampleEvery;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity
+	 *        The number of statements tracked at once.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	@Override
+	public int getTopN() {
+		return topN;
+	}
+
+	/**
+	 * @param topN
+	 *        The number of statements included in a report.
+	 */
+	@Override
+	public void setTopN(int topN) {
+		this.topN = topN;
+	}
+
+	public Duration getReportInterval() {
+		return reportInterval;
+	}
+
+	/**
+	 * @param reportInterval
+	 *        If set, the top statements are logged (and the sketch is reset) at
+	 *        this interval.
+	 */
+	public void setReportInterval(Duration reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name
+	 *        If set, the profiler is registered as MBean under this name.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return <code>true</code> if the current event is to be measured.
+	 */
+	public boolean shouldSample() {
+		int every = sampleEvery;
+		return every <= 1 || ThreadLocalRandom.current().nextInt(every) == 0;
+	}
+
+	/**
+	 * Records the cost of a sampled event. The call site is taken from the
+	 * current stack, i.e., this method has to be called on the logging thread.
+	 */
+	public void record(String format, long buildNanos, long sanitizeNanos, long appendNanos) {
+		record(format, findCallSite(new Throwable().getStackTrace()), buildNanos, sanitizeNanos, appendNanos);
+	}
+
+	public void record(String format, String callSite, long buildNanos, long sanitizeNanos, long appendNanos) {
+		String key = callSite == null ? format : format + '\u0000' + callSite;
+		long cost = buildNanos + sanitizeNanos + appendNanos;
+
+		lock.lock();
+		try {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(format, callSite);
+				if (entries.size() >= capacity) {
+					Entry min = evictMin();
+					entry.errorNanos = min.getTotalNanos();
+				}
+				entries.put(key, entry);
+			}
+			++entry.samples;
+			entry.buildNanos += buildNanos;
+			entry.sanitizeNanos += sanitizeNanos;
+			entry.appendNanos += appendNanos;
+			++sampled;
+		} finally {
+			lock.unlock();
+		}
+
+		if (reportIntervalNanos > 0) {
+			long now = System.nanoTime();
+			if (now - nextReport >= 0) {
+				report(now);
+			}
+		}
+	}
+
+	/**
+	 * Removes the entry with the lowest cost, the caller has to hold the lock.
+	 */
+	protected Entry evictMin() {
+		Map.Entry<String, Entry> min = null;
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			if (min == null || e.getValue().getTotalNanos() < min.getValue().getTotalNanos()) {
+				min = e;
+			}
+		}
+		entries.remove(min.getKey());
+		return min.getValue();
+	}
+
+	/**
+	 * @return The first frame after the last frame of logback's
+	 *         {@link Logger}, i.e., the statement logging the event.
+	 */
+	protected static String findCallSite(StackTraceElement[] stackTrace) {
+		int caller = -1;
+		for (int i = 0; i < stackTrace.length; ++i) {
+			if (LOGGER_CLASS.equals(stackTrace[i].getClassName())) {
+				caller = i + 1;
+			} else if (caller >= 0) {
+				break;
+			}
+		}
+		return caller >= 0 && caller < stackTrace.length ? stackTrace[caller].toString() : null;
+	}
+
+	/**
+	 * @return A snapshot of the most expensive statements, most expensive first.
+	 */
+	public List<Entry> getTop(int n) {
+		List<Entry> snapshot = new ArrayList<Entry>();
+		lock.lock();
+		try {
+			for (Entry entry : entries.values()) {
+				snapshot.add(new Entry(entry));
+			}
+		} finally {
+			lock.unlock();
+		}
+		Collections.sort(snapshot, BY_TOTAL);
+		return snapshot.size() > n ? snapshot.subList(0, n) : snapshot;
+	}
+
+	@Override
+	public long getSampledCount() {
+		lock.lock();
+		try {
+			return sampled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String getReport() {
+		List<Entry> top = getTop(topN);
+		StringBuilder sb = new StringBuilder();
+		int rank = 0;
+		for (Entry entry : top) {
+			sb.append('#').append(++rank).append(" [").append(entry.format).append(']');
+			if (entry.callSite != null) {
+				sb.append(" at ").append(entry.callSite);
+			}
+			sb.append(": samples=").append(entry.samples);
+			sb.append(", total=").append(entry.getTotalNanos()).append("ns");
+			sb.append(" (build=").append(entry.buildNanos);
+			sb.append(", sanitize=").append(entry.sanitizeNanos);
+			sb.append(", append=").append(entry.appendNanos);
+			sb.append(", error<=").append(entry.errorNanos).append(')');
+			sb.append(", mean=").append(entry.samples == 0 ? 0 : (entry.getTotalNanos() - entry.errorNanos) / entry.samples)
+			    .append("ns");
+			sb.append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void reset() {
+		lock.lock();
+		try {
+			entries.clear();
+			sampled = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Logs the top statements since the last report and resets the sketch.
+	 */
+	protected void report(long now) {
+		long due = nextReport;
+		if (now - due < 0 || !NEXT_REPORT.compareAndSet(this, due, now + reportIntervalNanos)) {
+			return;
+		}
+
+		String report = getReport();
+		long count = getSampledCount();
+		reset();
+		if (report.length() > 0) {
+			Logger reportLogger = ((LoggerContext) getContext()).getLogger(REPORT_LOGGER);
+			reportLogger.info("Most expensive log statements of {} sampled events (1 in {}):{}{}", new Object[] { count,
+			    sampleEvery, System.lineSeparator(), report });
+		}
+	}
+
+	@Override
+	public void start() {
+		if (sampleEvery < 1) {
+			addError("The sampleEvery option of the " + getClass().getName() + " has to be positive");
+			return;
+		}
+		if (capacity < 1) {
+			addError("The capacity of the " + getClass().getName() + " has to be positive");
+			return;
+		}
+
+		reset();
+		reportIntervalNanos = reportInterval == null ? 0
+		    : TimeUnit.MILLISECONDS.toNanos(reportInterval.getMilliseconds());
+		nextReport = System.nanoTime() + reportIntervalNanos;
+		if (!OptionHelper.isEmpty(name)) {
+			register(name);
+		}
+		started = true;
+	}
+
+	protected void register(String name) {
+		try {
+			ObjectName on = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(on)) {
+				addWarn("Replacing already registered MBean [" + on + "]");
+				server.unregisterMBean(on);
+			}
+			server.registerMBean(this, on);
+			objectName = on;
+		} catch (Exception cause) {
+			addError("Failed to register format profiler [" + name + "] with the MBean server", cause);
+		}
+	}
+
+	@Override
+	public void stop() {
+		started = false;
+		if (objectName == null) {
+			return;
+		}
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (Exception cause) {
+			addError("Failed to unregister MBean [" + objectName + "]", cause);
+		}
+		objectName = null;
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+
+}
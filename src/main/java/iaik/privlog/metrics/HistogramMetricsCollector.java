@@ -0,0 +1,203 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The default {@link IMetricsCollector} which keeps a {@link LatencyHistogram}
+ * per operation and tag and logger name, logger name or encoder, respectively.
+ * The histograms are named <code>&lt;operation&gt;/&lt;key&gt;</code>, e.g.,
+ * <code>build/com.example.Login</code>, where the key of the
+ * <code>create</code> and <code>sanitize</code> histograms is
+ * <code>&lt;tag&gt;/&lt;logger&gt;</code>, e.g.,
+ * <code>sanitize/Password/com.example.Login</code>. The <code>batch</code>
+ * histograms record the number of events per group commit rather than a
+ * duration.
+ */
+public class HistogramMetricsCollector implements IMetricsCollector, HistogramMetricsCollectorMBean {
+
+	public static final String CREATE = "create";
+	public static final String SANITIZE = "sanitize";
+	public static final String BUILD = "build";
+	public static final String DIGEST = "digest";
+	public static final String ENCODE = "encode";
+	public static final String COMMIT = "commit";
+	public static final String BATCH = "batch";
+
+	protected static final String SEPARATOR = "/";
+
+	protected final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	protected final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> create =
+	    new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram>>();
+	protected final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> sanitize =
+	    new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram>>();
+	protected final ConcurrentMap<String, LatencyHistogram> build = new ConcurrentHashMap<String, LatencyHistogram>();
+	protected final ConcurrentMap<String, LatencyHistogram> encode = new ConcurrentHashMap<String, LatencyHistogram>();
+	protected final ConcurrentMap<String, LatencyHistogram> commit = new ConcurrentHashMap<String, LatencyHistogram>();
+	protected final ConcurrentMap<String, LatencyHistogram> batch = new ConcurrentHashMap<String, LatencyHistogram>();
+	protected final LatencyHistogram digest = new LatencyHistogram();
+
+	public HistogramMetricsCollector() {
+		histograms.put(DIGEST, digest);
+	}
+
+	protected LatencyHistogram get(ConcurrentMap<String, LatencyHistogram> map, String operation, String key) {
+		if (key == null) {
+			key = "";
+		}
+		LatencyHistogram histogram = map.get(key);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			LatencyHistogram prev = map.putIfAbsent(key, histogram);
+			if (prev != null) {
+				histogram = prev;
+			} else {
+				histograms.put(operation + SEPARATOR + key, histogram);
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Looks up the histogram of the given tag and logger name without
+	 * concatenating the key on the hot path.
+	 */
+	protected LatencyHistogram get(ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> map,
+	    String operation, String tagName, String loggerName)
+	{
+		if (tagName == null) {
+			tagName = "";
+		}
+		ConcurrentMap<String, LatencyHistogram> loggers = map.get(tagName);
+		if (loggers == null) {
+			loggers = new ConcurrentHashMap<String, LatencyHistogram>();
+			ConcurrentMap<String, LatencyHistogram> prev = map.putIfAbsent(tagName, loggers);
+			if (prev != null) {
+				loggers = prev;
+			}
+		}
+		return get(loggers, operation + SEPARATOR + tagName, loggerName);
+	}
+
+	@Override
+	public void recordCreate(String tagName, String loggerName, long nanos) {
+		get(create, CREATE, tagName, loggerName).record(nanos);
+	}
+
+	@Override
+	public void recordSanitize(String tagName, String loggerName, long nanos) {
+		get(sanitize, SANITIZE, tagName, loggerName).record(nanos);
+	}
+
+	@Override
+	public void recordBuild(String loggerName, long nanos) {
+		get(build, BUILD, loggerName).record(nanos);
+	}
+
+	@Override
+	public void recordDigest(long nanos) {
+		digest.record(nanos);
+	}
+
+	@Override
+	public void recordEncode(String encoderName, long nanos) {
+		get(encode, ENCODE, encoderName).record(nanos);
+	}
+
+	@Override
+	public void recordCommit(String appenderName, int batchSize, long nanos) {
+		get(commit, COMMIT, appenderName).record(nanos);
+		get(batch, BATCH, appenderName).record(batchSize);
+	}
+
+	/**
+	 * @param metricName
+	 *        The name of the histogram, e.g.,
+	 *        <code>sanitize/Password/com.example.Login</code>.
+	 * @return The histogram or <code>null</code> if nothing has been recorded
+	 *         yet.
+	 */
+	public LatencyHistogram getHistogram(String metricName) {
+		return histograms.get(metricName);
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return Metrics.getCollector() == this;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		if (enabled) {
+			Metrics.setCollector(this);
+		} else if (isEnabled()) {
+			Metrics.setCollector(null);
+		}
+	}
+
+	@Override
+	public String[] getMetricNames() {
+		List<String> names = new ArrayList<String>(histograms.keySet());
+		Collections.sort(names);
+		return names.toArray(new String[names.size()]);
+	}
+
+	@Override
+	public long getCount(String metricName) {
+		LatencyHistogram histogram = histograms.get(metricName);
+		return histogram == null ? 0 : histogram.getCount();
+	}
+
+	@Override
+	public double getMeanNanos(String metricName) {
+		LatencyHistogram histogram = histograms.get(metricName);
+		return histogram == null ? 0 : histogram.getMean();
+	}
+
+	@Override
+	public long getPercentileNanos(String metricName, double percentile) {
+		LatencyHistogram histogram = histograms.get(metricName);
+		return histogram == null ? 0 : histogram.getPercentile(percentile);
+	}
+
+	@Override
+	public String getReport() {
+		StringBuilder sb = new StringBuilder();
+		for (String name : getMetricNames()) {
+			LatencyHistogram histogram = histograms.get(name);
+			sb.append(name).append(": count=").append(histogram.getCount());
+			sb.append(", mean=").append(String.format("%.0f", histogram.getMean())).append("ns");
+			sb.append(", p50<=").append(histogram.getPercentile(50)).append("ns");
+			sb.append(", p99<=").append(histogram.getPercentile(99)).append("ns");
+			sb.append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void reset() {
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			entry.getValue().reset();
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+/**
+ * JMX management interface of the {@link HistogramMetricsCollector}.
+ */
+public interface HistogramMetricsCollectorMBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return The sorted names of all histograms, e.g.,
+	 *         <code>build/com.example.Login</code> or
+	 *         <code>sanitize/Password/com.example.Login</code> for the
+	 *         histograms kept per tag and logger name.
+	 */
+	String[] getMetricNames();
+
+	long getCount(String metricName);
+
+	double getMeanNanos(String metricName);
+
+	long getPercentileNanos(String metricName, double percentile);
+
+	String getReport();
+
+	void reset();
+
+}
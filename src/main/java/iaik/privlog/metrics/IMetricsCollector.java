@@ -0,0 +1,57 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+/**
+ * Service provider interface for collecting the cost of privacy-aware logging.
+ * A collector is installed via {@link Metrics#setCollector(IMetricsCollector)}
+ * and needs to be thread-safe. All durations are given in nanoseconds.
+ */
+public interface IMetricsCollector {
+
+	/**
+	 * Records the creation of a parameter sanitizer by its factory.
+	 */
+	void recordCreate(String tagName, String loggerName, long nanos);
+
+	/**
+	 * Records the computation of a sanitized parameter value.
+	 */
+	void recordSanitize(String tagName, String loggerName, long nanos);
+
+	/**
+	 * Records the construction of a privacy-aware logging event.
+	 */
+	void recordBuild(String loggerName, long nanos);
+
+	/**
+	 * Records the computation of a log entry digest.
+	 */
+	void recordDigest(long nanos);
+
+	/**
+	 * Records the encoding of a logging event.
+	 */
+	void recordEncode(String encoderName, long nanos);
+
+	/**
+	 * Records a group commit of an appender, i.e., the number of events made
+	 * durable at once and the time from writing the oldest of them until the
+	 * commit completed.
+	 */
+	void recordCommit(String appenderName, int batchSize, long nanos);
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram with fixed, power-of-two sized buckets, i.e., bucket
+ * <code>i</code> counts the values in the range
+ * <code>[2<sup>i</sup>, 2<sup>i+1</sup>)</code>. Like the
+ * {@link StripedCounter} updates are distributed over several stripes.
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 48;
+
+	protected final AtomicLongArray buckets = new AtomicLongArray(StripedCounter.STRIPES * BUCKETS);
+	protected final StripedCounter total = new StripedCounter();
+
+	/**
+	 * @param value
+	 *        The value to record, e.g., a latency in nanoseconds.
+	 */
+	public void record(long value) {
+		int stripe = StripedCounter.cell() / StripedCounter.PADDING;
+		buckets.incrementAndGet(stripe * BUCKETS + bucket(value));
+		total.add(value);
+	}
+
+	protected static int bucket(long value) {
+		if (value <= 0) {
+			return 0;
+		}
+		return Math.min(63 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+	}
+
+	/**
+	 * @return The number of values recorded per bucket.
+	 */
+	public long[] getBuckets() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < buckets.length(); ++i) {
+			result[i % BUCKETS] += buckets.get(i);
+		}
+		return result;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (long bucket : getBuckets()) {
+			count += bucket;
+		}
+		return count;
+	}
+
+	public long getTotal() {
+		return total.sum();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) getTotal() / count;
+	}
+
+	/**
+	 * @param percentile
+	 *        The percentile in the range <code>[0, 100]</code>.
+	 * @return The upper bound of the bucket containing the given percentile.
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = getBuckets();
+		long count = 0;
+		for (long bucket : counts) {
+			count += bucket;
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		long threshold = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts[i];
+			if (seen >= threshold && counts[i] > 0) {
+				return (1L << (i + 1)) - 1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	public void reset() {
+		for (int i = 0; i < buckets.length(); ++i) {
+			buckets.set(i, 0);
+		}
+		total.reset();
+	}
+}
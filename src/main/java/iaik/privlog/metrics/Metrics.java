@@ -0,0 +1,107 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.helpers.Util;
+
+/**
+ * Holds the {@link IMetricsCollector} used by the instrumented code. As long as
+ * no collector is installed (the default) the instrumentation costs a single
+ * volatile read per instrumented operation.
+ * <p>
+ * Setting the system property {@value #ENABLED_PROPERTY} to <code>true</code>
+ * installs a {@link HistogramMetricsCollector} which is registered as MBean
+ * {@value #OBJECT_NAME}. If the registration fails, the failure is reported
+ * and the collector is installed without MBean.
+ */
+public final class Metrics {
+
+	public static final String ENABLED_PROPERTY = "iaik.privlog.metrics";
+	public static final String OBJECT_NAME = "iaik.privlog:type=Metrics";
+
+	private static volatile IMetricsCollector collector;
+
+	static {
+		if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+			// Failing here would fail the class initialization, i.e., every
+			// instrumented logging path
+			HistogramMetricsCollector histogramCollector = new HistogramMetricsCollector();
+			try {
+				register(histogramCollector);
+			} catch (RuntimeException cause) {
+				Util.report("Metrics are collected without MBean", cause);
+			}
+			collector = histogramCollector;
+		}
+	}
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return The installed collector or <code>null</code> if metrics are
+	 *         disabled.
+	 */
+	public static IMetricsCollector getCollector() {
+		return collector;
+	}
+
+	/**
+	 * @param metricsCollector
+	 *        The collector to be used, or <code>null</code> to disable metrics.
+	 */
+	public static void setCollector(IMetricsCollector metricsCollector) {
+		collector = metricsCollector;
+	}
+
+	/**
+	 * Installs a new {@link HistogramMetricsCollector} and registers it as
+	 * MBean.
+	 *
+	 * @return The installed collector.
+	 * @throws RuntimeException
+	 *         if the MBean cannot be registered, the collector is not installed
+	 *         then.
+	 */
+	public static synchronized HistogramMetricsCollector enable() {
+		HistogramMetricsCollector histogramCollector = new HistogramMetricsCollector();
+		register(histogramCollector);
+		collector = histogramCollector;
+		return histogramCollector;
+	}
+
+	private static void register(HistogramMetricsCollector histogramCollector) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(histogramCollector, name);
+		} catch (Exception cause) {
+			throw new RuntimeException("Failed to register metrics MBean [" + OBJECT_NAME + "]", cause);
+		}
+	}
+
+	public static void disable() {
+		collector = null;
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which distributes updates over several padded cells to reduce
+ * contention between logging threads. Reading the sum is comparably expensive.
+ */
+public class StripedCounter {
+
+	/**
+	 * Number of longs between two cells, i.e., one cache line.
+	 */
+	protected static final int PADDING = 8;
+
+	protected static final int STRIPES = stripes();
+
+	protected final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	protected static int stripes() {
+		int n = Runtime.getRuntime().availableProcessors() * 2;
+		return Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+	}
+
+	/**
+	 * @return The index of the first long of the current thread's cell.
+	 */
+	protected static int cell() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((h >>> 16) & (STRIPES - 1)) * PADDING;
+	}
+
+	public void add(long delta) {
+		cells.addAndGet(cell(), delta);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; ++i) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < STRIPES; ++i) {
+			cells.set(i * PADDING, 0);
+		}
+	}
+}
@@ -15,6 +15,7 @@
  */
 package iaik.privlog.sanitizers;
 
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 
 import javax.crypto.Mac;
@@ -23,11 +24,20 @@ import javax.crypto.SecretKey;
 import org.apache.commons.codec.binary.Base64;
 
 import ch.qos.logback.core.spi.ContextAwareBase;
+import iaik.privlog.ParameterRenderer;
+import iaik.privlog.TagIds;
+import iaik.privlog.concurrent.InstancePool;
 
 /**
+ * Replaces parameters by a fixed mask or by their (keyed) digest. The
+ * configured {@link MessageDigest} or {@link Mac} serves as a prototype: each
+ * parameter is digested with an instance taken from an {@link InstancePool},
+ * as the parameter is fed in several chunks and the instances are not thread
+ * safe.
+ *
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
  */
-public class BlindingSanitizerFactory extends ContextAwareBase implements IParamSanitizerFactory {
+public class BlindingSanitizerFactory extends ContextAwareBase implements ITagIdAwareParamSanitizerFactory {
 	public class BlindingSanitizer extends ParamSanitizerBase {
 
 		protected String critical;
@@ -37,6 +47,11 @@ public class BlindingSanitizerFactory extends ContextAwareBase implements IParam
 			equal = isMaskCritical();
 		}
 
+		public BlindingSanitizer(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+			super(tagId, parameter, start, startOriginal, endOriginal);
+			equal = isMaskCritical();
+		}
+
 		@Override
 		public String getCritical() {
 			if (critical == null) {
@@ -48,18 +63,41 @@ public class BlindingSanitizerFactory extends ContextAwareBase implements IParam
 		@Override
 		public String getSanitized() {
 			if (sanitized == null) {
-				if (mac != null) {
-					sanitized = base64.encodeToString(mac.doFinal(super.getCritical().getBytes()));
-				} else if (digest != null) {
-					sanitized = base64.encodeToString(digest.digest(super.getCritical().getBytes()));
+				InstancePool<Mac> macPool = macs;
+				InstancePool<MessageDigest> digestPool = digests;
+				if (macPool != null) {
+					Mac instance = macPool.acquire();
+					ParameterRenderer.Buffer plain = renderCritical();
+					try {
+						plain.update(instance, Charset.defaultCharset());
+						sanitized = base64.encodeToString(instance.doFinal());
+					} finally {
+						plain.release();
+						macPool.release(instance);
+					}
+				} else if (digestPool != null) {
+					MessageDigest instance = digestPool.acquire();
+					ParameterRenderer.Buffer plain = renderCritical();
+					try {
+						plain.update(instance, Charset.defaultCharset());
+						sanitized = base64.encodeToString(instance.digest());
+					} finally {
+						plain.release();
+						digestPool.release(instance);
+					}
 				} else if (blindingMask != null) {
 					sanitized = blindingMask;
 				} else {
-					sanitized = "[" + tagName + "]";
+					sanitized = "[" + getTagName() + "]";
 				}
 			}
 			return sanitized;
 		}
+
+		@Override
+		public boolean isDeterministic() {
+			return true;
+		}
 	}
 
 	public static final String BLINDING_MASK = "*****";
@@ -67,12 +105,20 @@ public class BlindingSanitizerFactory extends ContextAwareBase implements IParam
 	protected String blindingMask = BLINDING_MASK;
 	protected MessageDigest digest;
 	protected Mac mac;
+	protected SecretKey macKey;
+	protected volatile InstancePool<MessageDigest> digests;
+	protected volatile InstancePool<Mac> macs;
 	protected Base64 base64;
 	protected boolean maskCritical = false;
 
 	@Override
 	public BlindingSanitizer create(String tagName, Object parameter, int start, int startOriginal, int endOriginal) {
-		return new BlindingSanitizer(tagName, parameter, start, startOriginal, endOriginal);
+		return create(TagIds.intern(tagName), parameter, start, startOriginal, endOriginal);
+	}
+
+	@Override
+	public BlindingSanitizer create(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+		return new BlindingSanitizer(tagId, parameter, start, startOriginal, endOriginal);
 	}
 
 	public String getBlindingMask() {
@@ -87,12 +133,14 @@ public class BlindingSanitizerFactory extends ContextAwareBase implements IParam
 	public void setDigest(MessageDigest digest) {
 		this.digest = digest;
 		base64 = new Base64();
+		digests = createDigestPool(digest);
 	}
 
 	public void setDigest(String algorithm) {
 		try {
 			digest = MessageDigest.getInstance(algorithm);
 			base64 = new Base64();
+			digests = createDigestPool(digest);
 		} catch (Exception cause) {
 			addError("Failed to initialize the message digest with algorithm '" + algorithm + "' for " + getClass(), cause);
 			throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(
@@ -100,16 +148,24 @@ public class BlindingSanitizerFactory extends ContextAwareBase implements IParam
 		}
 	}
 
+	/**
+	 * @param mac
+	 *        An initialized MAC, which is cloned for concurrent use.
+	 */
 	public void setMac(Mac mac) {
 		this.mac = mac;
+		macKey = null;
 		base64 = new Base64();
+		macs = createMacPool(mac);
 	}
 
 	public void setMac(String algorithm, SecretKey secretKey) {
 		try {
 			mac = Mac.getInstance(algorithm);
 			mac.init(secretKey);
+			macKey = secretKey;
 			base64 = new Base64();
+			macs = createMacPool(mac);
 		} catch (Exception cause) {
 			addError("Failed to initialize the MAC with algorithm '" + algorithm + "' for " + getClass(), cause);
 			throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(
@@ -117,6 +173,51 @@ public class BlindingSanitizerFactory extends ContextAwareBase implements IParam
 		}
 	}
 
+	protected InstancePool<MessageDigest> createDigestPool(final MessageDigest prototype) {
+		return new InstancePool<MessageDigest>() {
+
+			@Override
+			protected MessageDigest create() {
+				try {
+					return (MessageDigest) prototype.clone();
+				} catch (CloneNotSupportedException e) {
+					try {
+						return MessageDigest.getInstance(prototype.getAlgorithm());
+					} catch (Exception cause) {
+						throw new RuntimeException("Failed to initialize the message digest with algorithm '"
+						    + prototype.getAlgorithm() + "'", cause);
+					}
+				}
+			}
+		};
+	}
+
+	protected InstancePool<Mac> createMacPool(final Mac prototype) {
+		final SecretKey key = macKey;
+		return new InstancePool<Mac>() {
+
+			@Override
+			protected Mac create() {
+				try {
+					return (Mac) prototype.clone();
+				} catch (CloneNotSupportedException e) {
+					if (key == null) {
+						throw new RuntimeException("The MAC with algorithm '" + prototype.getAlgorithm()
+						    + "' cannot be cloned, configure it by algorithm and key instead", e);
+					}
+					try {
+						Mac mac = Mac.getInstance(prototype.getAlgorithm());
+						mac.init(key);
+						return mac;
+					} catch (Exception cause) {
+						throw new RuntimeException("Failed to initialize the MAC with algorithm '"
+						    + prototype.getAlgorithm() + "'", cause);
+					}
+				}
+			}
+		};
+	}
+
 	public boolean isMaskCritical() {
 		return maskCritical;
 	}
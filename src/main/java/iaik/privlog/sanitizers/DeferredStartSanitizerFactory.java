@@ -0,0 +1,260 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.Duration;
+import iaik.privlog.TagIds;
+import iaik.privlog.concurrent.StartupExecutor;
+
+/**
+ * Starts the wrapped sanitizer factory in the {@link StartupExecutor}, i.e.,
+ * expensive start steps like key generation or cipher initialization run
+ * concurrently and do not block the configuration of the logger context.
+ * <p>
+ * Once the wrapped factory is started the sanitizers are created by the
+ * factory directly. Parameters logged before are buffered in a
+ * {@link DeferredSanitizer} which waits briefly for the startup (at most
+ * {@link #getStartTimeout()}, a few hundred milliseconds by default) on first
+ * use, i.e., when the message is rendered. If the wrapped factory fails to
+ * start, or the timeout elapses, the parameter is blinded for the sake of
+ * privacy: its sanitized value is {@link BlindingSanitizerFactory#BLINDING_MASK}.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class DeferredStartSanitizerFactory extends ContextAwareBase
+    implements ITagIdAwareParamSanitizerFactory, LifeCycle
+{
+	public class DeferredSanitizer extends ParamSanitizerBase implements IBlindIndexed {
+
+		protected IParamSanitizer delegate;
+		protected boolean resolved;
+
+		public DeferredSanitizer(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+			super(tagId, parameter, start, startOriginal, endOriginal);
+		}
+
+		/**
+		 * @return The sanitizer created by the wrapped factory, or
+		 *         <code>null</code> if it failed to start.
+		 */
+		public IParamSanitizer resolve() {
+			if (!resolved) {
+				if (awaitStarted()) {
+					delegate = createDelegate(tagId, parameter, start, startOriginal, endOriginal);
+				}
+				resolved = true;
+			}
+			return delegate;
+		}
+
+		@Override
+		public String getCritical() {
+			IParamSanitizer sanitizer = resolve();
+			return sanitizer != null ? sanitizer.getCritical() : super.getCritical();
+		}
+
+		@Override
+		public String getSanitized() {
+			IParamSanitizer sanitizer = resolve();
+			return sanitizer != null ? sanitizer.getSanitized() : BlindingSanitizerFactory.BLINDING_MASK;
+		}
+
+		@Override
+		public boolean isCriticalAndSanitizedEqual() {
+			IParamSanitizer sanitizer = resolve();
+			return sanitizer != null ? sanitizer.isCriticalAndSanitizedEqual() : super.isCriticalAndSanitizedEqual();
+		}
+
+		@Override
+		public boolean isDeterministic() {
+			IParamSanitizer sanitizer = resolve();
+			return sanitizer == null
+			    || (sanitizer instanceof ParamSanitizerBase && ((ParamSanitizerBase) sanitizer).isDeterministic());
+		}
+
+		@Override
+		public byte[] getBlindIndex() {
+			IParamSanitizer sanitizer = resolve();
+			return sanitizer instanceof IBlindIndexed ? ((IBlindIndexed) sanitizer).getBlindIndex() : null;
+		}
+	}
+
+	/**
+	 * Default start timeout in milliseconds.
+	 */
+	public static final long DEFAULT_START_TIMEOUT = 250;
+
+	protected static final int STARTING = 0;
+	protected static final int READY = 1;
+	protected static final int FAILED = 2;
+
+	protected IParamSanitizerFactory factory;
+	protected Duration startTimeout = Duration.buildByMilliseconds(DEFAULT_START_TIMEOUT);
+	protected Future<?> startup;
+	protected volatile int state = STARTING;
+	protected volatile boolean waitExpired;
+	protected final AtomicBoolean reported = new AtomicBoolean();
+	protected boolean started;
+
+	public DeferredStartSanitizerFactory() {
+	}
+
+	public DeferredStartSanitizerFactory(IParamSanitizerFactory factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public IParamSanitizer create(String tagName, Object parameter, int start, int startOriginal, int endOriginal) {
+		return create(TagIds.intern(tagName), parameter, start, startOriginal, endOriginal);
+	}
+
+	@Override
+	public IParamSanitizer create(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+		if (state == READY) {
+			return createDelegate(tagId, parameter, start, startOriginal, endOriginal);
+		}
+		return new DeferredSanitizer(tagId, parameter, start, startOriginal, endOriginal);
+	}
+
+	protected IParamSanitizer createDelegate(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+		if (factory instanceof ITagIdAwareParamSanitizerFactory) {
+			return ((ITagIdAwareParamSanitizerFactory) factory).create(tagId, parameter, start, startOriginal,
+			    endOriginal);
+		}
+		return factory.create(TagIds.name(tagId), parameter, start, startOriginal, endOriginal);
+	}
+
+	/**
+	 * Waits for the wrapped factory to be started. Callers arriving before the
+	 * timeout elapsed wait at most until then, later callers return
+	 * immediately.
+	 *
+	 * @return <code>true</code> if the wrapped factory has been started.
+	 */
+	public boolean awaitStarted() {
+		if (state == STARTING && !waitExpired) {
+			try {
+				startup.get(startTimeout.getMilliseconds(), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException | CancellationException e) {
+				// Reported by the startup task, or stopped before being started
+			} catch (TimeoutException e) {
+				waitExpired = true;
+				if (reported.compareAndSet(false, true)) {
+					addError("Parameter sanitizer " + factory.getClass().getName() + " has not been started within "
+					    + startTimeout + ", blinding the parameters.");
+				}
+			}
+		}
+		return state == READY;
+	}
+
+	public boolean isReady() {
+		return state == READY;
+	}
+
+	public IParamSanitizerFactory getFactory() {
+		return factory;
+	}
+
+	public void setFactory(IParamSanitizerFactory factory) {
+		this.factory = factory;
+	}
+
+	public Duration getStartTimeout() {
+		return startTimeout;
+	}
+
+	/**
+	 * @param startTimeout
+	 *        How long the rendering of a parameter logged before the wrapped
+	 *        factory has been started may wait for the startup (default:
+	 *        {@value #DEFAULT_START_TIMEOUT} ms). This wait happens on the
+	 *        logging (or application) thread, therefore, it should be short. A
+	 *        parameter whose sanitizer has not been started within the timeout
+	 *        is blinded.
+	 */
+	public void setStartTimeout(Duration startTimeout) {
+		this.startTimeout = startTimeout;
+	}
+
+	@Override
+	public void start() {
+		if (factory == null) {
+			addError("DeferredStartSanitizerFactory cannot be started w/o a parameter sanitizer factory");
+			throw new RuntimeException("DeferredStartSanitizerFactory cannot be started w/o a parameter sanitizer factory");
+		}
+
+		if (factory instanceof ContextAware && ((ContextAware) factory).getContext() == null) {
+			((ContextAware) factory).setContext(getContext());
+		}
+
+		if (!(factory instanceof LifeCycle)) {
+			state = READY;
+		} else {
+			final LifeCycle component = (LifeCycle) factory;
+			startup = StartupExecutor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						component.start();
+					} catch (RuntimeException cause) {
+						state = FAILED;
+						addError("Failed to start parameter sanitizer " + factory.getClass().getName(), cause);
+						throw cause;
+					}
+					if (component.isStarted()) {
+						state = READY;
+					} else {
+						state = FAILED;
+						addError("Parameter sanitizer " + factory.getClass().getName()
+						    + " has not been started, blinding the parameters.");
+					}
+				}
+			});
+		}
+		started = true;
+	}
+
+	@Override
+	public void stop() {
+		if (startup != null && !startup.cancel(false)) {
+			// Let a running start complete before stopping the factory
+			awaitStarted();
+		}
+		if (factory instanceof LifeCycle && ((LifeCycle) factory).isStarted()) {
+			((LifeCycle) factory).stop();
+		}
+		started = false;
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+/**
+ * Encodes the characters written to it as UTF-8, encrypts them with an
+ * initialized {@link Cipher} and appends the Base64 encoded cipher text (with
+ * padding, like {@link org.apache.commons.codec.binary.Base64#encodeToString(byte[])})
+ * to a {@link StringBuilder}. The data is processed in chunks of
+ * {@link #DEFAULT_CHUNK_SIZE} characters, i.e., neither the plain text nor the
+ * cipher text is held in memory as a whole. The cipher is finished by
+ * {@link #close()}.
+ */
+public class EncryptingWriter extends Writer {
+
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	protected static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+	    .toCharArray();
+
+	protected final Cipher cipher;
+	protected final StringBuilder out;
+	protected final CharsetEncoder encoder;
+	protected final CharBuffer chars;
+	protected final ByteBuffer plain;
+	protected byte[] encrypted;
+	protected final byte[] pending = new byte[2];
+	protected int pendingLength;
+	protected long byteCount;
+	protected boolean closed;
+
+	public EncryptingWriter(Cipher cipher, StringBuilder out) {
+		this(cipher, out, DEFAULT_CHUNK_SIZE);
+	}
+
+	public EncryptingWriter(Cipher cipher, StringBuilder out, int chunkSize) {
+		this.cipher = cipher;
+		this.out = out;
+		this.encoder = UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+		    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.chars = CharBuffer.allocate(chunkSize);
+		this.plain = ByteBuffer.allocate((int) Math.ceil(chunkSize * encoder.maxBytesPerChar()));
+		this.encrypted = new byte[plain.capacity() + 32];
+	}
+
+	/**
+	 * @return The number of plain text bytes encrypted so far.
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len)
+	    throws IOException
+	{
+		ensureOpen();
+		while (len > 0) {
+			int n = Math.min(len, chars.remaining());
+			chars.put(cbuf, off, n);
+			off += n;
+			len -= n;
+			if (!chars.hasRemaining()) {
+				encodeChunk(false);
+			}
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len)
+	    throws IOException
+	{
+		append(str, off, off + len);
+	}
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end)
+	    throws IOException
+	{
+		ensureOpen();
+		if (csq == null) {
+			csq = "null";
+		}
+		while (start < end) {
+			int n = Math.min(end - start, chars.remaining());
+			int pos = chars.position();
+			if (csq instanceof String) {
+				((String) csq).getChars(start, start + n, chars.array(), pos);
+			} else if (csq instanceof StringBuilder) {
+				((StringBuilder) csq).getChars(start, start + n, chars.array(), pos);
+			} else if (csq instanceof StringBuffer) {
+				((StringBuffer) csq).getChars(start, start + n, chars.array(), pos);
+			} else {
+				char[] array = chars.array();
+				for (int i = 0; i < n; ++i) {
+					array[pos + i] = csq.charAt(start + i);
+				}
+			}
+			chars.position(pos + n);
+			start += n;
+			if (!chars.hasRemaining()) {
+				encodeChunk(false);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence csq)
+	    throws IOException
+	{
+		return csq == null ? append("null", 0, 4) : append(csq, 0, csq.length());
+	}
+
+	/**
+	 * Nothing to do, the cipher only outputs complete blocks.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Encrypts the remaining characters, finishes the cipher and appends the
+	 * Base64 padding.
+	 */
+	@Override
+	public void close()
+	    throws IOException
+	{
+		if (closed) {
+			return;
+		}
+		encodeChunk(true);
+		CoderResult result;
+		do {
+			result = encoder.flush(plain);
+			encryptPlain();
+		} while (result.isOverflow());
+		closed = true;
+
+		try {
+			ensureCapacity(cipher.getOutputSize(0));
+			appendBase64(encrypted, cipher.doFinal(encrypted, 0));
+		} catch (GeneralSecurityException cause) {
+			throw new IOException("Failed to finish the encryption", cause);
+		}
+
+		if (pendingLength > 0) {
+			int b0 = pending[0] & 0xff;
+			int b1 = pendingLength > 1 ? pending[1] & 0xff : 0;
+			out.append(BASE64[b0 >>> 2]).append(BASE64[((b0 & 0x03) << 4) | (b1 >>> 4)]);
+			out.append(pendingLength > 1 ? BASE64[(b1 & 0x0f) << 2] : '=').append('=');
+			pendingLength = 0;
+		}
+	}
+
+	protected void ensureOpen()
+	    throws IOException
+	{
+		if (closed) {
+			throw new IOException("The writer has already been closed");
+		}
+	}
+
+	protected void encodeChunk(boolean endOfInput)
+	    throws IOException
+	{
+		chars.flip();
+		CoderResult result;
+		do {
+			result = encoder.encode(chars, plain, endOfInput);
+			encryptPlain();
+		} while (result.isOverflow());
+		// An incomplete surrogate pair stays in the buffer for the next chunk
+		chars.compact();
+	}
+
+	protected void encryptPlain()
+	    throws IOException
+	{
+		plain.flip();
+		int length = plain.remaining();
+		if (length > 0) {
+			try {
+				ensureCapacity(cipher.getOutputSize(length));
+				appendBase64(encrypted, cipher.update(plain.array(), 0, length, encrypted, 0));
+			} catch (GeneralSecurityException cause) {
+				throw new IOException("Failed to encrypt the parameter", cause);
+			}
+			byteCount += length;
+		}
+		plain.clear();
+	}
+
+	protected void ensureCapacity(int length) {
+		if (encrypted.length < length) {
+			encrypted = new byte[length];
+		}
+	}
+
+	/**
+	 * Appends complete groups of three bytes, up to two remaining bytes are
+	 * kept for the next call.
+	 */
+	protected void appendBase64(byte[] data, int length) {
+		int i = 0;
+		while (pendingLength > 0 && pendingLength < 3 && i < length) {
+			if (pendingLength == 2) {
+				appendGroup(pending[0], pending[1], data[i++]);
+				pendingLength = 0;
+			} else {
+				pending[pendingLength++] = data[i++];
+			}
+		}
+		for (; i + 2 < length; i += 3) {
+			appendGroup(data[i], data[i + 1], data[i + 2]);
+		}
+		while (i < length) {
+			pending[pendingLength++] = data[i++];
+		}
+	}
+
+	protected void appendGroup(byte b0, byte b1, byte b2) {
+		int group = (b0 & 0xff) << 16 | (b1 & 0xff) << 8 | (b2 & 0xff);
+		out.append(BASE64[group >>> 18]).append(BASE64[(group >>> 12) & 0x3f]).append(BASE64[(group >>> 6) & 0x3f])
+		    .append(BASE64[group & 0x3f]);
+	}
+
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+/**
+ * Implemented by parameter sanitizers that are able to provide a keyed blind
+ * index of the corresponding parameter.
+ */
+public interface IBlindIndexed {
+
+	/**
+	 * @return The blind index of the corresponding parameter, or
+	 *         <code>null</code> if no blind index is configured.
+	 */
+	byte[] getBlindIndex();
+
+}
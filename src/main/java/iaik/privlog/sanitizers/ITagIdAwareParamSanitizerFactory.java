@@ -0,0 +1,28 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import iaik.privlog.TagIds;
+
+/**
+ * Implemented by sanitizer factories which accept the interned tag id (see
+ * {@link TagIds}) instead of the tag name, saving the name to id resolution
+ * when creating sanitizers on the logging hot path.
+ */
+public interface ITagIdAwareParamSanitizerFactory extends IParamSanitizerFactory {
+
+	IParamSanitizer create(int tagId, Object parameter, int start, int startOriginal, int endOriginal);
+}
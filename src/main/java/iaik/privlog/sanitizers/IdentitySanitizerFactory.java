@@ -19,11 +19,12 @@ import org.slf4j.helpers.Util;
 
 import ch.qos.logback.core.spi.ContextAwareBase;
 import ch.qos.logback.core.spi.LifeCycle;
+import iaik.privlog.TagIds;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
  */
-public class IdentitySanitizerFactory extends ContextAwareBase implements IParamSanitizerFactory, LifeCycle {
+public class IdentitySanitizerFactory extends ContextAwareBase implements ITagIdAwareParamSanitizerFactory, LifeCycle {
 
 	public static class IdentitySanitizer extends ParamSanitizerBase {
 
@@ -32,6 +33,11 @@ public class IdentitySanitizerFactory extends ContextAwareBase implements IParam
 			equal = true;
 		}
 
+		protected IdentitySanitizer(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+			super(tagId, parameter, start, startOriginal, endOriginal);
+			equal = true;
+		}
+
 		@Override
 		public String getSanitized() {
 			if (sanitized == null) {
@@ -40,17 +46,27 @@ public class IdentitySanitizerFactory extends ContextAwareBase implements IParam
 			return sanitized;
 		}
 
+		@Override
+		public boolean isDeterministic() {
+			return true;
+		}
+
 	}
 
 	protected boolean started;
 
 	@Override
 	public IdentitySanitizer create(String tagName, Object parameter, int start, int startOriginal, int endOriginal) {
+		return create(TagIds.intern(tagName), parameter, start, startOriginal, endOriginal);
+	}
+
+	@Override
+	public IdentitySanitizer create(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
 		if (!isStarted()) {
 			addError("The identity sanitizer factory has not been started.");
-			return new IdentitySanitizer(tagName, "{" + tagName + "}", start, startOriginal, endOriginal);
+			return new IdentitySanitizer(tagId, "{" + TagIds.name(tagId) + "}", start, startOriginal, endOriginal);
 		}
-		return new IdentitySanitizer(tagName, parameter, start, startOriginal, endOriginal);
+		return new IdentitySanitizer(tagId, parameter, start, startOriginal, endOriginal);
 	}
 
 	@Override
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Derives unique nonces (IVs) for a single key from a random per-instance
+ * prefix and a 64-bit counter, i.e., no {@link SecureRandom} is involved once
+ * the generator has been created. A nonce is laid out as follows:
+ *
+ * <pre>
+ * [4 byte random prefix][8 byte big endian counter][zeros up to the nonce length]
+ * </pre>
+ *
+ * 12 byte nonces are the 96 bit nonces recommended for GCM. Longer nonces,
+ * e.g., the 16 byte IVs of CTR mode, leave the trailing bytes for the block
+ * counter of the mode, hence, the key streams of subsequent nonces never
+ * overlap.
+ * <p>
+ * At most {@link #getLimit()} nonces are handed out. Afterwards,
+ * {@link #next()} returns <code>-1</code> and the key has to be replaced.
+ */
+public class NonceGenerator {
+
+	public static final int PREFIX_LENGTH = 4;
+	public static final int MIN_NONCE_LENGTH = PREFIX_LENGTH + 8;
+	/**
+	 * The default number of nonces per key, the invocation limit of NIST SP
+	 * 800-38D.
+	 */
+	public static final long DEFAULT_LIMIT = 1L << 32;
+	public static final int GCM_TAG_LENGTH = 128;
+
+	protected final int length;
+	protected final int prefix;
+	protected final long first;
+	protected final long limit;
+	protected final AtomicLong counter;
+
+	/**
+	 * @param random
+	 *        The source of the random prefix.
+	 * @param length
+	 *        The nonce length in bytes (at least {@value #MIN_NONCE_LENGTH}).
+	 * @param limit
+	 *        The maximum number of nonces.
+	 */
+	public NonceGenerator(SecureRandom random, int length, long limit) {
+		this(length, random.nextInt(), 0, limit);
+	}
+
+	/**
+	 * Continues the sequence of the given initial nonce, e.g., a configured
+	 * IV.
+	 *
+	 * @param initialNonce
+	 *        The first nonce to be returned (at least {@value #MIN_NONCE_LENGTH}
+	 *        bytes).
+	 * @param limit
+	 *        The maximum number of nonces.
+	 */
+	public NonceGenerator(byte[] initialNonce, long limit) {
+		this(initialNonce.length, ByteBuffer.wrap(checkLength(initialNonce)).getInt(),
+		    ByteBuffer.wrap(initialNonce).getLong(PREFIX_LENGTH), limit);
+	}
+
+	protected NonceGenerator(int length, int prefix, long first, long limit) {
+		if (length < MIN_NONCE_LENGTH) {
+			throw new IllegalArgumentException("Nonces have to be at least " + MIN_NONCE_LENGTH + " bytes long");
+		}
+		this.length = length;
+		this.prefix = prefix;
+		this.first = first;
+		this.limit = limit;
+		this.counter = new AtomicLong(first);
+	}
+
+	protected static byte[] checkLength(byte[] nonce) {
+		if (nonce.length < MIN_NONCE_LENGTH) {
+			throw new IllegalArgumentException("Nonces have to be at least " + MIN_NONCE_LENGTH + " bytes long");
+		}
+		return nonce;
+	}
+
+	/**
+	 * @return The sequence number of the next nonce (i.e., the number of nonces
+	 *         handed out before), or <code>-1</code> if the nonces are
+	 *         exhausted.
+	 */
+	public long next() {
+		long index = counter.getAndIncrement() - first;
+		if (index >= limit || index < 0) {
+			counter.set(first + limit);
+			return -1;
+		}
+		return index;
+	}
+
+	/**
+	 * @return The next nonce, or <code>null</code> if the nonces are
+	 *         exhausted.
+	 */
+	public byte[] nextNonce() {
+		long index = next();
+		return index < 0 ? null : nonce(index);
+	}
+
+	/**
+	 * @return The nonce of the given sequence number (see {@link #next()}).
+	 */
+	public byte[] nonce(long index) {
+		byte[] nonce = new byte[length];
+		ByteBuffer.wrap(nonce).putInt(prefix).putLong(first + index);
+		return nonce;
+	}
+
+	/**
+	 * @return The number of nonces handed out so far.
+	 */
+	public long getCount() {
+		return counter.get() - first;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public boolean isExhausted() {
+		return getCount() >= limit;
+	}
+
+	/**
+	 * @return <code>true</code> if three quarters of the nonces have been
+	 *         handed out, i.e., it is time to replace the key.
+	 */
+	public boolean isDepleted() {
+		return getCount() >= limit - (limit >>> 2);
+	}
+
+	/**
+	 * @return The parameter spec to initialize a cipher of the given
+	 *         transformation with the given nonce, i.e., a
+	 *         {@link GCMParameterSpec} for GCM and an {@link IvParameterSpec}
+	 *         otherwise.
+	 */
+	public static AlgorithmParameterSpec createParameterSpec(String algorithm, byte[] nonce) {
+		if (algorithm.toUpperCase().contains("/GCM/")) {
+			return new GCMParameterSpec(GCM_TAG_LENGTH, nonce);
+		}
+		return new IvParameterSpec(nonce);
+	}
+}
@@ -15,17 +15,30 @@
  */
 package iaik.privlog.sanitizers;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import org.apache.commons.codec.binary.Base64;
 
+import iaik.privlog.index.BlindIndex;
+
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
  */
-public abstract class ParamEncryptingSanitizerBase extends ParamSanitizerBase {
+public abstract class ParamEncryptingSanitizerBase extends ParamSanitizerBase implements IBlindIndexed {
+	protected static final AtomicReferenceFieldUpdater<ParamEncryptingSanitizerBase, String> PUBLISHED =
+	    AtomicReferenceFieldUpdater.newUpdater(ParamEncryptingSanitizerBase.class, String.class, "published");
+
 	protected Base64 base64 = new Base64();
 	protected final String identifier;
 	protected String critical;
 	protected final boolean showSequenceNumber;
 	protected long sequenceNumber = 0;
+	protected byte[] blindIndexValue;
+	/**
+	 * The first sanitized value computed, i.e., all threads rendering this
+	 * parameter (e.g., several appenders) use the same cipher text.
+	 */
+	protected volatile String published;
 
 	protected ParamEncryptingSanitizerBase(String tagName,
 	                                       Object parameter,
@@ -40,24 +53,101 @@ public abstract class ParamEncryptingSanitizerBase extends ParamSanitizerBase {
 		this.showSequenceNumber = showSequenceNumber;
 	}
 
-	protected abstract byte[] getCipherText();
+	protected ParamEncryptingSanitizerBase(int tagId,
+	                                       Object parameter,
+	                                       int start,
+	                                       int startOriginal,
+	                                       int endOriginal,
+	                                       String identifier,
+	                                       boolean showSequenceNumber)
+	{
+		super(tagId, parameter, start, startOriginal, endOriginal);
+		this.identifier = identifier;
+		this.showSequenceNumber = showSequenceNumber;
+	}
+
+	/**
+	 * @return The identifier of the key used to encrypt the parameter, or
+	 *         <code>null</code> if it is not to be included in the sanitized
+	 *         value.
+	 */
+	protected String getKeyId() {
+		return null;
+	}
+
+	/**
+	 * @return The blind index configured for the creating factory, or
+	 *         <code>null</code> if none is configured.
+	 */
+	protected BlindIndex getBlindIndexer() {
+		return null;
+	}
+
+	@Override
+	public byte[] getBlindIndex() {
+		if (blindIndexValue == null) {
+			BlindIndex indexer = getBlindIndexer();
+			if (indexer != null && indexer.isStarted()) {
+				blindIndexValue = indexer.compute(super.getCritical());
+			}
+		}
+		return blindIndexValue;
+	}
 
 	@Override
 	public final String getSanitized() {
-		if (sanitized == null) {
-			StringBuilder sb = new StringBuilder();
-			sb.append("{").append(identifier).append(":");
-			synchronized (base64) {
-				if (showSequenceNumber) {
-					sb.append(sequenceNumber).append(":");
-				}
-				sb.append(base64.encodeToString(getCipherText()));
-				++sequenceNumber;
+		String result = published;
+		if (result == null) {
+			result = renderSanitized();
+			if (!PUBLISHED.compareAndSet(this, null, result)) {
+				result = published;
 			}
-			sb.append("}");
-			sanitized = sb.toString();
+			sanitized = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Renders the sanitized value, i.e., encrypts the parameter. Called at most
+	 * once per thread, the first published result wins.
+	 */
+	protected abstract String renderSanitized();
+
+	/**
+	 * @return The sanitized value for the given cipher text, i.e., the prefix
+	 *         (see {@link #appendPrefix(StringBuilder)}) and the Base64
+	 *         encoded cipher text.
+	 */
+	protected String render(byte[] cipherText) {
+		StringBuilder sb = new StringBuilder();
+		appendPrefix(sb);
+		sb.append(base64.encodeToString(cipherText));
+		++sequenceNumber;
+		sb.append("}");
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the opening brace, the identifier and, if enabled, the key id and
+	 * the sequence number, each followed by a colon.
+	 */
+	protected void appendPrefix(StringBuilder sb) {
+		appendPrefix(sb, getKeyId(), sequenceNumber);
+	}
+
+	/**
+	 * Like {@link #appendPrefix(StringBuilder)} but with the key id and the
+	 * sequence number used for this rendering, which must not be read back
+	 * from fields shared by concurrently rendering threads.
+	 */
+	protected void appendPrefix(StringBuilder sb, String keyId, long sequenceNumber) {
+		sb.append("{").append(identifier).append(":");
+		if (keyId != null) {
+			sb.append(keyId).append(":");
+		}
+		if (showSequenceNumber) {
+			sb.append(sequenceNumber).append(":");
 		}
-		return sanitized;
 	}
 
 }
@@ -15,7 +15,8 @@
  */
 package iaik.privlog.sanitizers;
 
-import org.slf4j.helpers.MessageFormatter;
+import iaik.privlog.ParameterRenderer;
+import iaik.privlog.TagIds;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
@@ -24,7 +25,7 @@ public abstract class ParamSanitizerBase implements IParamSanitizer {
 
 	protected static final String PARAM_ONLY_MESSAGE_PATTERN = "{}";
 
-	protected String tagName;
+	protected int tagId;
 	protected Object parameter;
 	protected String critical;
 	protected String sanitized;
@@ -34,7 +35,11 @@ public abstract class ParamSanitizerBase implements IParamSanitizer {
 	protected int endOriginal;
 
 	protected ParamSanitizerBase(String tagName, Object parameter, int start, int startOriginal, int endOriginal) {
-		this.tagName = tagName;
+		this(TagIds.intern(tagName), parameter, start, startOriginal, endOriginal);
+	}
+
+	protected ParamSanitizerBase(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+		this.tagId = tagId;
 		this.parameter = parameter;
 		this.start = start;
 		this.startOriginal = startOriginal;
@@ -44,11 +49,52 @@ public abstract class ParamSanitizerBase implements IParamSanitizer {
 	@Override
 	public String getCritical() {
 		if (critical == null) {
-			critical = MessageFormatter.format(PARAM_ONLY_MESSAGE_PATTERN, parameter).getMessage();
+			critical = ParameterRenderer.toString(parameter);
 		}
 		return critical;
 	}
 
+	/**
+	 * Renders the critical value into a reusable buffer, e.g., to hash or
+	 * encrypt it without creating a String. The buffer has to be released by
+	 * the caller.
+	 */
+	protected ParameterRenderer.Buffer renderCritical() {
+		return critical != null ? ParameterRenderer.wrap(critical) : ParameterRenderer.render(parameter);
+	}
+
+	/**
+	 * @return The id of the tag this sanitizer has been created for (see
+	 *         {@link TagIds}).
+	 */
+	public int getTagId() {
+		return tagId;
+	}
+
+	/**
+	 * @return The raw parameter this sanitizer has been created for.
+	 */
+	public Object getParameter() {
+		return parameter;
+	}
+
+	/**
+	 * @return The name of the tag this sanitizer has been created for.
+	 */
+	public String getTagName() {
+		return TagIds.name(tagId);
+	}
+
+	/**
+	 * @return <code>true</code> if the sanitized value only depends on the
+	 *         parameter (and the configuration of the factory), i.e., equal
+	 *         parameters are sanitized to equal values. This is not the case
+	 *         for, e.g., randomized encryption.
+	 */
+	public boolean isDeterministic() {
+		return false;
+	}
+
 	@Override
 	public boolean isCriticalAndSanitizedEqual() {
 		if (equal == null) {
@@ -15,6 +15,8 @@
  */
 package iaik.privlog.sanitizers;
 
+import java.nio.charset.Charset;
+import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 
 import javax.crypto.Cipher;
@@ -23,12 +25,16 @@ import org.slf4j.helpers.Util;
 
 import ch.qos.logback.core.spi.ContextAwareBase;
 import ch.qos.logback.core.spi.LifeCycle;
+import iaik.privlog.ParameterRenderer;
+import iaik.privlog.TagIds;
+import iaik.privlog.concurrent.InstancePool;
+import iaik.privlog.index.BlindIndex;
 
-public class RsaEncSanitizerFactory extends ContextAwareBase implements IParamSanitizerFactory, LifeCycle {
+public class RsaEncSanitizerFactory extends ContextAwareBase implements ITagIdAwareParamSanitizerFactory, LifeCycle {
 
 	public class RsaEncSanitizer extends ParamEncryptingSanitizerBase {
 
-		protected RsaEncSanitizer(String tagName,
+		protected RsaEncSanitizer(int tagId,
 		                          Object parameter,
 		                          int start,
 		                          int startOriginal,
@@ -36,7 +42,7 @@ public class RsaEncSanitizerFactory extends ContextAwareBase implements IParamSa
 		                          String identifier,
 		                          boolean showSequenceNumber)
 		{
-			super(tagName, parameter, start, startOriginal, endOriginal, identifier, showSequenceNumber);
+			super(tagId, parameter, start, startOriginal, endOriginal, identifier, showSequenceNumber);
 			equal = encryptCritical;
 		}
 
@@ -49,14 +55,26 @@ public class RsaEncSanitizerFactory extends ContextAwareBase implements IParamSa
 		}
 
 		@Override
+		protected BlindIndex getBlindIndexer() {
+			return blindIndex;
+		}
+
+		@Override
+		protected String renderSanitized() {
+			return render(getCipherText());
+		}
+
 		protected byte[] getCipherText() {
-			synchronized (cipher) {
-				try {
-					return cipher.doFinal(super.getCritical().getBytes());
-				} catch (Exception cause) {
-					addError("Failed to sanitize {" + tagName + "}.", cause);
-					throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
-				}
+			Cipher cipher = ciphers.acquire();
+			ParameterRenderer.Buffer plain = renderCritical();
+			try {
+				return cipher.doFinal(plain.getBytes(Charset.defaultCharset()));
+			} catch (Exception cause) {
+				addError("Failed to sanitize {" + getTagName() + "}.", cause);
+				throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+			} finally {
+				plain.release();
+				ciphers.release(cipher);
 			}
 		}
 
@@ -64,18 +82,29 @@ public class RsaEncSanitizerFactory extends ContextAwareBase implements IParamSa
 
 	protected X509Certificate encCertificate;
 	protected boolean started;
-	protected Cipher cipher;
+	protected String algorithm = "RSA/None/OAEPWithSHA1AndMGF1Padding";
+	/**
+	 * RSA encryption is too slow to share a single cipher among all logging
+	 * threads.
+	 */
+	protected InstancePool<Cipher> ciphers;
 	protected boolean encryptCritical = false;
 	protected String identifier = "rsa";
 	protected boolean showSequenceNumber;
+	protected BlindIndex blindIndex;
 
 	@Override
 	public IParamSanitizer create(String tagName, Object parameter, int start, int startOriginal, int endOriginal) {
+		return create(TagIds.intern(tagName), parameter, start, startOriginal, endOriginal);
+	}
+
+	@Override
+	public IParamSanitizer create(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
 		if (!isStarted()) {
 			addError("The encrypting sanitizer " + getClass().getName() + " has not been started.");
 			return null;
 		}
-		return new RsaEncSanitizer(tagName, parameter, start, startOriginal, endOriginal, identifier, showSequenceNumber);
+		return new RsaEncSanitizer(tagId, parameter, start, startOriginal, endOriginal, identifier, showSequenceNumber);
 	}
 
 	public X509Certificate getEncCertificate() {
@@ -102,6 +131,21 @@ public class RsaEncSanitizerFactory extends ContextAwareBase implements IParamSa
 		this.showSequenceNumber = showSequenceNumber;
 	}
 
+	public BlindIndex getBlindIndex() {
+		return blindIndex;
+	}
+
+	/**
+	 * Optionally, a blind index can be configured which is computed for every
+	 * parameter (see {@link IBlindIndexed}).
+	 *
+	 * @param blindIndex
+	 *        The blind index to be computed for each parameter.
+	 */
+	public void setBlindIndex(BlindIndex blindIndex) {
+		this.blindIndex = blindIndex;
+	}
+
 	@Override
 	public void start() {
 		if (context == null) {
@@ -113,8 +157,21 @@ public class RsaEncSanitizerFactory extends ContextAwareBase implements IParamSa
 			throw new RuntimeException("RsaEncryptingSanitizer cannot be started w/o an encryption certificate");
 		}
 		try {
-			cipher = Cipher.getInstance("RSA/None/OAEPWithSHA1AndMGF1Padding");
-			cipher.init(Cipher.ENCRYPT_MODE, encCertificate.getPublicKey());
+			final PublicKey publicKey = encCertificate.getPublicKey();
+			Cipher.getInstance(algorithm).init(Cipher.ENCRYPT_MODE, publicKey);
+			ciphers = new InstancePool<Cipher>() {
+
+				@Override
+				protected Cipher create() {
+					try {
+						Cipher cipher = Cipher.getInstance(algorithm);
+						cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+						return cipher;
+					} catch (Exception cause) {
+						throw new RuntimeException("Failed to initialize the cipher for " + getClass(), cause);
+					}
+				}
+			};
 		} catch (Exception cause) {
 			addError("Failed to initialize the cipher for " + getClass(), cause);
 			throw cause instanceof RuntimeException ? (RuntimeException) cause
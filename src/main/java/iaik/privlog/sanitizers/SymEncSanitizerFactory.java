@@ -15,30 +15,43 @@
  */
 package iaik.privlog.sanitizers;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
 
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.helpers.Util;
 
 import ch.qos.logback.core.spi.ContextAwareBase;
 import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.Duration;
+import iaik.privlog.ParameterRenderer;
+import iaik.privlog.TagIds;
+import iaik.privlog.concurrent.InstancePool;
+import iaik.privlog.index.BlindIndex;
 
-public class SymEncSanitizerFactory extends ContextAwareBase implements IParamSanitizerFactory, LifeCycle {
+public class SymEncSanitizerFactory extends ContextAwareBase implements ITagIdAwareParamSanitizerFactory, LifeCycle {
 
 	public class SymEncSanitizer extends ParamEncryptingSanitizerBase {
 
-		protected SymEncSanitizer(String tagName,
+		protected SymEncSanitizer(int tagId,
 		                          Object parameter,
 		                          int start,
 		                          int startOriginal,
@@ -46,7 +59,7 @@ public class SymEncSanitizerFactory extends ContextAwareBase implements IParamSa
 		                          String identifier,
 		                          boolean showSequenceNumber)
 		{
-			super(tagName, parameter, start, startOriginal, endOriginal, identifier, showSequenceNumber);
+			super(tagId, parameter, start, startOriginal, endOriginal, identifier, showSequenceNumber);
 			equal = encryptCritical;
 		}
 
@@ -59,31 +72,206 @@ public class SymEncSanitizerFactory extends ContextAwareBase implements IParamSa
 		}
 
 		@Override
-		protected byte[] getCipherText() {
+		protected BlindIndex getBlindIndexer() {
+			return blindIndex;
+		}
+
+		/**
+		 * @return The identifier of the given key epoch, or <code>null</code>
+		 *         if it is not to be included in the sanitized value.
+		 */
+		protected String getKeyId(KeyEpoch epoch) {
+			return isRotationEnabled() || epoch.id > 0 ? KEY_EPOCH_PREFIX + epoch.id : null;
+		}
+
+		/**
+		 * Renders the parameter into a reusable buffer (see
+		 * {@link ParameterRenderer}) and encrypts it from there. Parameters
+		 * exceeding the
+		 * {@link SymEncSanitizerFactory#setStreamingThreshold(int) streaming
+		 * threshold} or the {@link SymEncSanitizerFactory#setMaxParameterLength(int)
+		 * maximum length} are streamed through an {@link EncryptingWriter}.
+		 * <p>
+		 * The key epoch and the nonce index are kept local, as they are part of
+		 * the token and several threads may render the same parameter.
+		 */
+		@Override
+		protected String renderSanitized() {
+			ParameterRenderer.Buffer plain = renderCritical();
 			try {
-				byte[] enc = cipher.doFinal(super.getCritical().getBytes());
-				if (updateIV) {
-					incIV();
-					cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv), random);
+				return renderSanitized(plain);
+			} finally {
+				plain.release();
+			}
+		}
+
+		protected String renderSanitized(ParameterRenderer.Buffer plain) {
+			CharSequence text = plain.getText();
+			int length = text.length();
+			boolean exceeded = maxParameterLength > 0 && length > maxParameterLength;
+			if (exceeded && truncation == Truncation.OMIT) {
+				return "{" + identifier + ":" + OMITTED_MARKER + ":" + length + "}";
+			}
+
+			int end = length;
+			if (exceeded) {
+				end = maxParameterLength;
+				if (Character.isHighSurrogate(text.charAt(end - 1))) {
+					--end; // Do not split a surrogate pair
+				}
+			}
+			try {
+				KeyEpoch epoch = currentEpoch;
+				long index = epoch.nonces.next();
+				while (index < 0) {
+					epoch = rotate(epoch);
+					index = epoch.nonces.next();
+				}
+				StringBuilder sb;
+				long bytes;
+				if (!exceeded && length <= streamingThreshold) {
+					byte[] plainBytes = plain.getBytes(EncryptingWriter.UTF_8);
+					byte[] cipherText = epoch.encrypt(index, plainBytes);
+					sb = new StringBuilder();
+					appendPrefix(sb, getKeyId(epoch), index);
+					sb.append(base64.encodeToString(cipherText));
+					bytes = plainBytes.length;
+				} else {
+					// Assume mostly ASCII characters
+					sb = new StringBuilder(64 + (end + 2 + 16) / 3 * 4);
+					appendPrefix(sb, getKeyId(epoch), index);
+					if (exceeded) {
+						sb.append(TRUNCATED_PREFIX).append(length - end).append(":");
+					}
+					bytes = epoch.encrypt(index, text, end, sb);
+				}
+				sb.append("}");
+				if (isRotationEnabled()) {
+					checkRotation(epoch, bytes);
 				}
-				return enc;
+				return sb.toString();
 			} catch (Exception cause) {
-				addError("Failed to sanitize {" + tagName + "}.", cause);
+				addError("Failed to sanitize {" + getTagName() + "}.", cause);
 				throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
 			}
 		}
+	}
+
+	/**
+	 * A key epoch holds the key material used between two key rotations.
+	 * Instances are never modified after being published, except for the
+	 * atomic counters. Every parameter is encrypted with a fresh nonce of the
+	 * epoch (see {@link NonceGenerator}) using a pooled cipher, i.e., neither a
+	 * lock nor a {@link SecureRandom} is involved.
+	 */
+	protected class KeyEpoch {
+		protected final int id;
+		protected final SecretKey secretKey;
+		protected final NonceGenerator nonces;
+		protected final String cipherAlgorithm;
+		protected final InstancePool<Cipher> ciphers;
+		protected final long created = System.currentTimeMillis();
+		protected final AtomicLong count = new AtomicLong();
+		protected final AtomicLong bytes = new AtomicLong();
+
+		protected KeyEpoch(int id, SecretKey secretKey, NonceGenerator nonces)
+		    throws Exception
+		{
+			this.id = id;
+			this.secretKey = secretKey;
+			this.nonces = nonces;
+			this.cipherAlgorithm = algorithm;
+			this.ciphers = new InstancePool<Cipher>() {
+
+				@Override
+				protected Cipher create() {
+					try {
+						return Cipher.getInstance(cipherAlgorithm);
+					} catch (GeneralSecurityException cause) {
+						throw new IllegalStateException("Failed to instantiate the cipher '" + cipherAlgorithm + "'", cause);
+					}
+				}
+			};
+			// Fail early if the key or the nonces do not fit the cipher
+			Cipher.getInstance(cipherAlgorithm).init(Cipher.ENCRYPT_MODE, secretKey,
+			    NonceGenerator.createParameterSpec(cipherAlgorithm, nonces.nonce(0)));
+		}
+
+		protected byte[] encrypt(long index, byte[] plain)
+		    throws Exception
+		{
+			Cipher cipher = ciphers.acquire();
+			try {
+				cipher.init(Cipher.ENCRYPT_MODE, secretKey,
+				    NonceGenerator.createParameterSpec(cipherAlgorithm, nonces.nonce(index)));
+				return cipher.doFinal(plain);
+			} finally {
+				ciphers.release(cipher);
+			}
+		}
 
-		public void incIV() {
-			for (int i = iv.length - 1; i >= 0; i--) {
-				iv[i]++;
-				if (iv[i] != 0) break;
+		/**
+		 * Encrypts the first <code>end</code> characters of the text in chunks
+		 * and appends the Base64 encoded cipher text to <code>out</code>.
+		 *
+		 * @return The number of encrypted (UTF-8 encoded) bytes.
+		 */
+		protected long encrypt(long index, CharSequence text, int end, StringBuilder out)
+		    throws Exception
+		{
+			Cipher cipher = ciphers.acquire();
+			try {
+				cipher.init(Cipher.ENCRYPT_MODE, secretKey,
+				    NonceGenerator.createParameterSpec(cipherAlgorithm, nonces.nonce(index)));
+				EncryptingWriter writer = new EncryptingWriter(cipher, out);
+				writer.append(text, 0, end);
+				writer.close();
+				return writer.getByteCount();
+			} finally {
+				ciphers.release(cipher);
 			}
 		}
 	}
 
+	/**
+	 * How parameters exceeding the {@link SymEncSanitizerFactory#setMaxParameterLength(int)
+	 * maximum length} are handled.
+	 */
+	public enum Truncation {
+		/**
+		 * Only the leading characters are encrypted, the number of omitted
+		 * characters is added to the token (see {@link SymEncSanitizerFactory#TRUNCATED_PREFIX}).
+		 */
+		TRUNCATE,
+
+		/**
+		 * The parameter is not encrypted at all, the token only contains its
+		 * length (see {@link SymEncSanitizerFactory#OMITTED_MARKER}).
+		 */
+		OMIT
+	}
+
+	/**
+	 * Prefix of the key epoch identifier within sanitized tokens.
+	 */
+	public static final String KEY_EPOCH_PREFIX = "k";
+
+	/**
+	 * Prefix of the number of omitted characters within the tokens of
+	 * truncated parameters, e.g., <code>{sym:t1024:...}</code>.
+	 */
+	public static final String TRUNCATED_PREFIX = "t";
+
+	/**
+	 * Replaces the cipher text of omitted parameters, e.g.,
+	 * <code>{sym:omitted:1048576}</code>.
+	 */
+	public static final String OMITTED_MARKER = "omitted";
+
+	public static final int DEFAULT_STREAMING_THRESHOLD = 16 * 1024;
+
 	protected X509Certificate encCertificate;
 	protected boolean started;
-	protected Cipher cipher;
 	protected Base64 base64 = new Base64();
 	protected boolean encryptCritical = false;
 	protected OutputStream keyInfoOutputSream = System.err;
@@ -92,17 +280,36 @@ public class SymEncSanitizerFactory extends ContextAwareBase implements IParamSa
 	protected byte[] iv;
 	protected SecureRandom random;
 	protected int blockSize;
+	protected int nonceLength;
+	protected long nonceLimit = NonceGenerator.DEFAULT_LIMIT;
 	protected boolean updateIV;
 	protected String identifier = "sym";
 	protected boolean showSequenceNumber;
+	protected BlindIndex blindIndex;
+	protected int streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+	protected int maxParameterLength;
+	protected Truncation truncation = Truncation.TRUNCATE;
+
+	protected long rotateAfterCount;
+	protected long rotateAfterBytes;
+	protected Duration rotationInterval;
+	protected volatile KeyEpoch currentEpoch;
+	protected final AtomicBoolean rotationPending = new AtomicBoolean();
+	protected final ReentrantLock rotationLock = new ReentrantLock();
+	protected ScheduledExecutorService rotationExecutor;
 
 	@Override
 	public IParamSanitizer create(String tagName, Object parameter, int start, int startOriginal, int endOriginal) {
+		return create(TagIds.intern(tagName), parameter, start, startOriginal, endOriginal);
+	}
+
+	@Override
+	public IParamSanitizer create(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
 		if (!isStarted()) {
 			addError("The encrypting sanitizer " + getClass().getName() + " has not been started.");
 			return null;
 		}
-		return new SymEncSanitizer(tagName, parameter, start, startOriginal, endOriginal, identifier, showSequenceNumber);
+		return new SymEncSanitizer(tagId, parameter, start, startOriginal, endOriginal, identifier, showSequenceNumber);
 	}
 
 	public X509Certificate getEncCertificate() {
@@ -129,10 +336,20 @@ public class SymEncSanitizerFactory extends ContextAwareBase implements IParamSa
 		this.keyInfoOutputSream = keyInfoOutputSream;
 	}
 
+	/**
+	 * @deprecated Every parameter is encrypted with a fresh nonce (see
+	 *             {@link NonceGenerator}), the setting is ignored.
+	 */
+	@Deprecated
 	public boolean isUpdateIV() {
 		return updateIV;
 	}
 
+	/**
+	 * @deprecated Every parameter is encrypted with a fresh nonce (see
+	 *             {@link NonceGenerator}), the setting is ignored.
+	 */
+	@Deprecated
 	public void setUpdateIV(boolean updateIV) {
 		this.updateIV = updateIV;
 	}
@@ -145,10 +362,32 @@ public class SymEncSanitizerFactory extends ContextAwareBase implements IParamSa
 		this.secretKey = secretKey;
 	}
 
+	/**
+	 * @param iv
+	 *        The nonce of the first parameter encrypted with the configured
+	 *        secret key. Subsequent parameters use the following nonces (see
+	 *        {@link NonceGenerator}).
+	 */
 	public void setIv(byte[] iv) {
 		this.iv = iv;
 	}
 
+	public long getNonceLimit() {
+		return nonceLimit;
+	}
+
+	/**
+	 * @param nonceLimit
+	 *        The number of parameters encrypted per key. A rotation is
+	 *        requested in the background when three quarters are used (if
+	 *        rotation is enabled). Once all are used, the key is replaced
+	 *        synchronously, even if rotation is disabled; the tokens then carry
+	 *        the key epoch (see {@link #KEY_EPOCH_PREFIX}).
+	 */
+	public void setNonceLimit(long nonceLimit) {
+		this.nonceLimit = nonceLimit;
+	}
+
 	public void setRandom(SecureRandom random) {
 		this.random = random;
 	}
@@ -161,6 +400,211 @@ public class SymEncSanitizerFactory extends ContextAwareBase implements IParamSa
 		this.showSequenceNumber = showSequenceNumber;
 	}
 
+	public BlindIndex getBlindIndex() {
+		return blindIndex;
+	}
+
+	/**
+	 * Optionally, a blind index can be configured which is computed for every
+	 * parameter (see {@link IBlindIndexed}).
+	 *
+	 * @param blindIndex
+	 *        The blind index to be computed for each parameter.
+	 */
+	public void setBlindIndex(BlindIndex blindIndex) {
+		this.blindIndex = blindIndex;
+	}
+
+	public int getStreamingThreshold() {
+		return streamingThreshold;
+	}
+
+	/**
+	 * @param streamingThreshold
+	 *        Parameters with more characters are encrypted in chunks and their
+	 *        cipher text is Base64 encoded directly into the sanitized value
+	 *        instead of being copied as a whole for each step.
+	 */
+	public void setStreamingThreshold(int streamingThreshold) {
+		this.streamingThreshold = streamingThreshold;
+	}
+
+	public int getMaxParameterLength() {
+		return maxParameterLength;
+	}
+
+	/**
+	 * @param maxParameterLength
+	 *        The maximum number of characters encrypted per parameter
+	 *        (<code>0</code>, the default, means unlimited). Longer parameters
+	 *        are handled according to the {@link #setTruncation(Truncation)
+	 *        truncation} policy.
+	 */
+	public void setMaxParameterLength(int maxParameterLength) {
+		this.maxParameterLength = maxParameterLength;
+	}
+
+	public Truncation getTruncation() {
+		return truncation;
+	}
+
+	public void setTruncation(Truncation truncation) {
+		this.truncation = truncation;
+	}
+
+	/**
+	 * @param rotateAfterCount
+	 *        The number of encrypted parameters after which a new key is
+	 *        generated (<code>0</code> disables count based rotation).
+	 */
+	public void setRotateAfterCount(long rotateAfterCount) {
+		this.rotateAfterCount = rotateAfterCount;
+	}
+
+	/**
+	 * @param rotateAfterBytes
+	 *        The number of encrypted bytes after which a new key is generated
+	 *        (<code>0</code> disables volume based rotation).
+	 */
+	public void setRotateAfterBytes(long rotateAfterBytes) {
+		this.rotateAfterBytes = rotateAfterBytes;
+	}
+
+	/**
+	 * @param rotationInterval
+	 *        The time after which a new key is generated (<code>null</code>
+	 *        disables time based rotation).
+	 */
+	public void setRotationInterval(Duration rotationInterval) {
+		this.rotationInterval = rotationInterval;
+	}
+
+	public boolean isRotationEnabled() {
+		return rotateAfterCount > 0 || rotateAfterBytes > 0 || rotationInterval != null;
+	}
+
+	/**
+	 * @return The identifier of the key epoch currently used for encryption.
+	 */
+	public int getCurrentKeyEpoch() {
+		return currentEpoch.id;
+	}
+
+	protected void checkRotation(KeyEpoch epoch, long length) {
+		long count = epoch.count.incrementAndGet();
+		long bytes = epoch.bytes.addAndGet(length);
+		if ((rotateAfterCount > 0 && count >= rotateAfterCount) || (rotateAfterBytes > 0 && bytes >= rotateAfterBytes)
+		    || epoch.nonces.isDepleted()) {
+			requestRotation();
+		}
+	}
+
+	/**
+	 * Replaces the given key epoch by a new one, unless this has already
+	 * happened. This is done synchronously if the nonces of the epoch are
+	 * exhausted, even if rotation is disabled, as the key must not be used any
+	 * further.
+	 *
+	 * @return The current key epoch.
+	 */
+	protected KeyEpoch rotate(KeyEpoch expected) {
+		rotationLock.lock();
+		try {
+			if (currentEpoch == expected) {
+				KeyEpoch next = createEpoch(expected.id + 1, null, null);
+				currentEpoch = next;
+				addInfo("Switched to key epoch " + next.id + " for " + getClass().getName());
+			}
+			return currentEpoch;
+		} catch (Exception cause) {
+			addError("Failed to rotate the key of " + getClass().getName(), cause);
+			throw cause instanceof RuntimeException ? (RuntimeException) cause
+			    : new RuntimeException("Failed to rotate the key of " + getClass().getName(), cause);
+		} finally {
+			rotationLock.unlock();
+		}
+	}
+
+	/**
+	 * Requests a key rotation. The new key is generated and written to the key
+	 * info stream in the background. Afterwards, it atomically replaces the
+	 * current key. Logging threads continue to use the current key until then.
+	 */
+	public void requestRotation() {
+		if (rotationExecutor == null || !rotationPending.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			rotationExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						rotate(currentEpoch);
+					} catch (RuntimeException cause) {
+						// Already reported
+					} finally {
+						rotationPending.set(false);
+					}
+				}
+			});
+		} catch (RuntimeException cause) {
+			rotationPending.set(false);
+			addError("Failed to schedule the key rotation of " + getClass().getName(), cause);
+		}
+	}
+
+	protected KeyEpoch createEpoch(int id, SecretKey key, byte[] initVector)
+	    throws Exception
+	{
+		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		df.setTimeZone(TimeZone.getTimeZone("UTC"));
+		StringBuffer keyInfo = new StringBuffer();
+		if (isRotationEnabled() || id > 0) {
+			keyInfo.append("Key Epoch: ").append(KEY_EPOCH_PREFIX).append(id).append(System.lineSeparator());
+		}
+		keyInfo.append("Starting Date: ").append(df.format(new Date())).append(System.lineSeparator());
+		int initLength = keyInfo.length();
+
+		if (key == null) {
+			String keyAlg = algorithm.split("/")[0];
+			KeyGenerator generator = KeyGenerator.getInstance(keyAlg);
+			generator.init(blockSize * 8, random);
+			key = generator.generateKey();
+			keyInfo.append("Secret Key: ").append(base64.encodeToString(key.getEncoded())).append(System.lineSeparator());
+		}
+		NonceGenerator nonces;
+		if (initVector == null) {
+			nonces = new NonceGenerator(random, nonceLength, nonceLimit);
+			keyInfo.append("InitVector: ").append(base64.encodeToString(nonces.nonce(0))).append(System.lineSeparator());
+		} else {
+			nonces = new NonceGenerator(initVector, nonceLimit);
+		}
+
+		KeyEpoch epoch = new KeyEpoch(id, key, nonces);
+		if (keyInfo.length() > initLength) {
+			writeKeyInfo(keyInfo.toString().getBytes());
+		}
+		return epoch;
+	}
+
+	protected void writeKeyInfo(byte[] keyInfoBytes)
+	    throws Exception
+	{
+		if (encCertificate != null) {
+			Cipher keyCipher = Cipher.getInstance("RSA/None/OAEPWithSHA1AndMGF1Padding");
+			keyCipher.init(Cipher.ENCRYPT_MODE, encCertificate.getPublicKey());
+			StringBuffer keyInfo = new StringBuffer();
+			keyInfo.append(base64.encodeAsString(keyCipher.doFinal(keyInfoBytes)));
+			keyInfo.append(System.lineSeparator()).append(System.lineSeparator());
+			keyInfoBytes = keyInfo.toString().getBytes();
+		}
+		synchronized (keyInfoOutputSream) {
+			keyInfoOutputSream.write(keyInfoBytes);
+			keyInfoOutputSream.flush();
+		}
+	}
+
 	@Override
 	public void start() {
 		if (context == null) {
@@ -171,61 +615,66 @@ public class SymEncSanitizerFactory extends ContextAwareBase implements IParamSa
 			addError("AesEncryptingSanitizer cannot be started w/o an encryption certificate");
 			throw new RuntimeException("AesEncryptingSanitizer cannot be started w/o an encryption certificate");
 		}
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		df.setTimeZone(TimeZone.getTimeZone("UTC"));
-		StringBuffer keyInfo = new StringBuffer("Starting Date: ");
-		keyInfo.append(df.format(new Date())).append(System.lineSeparator());
-		String startingDate = keyInfo.toString();
-		int initLength = startingDate.length();
 
 		try {
-			cipher = Cipher.getInstance(algorithm);
-			blockSize = cipher.getBlockSize();
+			blockSize = Cipher.getInstance(algorithm).getBlockSize();
+			String mode = algorithm.toUpperCase();
+			nonceLength = mode.contains("/GCM/") || mode.contains("/CCM/") ? NonceGenerator.MIN_NONCE_LENGTH : blockSize;
 			if (random == null) {
 				random = new SecureRandom();
 			}
-			if (secretKey == null) {
-				String keyAlg = algorithm.split("/")[0];
-				KeyGenerator generator = KeyGenerator.getInstance(keyAlg);
-				generator.init(blockSize * 8, random);
-				secretKey = generator.generateKey();
-				keyInfo.append("Secret Key: ").append(base64.encodeToString(secretKey.getEncoded()))
-				    .append(System.lineSeparator());
-			}
-			if (iv == null) {
-				iv = new byte[blockSize];
-				random.nextBytes(iv);
-				keyInfo.append("InitVector: ").append(base64.encodeToString(iv)).append(System.lineSeparator());
-			}
-			if (keyInfo.length() > initLength) {
-				// Output key info
-				byte[] keyInfoBytes = keyInfo.toString().getBytes();
-				if (encCertificate != null) {
-					Cipher keyCipher = Cipher.getInstance("RSA/None/OAEPWithSHA1AndMGF1Padding");
-					keyCipher.init(Cipher.ENCRYPT_MODE, encCertificate.getPublicKey());
-					keyInfo = new StringBuffer();
-					keyInfo.append(base64.encodeAsString(keyCipher.doFinal(keyInfoBytes)));
-					keyInfo.append(System.lineSeparator()).append(System.lineSeparator());
-					keyInfoBytes = keyInfo.toString().getBytes();
-				}
-				keyInfoOutputSream.write(keyInfoBytes);
-				keyInfoOutputSream.flush();
-			}
-			keyInfoOutputSream.close();
-			cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv), random);
+			currentEpoch = createEpoch(0, secretKey, iv);
 		} catch (Exception cause) {
 			addError("Failed to initialize the cipher '" + algorithm + "' for " + getClass(), cause);
 			throw cause instanceof RuntimeException ? (RuntimeException) cause
 			    : new RuntimeException("Failed to initialize the cipher '" + algorithm + "' for " + getClass(), cause);
 		}
 
+		if (isRotationEnabled()) {
+			rotationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SymEncSanitizerFactory-KeyRotation");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			if (rotationInterval != null) {
+				long millis = rotationInterval.getMilliseconds();
+				rotationExecutor.scheduleAtFixedRate(new Runnable() {
+
+					@Override
+					public void run() {
+						requestRotation();
+					}
+				}, millis, millis, TimeUnit.MILLISECONDS);
+			}
+		}
+
 		started = true;
 	}
 
+	protected void closeKeyInfoOutputStream() {
+		if (keyInfoOutputSream == System.err || keyInfoOutputSream == System.out) {
+			return;
+		}
+		try {
+			keyInfoOutputSream.close();
+		} catch (IOException cause) {
+			addWarn("Failed to close the key info output stream", cause);
+		}
+	}
+
 	@Override
 	public void stop() {
 		started = false;
-
+		if (rotationExecutor != null) {
+			rotationExecutor.shutdownNow();
+			rotationExecutor = null;
+		}
+		// Kept open until now, exhausted nonces require a new key
+		closeKeyInfoOutputStream();
 	}
 
 	@Override
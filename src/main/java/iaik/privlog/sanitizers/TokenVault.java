@@ -0,0 +1,483 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+import iaik.privlog.concurrent.InstancePool;
+
+/**
+ * A persistent mapping of values to random tokens. The mapping is kept in an
+ * open addressing hash table with linear probing in a memory mapped file,
+ * i.e., off-heap and without any objects per entry. The values themselves are
+ * encrypted (AES/GCM, authenticating the keyed hash) and appended to a second
+ * file with the suffix {@value #VALUES_SUFFIX}; the table only holds a keyed
+ * hash of each value.
+ * <p>
+ * Each slot of the table consists of four longs: the two halves of the 128 bit
+ * keyed hash of the value, the token and the offset of the encrypted value.
+ * The lower 32 bits of a token are the index of its slot, which allows to
+ * resolve a token without a second table, the upper 31 bits are random.
+ * <p>
+ * Lookups of known values are lock-free. A new value is encrypted and written
+ * to the values file first, then its slot is inserted under the lock of the
+ * vault (which is never held during I/O), writing the hash of the slot last. A
+ * concurrent lookup seeing a partially written slot falls back to the locked
+ * path. If two threads insert the same value at once, the record written by
+ * the second one is never referenced.
+ * The capacity is fixed when the vault is created, at most three quarters of
+ * the slots are used.
+ */
+public class TokenVault implements Closeable {
+
+	public static final String VALUES_SUFFIX = ".values";
+	public static final long DEFAULT_CAPACITY = 1 << 20;
+	public static final long MAX_CAPACITY = 1L << 31;
+
+	protected static final Charset UTF8 = Charset.forName("utf-8");
+
+	protected static final int MAGIC = 0x504c544b; // "PLTK"
+	protected static final int VERSION = 1;
+	protected static final int HEADER_SIZE = 4096;
+	protected static final int OFFSET_MAGIC = 0;
+	protected static final int OFFSET_VERSION = 4;
+	protected static final int OFFSET_CAPACITY = 8;
+	protected static final int OFFSET_COUNT = 16;
+	protected static final int OFFSET_DATA_END = 24;
+	protected static final int OFFSET_KEY_CHECK = 32;
+
+	protected static final int SLOT_SHIFT = 5;
+	protected static final int SEGMENT_SHIFT = 25;
+	protected static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	protected static final String ENC_ALGORITHM = "AES/GCM/NoPadding";
+	protected static final String MAC_ALGORITHM = "HmacSHA256";
+	protected static final int IV_LENGTH = 12;
+	protected static final int TAG_LENGTH = 128;
+
+	protected final File file;
+	protected final RandomAccessFile tableFile;
+	protected final RandomAccessFile valuesFile;
+	protected final FileChannel values;
+	protected final MappedByteBuffer header;
+	protected final MappedByteBuffer[] segments;
+	protected final long capacity;
+	protected final long maxEntries;
+
+	protected final SecretKey macKey;
+	protected final SecretKey encKey;
+	protected final InstancePool<Mac> macs;
+	protected final InstancePool<Cipher> ciphers;
+	protected final SecureRandom random;
+
+	/**
+	 * Guards the insertion of slots and the header.
+	 */
+	protected final ReentrantLock lock = new ReentrantLock();
+	protected long count;
+	protected long recordedDataEnd;
+
+	/**
+	 * The end of the values file, space is reserved before a value is written.
+	 */
+	protected final AtomicLong dataEnd = new AtomicLong();
+
+	/**
+	 * Written after each insertion, read before each lookup to make the
+	 * inserted slots visible.
+	 */
+	protected volatile long published;
+
+	/**
+	 * Opens the vault stored in the given file or creates a new one.
+	 *
+	 * @param file
+	 *        The file holding the table.
+	 * @param capacity
+	 *        The number of slots of a new vault, rounded up to a power of two.
+	 *        Ignored for existing vaults.
+	 * @param secretKey
+	 *        The master key, the keys for hashing and encrypting the values are
+	 *        derived from it.
+	 * @param random
+	 *        The source of the tokens and IVs, or <code>null</code> for a new
+	 *        {@link SecureRandom}.
+	 */
+	public TokenVault(File file, long capacity, SecretKey secretKey, SecureRandom random)
+	    throws IOException
+	{
+		this.file = file;
+		this.random = random != null ? random : new SecureRandom();
+		try {
+			macKey = new SecretKeySpec(derive(secretKey, "privlog-token-index"), MAC_ALGORITHM);
+			encKey = new SecretKeySpec(Arrays.copyOf(derive(secretKey, "privlog-token-value"), 16), "AES");
+			Cipher.getInstance(ENC_ALGORITHM);
+		} catch (Exception cause) {
+			throw new IOException("Failed to initialize the keys of the token vault " + file, cause);
+		}
+		ciphers = new InstancePool<Cipher>() {
+
+			@Override
+			protected Cipher create() {
+				try {
+					return Cipher.getInstance(ENC_ALGORITHM);
+				} catch (Exception cause) {
+					throw new RuntimeException("Failed to initialize the cipher with algorithm '" + ENC_ALGORITHM + "'",
+					    cause);
+				}
+			}
+		};
+		macs = new InstancePool<Mac>() {
+
+			@Override
+			protected Mac create() {
+				try {
+					Mac mac = Mac.getInstance(MAC_ALGORITHM);
+					mac.init(macKey);
+					return mac;
+				} catch (Exception cause) {
+					throw new RuntimeException("Failed to initialize the MAC with algorithm '" + MAC_ALGORITHM + "'", cause);
+				}
+			}
+		};
+
+		boolean exists = file.length() >= HEADER_SIZE;
+		tableFile = new RandomAccessFile(file, "rw");
+		valuesFile = new RandomAccessFile(new File(file.getPath() + VALUES_SUFFIX), "rw");
+		values = valuesFile.getChannel();
+		try {
+			FileChannel table = tableFile.getChannel();
+			header = table.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			long[] keyCheck = hash("privlog-token-key-check");
+			if (exists) {
+				if (header.getInt(OFFSET_MAGIC) != MAGIC || header.getInt(OFFSET_VERSION) != VERSION) {
+					throw new IOException("The file " + file + " is not a token vault");
+				}
+				if (header.getLong(OFFSET_KEY_CHECK) != keyCheck[0] || header.getLong(OFFSET_KEY_CHECK + 8) != keyCheck[1]) {
+					throw new IOException("The token vault " + file + " has been created with a different key");
+				}
+				this.capacity = header.getLong(OFFSET_CAPACITY);
+				count = header.getLong(OFFSET_COUNT);
+				recordedDataEnd = header.getLong(OFFSET_DATA_END);
+			} else {
+				if (capacity < 2 || capacity > MAX_CAPACITY) {
+					throw new IllegalArgumentException("The capacity of the token vault must be between 2 and "
+					    + MAX_CAPACITY);
+				}
+				this.capacity = Long.highestOneBit(2 * capacity - 1);
+				tableFile.setLength(HEADER_SIZE + (this.capacity << SLOT_SHIFT));
+				valuesFile.setLength(0);
+				header.putInt(OFFSET_MAGIC, MAGIC);
+				header.putInt(OFFSET_VERSION, VERSION);
+				header.putLong(OFFSET_CAPACITY, this.capacity);
+				header.putLong(OFFSET_COUNT, 0);
+				header.putLong(OFFSET_DATA_END, 0);
+				header.putLong(OFFSET_KEY_CHECK, keyCheck[0]);
+				header.putLong(OFFSET_KEY_CHECK + 8, keyCheck[1]);
+			}
+			maxEntries = this.capacity - (this.capacity >>> 2);
+
+			long slotsPerSegment = 1L << SEGMENT_SHIFT;
+			segments = new MappedByteBuffer[(int) ((this.capacity + slotsPerSegment - 1) >>> SEGMENT_SHIFT)];
+			for (int i = 0; i < segments.length; ++i) {
+				long slots = Math.min(slotsPerSegment, this.capacity - ((long) i << SEGMENT_SHIFT));
+				segments[i] = table.map(FileChannel.MapMode.READ_WRITE,
+				    HEADER_SIZE + ((long) i << (SEGMENT_SHIFT + SLOT_SHIFT)), slots << SLOT_SHIFT);
+			}
+		} catch (IOException | RuntimeException cause) {
+			close();
+			throw cause;
+		}
+		dataEnd.set(recordedDataEnd);
+		published = count;
+	}
+
+	protected static byte[] derive(SecretKey secretKey, String purpose)
+	    throws Exception
+	{
+		Mac mac = Mac.getInstance(MAC_ALGORITHM);
+		mac.init(new SecretKeySpec(secretKey.getEncoded(), MAC_ALGORITHM));
+		return mac.doFinal(purpose.getBytes(UTF8));
+	}
+
+	/**
+	 * @return The two halves of the truncated keyed hash of the value, not
+	 *         both zero (which marks empty slots).
+	 */
+	protected long[] hash(String value) {
+		byte[] hash;
+		Mac mac = macs.acquire();
+		try {
+			hash = mac.doFinal(value.getBytes(UTF8));
+		} finally {
+			macs.release(mac);
+		}
+		ByteBuffer bb = ByteBuffer.wrap(hash);
+		long hi = bb.getLong();
+		long lo = bb.getLong();
+		if (hi == 0 && lo == 0) {
+			lo = 1;
+		}
+		return new long[] { hi, lo };
+	}
+
+	protected ByteBuffer segment(long slot) {
+		return segments[(int) (slot >>> SEGMENT_SHIFT)];
+	}
+
+	protected static int offset(long slot) {
+		return (int) ((slot & SEGMENT_MASK) << SLOT_SHIFT);
+	}
+
+	/**
+	 * @return The (positive) token of the value with the given hash, or
+	 *         <code>-(slot + 1)</code> of the empty slot where it would be
+	 *         inserted. <code>0</code> if a partially written slot has been
+	 *         found or if there is no empty slot.
+	 */
+	protected long find(long hi, long lo) {
+		long mask = capacity - 1;
+		long slot = hi & mask;
+		for (long probes = 0; probes < capacity; ++probes) {
+			ByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			long slotHi = segment.getLong(offset);
+			long slotLo = segment.getLong(offset + 8);
+			if (slotHi == 0 && slotLo == 0) {
+				return -(slot + 1);
+			}
+			if (slotHi == hi && slotLo == lo) {
+				return segment.getLong(offset + 16);
+			}
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The token of the given value, a new one if the value is
+	 *         unknown, or <code>0</code> if the vault is full.
+	 */
+	public long tokenize(String value)
+	    throws IOException
+	{
+		long[] h = hash(value);
+		long known = published;
+		if (known > 0) {
+			long token = find(h[0], h[1]);
+			if (token > 0) {
+				return token;
+			}
+		}
+		if (known >= maxEntries) {
+			return 0;
+		}
+
+		long[] record = append(h, value);
+		lock.lock();
+		try {
+			long token = find(h[0], h[1]);
+			if (token >= 0) {
+				return token;
+			}
+			if (count >= maxEntries) {
+				return 0;
+			}
+			return insert(-token - 1, h, record[0], record[1]);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	protected static byte[] aad(long[] h) {
+		return ByteBuffer.allocate(16).putLong(h[0]).putLong(h[1]).array();
+	}
+
+	/**
+	 * Encrypts the value and writes it to the values file.
+	 *
+	 * @return The start and the end of the record.
+	 */
+	protected long[] append(long[] h, String value)
+	    throws IOException
+	{
+		byte[] iv = new byte[IV_LENGTH];
+		random.nextBytes(iv);
+		byte[] enc;
+		Cipher cipher = ciphers.acquire();
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, encKey, new GCMParameterSpec(TAG_LENGTH, iv));
+			cipher.updateAAD(aad(h));
+			enc = cipher.doFinal(value.getBytes(UTF8));
+		} catch (Exception cause) {
+			throw new IOException("Failed to encrypt a value for the token vault " + file, cause);
+		} finally {
+			ciphers.release(cipher);
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(4 + IV_LENGTH + enc.length);
+		record.putInt(enc.length).put(iv).put(enc).flip();
+		long offset = dataEnd.getAndAdd(record.limit());
+		while (record.hasRemaining()) {
+			values.write(record, offset + record.position());
+		}
+		return new long[] { offset, offset + record.limit() };
+	}
+
+	/**
+	 * Guarded by the lock.
+	 */
+	protected long insert(long slot, long[] h, long offset, long end) {
+		long token;
+		do {
+			token = ((long) (random.nextInt() & Integer.MAX_VALUE) << 32) | slot;
+		} while (token == 0);
+
+		ByteBuffer segment = segment(slot);
+		int slotOffset = offset(slot);
+		segment.putLong(slotOffset + 16, token);
+		segment.putLong(slotOffset + 24, offset);
+		segment.putLong(slotOffset + 8, h[1]);
+		segment.putLong(slotOffset, h[0]);
+
+		if (end > recordedDataEnd) {
+			recordedDataEnd = end;
+			header.putLong(OFFSET_DATA_END, end);
+		}
+		header.putLong(OFFSET_COUNT, ++count);
+		published = count;
+		return token;
+	}
+
+	/**
+	 * @return The value of the given token, or <code>null</code> if the token
+	 *         is unknown.
+	 */
+	public String detokenize(long token)
+	    throws IOException
+	{
+		long slot = token & 0xffffffffL;
+		if (token <= 0 || slot >= capacity || published == 0) {
+			return null;
+		}
+		ByteBuffer segment = segment(slot);
+		int slotOffset = offset(slot);
+		long[] h = { segment.getLong(slotOffset), segment.getLong(slotOffset + 8) };
+		if (segment.getLong(slotOffset + 16) != token || (h[0] == 0 && h[1] == 0)) {
+			return null;
+		}
+		long offset = segment.getLong(slotOffset + 24);
+
+		ByteBuffer length = ByteBuffer.allocate(4);
+		readFully(length, offset);
+		ByteBuffer record = ByteBuffer.allocate(IV_LENGTH + length.getInt(0));
+		readFully(record, offset + 4);
+		Cipher cipher = ciphers.acquire();
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, encKey, new GCMParameterSpec(TAG_LENGTH, record.array(), 0, IV_LENGTH));
+			cipher.updateAAD(aad(h));
+			byte[] plain = cipher.doFinal(record.array(), IV_LENGTH, record.capacity() - IV_LENGTH);
+			return new String(plain, UTF8);
+		} catch (Exception cause) {
+			throw new IOException("Failed to decrypt the value of a token from the token vault " + file, cause);
+		} finally {
+			ciphers.release(cipher);
+		}
+	}
+
+	protected void readFully(ByteBuffer buffer, long position)
+	    throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			if (values.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of the token vault " + file + VALUES_SUFFIX);
+			}
+		}
+	}
+
+	/**
+	 * Encodes a token as 11 URL safe Base64 characters.
+	 */
+	public static String encode(long token) {
+		return Base64.encodeBase64URLSafeString(ByteBuffer.allocate(8).putLong(token).array());
+	}
+
+	/**
+	 * @return The token encoded by {@link #encode(long)}, or <code>0</code> if
+	 *         the given string is not an encoded token.
+	 */
+	public static long decode(String encoded) {
+		byte[] token = Base64.decodeBase64(encoded);
+		return token.length == 8 ? ByteBuffer.wrap(token).getLong() : 0;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public long size() {
+		return published;
+	}
+
+	/**
+	 * Writes the table and the values to the storage device.
+	 */
+	public void flush()
+	    throws IOException
+	{
+		values.force(false);
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+		header.force();
+	}
+
+	@Override
+	public void close()
+	    throws IOException
+	{
+		try {
+			if (segments != null && values.isOpen()) {
+				flush();
+			}
+		} finally {
+			try {
+				valuesFile.close();
+			} finally {
+				tableFile.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.helpers.Util;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+import iaik.privlog.TagIds;
+
+/**
+ * Replaces parameters by short random tokens, e.g., <code>{tok:AAAAAGXy1qQ}</code>.
+ * Equal values are replaced by the same token. The mapping is kept in a
+ * {@link TokenVault}, which allows authorized personnel holding the key to
+ * resolve the tokens (see {@link #detokenize(String)}), while logging a known
+ * value costs a keyed hash and a lookup in a memory mapped table instead of an
+ * encryption.
+ * <p>
+ * If the vault is full, parameters are replaced by the blinding mask and an
+ * error is reported once.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class TokenizingSanitizerFactory extends ContextAwareBase
+    implements ITagIdAwareParamSanitizerFactory, LifeCycle
+{
+	public class TokenizingSanitizer extends ParamSanitizerBase {
+
+		protected TokenizingSanitizer(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+			super(tagId, parameter, start, startOriginal, endOriginal);
+		}
+
+		@Override
+		public String getSanitized() {
+			if (sanitized == null) {
+				sanitized = tokenize(super.getCritical());
+			}
+			return sanitized;
+		}
+
+		@Override
+		public boolean isDeterministic() {
+			return true;
+		}
+	}
+
+	protected String file;
+	protected long capacity = TokenVault.DEFAULT_CAPACITY;
+	protected SecretKey secretKey;
+	protected SecureRandom random;
+	protected String identifier = "tok";
+	protected TokenVault vault;
+	protected final AtomicBoolean fullReported = new AtomicBoolean();
+	protected boolean started;
+
+	@Override
+	public IParamSanitizer create(String tagName, Object parameter, int start, int startOriginal, int endOriginal) {
+		return create(TagIds.intern(tagName), parameter, start, startOriginal, endOriginal);
+	}
+
+	@Override
+	public IParamSanitizer create(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+		if (!isStarted()) {
+			addError("The tokenizing sanitizer " + getClass().getName() + " has not been started.");
+			return null;
+		}
+		return new TokenizingSanitizer(tagId, parameter, start, startOriginal, endOriginal);
+	}
+
+	protected String tokenize(String value) {
+		long token;
+		try {
+			token = vault.tokenize(value);
+		} catch (IOException cause) {
+			addError("Failed to tokenize a parameter.", cause);
+			throw new RuntimeException(cause);
+		}
+		if (token == 0) {
+			if (fullReported.compareAndSet(false, true)) {
+				addError("The token vault " + file + " is full, parameters are masked.");
+			}
+			return BlindingSanitizerFactory.BLINDING_MASK;
+		}
+		return "{" + identifier + ":" + TokenVault.encode(token) + "}";
+	}
+
+	/**
+	 * @param sanitized
+	 *        A sanitized parameter, e.g., <code>{tok:AAAAAGXy1qQ}</code>, or
+	 *        just the encoded token.
+	 * @return The original value, or <code>null</code> if the token is unknown.
+	 */
+	public String detokenize(String sanitized)
+	    throws IOException
+	{
+		String encoded = sanitized;
+		String prefix = "{" + identifier + ":";
+		if (encoded.startsWith(prefix) && encoded.endsWith("}")) {
+			encoded = encoded.substring(prefix.length(), encoded.length() - 1);
+		}
+		return vault.detokenize(TokenVault.decode(encoded));
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	/**
+	 * @param file
+	 *        The file of the token vault, created if it does not exist.
+	 */
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity
+	 *        The number of slots of a new token vault (see
+	 *        {@link TokenVault#TokenVault(File, long, SecretKey, SecureRandom)}).
+	 */
+	public void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+
+	public void setSecretKey(SecretKey secretKey) {
+		this.secretKey = secretKey;
+	}
+
+	/**
+	 * @param key
+	 *        The Base64 encoded master key of the token vault.
+	 */
+	public void setKey(String key) {
+		this.secretKey = new SecretKeySpec(Base64.decodeBase64(key), "AES");
+	}
+
+	public void setRandom(SecureRandom random) {
+		this.random = random;
+	}
+
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	public void setIdentifier(String identifier) {
+		this.identifier = identifier;
+	}
+
+	/**
+	 * @return The token vault, available after {@link #start()}.
+	 */
+	public TokenVault getVault() {
+		return vault;
+	}
+
+	@Override
+	public void start() {
+		if (context == null) {
+			Util.report("TokenizingSanitizer cannot be started w/o a context");
+			throw new RuntimeException("TokenizingSanitizer cannot be started w/o a context");
+		}
+		if (file == null || secretKey == null) {
+			addError("TokenizingSanitizer cannot be started w/o a file and a key");
+			throw new RuntimeException("TokenizingSanitizer cannot be started w/o a file and a key");
+		}
+
+		try {
+			vault = new TokenVault(new File(file), capacity, secretKey, random);
+		} catch (Exception cause) {
+			addError("Failed to open the token vault " + file, cause);
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(
+			    "Failed to open the token vault " + file, cause);
+		}
+		fullReported.set(false);
+		started = true;
+	}
+
+	@Override
+	public void stop() {
+		started = false;
+		if (vault != null) {
+			try {
+				vault.close();
+			} catch (IOException cause) {
+				addError("Failed to close the token vault " + file, cause);
+			}
+		}
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.util.Duration;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+import iaik.privlog.sanitizers.IParamSanitizerFactory;
+import iaik.privlog.sanitizers.ParamSanitizerBase;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class DuplicateSuppressorTest {
+
+	/**
+	 * A non deterministic sanitizer counting the expensive operations.
+	 */
+	protected static class CountingSanitizerFactory implements IParamSanitizerFactory {
+		protected int sanitized;
+
+		@Override
+		public ParamSanitizerBase create(String tagName, Object parameter, int start, int startOriginal, int endOriginal) {
+			return new ParamSanitizerBase(tagName, parameter, start, startOriginal, endOriginal) {
+				@Override
+				public String getSanitized() {
+					if (sanitized == null) {
+						++CountingSanitizerFactory.this.sanitized;
+						sanitized = "{enc:" + CountingSanitizerFactory.this.sanitized + "}";
+					}
+					return sanitized;
+				}
+
+				@Override
+				public String getCritical() {
+					// Like encryptCritical
+					return getSanitized();
+				}
+			};
+		}
+	}
+
+	protected LoggerContext lc;
+	protected Logger logger;
+	protected PrivacyAwareAppender paAppender;
+	protected DuplicateSuppressor suppressor;
+	protected CountingSanitizerFactory counting;
+	protected ListAppender<ILoggingEvent> appender;
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		counting = new CountingSanitizerFactory();
+
+		suppressor = new DuplicateSuppressor();
+		suppressor.setWindow(Duration.buildBySeconds(60));
+
+		appender = new ListAppender<ILoggingEvent>();
+		appender.setContext(lc);
+		appender.start();
+
+		paAppender = new PrivacyAwareAppender();
+		paAppender.setContext(lc);
+		paAppender.addSanitizerFactory("blind", new BlindingSanitizerFactory());
+		paAppender.addSanitizerFactory("enc", counting);
+		paAppender.setDuplicateSuppressor(suppressor);
+		paAppender.addAppender(appender);
+
+		logger = lc.getLogger(getClass());
+		logger.addAppender(paAppender);
+		logger.setAdditive(false);
+	}
+
+	protected String message(int index) {
+		return appender.list.get(index).getFormattedMessage();
+	}
+
+	@Test
+	public void testDeterministic() {
+		paAppender.start();
+		for (int i = 0; i < 5; ++i) {
+			logger.info("Hello {blind}", "World");
+			// Sanitized to the same mask
+			logger.info("Hello {blind}", "Other");
+		}
+		logger.info("Hello {blind} {}", "World", 1);
+		logger.warn("Hello {blind}", "World");
+		Assert.assertEquals(3, appender.list.size());
+
+		paAppender.stop();
+		Assert.assertEquals(4, appender.list.size());
+		Assert.assertEquals("Last message repeated 9 times: [Hello {blind}]", message(3));
+	}
+
+	@Test
+	public void testNonDeterministic() {
+		paAppender.start();
+		for (int i = 0; i < 5; ++i) {
+			logger.info("Hello {enc}", "World");
+			logger.info("Hello {enc}", "Other");
+		}
+		Assert.assertEquals(2, appender.list.size());
+		Assert.assertEquals(0, counting.sanitized);
+
+		Assert.assertEquals("Hello {enc:1}", message(0));
+		Assert.assertEquals("Hello {enc:2}", message(1));
+		Assert.assertEquals(2, counting.sanitized);
+	}
+
+	@Test
+	public void testWindow() throws InterruptedException {
+		suppressor.setWindow(Duration.buildByMilliseconds(50));
+		paAppender.start();
+		for (int i = 0; i < 3; ++i) {
+			logger.info("Hello {blind}", "World");
+		}
+		Thread.sleep(100);
+		logger.info("Hello {blind}", "World");
+
+		Assert.assertEquals(3, appender.list.size());
+		Assert.assertEquals("Hello *****", message(0));
+		Assert.assertEquals("Last message repeated 2 times: [Hello {blind}]", message(1));
+		Assert.assertEquals("Hello *****", message(2));
+	}
+
+	@Test
+	public void testEviction() {
+		suppressor.setTableSize(1);
+		paAppender.start();
+		logger.info("Hello {blind}", "World");
+		logger.info("Hello {blind}", "World");
+		logger.info("Bye {blind}", "World");
+
+		Assert.assertEquals(3, appender.list.size());
+		Assert.assertEquals("Hello *****", message(0));
+		Assert.assertEquals("Last message repeated 1 times: [Hello {blind}]", message(1));
+		Assert.assertEquals("Bye *****", message(2));
+	}
+
+	@Test
+	public void testRawParameters() {
+		paAppender.start();
+		for (int i = 0; i < 3; ++i) {
+			logger.info("Hello {enc} {}", "World", new int[] { 1, 2 });
+		}
+		Assert.assertEquals(1, appender.list.size());
+		Assert.assertEquals(0, counting.sanitized);
+
+		paAppender.stop();
+		Assert.assertEquals(2, appender.list.size());
+		Assert.assertEquals("Hello {enc:1} [1, 2]", message(0));
+		Assert.assertEquals("Last message repeated 2 times: [Hello {enc} {}]", message(1));
+		Assert.assertEquals(1, counting.sanitized);
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class MessageSegmentsTest {
+
+	protected void assertFormat(String pattern, Object... args) {
+		String expected = MessageFormatter.arrayFormat(pattern, args).getMessage();
+		MessageSegments segments = MessageSegments.parse(pattern);
+		Assert.assertEquals(pattern, expected, segments.format(args));
+
+		StringBuilder out1 = new StringBuilder();
+		StringBuilder out2 = new StringBuilder();
+		segments.format(args, args, out1, out2);
+		Assert.assertEquals(pattern, expected, out1.toString());
+		Assert.assertEquals(pattern, expected, out2.toString());
+	}
+
+	@Test
+	public void testSegments() {
+		MessageSegments segments = MessageSegments.parse("a {} b \\{} c \\\\{} d");
+		Assert.assertEquals(2, segments.getSlotCount());
+		Assert.assertEquals("a ", segments.getLiteral(0));
+		Assert.assertEquals(" b {} c \\", segments.getLiteral(1));
+		Assert.assertEquals(" d", segments.getTail(2));
+	}
+
+	@Test
+	public void testEquivalentToMessageFormatter() {
+		assertFormat("no place holder");
+		assertFormat("no place holder", "surplus");
+		assertFormat("a {} b {} c", "1");
+		assertFormat("a {} b {} c", "1", 2);
+		assertFormat("a {} b {} c", "1", 2, null);
+		assertFormat("escaped \\{} and {}", "1");
+		assertFormat("escaped \\{} and {} and \\{}", "1");
+		assertFormat("escaped \\{} and {} and \\{}", "1", "2");
+		assertFormat("double escaped \\\\{} and {}", "1", "2");
+		assertFormat("{}{}{{}}", "1", "2", "3");
+		assertFormat("array {}", new Object[] { new int[] { 1, 2 } });
+	}
+
+	@Test
+	public void testRenderBothMatchesSeparateRendering() {
+		MessageSegments segments = MessageSegments.parse("user {} from {} ({})");
+		Object[] sanitized = { "[blind]", "10.0.0.1", 3 };
+		Object[] critical = { "alice", "10.0.0.1", 3 };
+
+		StringBuilder out1 = new StringBuilder();
+		StringBuilder out2 = new StringBuilder();
+		segments.format(sanitized, critical, out1, out2);
+		Assert.assertEquals("user [blind] from 10.0.0.1 (3)", out1.toString());
+		Assert.assertEquals("user alice from 10.0.0.1 (3)", out2.toString());
+	}
+}
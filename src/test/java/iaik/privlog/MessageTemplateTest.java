@@ -0,0 +1,88 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+import iaik.privlog.sanitizers.ParamSanitizerBase;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class MessageTemplateTest {
+
+	@Test
+	public void testTagIds() {
+		int id = TagIds.intern("testTagIds");
+		Assert.assertEquals(id, TagIds.intern(new String("testTagIds")));
+		Assert.assertEquals(id, TagIds.lookup("testTagIds"));
+		Assert.assertEquals("testTagIds", TagIds.name(id));
+		Assert.assertEquals(TagIds.NONE, TagIds.lookup("testTagIdsUnknown"));
+		Assert.assertNull(TagIds.name(TagIds.NONE));
+	}
+
+	@Test
+	public void testCompile() {
+		String format = "a {} b {blind} c \\{escaped} d";
+		MessageTemplate template = MessageTemplate.compile(format);
+		Assert.assertSame(template, MessageTemplate.compile(new String(format)));
+
+		Assert.assertEquals(3, template.size());
+		Assert.assertEquals(TagIds.NONE, template.getTagId(0));
+		Assert.assertEquals(TagIds.intern("blind"), template.getTagId(1));
+		Assert.assertFalse(template.isEscaped(1));
+		Assert.assertEquals(format.indexOf("{blind}"), template.getStart(1));
+		Assert.assertEquals(format.indexOf("{blind}") + 7, template.getEnd(1));
+		Assert.assertTrue(template.isEscaped(2));
+	}
+
+	@Test
+	public void testUnknownTagsNotInterned() {
+		int size = TagIds.size();
+		MessageTemplate template = MessageTemplate.compile("Payload {\"id\": 42} {lateTag}");
+		Assert.assertEquals(size, TagIds.size());
+		Assert.assertTrue(template.hasTags());
+		Assert.assertEquals(TagIds.UNRESOLVED, template.getTagId(0));
+		Assert.assertEquals(TagIds.UNRESOLVED, template.getTagId(1));
+
+		int id = TagIds.intern("lateTag");
+		Assert.assertEquals(id, template.getTagId(1));
+	}
+
+	@Test
+	public void testBuildResolvesTagIds() {
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+		int id = TagIds.lookup("blind");
+		Assert.assertNotNull(sanitizers.get(id));
+
+		LoggerContext lc = new LoggerContext();
+		for (int i = 0; i < 2; ++i) { // second run uses the cached format
+			PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, "test", lc.getLogger("test"),
+			    Level.INFO, "a {} b {blind} c {unknown} d", null, new Object[] { "x", "y", "z" });
+			Assert.assertEquals("a {} b {} c {unknown} d", event.getMessage());
+			Assert.assertEquals(2, event.getParameters().size());
+
+			ParamSanitizerBase second = (ParamSanitizerBase) event.parameters.get(1);
+			Assert.assertEquals(id, second.getTagId());
+			Assert.assertEquals("blind", second.getTagName());
+		}
+	}
+}
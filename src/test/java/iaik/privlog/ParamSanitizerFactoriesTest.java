@@ -0,0 +1,210 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.util.Duration;
+import iaik.privlog.sanitizers.AnonymizingSanitizerFactory;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+import iaik.privlog.sanitizers.IParamSanitizerFactory;
+import iaik.privlog.sanitizers.IdentitySanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class ParamSanitizerFactoriesTest {
+
+	@Test
+	public void testMapSemantics() {
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		Map<String, IParamSanitizerFactory> expected = new HashMap<String, IParamSanitizerFactory>();
+		for (int i = 0; i < 100; ++i) {
+			IParamSanitizerFactory factory = new BlindingSanitizerFactory();
+			Assert.assertNull(sanitizers.put("tag" + i, factory));
+			expected.put("tag" + i, factory);
+		}
+		Assert.assertEquals(expected, sanitizers);
+		Assert.assertNull(sanitizers.get("unknown"));
+		Assert.assertNull(sanitizers.get(null));
+
+		IParamSanitizerFactory replacement = new IdentitySanitizerFactory();
+		Assert.assertSame(expected.get("tag7"), sanitizers.put("tag7", replacement));
+		Assert.assertSame(replacement, sanitizers.get("tag7"));
+		Assert.assertEquals(100, sanitizers.size());
+
+		Assert.assertNull(sanitizers.replace("unknown", replacement));
+		Assert.assertFalse(sanitizers.containsKey("unknown"));
+
+		Assert.assertSame(expected.get("tag42"), sanitizers.remove("tag42"));
+		Assert.assertNull(sanitizers.get("tag42"));
+		Assert.assertEquals(99, sanitizers.size());
+		for (int i = 0; i < 100; ++i) {
+			if (i != 42 && i != 7) {
+				Assert.assertSame(expected.get("tag" + i), sanitizers.get("tag" + i));
+			}
+		}
+
+		sanitizers.clear();
+		Assert.assertTrue(sanitizers.isEmpty());
+	}
+
+	@Test
+	public void testIteratorUsesSnapshot() {
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("a", new BlindingSanitizerFactory());
+		sanitizers.put("b", new BlindingSanitizerFactory());
+
+		Iterator<String> it = sanitizers.keySet().iterator();
+		sanitizers.put("c", new BlindingSanitizerFactory());
+		int count = 0;
+		while (it.hasNext()) {
+			if ("a".equals(it.next())) {
+				it.remove();
+			}
+			++count;
+		}
+		Assert.assertEquals(2, count);
+		Assert.assertEquals(2, sanitizers.size());
+		Assert.assertFalse(sanitizers.containsKey("a"));
+	}
+
+	@Test
+	public void testConcurrentReplace()
+	    throws Exception
+	{
+		final ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 200000; ++i) {
+						Assert.assertNotNull(sanitizers.get("blind"));
+					}
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		};
+		reader.start();
+		for (int i = 0; reader.isAlive(); ++i) {
+			sanitizers.put("blind", i % 2 == 0 ? new AnonymizingSanitizerFactory() : new BlindingSanitizerFactory());
+			sanitizers.put("other" + (i % 10), new IdentitySanitizerFactory());
+		}
+		reader.join();
+
+		Assert.assertNull(failure.get());
+	}
+
+	@Test
+	public void testRegistry()
+	    throws Exception
+	{
+		LoggerContext lc = new LoggerContext();
+		PrivacyAwareTurboFilter filter = new PrivacyAwareTurboFilter();
+		filter.setContext(lc);
+		filter.setRegistryName("test");
+		filter.addSanitizerFactory("blind", new BlindingSanitizerFactory());
+		filter.start();
+
+		ObjectName name = new ObjectName(SanitizerRegistry.OBJECT_NAME_PREFIX + ObjectName.quote("test"));
+		Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+		ManagementFactory.getPlatformMBeanServer().invoke(name, "setFactory",
+		    new Object[] { "anon", AnonymizingSanitizerFactory.class.getName() },
+		    new String[] { String.class.getName(), String.class.getName() });
+		Assert.assertTrue(filter.sanitizers.get("anon") instanceof AnonymizingSanitizerFactory);
+		Assert.assertArrayEquals(new String[] { "anon", "blind" }, filter.getSanitizerRegistry().getTagNames());
+
+		Assert.assertTrue(filter.getSanitizerRegistry().removeFactory("blind"));
+		Assert.assertFalse(filter.sanitizers.containsKey("blind"));
+
+		filter.stop();
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	protected static void awaitStopped(LifeCycle component)
+	    throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+		while (component.isStarted() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void testRegistryReleasesReplacedFactories()
+	    throws Exception
+	{
+		LoggerContext lc = new LoggerContext();
+		SanitizerRegistry registry = new SanitizerRegistry(lc, new ParamSanitizerFactories());
+		registry.setStopDelay(Duration.buildByMilliseconds(50));
+
+		IdentitySanitizerFactory first = new IdentitySanitizerFactory();
+		registry.putFactory("id", first);
+		Assert.assertTrue(first.isStarted());
+
+		for (int i = 0; i < 10; ++i) {
+			registry.putFactory("id", new IdentitySanitizerFactory());
+		}
+		IdentitySanitizerFactory last = new IdentitySanitizerFactory();
+		Assert.assertTrue(registry.putFactory("id", last) instanceof IdentitySanitizerFactory);
+
+		// Sanitizers of the replaced factory may still be rendered
+		Assert.assertTrue(first.isStarted());
+		awaitStopped(first);
+		Assert.assertFalse(first.isStarted());
+		Assert.assertEquals(1, registry.owned.size());
+		Assert.assertTrue(registry.owned.containsKey(last));
+
+		lc.stop();
+		Assert.assertFalse(last.isStarted());
+		Assert.assertTrue(registry.owned.isEmpty());
+	}
+
+	@Test
+	public void testRegistryKeepsForeignFactories()
+	    throws Exception
+	{
+		LoggerContext lc = new LoggerContext();
+		SanitizerRegistry registry = new SanitizerRegistry(lc, new ParamSanitizerFactories());
+		registry.setStopDelay(Duration.buildByMilliseconds(0));
+
+		IdentitySanitizerFactory configured = new IdentitySanitizerFactory();
+		configured.setContext(lc);
+		configured.start();
+		registry.putFactory("id", configured);
+		registry.putFactory("id", new IdentitySanitizerFactory());
+		Assert.assertTrue(registry.removeFactory("id"));
+
+		Thread.sleep(50);
+		Assert.assertTrue(configured.isStarted());
+	}
+}
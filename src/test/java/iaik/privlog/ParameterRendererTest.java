@@ -0,0 +1,155 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.helpers.MessageFormatter;
+
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class ParameterRendererTest {
+
+	protected static class Point implements IRenderable {
+		protected final int x;
+		protected final int y;
+		protected int rendered;
+
+		protected Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public void renderTo(Appendable out)
+		    throws IOException
+		{
+			++rendered;
+			out.append('(').append(String.valueOf(x)).append(", ").append(String.valueOf(y)).append(')');
+		}
+
+		@Override
+		public String toString() {
+			return "(" + x + ", " + y + ")";
+		}
+	}
+
+	protected static class Failing {
+		@Override
+		public String toString() {
+			throw new IllegalStateException();
+		}
+	}
+
+	protected static String expected(Object arg) {
+		return MessageFormatter.format("{}", arg).getMessage();
+	}
+
+	@Test
+	public void testSameAsMessageFormatter() {
+		Object[] selfContaining = new Object[2];
+		selfContaining[0] = "a";
+		selfContaining[1] = selfContaining;
+		Object[] values = { null, "text", new StringBuilder("builder"), 42, -7L, (short) 3, (byte) -1, true, 'c', 1.5,
+		    2.25f, Double.NaN, new int[] { 1, 2 }, new long[0], new byte[] { 1 }, new short[] { 1, 2 },
+		    new char[] { 'a', 'b' }, new boolean[] { true, false }, new float[] { 1.5f }, new double[] { 0.1, 2 },
+		    new Object[] { "x", null, new int[] { 3 }, new Object[] { 'y' } }, selfContaining, new Point(1, 2),
+		    Arrays.asList(1, 2), new Failing() };
+
+		for (Object value : values) {
+			StringBuilder out = new StringBuilder("prefix ");
+			ParameterRenderer.render(value, out);
+			Assert.assertEquals("prefix " + expected(value), out.toString());
+			Assert.assertEquals(expected(value), ParameterRenderer.toString(value));
+		}
+	}
+
+	@Test
+	public void testRenderable() {
+		Point point = new Point(3, 4);
+		Assert.assertEquals("Where: (3, 4)", MessageSegments.parse("Where: {}").format(new Object[] { point }));
+		Assert.assertEquals(1, point.rendered);
+	}
+
+	@Test
+	public void testStringNotCopied() {
+		String value = "Hello";
+		Assert.assertSame(value, ParameterRenderer.toString(value));
+
+		ParameterRenderer.Buffer buffer = ParameterRenderer.render(value);
+		Assert.assertSame(value, buffer.getText());
+		buffer.release();
+	}
+
+	@Test
+	public void testNestedBuffers() {
+		ParameterRenderer.Buffer outer = ParameterRenderer.render(new Point(1, 2));
+		ParameterRenderer.Buffer inner = ParameterRenderer.render(new Point(3, 4));
+		Assert.assertEquals("(1, 2)", outer.getText().toString());
+		Assert.assertEquals("(3, 4)", inner.getText().toString());
+		inner.release();
+		outer.release();
+
+		ParameterRenderer.Buffer reused = ParameterRenderer.render(new Point(5, 6));
+		Assert.assertEquals("(5, 6)", reused.getText().toString());
+		reused.release();
+	}
+
+	@Test
+	public void testEncoding()
+	    throws Exception
+	{
+		Charset utf8 = Charset.forName("UTF-8");
+		StringBuilder large = new StringBuilder();
+		while (large.length() < 5000) {
+			large.append("\u00e4\ud83d\ude00x");
+		}
+		large.append('\ud83d'); // Malformed
+
+		ParameterRenderer.Buffer buffer = ParameterRenderer.render(large);
+		try {
+			byte[] bytes = large.toString().getBytes(utf8);
+			Assert.assertArrayEquals(bytes, buffer.getBytes(utf8));
+
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			buffer.update(digest, utf8);
+			Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bytes), digest.digest());
+		} finally {
+			buffer.release();
+		}
+	}
+
+	@Test
+	public void testBlindingUnchanged()
+	    throws Exception
+	{
+		BlindingSanitizerFactory factory = new BlindingSanitizerFactory();
+		factory.setDigest("SHA-256");
+		byte[] expected = MessageDigest.getInstance("SHA-256").digest("(1, 2)".getBytes());
+
+		String sanitized = factory.create("blind", new Point(1, 2), 0, 0, 6).getSanitized();
+		Assert.assertEquals(Base64.encodeBase64String(expected), sanitized);
+	}
+}
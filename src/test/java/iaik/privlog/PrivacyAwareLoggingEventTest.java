@@ -20,11 +20,16 @@ import org.junit.Before;
 import org.junit.Test;
 
 import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
 import iaik.privlog.PrivacyAwareLoggingEvent.NonCriticalTag;
+import iaik.privlog.encoders.PrivacyAwarePatternLayoutEncoder;
 import iaik.privlog.sanitizers.BlindingSanitizerFactory;
 import iaik.privlog.sanitizers.BlindingSanitizerFactory.BlindingSanitizer;
 import iaik.privlog.sanitizers.IParamSanitizer;
+import iaik.privlog.sanitizers.IdentitySanitizerFactory;
 
 /**
  * @author Christof Rath <christof.rath@iaik.tugraz.at>
@@ -112,4 +117,59 @@ public class PrivacyAwareLoggingEventTest {
 		Assert.assertEquals(e.getFormattedMessage(), sb.toString());
 	}
 
+	@Test
+	public void testRenderBoth() {
+		PrivacyAwareLoggingEvent.RenderBoth.get(lc).enable();
+		PrivacyAwareLoggingEvent e = PrivacyAwareLoggingEvent.build(sanitizers, "test", lc.getLogger("test"), Level.DEBUG,
+		    mt, null, params);
+
+		Assert.assertEquals("This is a Hello message with " + BlindingSanitizerFactory.BLINDING_MASK + " data",
+		    e.getFormattedMessage());
+		Assert.assertEquals("This is a Hello message with World data", e.getFullyDisclosedFormattedMessage());
+	}
+
+	@Test
+	public void testRenderBothShared() {
+		PrivacyAwareLoggingEvent.RenderBoth.get(lc).enable();
+		IdentitySanitizerFactory identity = new IdentitySanitizerFactory();
+		identity.setContext(lc);
+		identity.start();
+		sanitizers.put("id", identity);
+		PrivacyAwareLoggingEvent e = PrivacyAwareLoggingEvent.build(sanitizers, "test", lc.getLogger("test"), Level.DEBUG,
+		    "This is a {} message with {id} data", null, params);
+
+		Assert.assertEquals("This is a Hello message with World data", e.getFullyDisclosedFormattedMessage());
+		Assert.assertSame(e.getFullyDisclosedFormattedMessage(), e.getFormattedMessage());
+	}
+
+	@Test
+	public void testRenderBothFlag() {
+		PrivacyAwareTurboFilter paFilter = new PrivacyAwareTurboFilter();
+		paFilter.setContext(lc);
+		paFilter.setSanitizerFactories(sanitizers);
+		paFilter.start();
+		lc.addTurboFilter(paFilter);
+
+		ListAppender<ILoggingEvent> appender = new ListAppender<ILoggingEvent>();
+		appender.setContext(lc);
+		appender.start();
+		Logger logger = lc.getLogger("test");
+		logger.addAppender(appender);
+
+		// The converter is started after the filter resolved the flag
+		PrivacyAwarePatternLayoutEncoder encoder = new PrivacyAwarePatternLayoutEncoder();
+		encoder.setContext(lc);
+		encoder.setPattern("%msg | %cMsg");
+		encoder.start();
+		Assert.assertTrue(PrivacyAwareLoggingEvent.RenderBoth.get(lc).isEnabled());
+
+		logger.info(mt, params);
+		Assert.assertTrue(((PrivacyAwareLoggingEvent) appender.list.get(0)).isRenderBoth());
+
+		encoder.stop();
+		Assert.assertNull(lc.getObject(PrivacyAwareLoggingEvent.RENDER_BOTH_KEY));
+
+		logger.info(mt, params);
+		Assert.assertFalse(((PrivacyAwareLoggingEvent) appender.list.get(1)).isRenderBoth());
+	}
 }
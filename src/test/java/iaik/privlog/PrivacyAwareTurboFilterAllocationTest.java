@@ -0,0 +1,154 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * Checks the number of bytes allocated per event on the synchronous path of
+ * the {@link PrivacyAwareTurboFilter}.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class PrivacyAwareTurboFilterAllocationTest {
+
+	protected static final int WARMUP = 50000;
+	protected static final int EVENTS = 10000;
+
+	/**
+	 * Generous upper bound: the event itself, the sanitizer of the tagged
+	 * parameter and the rendered message (i.e., the sanitized arguments, the
+	 * builder and the resulting String). Note that logback creates a
+	 * ThrowableProxy per event if a throwable is logged, hence, the bound
+	 * applies to events without one.
+	 */
+	protected static final long MAX_BYTES_PER_EVENT = 512;
+
+	/**
+	 * Renders the message like a layout would, so that the sanitization is
+	 * part of the measured path.
+	 */
+	protected static class CountingAppender extends AppenderBase<ILoggingEvent> {
+		protected int count;
+		protected long length;
+		protected ILoggingEvent last;
+
+		@Override
+		protected void append(ILoggingEvent event) {
+			count += ((PrivacyAwareLoggingEvent) event).parameters.size();
+			length += event.getFormattedMessage().length();
+			last = event;
+		}
+	}
+
+	protected LoggerContext lc;
+	protected Logger logger;
+	protected PrivacyAwareTurboFilter paFilter;
+	protected CountingAppender appender;
+	protected Object[] params = new Object[] { "user", "secret" };
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+
+		paFilter = new PrivacyAwareTurboFilter();
+		paFilter.setContext(lc);
+		paFilter.setSanitizerFactories(sanitizers);
+		paFilter.setReuseEventState(true);
+		paFilter.start();
+		lc.addTurboFilter(paFilter);
+
+		appender = new CountingAppender();
+		appender.setContext(lc);
+		appender.start();
+
+		logger = lc.getLogger(getClass());
+		logger.addAppender(appender);
+		logger.setAdditive(false);
+		logger.setLevel(Level.INFO);
+	}
+
+	protected long allocatedBytesPerEvent(int events) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		long threadId = Thread.currentThread().getId();
+
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < events; ++i) {
+			logger.info("User {} with password {blind} failed", params);
+		}
+		return (threadBean.getThreadAllocatedBytes(threadId) - before) / events;
+	}
+
+	@Test
+	public void testAllocationsPerEvent() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean
+		    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+
+		allocatedBytesPerEvent(WARMUP);
+		long bytes = allocatedBytesPerEvent(EVENTS);
+
+		Assert.assertEquals(2 * (WARMUP + EVENTS), appender.count);
+		Assert.assertEquals("User user with password ***** failed".length() * (WARMUP + EVENTS), appender.length);
+		Assert.assertTrue("Allocated " + bytes + " bytes per event", bytes <= MAX_BYTES_PER_EVENT);
+	}
+
+	@Test
+	public void testTrailingThrowable() {
+		Exception cause = new Exception("Test");
+		Object[] args = new Object[] { "user", "secret", cause };
+		logger.info("User {} with password {blind} failed", args);
+
+		Assert.assertEquals(2, appender.count);
+		Assert.assertEquals(3, args.length);
+		Assert.assertEquals("Test", appender.last.getThrowableProxy().getMessage());
+	}
+
+	@Test
+	public void testDeferredProcessing() {
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(paFilter.sanitizers, "test", logger, Level.INFO,
+		    "{} {blind}", null, new Object[] { "a", "b" }, 2, ParamSanitizerList.acquire(), false);
+		ParamSanitizerList pooled = event.parameters;
+		Assert.assertTrue(pooled.isPooled());
+
+		event.prepareForDeferredProcessing();
+		pooled.release();
+		Assert.assertFalse(event.parameters.isPooled());
+		Assert.assertEquals(2, event.parameters.size());
+		Assert.assertEquals("a " + BlindingSanitizerFactory.BLINDING_MASK, event.getFormattedMessage());
+
+		// The list is reused, a nested acquire gets a fresh one
+		Assert.assertSame(pooled, ParamSanitizerList.acquire());
+		Assert.assertFalse(ParamSanitizerList.acquire().isPooled());
+		pooled.release();
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.hamcrest.Description;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class PrivacyAwareTurboFilterBypassTest {
+
+	protected LoggerContext lc;
+	protected Logger logger;
+	protected PrivacyAwareTurboFilter paFilter;
+	protected Appender<ILoggingEvent> appender;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void before() {
+		lc = new LoggerContext();
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+
+		paFilter = new PrivacyAwareTurboFilter();
+		paFilter.setContext(lc);
+		paFilter.setSanitizerFactories(sanitizers);
+
+		appender = mock(Appender.class);
+		logger = lc.getLogger(getClass());
+		logger.addAppender(appender);
+		logger.setAdditive(false);
+		logger.setLevel(Level.INFO);
+	}
+
+	protected ILoggingEvent eventOfType(final boolean privacyAware) {
+		return argThat(new ArgumentMatcher<ILoggingEvent>() {
+
+			@Override
+			public boolean matches(Object argument) {
+				return (argument instanceof PrivacyAwareLoggingEvent) == privacyAware;
+			}
+
+			@Override
+			public void describeTo(Description description) {
+				description.appendText(privacyAware ? "privacy aware event" : "native event");
+			}
+		});
+	}
+
+	@Test
+	public void testContainsTags() {
+		Assert.assertFalse(MessageTemplate.containsTags("Hello {} World"));
+		Assert.assertFalse(MessageTemplate.containsTags("Hello \\{} {{}} World"));
+		Assert.assertFalse(MessageTemplate.containsTags("}{ {"));
+		Assert.assertTrue(MessageTemplate.containsTags("Hello {blind}"));
+		Assert.assertTrue(MessageTemplate.containsTags("Hello \\{blind}"));
+		Assert.assertTrue(MessageTemplate.containsTags("{{x}"));
+	}
+
+	@Test
+	public void testBypass() {
+		paFilter.start();
+		lc.addTurboFilter(paFilter);
+
+		logger.info("Hello {}", "World");
+		verify(appender).doAppend(eventOfType(false));
+
+		logger.info("Hello {blind}", "World");
+		verify(appender).doAppend(eventOfType(true));
+
+		logger.debug("Hello {}", "World");
+		verify(appender, org.mockito.Mockito.times(2)).doAppend(any(ILoggingEvent.class));
+
+		Assert.assertSame(paFilter.sanitizers, lc.getObject(PrivacyAwareTurboFilter.SANITIZER_FACTORIES_KEY));
+	}
+
+	@Test
+	public void testNoBypass() {
+		paFilter.setBypassUntaggedFormats(false);
+		paFilter.start();
+		lc.addTurboFilter(paFilter);
+
+		logger.info("Hello {}", "World");
+		verify(appender).doAppend(eventOfType(true));
+	}
+}
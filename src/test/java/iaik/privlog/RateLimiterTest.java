@@ -0,0 +1,220 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class RateLimiterTest {
+
+	protected static class CountingSanitizerFactory extends BlindingSanitizerFactory {
+		protected int created;
+
+		@Override
+		public BlindingSanitizer create(int tagId, Object parameter, int start, int startOriginal, int endOriginal) {
+			++created;
+			return super.create(tagId, parameter, start, startOriginal, endOriginal);
+		}
+	}
+
+	protected LoggerContext lc;
+	protected Logger logger;
+	protected CountingSanitizerFactory factory;
+	protected RateLimiter rateLimiter;
+	protected ListAppender<ILoggingEvent> appender;
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		factory = new CountingSanitizerFactory();
+		factory.setDigest("SHA-256");
+
+		rateLimiter = new RateLimiter();
+		rateLimiter.setRate(1.0 / 3600);
+		rateLimiter.setBurst(2);
+
+		appender = new ListAppender<ILoggingEvent>();
+		appender.setContext(lc);
+		appender.start();
+		logger = lc.getLogger(getClass());
+		logger.addAppender(appender);
+		logger.setAdditive(false);
+	}
+
+	protected void start() {
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", factory);
+
+		PrivacyAwareTurboFilter paFilter = new PrivacyAwareTurboFilter();
+		paFilter.setContext(lc);
+		paFilter.setSanitizerFactories(sanitizers);
+		paFilter.setRateLimiter(rateLimiter);
+		paFilter.start();
+		lc.addTurboFilter(paFilter);
+	}
+
+	@Test
+	public void testDrop() {
+		start();
+		for (int i = 0; i < 10; ++i) {
+			logger.info("Hello {blind}", "World");
+			logger.info("Bye {blind}", "World");
+		}
+
+		Assert.assertEquals(4, appender.list.size());
+		Assert.assertEquals(4, factory.created);
+	}
+
+	@Test
+	public void testSample() {
+		rateLimiter.setAction(RateLimiter.Action.SAMPLE);
+		rateLimiter.setSampleEvery(4);
+		start();
+		for (int i = 0; i < 10; ++i) {
+			logger.info("Hello {blind}", "World");
+		}
+
+		Assert.assertEquals(4, appender.list.size());
+		Assert.assertEquals(4, factory.created);
+	}
+
+	@Test
+	public void testMask() {
+		rateLimiter.setAction(RateLimiter.Action.MASK);
+		start();
+		for (int i = 0; i < 5; ++i) {
+			logger.info("Hello {blind} {unconfigured} {}", new Object[] { "World", "!", i });
+		}
+
+		Assert.assertEquals(5, appender.list.size());
+		Assert.assertEquals(2, factory.created);
+		for (int i = 0; i < 5; ++i) {
+			PrivacyAwareLoggingEvent event = (PrivacyAwareLoggingEvent) appender.list.get(i);
+			if (i < 2) {
+				Assert.assertNotEquals("Hello ***** {unconfigured} " + i, event.getFormattedMessage());
+			} else {
+				Assert.assertEquals("Hello ***** {unconfigured} " + i, event.getFormattedMessage());
+				Assert.assertEquals("Hello ***** {unconfigured} " + i, event.getFullyDisclosedFormattedMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testKeys() {
+		rateLimiter.setKeyByLevel(true);
+		rateLimiter.setKeyByLogger(true);
+		start();
+		Logger other = lc.getLogger("other");
+		other.addAppender(appender);
+		other.setAdditive(false);
+		for (int i = 0; i < 5; ++i) {
+			logger.info("Hello {blind}", "World");
+			logger.warn("Hello {blind}", "World");
+			other.info("Hello {blind}", "World");
+		}
+
+		Assert.assertEquals(6, appender.list.size());
+	}
+
+	@Test
+	public void testSummary() {
+		start();
+		Logger summaryLogger = lc.getLogger(RateLimiter.SUMMARY_LOGGER);
+		summaryLogger.addAppender(appender);
+		summaryLogger.setAdditive(false);
+
+		for (int i = 0; i < 5; ++i) {
+			logger.info("Hello {blind}", "World");
+		}
+		Assert.assertEquals(2, appender.list.size());
+
+		long due = System.nanoTime() + TimeUnit.SECONDS.toNanos(RateLimiter.DEFAULT_SUMMARY_INTERVAL);
+		rateLimiter.summarize(due);
+		Assert.assertEquals(3, appender.list.size());
+		ILoggingEvent summary = appender.list.get(2);
+		Assert.assertEquals(Level.WARN, summary.getLevel());
+		Assert.assertEquals("Rate limit exceeded, 3 events dropped for format [Hello {blind}]",
+		    summary.getFormattedMessage());
+
+		rateLimiter.summarize(due);
+		Assert.assertEquals(3, appender.list.size());
+	}
+
+	/**
+	 * @return Formats of the given number which share a set of the cache.
+	 */
+	protected String[] collidingFormats(int count) {
+		String[] formats = new String[count];
+		formats[0] = "Hello {blind} 0";
+		int set = RateLimiter.set(formats[0], null, null);
+		for (int i = 1, found = 1; found < count; ++i) {
+			String format = "Hello {blind} " + i;
+			if (RateLimiter.set(format, null, null) == set) {
+				formats[found++] = format;
+			}
+		}
+		return formats;
+	}
+
+	@Test
+	public void testCollidingFormats() {
+		start();
+		String[] formats = collidingFormats(2);
+		for (int i = 0; i < 10; ++i) {
+			logger.info(formats[0], "World");
+			logger.info(formats[1], "World");
+		}
+
+		Assert.assertEquals(4, appender.list.size());
+		Assert.assertEquals(4, factory.created);
+	}
+
+	@Test
+	public void testEvictedSummary() {
+		start();
+		Logger summaryLogger = lc.getLogger(RateLimiter.SUMMARY_LOGGER);
+		summaryLogger.addAppender(appender);
+		summaryLogger.setAdditive(false);
+
+		String[] formats = collidingFormats(RateLimiter.WAYS + 1);
+		for (String format : formats) {
+			for (int i = 0; i < 3; ++i) {
+				logger.info(format, "World");
+			}
+		}
+		Assert.assertEquals(2 * formats.length, appender.list.size());
+
+		rateLimiter.summarize(System.nanoTime() + TimeUnit.SECONDS.toNanos(RateLimiter.DEFAULT_SUMMARY_INTERVAL));
+		long suppressed = 0;
+		for (ILoggingEvent summary : appender.list.subList(2 * formats.length, appender.list.size())) {
+			suppressed += (Long) summary.getArgumentArray()[0];
+		}
+		Assert.assertEquals(formats.length, suppressed);
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.net.URL;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.util.Loader;
+import iaik.privlog.joran.PrivacyAwareJoranConfigurator;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class SanitizerProfileJoranTest {
+
+	protected LoggerContext lc;
+	protected ListAppender<ILoggingEvent> list;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void before()
+	    throws Exception
+	{
+		lc = new LoggerContext();
+		PrivacyAwareJoranConfigurator jc = new PrivacyAwareJoranConfigurator();
+		jc.setContext(lc);
+		URL configFile = Loader.getResourceBySelfClassLoader("iaik/privlog/configProfiles.xml");
+		jc.doConfigure(configFile);
+
+		list = (ListAppender<ILoggingEvent>) lc.getLogger(Logger.ROOT_LOGGER_NAME).getAppender("LIST");
+	}
+
+	protected String last() {
+		return list.list.get(list.list.size() - 1).getFormattedMessage();
+	}
+
+	@Test
+	public void testProfileSelection() {
+		Logger app = lc.getLogger("iaik.privlog.app");
+		Logger ops = lc.getLogger("iaik.privlog.ops.Service");
+		Logger opsLike = lc.getLogger("iaik.privlog.opsLike");
+		Marker audit = MarkerFactory.getDetachedMarker("AUDIT");
+		Marker nested = MarkerFactory.getDetachedMarker("NESTED");
+		nested.add(audit);
+
+		app.info("Login {user}", "alice");
+		Assert.assertEquals("Login " + BlindingSanitizerFactory.BLINDING_MASK, last());
+
+		app.info(audit, "Login {user}", "alice");
+		Assert.assertEquals("Login [user]", last());
+
+		app.info(nested, "Login {user}", "alice");
+		Assert.assertEquals("Login [user]", last());
+
+		ops.info("Login {user}", "alice");
+		Assert.assertEquals("Login alice", last());
+
+		// Markers take precedence over logger prefixes
+		ops.info(audit, "Login {user}", "alice");
+		Assert.assertEquals("Login [user]", last());
+
+		opsLike.info("Login {user}", "alice");
+		Assert.assertEquals("Login " + BlindingSanitizerFactory.BLINDING_MASK, last());
+	}
+
+	@Test
+	public void testResolutionIsCached() {
+		PrivacyAwareTurboFilter filter = (PrivacyAwareTurboFilter) lc.getTurboFilterList().get(0);
+		SanitizerProfiles profiles = filter.getSanitizerProfiles();
+		Logger app = lc.getLogger("iaik.privlog.app");
+		Marker audit = MarkerFactory.getDetachedMarker("AUDIT");
+
+		Assert.assertSame(profiles.get("audit").getSanitizerFactories(), profiles.resolve(audit, app));
+		Assert.assertSame(profiles.resolve(audit, app), profiles.resolve(audit, app));
+		Assert.assertSame(filter.sanitizers, profiles.resolve(null, app));
+		Assert.assertSame(profiles.get("operations").getSanitizerFactories(),
+		    profiles.resolve(null, lc.getLogger("iaik.privlog.ops")));
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import iaik.privlog.concurrent.InstancePool;
+import iaik.privlog.concurrent.VirtualThreads;
+import iaik.privlog.encoders.PrivacyAwarePatternLayoutEncoder;
+import iaik.privlog.index.BlindIndex;
+import iaik.privlog.sanitizers.SymEncSanitizerFactory;
+import iaik.privlog.sanitizers.TokenizingSanitizerFactory;
+
+/**
+ * Logs from thousands of virtual threads through the whole sanitization path.
+ * With <code>-Djdk.tracePinnedThreads</code> (see the <code>jdk21</code>
+ * profile) the runtime prints the stack trace of every virtual thread blocking
+ * while pinned to its carrier, e.g., while holding a monitor. Skipped on
+ * runtimes without virtual threads.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class VirtualThreadPinningTest {
+
+	protected static final int THREADS = 5000;
+	protected static final int EVENTS = 4;
+	protected static final String KEY = "MDEyMzQ1Njc4OWFiY2RlZg==";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected LoggerContext lc;
+
+	@BeforeClass
+	public static void beforeClass() {
+		if (System.getProperty("jdk.tracePinnedThreads") == null) {
+			// Effective if no virtual thread has been started yet
+			System.setProperty("jdk.tracePinnedThreads", "short");
+		}
+	}
+
+	@After
+	public void after() {
+		if (lc != null) {
+			lc.stop();
+		}
+	}
+
+	@Test
+	public void testPlatformThread() {
+		Assert.assertFalse(VirtualThreads.isCurrentThreadVirtual());
+
+		InstancePool<StringBuilder> pool = new InstancePool<StringBuilder>() {
+
+			@Override
+			protected StringBuilder create() {
+				return new StringBuilder();
+			}
+		};
+		StringBuilder sb = pool.acquire();
+		pool.release(sb);
+		Assert.assertSame(sb, pool.acquire());
+	}
+
+	@Test
+	public void testNoPinning()
+	    throws Exception
+	{
+		Assume.assumeTrue(VirtualThreads.isSupported());
+
+		lc = new LoggerContext();
+		BlindIndex blindIndex = new BlindIndex();
+		blindIndex.setContext(lc);
+		blindIndex.setKey(KEY);
+		blindIndex.start();
+
+		SymEncSanitizerFactory symFactory = new SymEncSanitizerFactory();
+		symFactory.setContext(lc);
+		symFactory.setKeyInfoOutputSream(new ByteArrayOutputStream());
+		symFactory.setAlgorithm("AES/CTR/NoPadding");
+		symFactory.setBlindIndex(blindIndex);
+		symFactory.start();
+
+		TokenizingSanitizerFactory tokenizing = new TokenizingSanitizerFactory();
+		tokenizing.setContext(lc);
+		tokenizing.setFile(new File(folder.getRoot(), "tokens").getPath());
+		tokenizing.setKey(KEY);
+		tokenizing.start();
+
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrivacyAwarePatternLayoutEncoder encoder = new PrivacyAwarePatternLayoutEncoder();
+		encoder.setContext(lc);
+		encoder.setCharset(Charset.forName("UTF-8"));
+		encoder.setPattern("%digest(%msg){base64=true}%n");
+		encoder.start();
+
+		OutputStreamAppender<ILoggingEvent> out = new OutputStreamAppender<ILoggingEvent>();
+		out.setContext(lc);
+		out.setEncoder(encoder);
+		out.setOutputStream(log);
+		out.start();
+
+		PrivacyAwareAppender paAppender = new PrivacyAwareAppender();
+		paAppender.setContext(lc);
+		paAppender.addSanitizerFactory("sym", symFactory);
+		paAppender.addSanitizerFactory("tok", tokenizing);
+		paAppender.addAppender(out);
+		paAppender.start();
+
+		final Logger logger = lc.getLogger(getClass());
+		logger.addAppender(paAppender);
+		logger.setAdditive(false);
+
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(trace, true));
+		try {
+			ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+			    .invoke(null);
+			for (int i = 0; i < THREADS; ++i) {
+				final int id = i;
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						for (int j = 0; j < EVENTS; ++j) {
+							logger.info("User {tok} sent {sym} ({})", new Object[] { "user" + (id % 100), "secret" + j, id });
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+		} finally {
+			System.setOut(stdout);
+		}
+
+		String pinned = trace.toString();
+		Assert.assertFalse(pinned, pinned.contains("<== monitors"));
+		String[] lines = log.toString("UTF-8").split("\n");
+		Assert.assertEquals(THREADS * EVENTS, lines.length);
+		Assert.assertEquals(100, tokenizing.getVault().size());
+	}
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.appenders;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.status.Status;
+import ch.qos.logback.core.util.Duration;
+import iaik.privlog.metrics.HistogramMetricsCollector;
+import iaik.privlog.metrics.Metrics;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class GroupCommitFileAppenderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected LoggerContext lc;
+	protected File file;
+	protected GroupCommitFileAppender<ILoggingEvent> appender;
+
+	@Before
+	public void before()
+	    throws IOException
+	{
+		lc = new LoggerContext();
+		file = new File(folder.getRoot(), "test.log");
+
+		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(lc);
+		encoder.setPattern("%msg%n");
+		encoder.setImmediateFlush(false);
+		encoder.start();
+
+		appender = new GroupCommitFileAppender<ILoggingEvent>();
+		appender.setContext(lc);
+		appender.setName("test");
+		appender.setFile(file.getPath());
+		appender.setEncoder(encoder);
+	}
+
+	@After
+	public void after() {
+		appender.stop();
+		Metrics.disable();
+	}
+
+	protected void log(String message) {
+		appender.doAppend(new LoggingEvent("fqcn", lc.getLogger("test"), Level.INFO, message, null, null));
+	}
+
+	protected int lines()
+	    throws IOException
+	{
+		return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size();
+	}
+
+	protected void awaitLines(int expected)
+	    throws IOException, InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+		while (lines() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(expected, lines());
+	}
+
+	@Test
+	public void testWaitForCommit()
+	    throws Exception
+	{
+		HistogramMetricsCollector collector = Metrics.enable();
+		appender.setWaitForCommit(true);
+		appender.setMaxBatchDelay(Duration.buildByHours(1));
+		appender.start();
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			final int id = t;
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < 250; ++i) {
+						log("Thread " + id + " message " + i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// All events are committed before the logging threads return
+		Assert.assertEquals(1000, lines());
+		Assert.assertEquals(1000, collector.getHistogram("batch/test").getTotal());
+		Assert.assertEquals(collector.getCount("batch/test"), collector.getCount("commit/test"));
+	}
+
+	@Test
+	public void testMaxBatchSize()
+	    throws Exception
+	{
+		appender.setMaxBatchSize(10);
+		appender.setMaxBatchDelay(Duration.buildByHours(1));
+		appender.start();
+
+		for (int i = 0; i < 9; ++i) {
+			log("Message " + i);
+		}
+		Thread.sleep(100);
+		Assert.assertEquals(0, lines());
+
+		log("Message 9");
+		awaitLines(10);
+
+		for (int i = 10; i < 15; ++i) {
+			log("Message " + i);
+		}
+		appender.stop();
+		Assert.assertEquals(15, lines());
+	}
+
+	@Test
+	public void testMaxBatchDelay()
+	    throws Exception
+	{
+		appender.setMaxBatchDelay(Duration.buildByMilliseconds(20));
+		appender.start();
+
+		for (int i = 0; i < 3; ++i) {
+			log("Message " + i);
+		}
+		awaitLines(3);
+	}
+
+	@Test
+	public void testInterruptedWaitForCommit()
+	    throws Exception
+	{
+		GroupCommitFileAppender<ILoggingEvent> slow = new GroupCommitFileAppender<ILoggingEvent>() {
+
+			@Override
+			protected void force(FileChannel channel)
+			    throws IOException
+			{
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.force(channel);
+			}
+		};
+		slow.setContext(lc);
+		slow.setName("test");
+		slow.setFile(file.getPath());
+		slow.setEncoder(appender.getEncoder());
+		slow.setWaitForCommit(true);
+		slow.setMaxBatchDelay(Duration.buildByHours(1));
+		appender = slow;
+		appender.start();
+
+		// An interrupted thread still returns only after its event is durable
+		Thread.currentThread().interrupt();
+		log("Message 0");
+		Assert.assertTrue(Thread.interrupted());
+		Assert.assertEquals(1, appender.committed);
+		Assert.assertTrue(appender.isStarted());
+	}
+
+	@Test
+	public void testFailedCommit()
+	    throws Exception
+	{
+		GroupCommitFileAppender<ILoggingEvent> failing = new GroupCommitFileAppender<ILoggingEvent>() {
+
+			@Override
+			protected void force(FileChannel channel)
+			    throws IOException
+			{
+				throw new IOException("Disk failure");
+			}
+		};
+		failing.setContext(lc);
+		failing.setName("test");
+		failing.setFile(file.getPath());
+		failing.setEncoder(appender.getEncoder());
+		failing.setWaitForCommit(true);
+		appender = failing;
+		appender.start();
+
+		// The waiting thread is released, but not told the event is durable
+		log("Message 0");
+		Assert.assertEquals(0, appender.committed);
+		Assert.assertFalse(appender.isStarted());
+
+		boolean reported = false;
+		for (Status status : lc.getStatusManager().getCopyOfStatusList()) {
+			reported |= status.getLevel() == Status.ERROR && status.getThrowable() != null
+			    && status.getThrowable().getMessage().startsWith("Failed to commit file");
+		}
+		Assert.assertTrue(reported);
+
+		log("Message 1");
+		Assert.assertEquals(1, lines());
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.helpers.MessageFormatter;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import iaik.privlog.MessageSegments;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * Measures rendering the sanitized and the fully disclosed message of events
+ * with several parameters, once with two separate passes and once with a
+ * single pass over the segmented template. Run with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=iaik.privlog.benchmarks.DualRenderingBenchmark</code>.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DualRenderingBenchmark {
+
+	protected static final String FORMAT = "User {blind} ({blind}) logged in from {} via {} after {} attempts, session {blind}";
+
+	@Param({ "false", "true" })
+	public boolean renderBoth;
+
+	protected ParamSanitizerFactories sanitizers;
+	protected Logger logger;
+	protected Object[] params;
+
+	protected String pattern;
+	protected MessageSegments segments;
+	protected Object[] sanitizedArgs;
+	protected Object[] criticalArgs;
+
+	@Setup
+	public void setup() {
+		LoggerContext lc = new LoggerContext();
+		if (renderBoth) {
+			PrivacyAwareLoggingEvent.RenderBoth.get(lc).enable();
+		}
+		logger = lc.getLogger("benchmark");
+		params = new Object[] { "alice", "alice@example.com", "10.0.0.1", "ssh", 3, "4f2a9c" };
+
+		sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, "benchmark", logger, Level.INFO,
+		    FORMAT, null, params);
+		pattern = event.getMessage();
+		segments = MessageSegments.parse(pattern);
+		sanitizedArgs = new Object[] { "[blind]", "[blind]", "10.0.0.1", "ssh", 3, "[blind]" };
+		criticalArgs = params.clone();
+	}
+
+	/**
+	 * Both messages of an event, rendered according to {@link #renderBoth}.
+	 */
+	@Benchmark
+	public void event(Blackhole bh) {
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, "benchmark", logger, Level.INFO,
+		    FORMAT, null, params);
+		bh.consume(event.getFormattedMessage());
+		bh.consume(event.getFullyDisclosedFormattedMessage());
+	}
+
+	/**
+	 * The previous rendering: scanning the template twice.
+	 */
+	@Benchmark
+	public void messageFormatterTwice(Blackhole bh) {
+		bh.consume(MessageFormatter.arrayFormat(pattern, sanitizedArgs).getMessage());
+		bh.consume(MessageFormatter.arrayFormat(pattern, criticalArgs).getMessage());
+	}
+
+	@Benchmark
+	public void segmentsSinglePass(Blackhole bh) {
+		StringBuilder sanitized = new StringBuilder(pattern.length() + 64);
+		StringBuilder critical = new StringBuilder(pattern.length() + 64);
+		segments.format(sanitizedArgs, criticalArgs, sanitized, critical);
+		bh.consume(sanitized.toString());
+		bh.consume(critical.toString());
+	}
+
+	public static void main(String[] args)
+	    throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(DualRenderingBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.Encoder;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.encoders.PrivacyAwareJsonEncoder;
+import iaik.privlog.encoders.PrivacyAwarePatternLayoutEncoder;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * Compares the {@link PrivacyAwareJsonEncoder} with the
+ * {@link PrivacyAwarePatternLayoutEncoder} on the same events. Run with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=iaik.privlog.benchmarks.JsonEncoderBenchmark</code>.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonEncoderBenchmark {
+
+	protected static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+	protected ParamSanitizerFactories sanitizers;
+	protected Logger logger;
+	protected Object[] params;
+	protected Encoder<ILoggingEvent> patternEncoder;
+	protected Encoder<ILoggingEvent> jsonEncoder;
+
+	@Setup
+	public void setup()
+	    throws IOException
+	{
+		LoggerContext lc = new LoggerContext();
+		logger = lc.getLogger("benchmark");
+		params = new Object[] { "alice", "10.0.0.1", 42 };
+
+		sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+
+		PrivacyAwarePatternLayoutEncoder pattern = new PrivacyAwarePatternLayoutEncoder();
+		pattern.setContext(lc);
+		pattern.setPattern("%d{ISO8601} %-5level [%thread] %logger - %msg%n");
+		pattern.init(new NullOutputStream());
+		pattern.start();
+		patternEncoder = pattern;
+
+		PrivacyAwareJsonEncoder json = new PrivacyAwareJsonEncoder();
+		json.setContext(lc);
+		json.init(new NullOutputStream());
+		json.start();
+		jsonEncoder = json;
+	}
+
+	protected PrivacyAwareLoggingEvent event() {
+		return PrivacyAwareLoggingEvent.build(sanitizers, "benchmark", logger, Level.INFO,
+		    "User {blind} logged in from {} after {} attempts", null, params);
+	}
+
+	@Benchmark
+	public void patternLayout()
+	    throws IOException
+	{
+		patternEncoder.doEncode(event());
+	}
+
+	@Benchmark
+	public void json()
+	    throws IOException
+	{
+		jsonEncoder.doEncode(event());
+	}
+
+	public static void main(String[] args)
+	    throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(JsonEncoderBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.metrics.Metrics;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * Measures the overhead of the metrics instrumentation on building and
+ * formatting a privacy aware logging event. Run with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=iaik.privlog.benchmarks.MetricsOverheadBenchmark</code>.
+ *
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean metrics;
+
+	protected ParamSanitizerFactories sanitizers;
+	protected Logger logger;
+	protected Object[] params;
+
+	@Setup
+	public void setup() {
+		LoggerContext lc = new LoggerContext();
+		logger = lc.getLogger("benchmark");
+		params = new Object[] { "Hello", "World" };
+
+		sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+
+		if (metrics) {
+			Metrics.enable();
+		} else {
+			Metrics.disable();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		Metrics.disable();
+	}
+
+	@Benchmark
+	public String buildAndFormat() {
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, "benchmark", logger, Level.INFO,
+		    "This is a {} message with {blind} data", null, params);
+		return event.getFormattedMessage();
+	}
+
+	public static void main(String[] args)
+	    throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(MetricsOverheadBenchmark.class.getSimpleName()).build()).run();
+	}
+}
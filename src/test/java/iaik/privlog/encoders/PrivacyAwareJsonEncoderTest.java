@@ -0,0 +1,136 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.encoders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class PrivacyAwareJsonEncoderTest {
+
+	protected LoggerContext lc;
+	protected Logger logger;
+	protected ParamSanitizerFactories sanitizers;
+	protected PrivacyAwareJsonEncoder encoder;
+	protected ByteArrayOutputStream out;
+
+	@Before
+	public void before()
+	    throws IOException
+	{
+		lc = new LoggerContext();
+		logger = lc.getLogger("json");
+		sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+
+		out = new ByteArrayOutputStream();
+		encoder = new PrivacyAwareJsonEncoder();
+		encoder.setContext(lc);
+		encoder.init(out);
+		encoder.start();
+	}
+
+	protected String encode(LoggingEvent event)
+	    throws IOException
+	{
+		event.setTimeStamp(42);
+		event.setThreadName("main");
+		out.reset();
+		encoder.doEncode(event);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testPrivacyAwareEvent()
+	    throws IOException
+	{
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, "fqcn", logger, Level.INFO,
+		    "User {blind} from {}", null, new Object[] { "alice", "10.0.0.1" });
+		String blinded = event.getParameters().iterator().next().getSanitized();
+
+		Assert.assertEquals("{\"timestamp\":42,\"level\":\"INFO\",\"logger\":\"json\",\"thread\":\"main\","
+		    + "\"template\":\"User {} from {}\",\"message\":\"User " + blinded + " from 10.0.0.1\",\"params\":["
+		    + "{\"tag\":\"blind\",\"sanitized\":\"" + blinded + "\",\"start\":5},"
+		    + "{\"sanitized\":\"10.0.0.1\",\"start\":13}]}\n", encode(event));
+	}
+
+	@Test
+	public void testPlainEventAndEscaping()
+	    throws IOException
+	{
+		LoggingEvent event = new LoggingEvent("fqcn", logger, Level.WARN, "Quote \" back\\slash\ttab \u00e4\u20ac\ud83d\ude00 {}",
+		    null, new Object[] { "\u0001" });
+
+		Assert.assertEquals("{\"timestamp\":42,\"level\":\"WARN\",\"logger\":\"json\",\"thread\":\"main\","
+		    + "\"template\":\"Quote \\\" back\\\\slash\\ttab \u00e4\u20ac\ud83d\ude00 {}\","
+		    + "\"message\":\"Quote \\\" back\\\\slash\\ttab \u00e4\u20ac\ud83d\ude00 \\u0001\",\"params\":[]}\n",
+		    encode(event));
+	}
+
+	@Test
+	public void testPrivacyAwareEventEscaping()
+	    throws IOException
+	{
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, "fqcn", logger, Level.INFO,
+		    "Quote \" {} tab\t{} \u00e4", null, new Object[] { "back\\slash\n", 7 });
+		String json = encode(event);
+
+		Assert.assertTrue(json, json.contains(",\"message\":\"Quote \\\" back\\\\slash\\n tab\\t7 \u00e4\","));
+		Assert.assertTrue(json, json.contains(",\"message\":" + toJson(event.getFormattedMessage()) + ","));
+	}
+
+	protected static String toJson(String s) {
+		Utf8Buffer buffer = new Utf8Buffer();
+		buffer.appendJsonString(s);
+		return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testException()
+	    throws IOException
+	{
+		LoggingEvent event = new LoggingEvent("fqcn", logger, Level.ERROR, "Failed", new IllegalStateException("boom"),
+		    null);
+
+		String json = encode(event);
+		Assert.assertTrue(json, json.contains(",\"exception\":\"java.lang.IllegalStateException: boom"));
+		Assert.assertTrue(json.endsWith("\"}\n"));
+	}
+
+	@Test
+	public void testNumbers() {
+		Utf8Buffer buffer = new Utf8Buffer(1);
+		buffer.append(0).appendByte(' ').append(-17).appendByte(' ').append(Long.MIN_VALUE).appendByte(' ')
+		    .append(Long.MAX_VALUE);
+		Assert.assertEquals("0 -17 " + Long.MIN_VALUE + " " + Long.MAX_VALUE,
+		    new String(buffer.toByteArray(), StandardCharsets.US_ASCII));
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.encoders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class PrivacyAwarePatternLayoutEncoderTest {
+
+	protected LoggerContext lc;
+	protected Logger logger;
+	protected ParamSanitizerFactories sanitizers;
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		logger = lc.getLogger("encoder");
+		sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+	}
+
+	protected String encode(String pattern, boolean directEncoding, ILoggingEvent event)
+	    throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrivacyAwarePatternLayoutEncoder encoder = new PrivacyAwarePatternLayoutEncoder();
+		encoder.setContext(lc);
+		encoder.setPattern(pattern);
+		encoder.setCharset(StandardCharsets.UTF_8);
+		encoder.setDirectEncoding(directEncoding);
+		encoder.start();
+		encoder.init(out);
+		encoder.doEncode(event);
+		return out.toString("UTF-8");
+	}
+
+	protected void assertSameOutput(String pattern, ILoggingEvent event)
+	    throws IOException
+	{
+		String expected = encode(pattern, false, event);
+		Assert.assertEquals(pattern, expected, encode(pattern, true, event));
+	}
+
+	protected PrivacyAwareLoggingEvent build(String format, Throwable throwable, Object... params) {
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, "fqcn", logger, Level.INFO, format,
+		    throwable, params);
+		event.setTimeStamp(1461234567890L);
+		return event;
+	}
+
+	@Test
+	public void testDirectEncoding()
+	    throws IOException
+	{
+		String[] patterns = { "%msg%n", "%-5level %logger - %msg | %cMsg%n", "[%20.20msg] %cMsg", "%replace(%msg){'a', 'b'}",
+		    "%d{ISO8601} [%thread] %msg%n%ex" };
+		ILoggingEvent[] events = {
+		    build("User {blind} from {} (\u00e4\u20ac\ud83d\ude00 {})", null, "alice", "10.0.0.1", 42),
+		    build("Escaped \\{} and {blind} and {} left", null, "alice"),
+		    build("Failed for {blind}", new IllegalStateException("boom"), "alice"),
+		    new LoggingEvent("fqcn", logger, Level.WARN, "Plain {} message", null, new Object[] { "untagged" }) };
+
+		for (String pattern : patterns) {
+			for (ILoggingEvent event : events) {
+				assertSameOutput(pattern, event);
+			}
+		}
+	}
+
+	@Test
+	public void testRenderedMessageIsReused()
+	    throws IOException
+	{
+		PrivacyAwareLoggingEvent event = build("User {blind} from {}", null, "alice", "10.0.0.1");
+		String message = event.getFormattedMessage();
+		Assert.assertEquals(message + "\n", encode("%msg\n", true, event));
+		Assert.assertSame(message, event.getRenderedMessage());
+	}
+}
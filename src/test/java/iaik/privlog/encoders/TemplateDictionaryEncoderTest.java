@@ -0,0 +1,194 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.encoders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.FileAppender;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.dictionary.TemplateDictionaryReader;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class TemplateDictionaryEncoderTest {
+
+	protected static final String PATTERN = "%d{ISO8601} %-5level [%thread] %logger - %msg%n%nopex";
+
+	protected LoggerContext lc;
+	protected ParamSanitizerFactories sanitizers;
+	protected PatternLayout layout;
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+
+		layout = new PatternLayout();
+		layout.setContext(lc);
+		layout.setPattern(PATTERN);
+		layout.start();
+	}
+
+	protected List<ILoggingEvent> events(int count) {
+		List<ILoggingEvent> events = new ArrayList<ILoggingEvent>();
+		Logger[] loggers = { lc.getLogger("a.b.Service"), lc.getLogger("a.b.Repository") };
+		long timestamp = 1461234567890L;
+		for (int i = 0; i < count; ++i) {
+			Logger logger = loggers[i % 2];
+			LoggingEvent event;
+			switch (i % 4) {
+				case 0:
+					event = PrivacyAwareLoggingEvent.build(sanitizers, "fqcn", logger, Level.INFO,
+					    "User {blind} logged in from {} after {} attempts", null, new Object[] { "alice", "10.0.0.1", i });
+					break;
+				case 1:
+					event = PrivacyAwareLoggingEvent.build(sanitizers, "fqcn", logger, Level.DEBUG,
+					    "Loaded {} records for {blind} (\u00e4\u20ac\ud83d\ude00)", null, new Object[] { i, "bob" });
+					break;
+				case 2:
+					event = new LoggingEvent("fqcn", logger, Level.TRACE, "Plain {} message, escaped \\{}", null,
+					    new Object[] { null });
+					break;
+				default:
+					event = new LoggingEvent("fqcn", logger, i % 32 == 3 ? Level.ERROR : Level.WARN, "Failed", i % 32 == 3
+					    ? new IllegalStateException("boom") : null, null);
+			}
+			event.setThreadName(i % 3 == 0 ? "main" : "worker-" + (i % 5));
+			timestamp += i % 7 == 0 ? -3 : 17;
+			event.setTimeStamp(timestamp);
+			events.add(event);
+		}
+		return events;
+	}
+
+	protected String expected(List<ILoggingEvent> events) {
+		StringBuilder sb = new StringBuilder();
+		for (ILoggingEvent event : events) {
+			sb.append(layout.doLayout(event));
+			if (event.getThrowableProxy() != null) {
+				sb.append(ThrowableProxyUtil.asString(event.getThrowableProxy()));
+			}
+		}
+		return sb.toString();
+	}
+
+	protected byte[] encode(TemplateDictionaryEncoder encoder, List<ILoggingEvent> events)
+	    throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.setContext(lc);
+		encoder.init(out);
+		encoder.start();
+		for (ILoggingEvent event : events) {
+			encoder.doEncode(event);
+		}
+		encoder.close();
+		return out.toByteArray();
+	}
+
+	protected String expand(byte[] log)
+	    throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TemplateDictionaryReader reader = new TemplateDictionaryReader(new ByteArrayInputStream(log));
+		reader.expand(layout, new PrintStream(out, true, "UTF-8"));
+		reader.close();
+		return out.toString("UTF-8");
+	}
+
+	@Test
+	public void testAppendedRuns()
+	    throws IOException
+	{
+		File file = File.createTempFile("testAppendedRuns", ".ptd");
+		file.deleteOnExit();
+		List<ILoggingEvent> events = events(40);
+		for (int run = 0; run < 2; ++run) {
+			FileAppender<ILoggingEvent> appender = new FileAppender<ILoggingEvent>();
+			appender.setContext(lc);
+			appender.setFile(file.getPath());
+			appender.setAppend(run > 0);
+			TemplateDictionaryEncoder encoder = new TemplateDictionaryEncoder();
+			encoder.setContext(lc);
+			encoder.start();
+			appender.setEncoder(encoder);
+			appender.start();
+			for (ILoggingEvent event : events.subList(run * 20, run * 20 + 20)) {
+				appender.doAppend(event);
+			}
+			appender.stop();
+		}
+
+		Assert.assertEquals(expected(events), expand(Files.readAllBytes(file.toPath())));
+	}
+
+	@Test
+	public void testRoundTrip()
+	    throws IOException
+	{
+		List<ILoggingEvent> events = events(100);
+		Assert.assertEquals(expected(events), expand(encode(new TemplateDictionaryEncoder(), events)));
+	}
+
+	@Test
+	public void testDictionaryReset()
+	    throws IOException
+	{
+		List<ILoggingEvent> events = events(40);
+		TemplateDictionaryEncoder encoder = new TemplateDictionaryEncoder();
+		encoder.setMaxDictionarySize(2);
+		Assert.assertEquals(expected(events), expand(encode(encoder, events)));
+	}
+
+	@Test
+	public void testSize()
+	    throws IOException
+	{
+		// Stack traces are stored as text in both formats
+		List<ILoggingEvent> events = events(1000);
+		for (Iterator<ILoggingEvent> i = events.iterator(); i.hasNext();) {
+			if (i.next().getThrowableProxy() != null) {
+				i.remove();
+			}
+		}
+		int textSize = expected(events).getBytes("UTF-8").length;
+		int binarySize = encode(new TemplateDictionaryEncoder(), events).length;
+		Assert.assertTrue(textSize + " vs. " + binarySize, binarySize * 4 < textSize);
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.rolling.FixedWindowRollingPolicy;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareTurboFilter;
+import iaik.privlog.encoders.BlindIndexingEncoder;
+import iaik.privlog.encoders.PrivacyAwarePatternLayoutEncoder;
+import iaik.privlog.sanitizers.SymEncSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class BlindIndexTest {
+
+	protected static final String LOG_FILE = "/tmp/testBlindIndex.log";
+	protected static final String ARCHIVED_LOG_FILE = "/tmp/testBlindIndex.1.log";
+	protected static final String QUEUE_INDEX_FILE = "/tmp/testBlindIndexQueue.bidx";
+	protected static final String KEY = Base64.encodeBase64String(new byte[32]);
+
+	protected LoggerContext lc;
+	protected Logger root;
+
+	@Before
+	public void before() {
+		new File(LOG_FILE).delete();
+		new File(LOG_FILE + BlindIndexingEncoder.DEFAULT_INDEX_SUFFIX).delete();
+		new File(ARCHIVED_LOG_FILE).delete();
+		new File(ARCHIVED_LOG_FILE + BlindIndexingEncoder.DEFAULT_INDEX_SUFFIX).delete();
+		new File(QUEUE_INDEX_FILE).delete();
+
+		lc = new LoggerContext();
+		lc.setName("test context");
+
+		SymEncSanitizerFactory symFactory = new SymEncSanitizerFactory();
+		symFactory.setContext(lc);
+		symFactory.setKeyInfoOutputSream(new ByteArrayOutputStream());
+		symFactory.setAlgorithm("AES/CTR/NoPadding");
+		symFactory.setBlindIndex(createBlindIndex());
+		symFactory.start();
+
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("sym", symFactory);
+
+		PrivacyAwareTurboFilter paFilter = new PrivacyAwareTurboFilter();
+		paFilter.setContext(lc);
+		paFilter.setSanitizerFactories(sanitizers);
+		paFilter.start();
+		lc.addTurboFilter(paFilter);
+
+		FileAppender<ILoggingEvent> fileAppender = new FileAppender<ILoggingEvent>();
+		fileAppender.setContext(lc);
+		fileAppender.setAppend(false);
+		fileAppender.setFile(LOG_FILE);
+		fileAppender.setEncoder(createEncoder());
+		fileAppender.start();
+
+		root = lc.getLogger(Logger.ROOT_LOGGER_NAME);
+		root.addAppender(fileAppender);
+	}
+
+	protected BlindIndexingEncoder createEncoder() {
+		PrivacyAwarePatternLayoutEncoder layoutEncoder = new PrivacyAwarePatternLayoutEncoder();
+		layoutEncoder.setPattern("%-5level - %msg%n");
+		layoutEncoder.setContext(lc);
+
+		BlindIndexingEncoder encoder = new BlindIndexingEncoder();
+		encoder.setBaseEncoder(layoutEncoder);
+		encoder.setContext(lc);
+		encoder.setFile(LOG_FILE);
+		encoder.start();
+		return encoder;
+	}
+
+	@After
+	public void after() {
+		lc.stop();
+	}
+
+	protected BlindIndex createBlindIndex() {
+		BlindIndex blindIndex = new BlindIndex();
+		blindIndex.setContext(lc);
+		blindIndex.setKey(KEY);
+		blindIndex.start();
+		return blindIndex;
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		root.info("Order of customer {sym} shipped", "alice");
+		root.info("Order of customer {sym} shipped", "bob");
+		root.info("Customer {sym} complained about {sym}", "carol", "alice");
+		root.info("No customer here");
+		lc.stop();
+
+		BlindIndexSearch search = new BlindIndexSearch(createBlindIndex());
+		File logFile = new File(LOG_FILE);
+		File indexFile = new File(LOG_FILE + BlindIndexingEncoder.DEFAULT_INDEX_SUFFIX);
+
+		List<String> lines = search.findLines(logFile, indexFile, "alice");
+		Assert.assertEquals(2, lines.size());
+		Assert.assertTrue(lines.get(0).startsWith("INFO  - Order of customer {sym:"));
+		Assert.assertTrue(lines.get(1).startsWith("INFO  - Customer {sym:"));
+
+		lines = search.findLines(logFile, indexFile, "bob");
+		Assert.assertEquals(1, lines.size());
+		Assert.assertFalse(lines.get(0).contains("bob"));
+
+		Assert.assertTrue(search.findOffsets(indexFile, "dave").isEmpty());
+	}
+
+	@Test
+	public void testRollover() throws Exception {
+		root.detachAndStopAllAppenders();
+
+		RollingFileAppender<ILoggingEvent> rollingAppender = new RollingFileAppender<ILoggingEvent>();
+		rollingAppender.setContext(lc);
+		rollingAppender.setAppend(false);
+		rollingAppender.setFile(LOG_FILE);
+		rollingAppender.setEncoder(createEncoder());
+
+		FixedWindowRollingPolicy rollingPolicy = new FixedWindowRollingPolicy();
+		rollingPolicy.setContext(lc);
+		rollingPolicy.setFileNamePattern("/tmp/testBlindIndex.%i.log");
+		rollingPolicy.setParent(rollingAppender);
+		rollingPolicy.start();
+
+		SizeBasedTriggeringPolicy<ILoggingEvent> triggeringPolicy = new SizeBasedTriggeringPolicy<ILoggingEvent>();
+		triggeringPolicy.setContext(lc);
+		triggeringPolicy.start();
+
+		rollingAppender.setRollingPolicy(rollingPolicy);
+		rollingAppender.setTriggeringPolicy(triggeringPolicy);
+		rollingAppender.start();
+		root.addAppender(rollingAppender);
+
+		root.info("Order of customer {sym} shipped", "alice");
+		root.info("Order of customer {sym} shipped", "bob");
+		rollingAppender.rollover();
+		root.info("Customer {sym} complained", "alice");
+		lc.stop();
+
+		BlindIndexSearch search = new BlindIndexSearch(createBlindIndex());
+		File archivedLogFile = new File(ARCHIVED_LOG_FILE);
+		File archivedIndexFile = new File(ARCHIVED_LOG_FILE + BlindIndexingEncoder.DEFAULT_INDEX_SUFFIX);
+		File logFile = new File(LOG_FILE);
+		File indexFile = new File(LOG_FILE + BlindIndexingEncoder.DEFAULT_INDEX_SUFFIX);
+
+		List<String> lines = search.findLines(archivedLogFile, archivedIndexFile, "alice");
+		Assert.assertEquals(1, lines.size());
+		Assert.assertTrue(lines.get(0).startsWith("INFO  - Order of customer {sym:"));
+		Assert.assertEquals(1, search.findLines(archivedLogFile, archivedIndexFile, "bob").size());
+
+		lines = search.findLines(logFile, indexFile, "alice");
+		Assert.assertEquals(1, lines.size());
+		Assert.assertTrue(lines.get(0).startsWith("INFO  - Customer {sym:"));
+		Assert.assertTrue(search.findOffsets(indexFile, "bob").isEmpty());
+	}
+
+	@Test
+	public void testFullQueueDropsEntries() throws Exception {
+		final CountDownLatch stalled = new CountDownLatch(1);
+		BlindIndexWriter writer = new BlindIndexWriter() {
+
+			@Override
+			protected void work() {
+				try {
+					stalled.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.work();
+			}
+		};
+		writer.setContext(lc);
+		writer.setAppend(false);
+		writer.setFile(QUEUE_INDEX_FILE);
+		writer.setQueueSize(4);
+		writer.start();
+
+		for (int i = 0; i < 10; ++i) {
+			writer.add(new byte[] { (byte) i }, i);
+		}
+		Assert.assertEquals(6, writer.getDroppedCount());
+
+		stalled.countDown();
+		writer.stop();
+		writer.add(new byte[] { 0 }, 0);
+		Assert.assertEquals(6, writer.getDroppedCount());
+		Assert.assertEquals(BlindIndexWriter.MAGIC.length + 4 * 10,
+		    new File(QUEUE_INDEX_FILE).length());
+	}
+}
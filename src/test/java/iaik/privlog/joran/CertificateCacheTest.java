@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.joran;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.core.util.Loader;
+import iaik.security.provider.IAIK;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class CertificateCacheTest {
+
+	protected static final File CA_CERTIFICATE = new File("src/test/resources/iaik/privlog/joran/action/iaik-ca.cer");
+	protected static final File PEM_CERTIFICATE = new File("src/test/resources/iaik/privlog/joran/action/crath.pem");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void setup() {
+		IAIK.addAsProvider(true);
+	}
+
+	@Test
+	public void testFile()
+	    throws Exception
+	{
+		CertificateCache cache = new CertificateCache();
+		File file = new File(folder.getRoot(), "enc.cer");
+		Files.copy(CA_CERTIFICATE.toPath(), file.toPath());
+
+		X509Certificate certificate = cache.getCertificate(file);
+		Assert.assertSame(certificate, cache.getCertificate(file));
+		Assert.assertEquals(1, cache.getParsedCount());
+
+		long lastModified = file.lastModified();
+		Files.copy(PEM_CERTIFICATE.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		file.setLastModified(lastModified + 2000);
+		X509Certificate replaced = cache.getCertificate(file);
+		Assert.assertNotEquals(certificate.getSubjectDN(), replaced.getSubjectDN());
+		Assert.assertEquals(2, cache.getParsedCount());
+	}
+
+	@Test
+	public void testSharedEncoding()
+	    throws Exception
+	{
+		CertificateCache cache = new CertificateCache();
+		X509Certificate certificate = cache.getCertificate(CA_CERTIFICATE);
+		Assert.assertSame(certificate, cache.getCertificate(Files.readAllBytes(CA_CERTIFICATE.toPath())));
+		Assert.assertSame(certificate, cache.getCertificate(CA_CERTIFICATE.getAbsoluteFile()));
+		Assert.assertEquals(1, cache.getParsedCount());
+	}
+
+	@Test
+	public void testReload()
+	    throws Exception
+	{
+		LoggerContext lc = new LoggerContext();
+		URL configFile = Loader.getResourceBySelfClassLoader("iaik/privlog/joran/action/configX509Certificate7.xml");
+		for (int i = 0; i < 3; ++i) {
+			lc.reset();
+			JoranConfigurator jc = new PrivacyAwareJoranConfigurator();
+			jc.setContext(lc);
+			jc.doConfigure(configFile);
+		}
+		Assert.assertEquals(1, CertificateCache.get(lc).getParsedCount());
+		lc.stop();
+	}
+}
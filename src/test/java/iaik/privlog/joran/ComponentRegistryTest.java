@@ -0,0 +1,161 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.joran;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.LifeCycle;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class ComponentRegistryTest {
+
+	public static class CountingSanitizerFactory extends BlindingSanitizerFactory implements LifeCycle {
+
+		static final AtomicInteger STARTS = new AtomicInteger();
+
+		protected String label;
+		protected boolean started;
+
+		public void setLabel(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public void start() {
+			STARTS.incrementAndGet();
+			started = true;
+		}
+
+		@Override
+		public void stop() {
+			started = false;
+		}
+
+		@Override
+		public boolean isStarted() {
+			return started;
+		}
+	}
+
+	protected static final String SANITIZER = "\t\t<paramSanitizer tagName=\"%s\" class=\""
+	    + CountingSanitizerFactory.class.getName() + "\">\n\t\t\t<label>%s</label>\n\t\t</paramSanitizer>\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected LoggerContext lc;
+	protected File config;
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		config = new File(folder.getRoot(), "logback.xml");
+		CountingSanitizerFactory.STARTS.set(0);
+	}
+
+	@After
+	public void after() {
+		lc.stop();
+	}
+
+	protected void configure(String... tagsAndLabels)
+	    throws Exception
+	{
+		StringBuilder xml = new StringBuilder("<configuration>\n");
+		xml.append("\t<appender name=\"privAppender\" class=\"iaik.privlog.PrivacyAwareAppender\">\n");
+		for (int i = 0; i < tagsAndLabels.length; i += 2) {
+			xml.append(String.format(SANITIZER, tagsAndLabels[i], tagsAndLabels[i + 1]));
+		}
+		xml.append("\t</appender>\n</configuration>\n");
+		Files.write(config.toPath(), xml.toString().getBytes(Charset.forName("UTF-8")));
+
+		// Like a reload triggered by scan="true"
+		lc.reset();
+		PrivacyAwareJoranConfigurator jc = new PrivacyAwareJoranConfigurator();
+		jc.setContext(lc);
+		jc.doConfigure(config);
+	}
+
+	protected List<LifeCycle> getComponents() {
+		return ComponentRegistry.get(lc).getComponents();
+	}
+
+	@Test
+	public void testUnchanged()
+	    throws Exception
+	{
+		configure("a", "x", "b", "y");
+		List<LifeCycle> components = getComponents();
+		Assert.assertEquals(2, CountingSanitizerFactory.STARTS.get());
+
+		configure("a", "x", "b", "y");
+		Assert.assertEquals(2, CountingSanitizerFactory.STARTS.get());
+		Assert.assertEquals(components, getComponents());
+		for (LifeCycle component : components) {
+			Assert.assertTrue(component.isStarted());
+		}
+	}
+
+	@Test
+	public void testChanged()
+	    throws Exception
+	{
+		configure("a", "x", "b", "y");
+		List<LifeCycle> components = getComponents();
+
+		configure("a", "x", "b", "z");
+		Assert.assertEquals(3, CountingSanitizerFactory.STARTS.get());
+		List<LifeCycle> reloaded = getComponents();
+		Assert.assertEquals(2, reloaded.size());
+		Assert.assertSame(components.get(0), reloaded.get(0));
+		Assert.assertTrue(reloaded.get(0).isStarted());
+		Assert.assertNotSame(components.get(1), reloaded.get(1));
+		Assert.assertFalse(components.get(1).isStarted());
+		Assert.assertTrue(reloaded.get(1).isStarted());
+	}
+
+	@Test
+	public void testRemovedAndStopped()
+	    throws Exception
+	{
+		configure("a", "x", "b", "y");
+		List<LifeCycle> components = getComponents();
+
+		configure("a", "x");
+		Assert.assertEquals(1, getComponents().size());
+		Assert.assertTrue(components.get(0).isStarted());
+		Assert.assertFalse(components.get(1).isStarted());
+
+		lc.stop();
+		Assert.assertFalse(components.get(0).isStarted());
+		Assert.assertTrue(getComponents().isEmpty());
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.layouts;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import iaik.privlog.encoders.PrivacyAwarePatternLayoutEncoder;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class DigestChainVerifierTest {
+
+	protected static final String OPTIONS = "algorithm=sha512,base64=true";
+	protected static final String SKIP = "\\d+\\s+\\[[^\\]]*\\] ";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected File file;
+
+	@Before
+	public void before() {
+		file = new File(folder.getRoot(), "test.log");
+	}
+
+	protected void log(String options, int count) {
+		LoggerContext lc = new LoggerContext();
+
+		PrivacyAwarePatternLayoutEncoder encoder = new PrivacyAwarePatternLayoutEncoder();
+		encoder.setContext(lc);
+		encoder.setPattern("%-4relative [%thread] %digest(%-5level - %msg){" + options + "} %n");
+		encoder.setCharset(StandardCharsets.UTF_8);
+		encoder.setOutputPatternAsHeader(true);
+		encoder.start();
+
+		FileAppender<ILoggingEvent> appender = new FileAppender<ILoggingEvent>();
+		appender.setContext(lc);
+		appender.setFile(file.getPath());
+		appender.setEncoder(encoder);
+		appender.start();
+
+		Logger logger = lc.getLogger("test");
+		logger.addAppender(appender);
+		for (int i = 0; i < count; ++i) {
+			if (i % 10 == 3) {
+				logger.warn("Message {}\nspanning two lines", i);
+			} else {
+				logger.info("Message {} (\u00e4\u20ac)", i);
+			}
+		}
+		appender.stop();
+	}
+
+	protected DigestChainVerifier verifier(String options) {
+		DigestChainVerifier verifier = new DigestChainVerifier();
+		verifier.setOptions(options);
+		verifier.setSkip(SKIP);
+		verifier.setSegmentSize(4096);
+		verifier.setThreads(4);
+		return verifier;
+	}
+
+	protected List<String> lines()
+	    throws IOException
+	{
+		return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The index of the first single line entry at or after the given
+	 *         line.
+	 */
+	protected static int entryAt(List<String> lines, int line) {
+		while (!lines.get(line).contains("Message") || !lines.get(line).contains("[digest:")) {
+			++line;
+		}
+		return line;
+	}
+
+	protected static void write(File target, List<String> lines)
+	    throws IOException
+	{
+		OutputStream out = new FileOutputStream(target);
+		if (target.getName().endsWith(".gz")) {
+			out = new GZIPOutputStream(out);
+		}
+		try {
+			for (String line : lines) {
+				out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void testValid()
+	    throws IOException
+	{
+		log(OPTIONS, 2000);
+		DigestChainVerifier.Result result = verifier(OPTIONS).verify(file);
+		Assert.assertTrue(result.toString(), result.isValid());
+		Assert.assertEquals(2000, result.getEntries());
+	}
+
+	@Test
+	public void testHex()
+	    throws IOException
+	{
+		log("", 500);
+		DigestChainVerifier.Result result = verifier("").verify(file);
+		Assert.assertTrue(result.toString(), result.isValid());
+		Assert.assertEquals(500, result.getEntries());
+	}
+
+	@Test
+	public void testContinuedChain()
+	    throws IOException
+	{
+		log(OPTIONS + ",file=" + file.getPath(), 100);
+		log(OPTIONS + ",file=" + file.getPath(), 100);
+		DigestChainVerifier.Result result = verifier(OPTIONS).verify(file);
+		Assert.assertTrue(result.toString(), result.isValid());
+		Assert.assertEquals(200, result.getEntries());
+	}
+
+	@Test
+	public void testTampered()
+	    throws IOException
+	{
+		log(OPTIONS, 2000);
+		List<String> lines = lines();
+		for (int line : new int[] { 1, 1000, 1500 }) {
+			List<String> tampered = new ArrayList<String>(lines);
+			int entry = entryAt(tampered, line);
+			tampered.set(entry, tampered.get(entry).replace("Message", "Massage"));
+			write(file, tampered);
+
+			DigestChainVerifier.Result result = verifier(OPTIONS).verify(file);
+			Assert.assertFalse(result.isValid());
+			Assert.assertEquals("Digest mismatch", result.getReason());
+			Assert.assertEquals(entry + 1, result.getLine());
+		}
+
+		// A removed entry breaks the link of its successor
+		List<String> removed = new ArrayList<String>(lines);
+		int entry = entryAt(removed, 1000);
+		removed.remove(entry);
+		write(file, removed);
+		Assert.assertEquals(entry + 1, verifier(OPTIONS).verify(file).getLine());
+
+		// Appended lines have to carry a digest
+		lines.add("0    [main] INFO  - Appended");
+		write(file, lines);
+		DigestChainVerifier.Result result = verifier(OPTIONS).verify(file);
+		Assert.assertEquals("Entry without digest", result.getReason());
+		Assert.assertEquals(lines.size(), result.getLine());
+	}
+
+	@Test
+	public void testRollover()
+	    throws IOException
+	{
+		log(OPTIONS, 1000);
+		List<String> lines = lines();
+		int split = entryAt(lines, 600);
+		File rolled = new File(folder.getRoot(), "test.1.log.gz");
+		write(rolled, lines.subList(0, split));
+		write(file, lines.subList(split, lines.size()));
+
+		DigestChainVerifier.Result result = verifier(OPTIONS).verify(rolled, file);
+		Assert.assertTrue(result.toString(), result.isValid());
+		Assert.assertEquals(1000, result.getEntries());
+
+		// The chain of the current file continues the rolled over one
+		result = verifier(OPTIONS).verify(file);
+		Assert.assertFalse(result.isValid());
+		Assert.assertEquals(file.getPath(), result.getFile());
+		Assert.assertEquals(1, result.getLine());
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.util.Duration;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareTurboFilter;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class FormatProfilerTest {
+
+	protected LoggerContext lc;
+	protected Logger logger;
+	protected FormatProfiler profiler;
+	protected ListAppender<ILoggingEvent> appender;
+	protected PrivacyAwareTurboFilter paFilter;
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		profiler = new FormatProfiler();
+		profiler.setSampleEvery(1);
+
+		appender = new ListAppender<ILoggingEvent>();
+		appender.setContext(lc);
+		appender.start();
+		logger = lc.getLogger(getClass());
+		logger.addAppender(appender);
+		logger.setAdditive(false);
+	}
+
+	protected void start() {
+		BlindingSanitizerFactory factory = new BlindingSanitizerFactory();
+		factory.setDigest("SHA-256");
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", factory);
+
+		paFilter = new PrivacyAwareTurboFilter();
+		paFilter.setContext(lc);
+		paFilter.setSanitizerFactories(sanitizers);
+		paFilter.setProfiler(profiler);
+		paFilter.start();
+		lc.addTurboFilter(paFilter);
+	}
+
+	@Test
+	public void testAttribution() {
+		start();
+		for (int i = 0; i < 10; ++i) {
+			logger.info("Hello {blind}", "World");
+		}
+		logger.info("Bye {blind}", "World");
+
+		Assert.assertEquals(11, appender.list.size());
+		Assert.assertEquals(11, profiler.getSampledCount());
+
+		List<FormatProfiler.Entry> top = profiler.getTop(10);
+		Assert.assertEquals(2, top.size());
+		FormatProfiler.Entry hello = top.get(0).getFormat().equals("Hello {blind}") ? top.get(0) : top.get(1);
+		Assert.assertEquals(10, hello.getSamples());
+		Assert.assertTrue(hello.getCallSite(), hello.getCallSite().startsWith(getClass().getName() + ".testAttribution("));
+		Assert.assertTrue(hello.getSanitizeNanos() > 0);
+		Assert.assertEquals(0, hello.getErrorNanos());
+		Assert.assertTrue(profiler.getReport().contains("[Hello {blind}] at " + getClass().getName()));
+	}
+
+	@Test
+	public void testSampling() {
+		profiler.setSampleEvery(Integer.MAX_VALUE);
+		start();
+		for (int i = 0; i < 100; ++i) {
+			logger.info("Hello {blind}", "World");
+		}
+
+		Assert.assertEquals(100, appender.list.size());
+		Assert.assertTrue(profiler.getSampledCount() < 2);
+	}
+
+	@Test
+	public void testHeavyHitters() {
+		profiler.setCapacity(4);
+		profiler.start();
+		for (int i = 0; i < 100; ++i) {
+			profiler.record("Expensive {blind}", "site", 1000, 1000, 1000);
+			profiler.record("Rare " + i, "site", 1, 1, 1);
+		}
+
+		List<FormatProfiler.Entry> top = profiler.getTop(1);
+		Assert.assertEquals("Expensive {blind}", top.get(0).getFormat());
+		Assert.assertEquals(100, top.get(0).getSamples());
+		Assert.assertEquals(4, profiler.getTop(10).size());
+	}
+
+	@Test
+	public void testPeriodicReport()
+	    throws InterruptedException
+	{
+		profiler.setReportInterval(Duration.buildByMilliseconds(1));
+		ListAppender<ILoggingEvent> reports = new ListAppender<ILoggingEvent>();
+		reports.setContext(lc);
+		reports.start();
+		Logger reportLogger = lc.getLogger(FormatProfiler.REPORT_LOGGER);
+		reportLogger.addAppender(reports);
+		reportLogger.setAdditive(false);
+
+		start();
+		logger.info("Hello {blind}", "World");
+		Thread.sleep(5);
+		logger.info("Hello {blind}", "World");
+
+		Assert.assertFalse(reports.list.isEmpty());
+		Assert.assertTrue(reports.list.get(0).getFormattedMessage().contains("[Hello {blind}]"));
+	}
+
+	@Test
+	public void testJmx()
+	    throws Exception
+	{
+		profiler.setName("test");
+		start();
+		logger.info("Hello {blind}", "World");
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName on = new ObjectName(FormatProfiler.OBJECT_NAME_PREFIX + ObjectName.quote("test"));
+		Assert.assertEquals(1L, server.getAttribute(on, "SampledCount"));
+		Assert.assertTrue(((String) server.getAttribute(on, "Report")).contains("Hello {blind}"));
+
+		paFilter.stop();
+		Assert.assertFalse(server.isRegistered(on));
+	}
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.metrics;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import iaik.privlog.ParamSanitizerFactories;
+import iaik.privlog.PrivacyAwareLoggingEvent;
+import iaik.privlog.sanitizers.BlindingSanitizerFactory;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class HistogramMetricsCollectorTest {
+
+	@After
+	public void after() {
+		Metrics.disable();
+	}
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1);
+		histogram.record(100);
+		histogram.record(1000);
+
+		Assert.assertEquals(3, histogram.getCount());
+		Assert.assertEquals(1101, histogram.getTotal());
+		Assert.assertEquals(1, histogram.getPercentile(10));
+		Assert.assertEquals(1023, histogram.getPercentile(100));
+
+		histogram.reset();
+		Assert.assertEquals(0, histogram.getCount());
+	}
+
+	@Test
+	public void testDisabledByDefault() {
+		Assert.assertNull(Metrics.getCollector());
+	}
+
+	@Test
+	public void testInstrumentation() {
+		HistogramMetricsCollector collector = Metrics.enable();
+		Assert.assertTrue(collector.isEnabled());
+
+		ParamSanitizerFactories sanitizers = new ParamSanitizerFactories();
+		sanitizers.put("blind", new BlindingSanitizerFactory());
+		LoggerContext lc = new LoggerContext();
+
+		PrivacyAwareLoggingEvent event = PrivacyAwareLoggingEvent.build(sanitizers, "test", lc.getLogger("test"),
+		    Level.INFO, "This is a {} message with {blind} data", null, new Object[] { "Hello", "World" });
+		event.getFormattedMessage();
+
+		Assert.assertEquals(1, collector.getCount("build/test"));
+		Assert.assertEquals(1, collector.getCount("create/blind/test"));
+		Assert.assertEquals(1, collector.getCount("sanitize/blind/test"));
+
+		event = PrivacyAwareLoggingEvent.build(sanitizers, "test", lc.getLogger("other"), Level.INFO,
+		    "Other {blind} data", null, new Object[] { "World" });
+		event.getFormattedMessage();
+
+		Assert.assertEquals(1, collector.getCount("sanitize/blind/test"));
+		Assert.assertEquals(1, collector.getCount("sanitize/blind/other"));
+		Assert.assertEquals(0, collector.getCount("sanitize/blind"));
+		Assert.assertTrue(Arrays.asList(collector.getMetricNames()).contains("create/blind/other"));
+
+		collector.setEnabled(false);
+		Assert.assertNull(Metrics.getCollector());
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class BlindingSanitizerFactoryTest {
+
+	protected static final int THREADS = 8;
+	protected static final int VALUES = 64;
+	protected static final int ROUNDS = 20;
+
+	protected void assertConcurrentlyEqual(final BlindingSanitizerFactory factory)
+	    throws InterruptedException
+	{
+		// Long values are fed to the digest in several chunks
+		final String[] values = new String[VALUES];
+		final String[] expected = new String[VALUES];
+		for (int i = 0; i < VALUES; ++i) {
+			StringBuilder sb = new StringBuilder();
+			while (sb.length() < 20000) {
+				sb.append("value ").append(i).append(' ');
+			}
+			values[i] = sb.toString();
+			expected[i] = factory.create("blind", values[i], 0, 0, 6).getSanitized();
+		}
+
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final CountDownLatch ready = new CountDownLatch(THREADS);
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; ++t) {
+			final int offset = t;
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					ready.countDown();
+					try {
+						ready.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int r = 0; r < ROUNDS; ++r) {
+						for (int i = 0; i < VALUES; ++i) {
+							int index = (i + offset) % VALUES;
+							String sanitized = factory.create("blind", values[index], 0, 0, 6).getSanitized();
+							if (!expected[index].equals(sanitized)) {
+								failure.compareAndSet(null, "Value " + index + " blinded to " + sanitized);
+							}
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertNull(failure.get());
+	}
+
+	@Test
+	public void testConcurrentDigest()
+	    throws Exception
+	{
+		BlindingSanitizerFactory factory = new BlindingSanitizerFactory();
+		factory.setDigest("SHA-256");
+		assertConcurrentlyEqual(factory);
+	}
+
+	@Test
+	public void testConcurrentMac()
+	    throws Exception
+	{
+		BlindingSanitizerFactory factory = new BlindingSanitizerFactory();
+		factory.setMac("HmacSHA256", new SecretKeySpec(new byte[32], "HmacSHA256"));
+		assertConcurrentlyEqual(factory);
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.spi.LifeCycle;
+import ch.qos.logback.core.status.Status;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.Loader;
+import iaik.privlog.PrivacyAwareAppender;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class DeferredStartSanitizerFactoryTest {
+
+	protected static class SlowSanitizerFactory extends BlindingSanitizerFactory implements LifeCycle {
+
+		protected final CountDownLatch gate = new CountDownLatch(1);
+		protected RuntimeException failure;
+		protected volatile boolean started;
+
+		public SlowSanitizerFactory() {
+			setBlindingMask("#####");
+		}
+
+		@Override
+		public void start() {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			started = true;
+		}
+
+		@Override
+		public void stop() {
+			started = false;
+		}
+
+		@Override
+		public boolean isStarted() {
+			return started;
+		}
+	}
+
+	protected LoggerContext lc;
+	protected SlowSanitizerFactory slow;
+	protected DeferredStartSanitizerFactory factory;
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		slow = new SlowSanitizerFactory();
+		factory = new DeferredStartSanitizerFactory(slow);
+		factory.setContext(lc);
+	}
+
+	protected int countErrors() {
+		int errors = 0;
+		for (Status status : lc.getStatusManager().getCopyOfStatusList()) {
+			if (status.getLevel() == Status.ERROR) {
+				++errors;
+			}
+		}
+		return errors;
+	}
+
+	@Test
+	public void testDeferred()
+	    throws Exception
+	{
+		factory.start();
+		Assert.assertFalse(factory.isReady());
+
+		IParamSanitizer deferred = factory.create("blind", "secret", 0, 0, 7);
+		Assert.assertTrue(deferred instanceof DeferredStartSanitizerFactory.DeferredSanitizer);
+
+		slow.gate.countDown();
+		Assert.assertEquals("#####", deferred.getSanitized());
+		Assert.assertEquals("secret", deferred.getCritical());
+		Assert.assertTrue(factory.isReady());
+
+		IParamSanitizer direct = factory.create("blind", "secret", 0, 0, 7);
+		Assert.assertTrue(direct instanceof BlindingSanitizerFactory.BlindingSanitizer);
+		Assert.assertEquals("#####", direct.getSanitized());
+
+		factory.stop();
+		Assert.assertFalse(slow.isStarted());
+		Assert.assertEquals(0, countErrors());
+	}
+
+	@Test
+	public void testFailure() {
+		slow.failure = new IllegalStateException("No key");
+		slow.gate.countDown();
+		factory.start();
+
+		IParamSanitizer sanitizer = factory.create("blind", "secret", 0, 0, 7);
+		Assert.assertEquals(BlindingSanitizerFactory.BLINDING_MASK, sanitizer.getSanitized());
+		Assert.assertEquals("secret", sanitizer.getCritical());
+		Assert.assertFalse(factory.isReady());
+		Assert.assertEquals(1, countErrors());
+	}
+
+	@Test
+	public void testTimeout() {
+		factory.setStartTimeout(Duration.buildByMilliseconds(50));
+		factory.start();
+
+		IParamSanitizer first = factory.create("blind", "secret", 0, 0, 7);
+		Assert.assertEquals(BlindingSanitizerFactory.BLINDING_MASK, first.getSanitized());
+
+		long start = System.nanoTime();
+		IParamSanitizer second = factory.create("blind", "secret", 0, 0, 7);
+		Assert.assertEquals(BlindingSanitizerFactory.BLINDING_MASK, second.getSanitized());
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+		Assert.assertEquals(1, countErrors());
+
+		slow.gate.countDown();
+		factory.stop();
+		Assert.assertFalse(slow.isStarted());
+	}
+
+	@Test
+	public void testDefaultTimeoutIsShort() {
+		factory.start();
+
+		long start = System.nanoTime();
+		IParamSanitizer sanitizer = factory.create("blind", "secret", 0, 0, 7);
+		Assert.assertEquals(BlindingSanitizerFactory.BLINDING_MASK, sanitizer.getSanitized());
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+		slow.gate.countDown();
+		factory.stop();
+	}
+
+	@Test
+	public void testJoran()
+	    throws Exception
+	{
+		JoranConfigurator jc = new JoranConfigurator();
+		jc.setContext(lc);
+		URL configFile = Loader.getResourceBySelfClassLoader("iaik/privlog/sanitizers/configDeferredStart.xml");
+		jc.doConfigure(configFile);
+
+		Logger logger = lc.getLogger(getClass());
+		PrivacyAwareAppender appender = (PrivacyAwareAppender) logger.getAppender("privAppender");
+		ListAppender<ILoggingEvent> list = new ListAppender<ILoggingEvent>();
+		list.setContext(lc);
+		list.start();
+		appender.addAppender(list);
+
+		logger.info("User {id} logged in with {blind}", "alice", "secret");
+		Assert.assertEquals("User alice logged in with *****", list.list.get(0).getFormattedMessage());
+		lc.stop();
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class NonceGeneratorTest {
+
+	protected static final int RESTARTS = 16;
+	protected static final int THREADS = 8;
+	protected static final int NONCES = 2000;
+
+	@Test
+	public void testUniqueness()
+	    throws Exception
+	{
+		final Set<ByteBuffer> seen = Collections.newSetFromMap(new ConcurrentHashMap<ByteBuffer, Boolean>());
+		SecureRandom random = new SecureRandom();
+		for (int restart = 0; restart < RESTARTS; ++restart) {
+			final NonceGenerator nonces = new NonceGenerator(random, NonceGenerator.MIN_NONCE_LENGTH,
+			    NonceGenerator.DEFAULT_LIMIT);
+			final CountDownLatch ready = new CountDownLatch(THREADS);
+			Thread[] threads = new Thread[THREADS];
+			for (int t = 0; t < THREADS; ++t) {
+				threads[t] = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						ready.countDown();
+						try {
+							ready.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						for (int i = 0; i < NONCES; ++i) {
+							seen.add(ByteBuffer.wrap(nonces.nextNonce()));
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Assert.assertEquals(THREADS * NONCES, nonces.getCount());
+		}
+		Assert.assertEquals(RESTARTS * THREADS * NONCES, seen.size());
+	}
+
+	@Test
+	public void testLayout() {
+		byte[] iv = new byte[16];
+		iv[0] = 1;
+		iv[11] = (byte) 0xff;
+		NonceGenerator nonces = new NonceGenerator(iv, NonceGenerator.DEFAULT_LIMIT);
+
+		Assert.assertArrayEquals(iv, nonces.nextNonce());
+		ByteBuffer second = ByteBuffer.wrap(nonces.nextNonce());
+		Assert.assertEquals(0x01000000, second.getInt(0));
+		Assert.assertEquals(0x100, second.getLong(4));
+		Assert.assertEquals(0, second.getInt(12));
+		Assert.assertEquals(2, nonces.next());
+	}
+
+	@Test
+	public void testExhaustion() {
+		NonceGenerator nonces = new NonceGenerator(new SecureRandom(), NonceGenerator.MIN_NONCE_LENGTH, 4);
+		for (int i = 0; i < 3; ++i) {
+			Assert.assertFalse(nonces.isDepleted());
+			Assert.assertEquals(i, nonces.next());
+		}
+		Assert.assertTrue(nonces.isDepleted());
+		Assert.assertNotNull(nonces.nextNonce());
+		Assert.assertTrue(nonces.isExhausted());
+		Assert.assertNull(nonces.nextNonce());
+		Assert.assertEquals(-1, nonces.next());
+		Assert.assertEquals(4, nonces.getCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooShort() {
+		new NonceGenerator(new byte[8], NonceGenerator.DEFAULT_LIMIT);
+	}
+
+	@Test
+	public void testParameterSpec() {
+		Assert.assertTrue(NonceGenerator.createParameterSpec("AES/GCM/NoPadding", new byte[12]) instanceof GCMParameterSpec);
+		Assert.assertTrue(NonceGenerator.createParameterSpec("AES/CTR/NoPadding", new byte[16]) instanceof IvParameterSpec);
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class SymEncSanitizerFactoryTest {
+
+	protected LoggerContext lc;
+	protected ByteArrayOutputStream keyInfo;
+	protected SymEncSanitizerFactory factory;
+
+	@Before
+	public void before() {
+		lc = new LoggerContext();
+		keyInfo = new ByteArrayOutputStream();
+
+		factory = new SymEncSanitizerFactory();
+		factory.setContext(lc);
+		factory.setKeyInfoOutputSream(keyInfo);
+		factory.setAlgorithm("AES/CTR/NoPadding");
+	}
+
+	@After
+	public void after() {
+		factory.stop();
+	}
+
+	protected String sanitize(Object value) {
+		return factory.create("sym", value, 0, 0, 4).getSanitized();
+	}
+
+	@Test
+	public void testNoRotation() {
+		factory.start();
+
+		Assert.assertTrue(sanitize("Hello").startsWith("{sym:"));
+		Assert.assertFalse(sanitize("Hello").matches("\\{sym:" + SymEncSanitizerFactory.KEY_EPOCH_PREFIX + "\\d+:.*"));
+		Assert.assertFalse(keyInfo.toString().contains("Key Epoch"));
+	}
+
+	@Test
+	public void testRotateAfterCount() throws Exception {
+		factory.setRotateAfterCount(5);
+		factory.start();
+
+		Assert.assertTrue(sanitize("Hello").startsWith("{sym:k0:"));
+		for (int i = 0; i < 4; ++i) {
+			sanitize("Hello");
+		}
+
+		for (int i = 0; i < 100 && factory.getCurrentKeyEpoch() == 0; ++i) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, factory.getCurrentKeyEpoch());
+		Assert.assertTrue(sanitize("Hello").startsWith("{sym:k1:"));
+
+		String info = keyInfo.toString();
+		Assert.assertTrue(info.contains("Key Epoch: k0"));
+		Assert.assertTrue(info.contains("Key Epoch: k1"));
+		Assert.assertTrue(info.indexOf("Secret Key: ", info.indexOf("Key Epoch: k1")) > 0);
+	}
+
+	@Test
+	public void testRotateAfterBytes() throws Exception {
+		factory.setRotateAfterBytes(10);
+		factory.start();
+
+		Assert.assertTrue(sanitize("0123456789").startsWith("{sym:k0:"));
+		for (int i = 0; i < 100 && factory.getCurrentKeyEpoch() == 0; ++i) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(sanitize("Hello").startsWith("{sym:k1:"));
+	}
+
+	@Test
+	public void testGcmNonces()
+	    throws Exception
+	{
+		SecretKey key = new SecretKeySpec(new byte[16], "AES");
+		byte[] iv = new byte[NonceGenerator.MIN_NONCE_LENGTH];
+		factory.setAlgorithm("AES/GCM/NoPadding");
+		factory.setSecretKey(key);
+		factory.setIv(iv);
+		factory.setShowSequenceNumber(true);
+		factory.start();
+
+		NonceGenerator nonces = new NonceGenerator(iv, NonceGenerator.DEFAULT_LIMIT);
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		for (int i = 0; i < 3; ++i) {
+			String[] token = sanitize("Hello " + i).replaceAll("[{}]", "").split(":");
+			Assert.assertEquals(String.valueOf(i), token[1]);
+			cipher.init(Cipher.DECRYPT_MODE, key,
+			    NonceGenerator.createParameterSpec("AES/GCM/NoPadding", nonces.nonce(Long.parseLong(token[1]))));
+			Assert.assertEquals("Hello " + i, new String(cipher.doFinal(Base64.decodeBase64(token[2]))));
+		}
+	}
+
+	@Test
+	public void testRotateOnDepletedNonces()
+	    throws Exception
+	{
+		factory.setRotateAfterCount(1000);
+		factory.setNonceLimit(4);
+		factory.start();
+
+		for (int i = 0; i < 3; ++i) {
+			Assert.assertTrue(sanitize("Hello").startsWith("{sym:k0:"));
+		}
+		for (int i = 0; i < 100 && factory.getCurrentKeyEpoch() == 0; ++i) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(sanitize("Hello").startsWith("{sym:k1:"));
+	}
+
+	protected String decrypt(SecretKey key, byte[] iv, long index, String cipherText)
+	    throws Exception
+	{
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(Cipher.DECRYPT_MODE, key,
+		    NonceGenerator.createParameterSpec("AES/GCM/NoPadding", new NonceGenerator(iv, NonceGenerator.DEFAULT_LIMIT)
+		        .nonce(index)));
+		return new String(cipher.doFinal(Base64.decodeBase64(cipherText)), "UTF-8");
+	}
+
+	@Test
+	public void testStreaming()
+	    throws Exception
+	{
+		SecretKey key = new SecretKeySpec(new byte[16], "AES");
+		byte[] iv = new byte[NonceGenerator.MIN_NONCE_LENGTH];
+		factory.setAlgorithm("AES/GCM/NoPadding");
+		factory.setSecretKey(key);
+		factory.setIv(iv);
+		factory.setShowSequenceNumber(true);
+		factory.setStreamingThreshold(100);
+		factory.start();
+
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; large.length() < 3 * EncryptingWriter.DEFAULT_CHUNK_SIZE; ++i) {
+			large.append("Line ").append(i).append(" \u00e4\ud83d\ude00 ");
+		}
+		for (int length : new int[] { 99, 101, 102, 103, large.length() }) {
+			CharSequence value = large.subSequence(0, length);
+			String[] token = sanitize(new StringBuilder(value)).replaceAll("[{}]", "").split(":");
+			Assert.assertEquals(value.toString(), decrypt(key, iv, Long.parseLong(token[1]), token[2]));
+		}
+	}
+
+	@Test
+	public void testTruncation()
+	    throws Exception
+	{
+		SecretKey key = new SecretKeySpec(new byte[16], "AES");
+		byte[] iv = new byte[NonceGenerator.MIN_NONCE_LENGTH];
+		factory.setAlgorithm("AES/GCM/NoPadding");
+		factory.setSecretKey(key);
+		factory.setIv(iv);
+		factory.setMaxParameterLength(10);
+		factory.start();
+
+		String[] token = sanitize("0123456789abc").replaceAll("[{}]", "").split(":");
+		Assert.assertEquals(SymEncSanitizerFactory.TRUNCATED_PREFIX + "3", token[1]);
+		Assert.assertEquals("0123456789", decrypt(key, iv, 0, token[2]));
+		Assert.assertEquals("short", decrypt(key, iv, 1, sanitize("short").replaceAll("[{}]", "").split(":")[1]));
+
+		factory.setTruncation(SymEncSanitizerFactory.Truncation.OMIT);
+		Assert.assertEquals("{sym:" + SymEncSanitizerFactory.OMITTED_MARKER + ":13}", sanitize("0123456789abc"));
+	}
+
+	@Test
+	public void testConcurrentRendering()
+	    throws Exception
+	{
+		final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+		final byte[] iv = new byte[NonceGenerator.MIN_NONCE_LENGTH];
+		factory.setAlgorithm("AES/GCM/NoPadding");
+		factory.setSecretKey(key);
+		factory.setIv(iv);
+		factory.setShowSequenceNumber(true);
+		factory.setRotateAfterCount(Long.MAX_VALUE);
+		factory.start();
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int i = 0; i < 200; ++i) {
+				final IParamSanitizer sanitizer = factory.create("sym", "Hello " + i, 0, 0, 4);
+				final CountDownLatch ready = new CountDownLatch(1);
+				List<Future<String>> tokens = new ArrayList<Future<String>>();
+				for (int t = 0; t < 4; ++t) {
+					tokens.add(executor.submit(new Callable<String>() {
+
+						@Override
+						public String call()
+						    throws Exception
+						{
+							ready.await();
+							return sanitizer.getSanitized();
+						}
+					}));
+				}
+				ready.countDown();
+				for (Future<String> token : tokens) {
+					String[] parts = token.get().replaceAll("[{}]", "").split(":");
+					Assert.assertEquals("Hello " + i, decrypt(key, iv, Long.parseLong(parts[2]), parts[3]));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRekeyOnExhaustedNonces() {
+		factory.setNonceLimit(4);
+		factory.start();
+
+		for (int i = 0; i < 4; ++i) {
+			// No key epoch, i.e., only identifier and cipher text
+			Assert.assertEquals(2, sanitize("Hello").split(":").length);
+		}
+		Assert.assertFalse(keyInfo.toString().contains("Key Epoch"));
+
+		for (int i = 0; i < 4; ++i) {
+			Assert.assertTrue(sanitize("Hello").startsWith("{sym:k1:"));
+		}
+		Assert.assertTrue(sanitize("Hello").startsWith("{sym:k2:"));
+		Assert.assertEquals(2, factory.getCurrentKeyEpoch());
+		Assert.assertTrue(keyInfo.toString().contains("Key Epoch: k1"));
+	}
+}
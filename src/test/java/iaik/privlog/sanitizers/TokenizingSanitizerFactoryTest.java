@@ -0,0 +1,166 @@
+/**
+ * Copyright 2016 Christof Rath <christof.rath@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package iaik.privlog.sanitizers;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * @author Christof Rath <christof.rath@iaik.tugraz.at>
+ */
+public class TokenizingSanitizerFactoryTest {
+
+	protected static final String KEY = "MDEyMzQ1Njc4OWFiY2RlZg==";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected LoggerContext lc;
+	protected File file;
+	protected TokenizingSanitizerFactory factory;
+
+	@Before
+	public void before()
+	    throws Exception
+	{
+		lc = new LoggerContext();
+		file = new File(folder.getRoot(), "tokens");
+		factory = newFactory(KEY);
+	}
+
+	@After
+	public void after() {
+		factory.stop();
+	}
+
+	protected TokenizingSanitizerFactory newFactory(String key) {
+		TokenizingSanitizerFactory tokenizing = new TokenizingSanitizerFactory();
+		tokenizing.setContext(lc);
+		tokenizing.setFile(file.getPath());
+		tokenizing.setKey(key);
+		tokenizing.setCapacity(64);
+		return tokenizing;
+	}
+
+	protected String sanitize(Object value) {
+		return factory.create("tok", value, 0, 0, 4).getSanitized();
+	}
+
+	@Test
+	public void testTokenize()
+	    throws Exception
+	{
+		factory.start();
+
+		String token = sanitize("alice@example.com");
+		Assert.assertTrue(token, token.matches("\\{tok:[A-Za-z0-9_-]{11}\\}"));
+		Assert.assertEquals(token, sanitize("alice@example.com"));
+		Assert.assertNotEquals(token, sanitize("bob@example.com"));
+		Assert.assertEquals(2, factory.getVault().size());
+
+		Assert.assertEquals("alice@example.com", factory.detokenize(token));
+		Assert.assertEquals("bob@example.com", factory.detokenize(sanitize("bob@example.com")));
+		Assert.assertNull(factory.detokenize("{tok:AAAAAAAAAAA}"));
+		Assert.assertNull(factory.detokenize("{tok:" + TokenVault.encode(TokenVault.decode(token.substring(5, 16))
+		    ^ (1L << 40)) + "}"));
+
+		byte[] stored = Files.readAllBytes(new File(file.getPath() + TokenVault.VALUES_SUFFIX).toPath());
+		Assert.assertFalse(new String(stored, Charset.forName("ISO-8859-1")).contains("alice"));
+	}
+
+	@Test
+	public void testReopen()
+	    throws Exception
+	{
+		factory.start();
+		String token = sanitize("alice@example.com");
+		factory.stop();
+
+		factory = newFactory(KEY);
+		factory.start();
+		Assert.assertEquals(1, factory.getVault().size());
+		Assert.assertEquals(token, sanitize("alice@example.com"));
+		Assert.assertEquals("alice@example.com", factory.detokenize(token));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testWrongKey() {
+		factory.start();
+		sanitize("alice@example.com");
+		factory.stop();
+
+		factory = newFactory("ZmVkY2JhOTg3NjU0MzIxMA==");
+		factory.start();
+	}
+
+	@Test
+	public void testFull() {
+		factory.start();
+		for (int i = 0; i < 48; ++i) {
+			Assert.assertTrue(sanitize("value" + i).startsWith("{tok:"));
+		}
+		Assert.assertEquals(BlindingSanitizerFactory.BLINDING_MASK, sanitize("value48"));
+		Assert.assertTrue(sanitize("value0").startsWith("{tok:"));
+	}
+
+	@Test
+	public void testConcurrent()
+	    throws Exception
+	{
+		factory.setCapacity(1 << 12);
+		factory.start();
+
+		final ConcurrentMap<String, String> tokens = new ConcurrentHashMap<String, String>();
+		final AssertionError[] failure = new AssertionError[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; ++i) {
+						String value = "value" + i;
+						String token = sanitize(value);
+						String prev = tokens.putIfAbsent(value, token);
+						if (prev != null && !prev.equals(token)) {
+							failure[0] = new AssertionError("Different tokens for " + value);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertNull(failure[0]);
+		Assert.assertEquals(1000, factory.getVault().size());
+		Assert.assertEquals("value42", factory.detokenize(tokens.get("value42")));
+	}
+}